@@ -19,6 +19,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 
+import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.NetworkCacheImpl;
+import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.matrix.DistanceMatrixCacheImpl;
 import edu.ucsf.rbvi.clusterMaker2.internal.api.*;
 import edu.ucsf.rbvi.clusterMaker2.internal.ui.RankingPanel;
 import org.cytoscape.application.CyApplicationManager;
@@ -31,6 +33,11 @@ import org.cytoscape.model.CyNetwork;
 import org.cytoscape.model.CyNode;
 import org.cytoscape.model.CyTableFactory;
 import org.cytoscape.model.CyTableManager;
+import org.cytoscape.model.events.AddedEdgesListener;
+import org.cytoscape.model.events.AddedNodesListener;
+import org.cytoscape.model.events.NetworkAboutToBeDestroyedListener;
+import org.cytoscape.model.events.RemovedEdgesListener;
+import org.cytoscape.model.events.RemovedNodesListener;
 import org.cytoscape.model.events.RowsSetListener;
 import org.cytoscape.model.subnetwork.CyRootNetwork;
 import org.cytoscape.model.subnetwork.CySubNetwork;
@@ -62,6 +69,8 @@ public class ClusterManagerImpl implements ClusterManager {
 	double rankingIndex = 1.0;
 	Map<CyNetwork, List<ResultsPanel>> resultsPanelMap;
 	Map<CyNetwork, List<RankingPanel>> rankingPanelMap;
+	DistanceMatrixCacheImpl distanceMatrixCache;
+	NetworkCacheImpl networkCache;
 
 	public ClusterManagerImpl(CyApplicationManager appMgr, CyServiceRegistrar serviceRegistrar,
  	                          CyGroupFactory groupFactory, CyGroupManager groupMgr, 
@@ -78,6 +87,15 @@ public class ClusterManagerImpl implements ClusterManager {
 		this.tableFactory = tableFactory;
 		this.tableManager = tableManager;
 		this.linkedNetworks = new HashMap<CyRootNetwork, NetworkSelectionLinker>();
+		this.distanceMatrixCache = new DistanceMatrixCacheImpl();
+		serviceRegistrar.registerService(distanceMatrixCache, RowsSetListener.class, new Properties());
+		this.networkCache = new NetworkCacheImpl();
+		serviceRegistrar.registerService(networkCache, AddedNodesListener.class, new Properties());
+		serviceRegistrar.registerService(networkCache, AddedEdgesListener.class, new Properties());
+		serviceRegistrar.registerService(networkCache, RemovedNodesListener.class, new Properties());
+		serviceRegistrar.registerService(networkCache, RemovedEdgesListener.class, new Properties());
+		serviceRegistrar.registerService(networkCache, NetworkAboutToBeDestroyedListener.class, new Properties());
+		serviceRegistrar.registerService(networkCache, RowsSetListener.class, new Properties());
 	}
 
 	public Collection<ClusterTaskFactory> getAllAlgorithms() {
@@ -331,6 +349,14 @@ public class ClusterManagerImpl implements ClusterManager {
 			resultsPanelMap.remove(network);
 	}
 	
+	public DistanceMatrixCache getDistanceMatrixCache() {
+		return distanceMatrixCache;
+	}
+
+	public NetworkCache getNetworkCache() {
+		return networkCache;
+	}
+
 	public <T> T getService(Class<? extends T> clazz) {
 		return serviceRegistrar.getService(clazz);
 	}
@@ -25,6 +25,7 @@ import cern.colt.matrix.tdouble.DoubleMatrix2D;
 
 import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.edgeConverters.EdgeAttributeHandler;
 import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.edgeConverters.EdgeWeightConverter;
+import edu.ucsf.rbvi.clusterMaker2.internal.api.NetworkCache;
 import edu.ucsf.rbvi.clusterMaker2.internal.utils.ModelUtils;
 
 public class DistanceMatrix {
@@ -42,11 +43,18 @@ public class DistanceMatrix {
 	private List<CyEdge> edges = null;
 	private DoubleMatrix2D matrix = null;
 	private EdgeWeightConverter converter = null;
+	private NetworkCache networkCache = null;
 
 	private double[] edgeWeights = null; //XXX this is a 32 memory limitation!!
 	
 	public DistanceMatrix(CyNetwork network, String edgeAttributeName, boolean selectedOnly, EdgeWeightConverter converter) {
+		this(null, network, edgeAttributeName, selectedOnly, converter);
+	}
+
+	public DistanceMatrix(NetworkCache networkCache, CyNetwork network, String edgeAttributeName,
+	                      boolean selectedOnly, EdgeWeightConverter converter) {
 
+		this.networkCache = networkCache;
 		// System.out.println("selectedOnly = "+selectedOnly+" attr = "+edgeAttributeName+" converter = "+converter);
 
 		this.edgeAttributeName = edgeAttributeName;
@@ -402,13 +410,8 @@ public class DistanceMatrix {
 	  }
 
 		List<CyEdge> getConnectingEdges(CyNetwork network, List<CyNode> nodes) {
-			List<CyEdge> edgeList = new ArrayList<CyEdge>();
-			for (int rowIndex = 0; rowIndex < nodes.size(); rowIndex++) {
-				for (int colIndex = rowIndex; colIndex < nodes.size(); colIndex++) {
-					List<CyEdge> connectingEdges = network.getConnectingEdgeList(nodes.get(rowIndex), nodes.get(colIndex), CyEdge.Type.ANY);
-					if (connectingEdges != null) edgeList.addAll(connectingEdges);
-				}
-			}
-			return edgeList;
+			NetworkGraph graph = networkCache == null ? NetworkGraph.build(network) :
+			                                            NetworkGraph.cached(networkCache, network);
+			return graph.getConnectingEdges(nodes);
 		}
 }
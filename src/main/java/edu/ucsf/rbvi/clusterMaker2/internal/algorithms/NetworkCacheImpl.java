@@ -0,0 +1,124 @@
+package edu.ucsf.rbvi.clusterMaker2.internal.algorithms;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import org.cytoscape.model.CyNetwork;
+import org.cytoscape.model.events.AddedEdgesEvent;
+import org.cytoscape.model.events.AddedEdgesListener;
+import org.cytoscape.model.events.AddedNodesEvent;
+import org.cytoscape.model.events.AddedNodesListener;
+import org.cytoscape.model.events.NetworkAboutToBeDestroyedEvent;
+import org.cytoscape.model.events.NetworkAboutToBeDestroyedListener;
+import org.cytoscape.model.events.RemovedEdgesEvent;
+import org.cytoscape.model.events.RemovedEdgesListener;
+import org.cytoscape.model.events.RemovedNodesEvent;
+import org.cytoscape.model.events.RemovedNodesListener;
+import org.cytoscape.model.events.RowSetRecord;
+import org.cytoscape.model.events.RowsSetEvent;
+import org.cytoscape.model.events.RowsSetListener;
+
+import edu.ucsf.rbvi.clusterMaker2.internal.api.NetworkCache;
+
+/**
+ * The session-wide cache of values calculated from networks, mostly the
+ * {@link NetworkGraph} snapshots.  Each network has a revision that changes
+ * whenever nodes or edges are added to or removed from it, and a value is
+ * only handed out for the revision it was calculated at.  Values read from
+ * a column are also dropped when the column is set.
+ *
+ * The cache is owned by the ClusterManager, which registers it for the
+ * network and row events.
+ */
+public class NetworkCacheImpl implements NetworkCache, AddedNodesListener, AddedEdgesListener,
+                                         RemovedNodesListener, RemovedEdgesListener,
+                                         NetworkAboutToBeDestroyedListener, RowsSetListener {
+	private final Map<Long, Entry> entries = new HashMap<>();
+
+	// The last change to each network, by SUID, and to each column, by name
+	private final Map<Long, Long> revisions = new ConcurrentHashMap<>();
+	private final Map<String, Long> columnStamps = new ConcurrentHashMap<>();
+	private final AtomicLong clock = new AtomicLong();
+
+	public NetworkCacheImpl() {
+	}
+
+	@SuppressWarnings("unchecked")
+	public synchronized <T> T get(CyNetwork network, String key, String column, Function<CyNetwork, T> calculate) {
+		Entry entry = getEntry(network);
+		long stamp = column == null ? 0L : columnStamps.getOrDefault(column, 0L);
+		Value value = entry.values.get(key);
+		if (value == null || value.stamp != stamp) {
+			value = new Value(stamp, calculate.apply(network));
+			entry.values.put(key, value);
+		}
+		return (T)value.value;
+	}
+
+	public synchronized void clear() {
+		entries.clear();
+	}
+
+	public void handleEvent(AddedNodesEvent e) { changed(e.getSource()); }
+	public void handleEvent(AddedEdgesEvent e) { changed(e.getSource()); }
+	public void handleEvent(RemovedNodesEvent e) { changed(e.getSource()); }
+	public void handleEvent(RemovedEdgesEvent e) { changed(e.getSource()); }
+
+	public void handleEvent(NetworkAboutToBeDestroyedEvent e) {
+		Long suid = e.getNetwork().getSUID();
+		revisions.remove(suid);
+		synchronized (this) {
+			entries.remove(suid);
+		}
+	}
+
+	public void handleEvent(RowsSetEvent e) {
+		long stamp = clock.incrementAndGet();
+		for (RowSetRecord record: e.getPayloadCollection())
+			columnStamps.put(record.getColumn(), stamp);
+	}
+
+	private void changed(CyNetwork network) {
+		revisions.put(network.getSUID(), clock.incrementAndGet());
+	}
+
+	private Entry getEntry(CyNetwork network) {
+		Long suid = network.getSUID();
+		long revision = revisions.getOrDefault(suid, 0L);
+		Entry entry = entries.get(suid);
+		// The counts are checked as well, in case we missed an event
+		if (entry == null || entry.revision != revision ||
+		    entry.nodeCount != network.getNodeCount() ||
+		    entry.edgeCount != network.getEdgeCount()) {
+			entry = new Entry(revision, network.getNodeCount(), network.getEdgeCount());
+			entries.put(suid, entry);
+		}
+		return entry;
+	}
+
+	static class Entry {
+		final long revision;
+		final int nodeCount;
+		final int edgeCount;
+		final Map<String, Value> values = new HashMap<>();
+
+		Entry(long revision, int nodeCount, int edgeCount) {
+			this.revision = revision;
+			this.nodeCount = nodeCount;
+			this.edgeCount = edgeCount;
+		}
+	}
+
+	static class Value {
+		final long stamp;
+		final Object value;
+
+		Value(long stamp, Object value) {
+			this.stamp = stamp;
+			this.value = value;
+		}
+	}
+}
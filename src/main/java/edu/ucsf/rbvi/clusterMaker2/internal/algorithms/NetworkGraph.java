@@ -0,0 +1,470 @@
+package edu.ucsf.rbvi.clusterMaker2.internal.algorithms;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import org.cytoscape.model.CyEdge;
+import org.cytoscape.model.CyNetwork;
+import org.cytoscape.model.CyNode;
+
+import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.matrix.TableIndex;
+import edu.ucsf.rbvi.clusterMaker2.internal.api.NetworkCache;
+
+/**
+ * An immutable snapshot of the structure of a network, with the nodes and
+ * edges numbered from zero and the adjacency kept in compressed sparse row
+ * form.  The network is read once, so algorithms that walk the graph
+ * repeatedly only deal with int arrays rather than asking the network for
+ * lists of nodes and edges.  A snapshot may also carry the weights of the
+ * edges from an edge column.
+ *
+ * Snapshots of whole networks are shared between runs through the
+ * ClusterManager's {@link NetworkCache}, so nothing here may be changed once built.
+ */
+public class NetworkGraph {
+	private final CyNetwork network;
+
+	private final CyNode[] nodes;
+	private final long[] nodeSuids;
+	private final TableIndex.SuidIndex nodeIndex;
+
+	private final CyEdge[] edges;
+	private final long[] edgeSuids;
+	private final int[] sources;
+	private final int[] targets;
+	private final boolean[] directed;
+
+	// The edges of node i are at adjacencyStart[i] up to adjacencyStart[i+1],
+	// each with the node at the other end.  A self-loop is only listed once.
+	private final int[] adjacencyStart;
+	private final int[] adjacentNodes;
+	private final int[] adjacentEdges;
+
+	// The weight of each edge (NaN if it doesn't have one), or null
+	private final String weightColumn;
+	private final float[] weights;
+
+	private NetworkGraph(CyNetwork network, CyNode[] nodes, CyEdge[] edges,
+	                     int[] sources, int[] targets, String weightColumn, float[] weights) {
+		this.network = network;
+		this.nodes = nodes;
+		this.edges = edges;
+		this.sources = sources;
+		this.targets = targets;
+		this.weightColumn = weightColumn;
+		this.weights = weights;
+
+		nodeSuids = new long[nodes.length];
+		for (int node = 0; node < nodes.length; node++)
+			nodeSuids[node] = nodes[node].getSUID();
+		nodeIndex = new TableIndex.SuidIndex(nodeSuids);
+
+		edgeSuids = new long[edges.length];
+		directed = new boolean[edges.length];
+		for (int edge = 0; edge < edges.length; edge++) {
+			edgeSuids[edge] = edges[edge].getSUID();
+			directed[edge] = edges[edge].isDirected();
+		}
+
+		adjacencyStart = new int[nodes.length+1];
+		for (int edge = 0; edge < edges.length; edge++) {
+			adjacencyStart[sources[edge]+1]++;
+			if (targets[edge] != sources[edge])
+				adjacencyStart[targets[edge]+1]++;
+		}
+		for (int node = 0; node < nodes.length; node++)
+			adjacencyStart[node+1] += adjacencyStart[node];
+
+		int nAdjacent = adjacencyStart[nodes.length];
+		adjacentNodes = new int[nAdjacent];
+		adjacentEdges = new int[nAdjacent];
+		int[] next = Arrays.copyOf(adjacencyStart, nodes.length);
+		for (int edge = 0; edge < edges.length; edge++) {
+			int source = sources[edge];
+			int target = targets[edge];
+			adjacentNodes[next[source]] = target;
+			adjacentEdges[next[source]++] = edge;
+			if (target != source) {
+				adjacentNodes[next[target]] = source;
+				adjacentEdges[next[target]++] = edge;
+			}
+		}
+	}
+
+	// Share the structure of another snapshot, with different weights
+	private NetworkGraph(NetworkGraph graph, String weightColumn, float[] weights) {
+		this.network = graph.network;
+		this.nodes = graph.nodes;
+		this.nodeSuids = graph.nodeSuids;
+		this.nodeIndex = graph.nodeIndex;
+		this.edges = graph.edges;
+		this.edgeSuids = graph.edgeSuids;
+		this.sources = graph.sources;
+		this.targets = graph.targets;
+		this.directed = graph.directed;
+		this.adjacencyStart = graph.adjacencyStart;
+		this.adjacentNodes = graph.adjacentNodes;
+		this.adjacentEdges = graph.adjacentEdges;
+		this.weightColumn = weightColumn;
+		this.weights = weights;
+	}
+
+	/**
+	 * Return the shared snapshot of a network, taking it if the network has
+	 * changed since the last one
+	 *
+	 * @param cache the cache the snapshots are shared through
+	 * @param network the network
+	 * @return the snapshot of the whole network
+	 */
+	public static NetworkGraph cached(NetworkCache cache, CyNetwork network) {
+		return cache.get(network, NetworkGraph.class.getName(), null, NetworkGraph::build);
+	}
+
+	/**
+	 * Return the shared snapshot of a network with the weights of the edges
+	 *
+	 * @param cache the cache the snapshots are shared through
+	 * @param network the network
+	 * @param weightColumn the numeric edge column with the weights
+	 * @return the snapshot of the whole network, with weights if the column
+	 * is numeric
+	 */
+	public static NetworkGraph cached(NetworkCache cache, CyNetwork network, String weightColumn) {
+		if (weightColumn == null)
+			return cached(cache, network);
+		return cache.get(network, NetworkGraph.class.getName()+"."+weightColumn, weightColumn,
+		                 n -> cached(cache, n).withWeights(weightColumn));
+	}
+
+	/**
+	 * Take a snapshot of a network.  Most callers should get the snapshot
+	 * with {@link #cached} instead, so that it is shared.
+	 *
+	 * @param network the network
+	 * @return the snapshot of all of the nodes and edges in the network
+	 */
+	public static NetworkGraph build(CyNetwork network) {
+		CyNode[] nodes = network.getNodeList().toArray(new CyNode[0]);
+		long[] nodeSuids = new long[nodes.length];
+		for (int node = 0; node < nodes.length; node++)
+			nodeSuids[node] = nodes[node].getSUID();
+		TableIndex.SuidIndex index = new TableIndex.SuidIndex(nodeSuids);
+
+		List<CyEdge> edgeList = network.getEdgeList();
+		CyEdge[] edges = new CyEdge[edgeList.size()];
+		int[] sources = new int[edges.length];
+		int[] targets = new int[edges.length];
+		int nEdges = 0;
+		for (CyEdge edge: edgeList) {
+			int source = index.indexOf(edge.getSource().getSUID());
+			int target = index.indexOf(edge.getTarget().getSUID());
+			if (source < 0 || target < 0)
+				continue;
+			edges[nEdges] = edge;
+			sources[nEdges] = source;
+			targets[nEdges++] = target;
+		}
+		return new NetworkGraph(network, nodes, Arrays.copyOf(edges, nEdges),
+		                        Arrays.copyOf(sources, nEdges), Arrays.copyOf(targets, nEdges), null, null);
+	}
+
+	/**
+	 * Return the subgraph with only some of the nodes and the edges between
+	 * them.  The nodes are numbered in the order given, and nodes that aren't
+	 * in this graph are ignored.  The weights, if any, are kept.
+	 *
+	 * @param nodeList the nodes to keep
+	 * @return the induced subgraph
+	 */
+	public NetworkGraph induced(Collection<CyNode> nodeList) {
+		int[] newIndex = new int[nodes.length];
+		Arrays.fill(newIndex, -1);
+		CyNode[] newNodes = new CyNode[nodeList.size()];
+		int nNodes = 0;
+		for (CyNode node: nodeList) {
+			int index = indexOf(node);
+			if (index < 0 || newIndex[index] >= 0)
+				continue;
+			newIndex[index] = nNodes;
+			newNodes[nNodes++] = node;
+		}
+
+		CyEdge[] newEdges = new CyEdge[edges.length];
+		int[] newSources = new int[edges.length];
+		int[] newTargets = new int[edges.length];
+		float[] newWeights = weights == null ? null : new float[edges.length];
+		int nEdges = 0;
+		for (int edge = 0; edge < edges.length; edge++) {
+			int source = newIndex[sources[edge]];
+			int target = newIndex[targets[edge]];
+			if (source < 0 || target < 0)
+				continue;
+			newEdges[nEdges] = edges[edge];
+			newSources[nEdges] = source;
+			newTargets[nEdges] = target;
+			if (weights != null)
+				newWeights[nEdges] = weights[edge];
+			nEdges++;
+		}
+		return new NetworkGraph(network, Arrays.copyOf(newNodes, nNodes), Arrays.copyOf(newEdges, nEdges),
+		                        Arrays.copyOf(newSources, nEdges), Arrays.copyOf(newTargets, nEdges), weightColumn,
+		                        weights == null ? null : Arrays.copyOf(newWeights, nEdges));
+	}
+
+	/**
+	 * Return this graph with the weights of the edges read from an edge
+	 * column.  The structure of the graph is shared.
+	 *
+	 * @param column the numeric edge column with the weights
+	 * @return the weighted graph, or this graph without weights if the column
+	 * doesn't exist or isn't numeric
+	 */
+	public NetworkGraph withWeights(String column) {
+		TableIndex edgeTable = new TableIndex(network.getDefaultEdgeTable());
+		double[] values = edgeTable.getNumericValues(column);
+		if (values == null)
+			return new NetworkGraph(this, null, null);
+
+		float[] edgeWeights = new float[edges.length];
+		for (int edge = 0; edge < edges.length; edge++) {
+			int row = edgeTable.indexOf(edgeSuids[edge]);
+			edgeWeights[edge] = row < 0 ? Float.NaN : (float)values[row];
+		}
+		return new NetworkGraph(this, column, edgeWeights);
+	}
+
+	/**
+	 * Return the network this is a snapshot of
+	 *
+	 * @return the network
+	 */
+	public CyNetwork getNetwork() { return network; }
+
+	/**
+	 * Return the number of nodes
+	 *
+	 * @return the number of nodes
+	 */
+	public int nodeCount() { return nodes.length; }
+
+	/**
+	 * Return the number of edges
+	 *
+	 * @return the number of edges
+	 */
+	public int edgeCount() { return edges.length; }
+
+	/**
+	 * Return a node
+	 *
+	 * @param node the index of the node
+	 * @return the node
+	 */
+	public CyNode getNode(int node) { return nodes[node]; }
+
+	/**
+	 * Return the SUID of a node
+	 *
+	 * @param node the index of the node
+	 * @return the SUID of the node
+	 */
+	public long getNodeSuid(int node) { return nodeSuids[node]; }
+
+	/**
+	 * Return all of the nodes, in the order of their indices
+	 *
+	 * @return the (unmodifiable) list of nodes
+	 */
+	public List<CyNode> getNodeList() {
+		return Collections.unmodifiableList(Arrays.asList(nodes));
+	}
+
+	/**
+	 * Return the index of a node
+	 *
+	 * @param node the node
+	 * @return the index of the node, or -1 if it isn't in the graph
+	 */
+	public int indexOf(CyNode node) {
+		return nodeIndex.indexOf(node.getSUID());
+	}
+
+	/**
+	 * Return the index of a node
+	 *
+	 * @param suid the SUID of the node
+	 * @return the index of the node, or -1 if it isn't in the graph
+	 */
+	public int indexOf(long suid) {
+		return nodeIndex.indexOf(suid);
+	}
+
+	/**
+	 * Return an edge
+	 *
+	 * @param edge the index of the edge
+	 * @return the edge
+	 */
+	public CyEdge getEdge(int edge) { return edges[edge]; }
+
+	/**
+	 * Return the SUID of an edge
+	 *
+	 * @param edge the index of the edge
+	 * @return the SUID of the edge
+	 */
+	public long getEdgeSuid(int edge) { return edgeSuids[edge]; }
+
+	/**
+	 * Return the index of the source of an edge
+	 *
+	 * @param edge the index of the edge
+	 * @return the index of the source node
+	 */
+	public int getSource(int edge) { return sources[edge]; }
+
+	/**
+	 * Return the index of the target of an edge
+	 *
+	 * @param edge the index of the edge
+	 * @return the index of the target node
+	 */
+	public int getTarget(int edge) { return targets[edge]; }
+
+	/**
+	 * Return true if an edge is directed
+	 *
+	 * @param edge the index of the edge
+	 * @return true if the edge is directed
+	 */
+	public boolean isDirected(int edge) { return directed[edge]; }
+
+	/**
+	 * Return the number of edges of a node, counting a self-loop once
+	 *
+	 * @param node the index of the node
+	 * @return the number of adjacent edges
+	 */
+	public int degree(int node) {
+		return adjacencyStart[node+1] - adjacencyStart[node];
+	}
+
+	/**
+	 * Return the position of the first edge of a node.  The edges of the
+	 * node are at the positions from here up to {@link #adjacencyEnd}.
+	 *
+	 * @param node the index of the node
+	 * @return the position of the node's first edge
+	 */
+	public int adjacencyStart(int node) { return adjacencyStart[node]; }
+
+	/**
+	 * Return the position just after the last edge of a node
+	 *
+	 * @param node the index of the node
+	 * @return the position after the node's last edge
+	 */
+	public int adjacencyEnd(int node) { return adjacencyStart[node+1]; }
+
+	/**
+	 * Return the node at the other end of an edge in an adjacency list
+	 *
+	 * @param position the position in the adjacency lists
+	 * @return the index of the neighbor
+	 */
+	public int getNeighbor(int position) { return adjacentNodes[position]; }
+
+	/**
+	 * Return the edge in an adjacency list
+	 *
+	 * @param position the position in the adjacency lists
+	 * @return the index of the edge
+	 */
+	public int getAdjacentEdge(int position) { return adjacentEdges[position]; }
+
+	/**
+	 * Return the neighbors of a node, once for each edge between them, as
+	 * CyNetwork.getNeighborList does
+	 *
+	 * @param node the index of the node
+	 * @return the list of neighbors
+	 */
+	public List<CyNode> getNeighborList(int node) {
+		List<CyNode> neighbors = new ArrayList<CyNode>(degree(node));
+		for (int i = adjacencyStart[node]; i < adjacencyStart[node+1]; i++)
+			neighbors.add(nodes[adjacentNodes[i]]);
+		return neighbors;
+	}
+
+	/**
+	 * Return the edges between a set of nodes, each once, including any
+	 * self-loops.  Nodes that aren't in the graph are ignored.
+	 *
+	 * @param nodeList the nodes
+	 * @return the edges between the nodes
+	 */
+	public List<CyEdge> getConnectingEdges(Collection<CyNode> nodeList) {
+		int[] members = indicesOf(nodeList);
+		List<CyEdge> connecting = new ArrayList<CyEdge>();
+		for (int node: members) {
+			for (int i = adjacencyStart[node]; i < adjacencyStart[node+1]; i++) {
+				int neighbor = adjacentNodes[i];
+				// Each edge is seen from both ends, so only take it from one
+				if (neighbor >= node && Arrays.binarySearch(members, neighbor) >= 0)
+					connecting.add(edges[adjacentEdges[i]]);
+			}
+		}
+		return connecting;
+	}
+
+	/**
+	 * Return the sorted indices of a set of nodes, so that membership can be
+	 * tested with a binary search.  Nodes that aren't in the graph are
+	 * ignored.
+	 *
+	 * @param nodeList the nodes
+	 * @return the sorted, distinct indices of the nodes
+	 */
+	public int[] indicesOf(Collection<CyNode> nodeList) {
+		int[] indices = new int[nodeList.size()];
+		int n = 0;
+		for (CyNode node: nodeList) {
+			int index = indexOf(node);
+			if (index >= 0)
+				indices[n++] = index;
+		}
+		Arrays.sort(indices, 0, n);
+		int distinct = 0;
+		for (int i = 0; i < n; i++) {
+			if (distinct == 0 || indices[distinct-1] != indices[i])
+				indices[distinct++] = indices[i];
+		}
+		return Arrays.copyOf(indices, distinct);
+	}
+
+	/**
+	 * Return true if the edges of this graph have weights
+	 *
+	 * @return true if there are weights
+	 */
+	public boolean hasWeights() { return weights != null; }
+
+	/**
+	 * Return the column the weights were read from
+	 *
+	 * @return the weight column, or null if there are no weights
+	 */
+	public String getWeightColumn() { return weightColumn; }
+
+	/**
+	 * Return the weight of an edge
+	 *
+	 * @param edge the index of the edge
+	 * @return the weight, or NaN if the edge doesn't have one
+	 */
+	public float getWeight(int edge) { return weights[edge]; }
+}
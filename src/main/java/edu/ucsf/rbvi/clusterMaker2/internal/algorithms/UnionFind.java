@@ -0,0 +1,176 @@
+package edu.ucsf.rbvi.clusterMaker2.internal.algorithms;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.cytoscape.model.CyNode;
+
+import cern.colt.function.tdouble.IntIntDoubleFunction;
+
+import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.matrix.ColtMatrix;
+import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.matrix.SparseMatrix;
+import edu.ucsf.rbvi.clusterMaker2.internal.api.Matrix;
+
+/**
+ * A simple disjoint set (union-find) over the row indices of a matrix,
+ * used to turn the result of a clustering algorithm into {@link NodeCluster}s.
+ * Uses union by size and path halving, so building the sets and
+ * extracting the clusters is effectively linear.
+ */
+public class UnionFind {
+	private final int[] parent;
+	private final int[] size;
+	private int components;
+
+	public UnionFind(int n) {
+		parent = new int[n];
+		size = new int[n];
+		for (int i = 0; i < n; i++) {
+			parent[i] = i;
+			size[i] = 1;
+		}
+		components = n;
+	}
+
+	/**
+	 * Find the representative of the set containing i
+	 *
+	 * @param i the element
+	 * @return the representative element
+	 */
+	public int find(int i) {
+		while (parent[i] != i) {
+			parent[i] = parent[parent[i]];
+			i = parent[i];
+		}
+		return i;
+	}
+
+	/**
+	 * Join the sets containing a and b
+	 *
+	 * @param a the first element
+	 * @param b the second element
+	 * @return true if a and b were in different sets
+	 */
+	public boolean union(int a, int b) {
+		int rootA = find(a);
+		int rootB = find(b);
+		if (rootA == rootB)
+			return false;
+		if (size[rootA] < size[rootB]) {
+			int tmp = rootA; rootA = rootB; rootB = tmp;
+		}
+		parent[rootB] = rootA;
+		size[rootA] += size[rootB];
+		components--;
+		return true;
+	}
+
+	/**
+	 * Return the number of elements in the set containing i
+	 *
+	 * @param i the element
+	 * @return the size of the set
+	 */
+	public int size(int i) {
+		return size[find(i)];
+	}
+
+	public int getComponentCount() { return components; }
+
+	/**
+	 * Join the row and column of every non-zero cell in the matrix.  The
+	 * diagonal and missing values are ignored.
+	 *
+	 * @param matrix the (square) matrix
+	 */
+	public void unionNonZeros(Matrix matrix) {
+		if (matrix instanceof SparseMatrix) {
+			SparseMatrix sMatrix = (SparseMatrix)matrix;
+			int[] rowPtr = sMatrix.getRowPointers();
+			int[] colIdx = sMatrix.getColumnIndices();
+			double[] values = sMatrix.getValues();
+			for (int row = 0; row < sMatrix.nRows(); row++) {
+				for (int pos = rowPtr[row]; pos < rowPtr[row+1]; pos++) {
+					double value = values[pos];
+					if (value != 0.0 && !Double.isNaN(value) && colIdx[pos] != row)
+						union(row, colIdx[pos]);
+				}
+			}
+		} else if (matrix instanceof ColtMatrix) {
+			matrix.getColtMatrix().forEachNonZero(
+				new IntIntDoubleFunction() {
+					public double apply(int row, int column, double value) {
+						if (row != column && !Double.isNaN(value))
+							union(row, column);
+						return value;
+					}
+				}
+			);
+		} else {
+			for (int row = 0; row < matrix.nRows(); row++) {
+				for (int col = 0; col < matrix.nColumns(); col++) {
+					double value = matrix.doubleValue(row, col);
+					if (row != col && value != 0.0 && !Double.isNaN(value))
+						union(row, col);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Create a {@link NodeCluster} for each set with at least minSize elements.
+	 * The clusters are returned largest first and numbered from 1 in that order.
+	 * Ties are broken by the lowest index in the set, and the nodes in each
+	 * cluster are in index order.
+	 *
+	 * @param nodes the node for each index
+	 * @param minSize the smallest set to return as a cluster
+	 * @return the list of clusters
+	 */
+	public List<NodeCluster> getClusters(List<CyNode> nodes, int minSize) {
+		int n = parent.length;
+
+		// Assign a cluster to each root, in order of the first element of the set
+		int[] clusterIndex = new int[n];
+		int[] clusterSizes = new int[n];
+		Arrays.fill(clusterIndex, -1);
+		int nClusters = 0;
+		for (int i = 0; i < n; i++) {
+			int root = find(i);
+			if (size[root] < minSize)
+				continue;
+			if (clusterIndex[root] < 0) {
+				clusterSizes[nClusters] = size[root];
+				clusterIndex[root] = nClusters++;
+			}
+		}
+
+		CyNode[][] members = new CyNode[nClusters][];
+		int[] fill = new int[nClusters];
+		for (int c = 0; c < nClusters; c++)
+			members[c] = new CyNode[clusterSizes[c]];
+		for (int i = 0; i < n; i++) {
+			int c = clusterIndex[find(i)];
+			if (c >= 0)
+				members[c][fill[c]++] = nodes.get(i);
+		}
+
+		// Largest first (the sort is stable, so ties stay in index order)
+		Integer[] order = new Integer[nClusters];
+		for (int c = 0; c < nClusters; c++)
+			order[c] = c;
+		Arrays.sort(order, (a, b) -> Integer.compare(clusterSizes[b], clusterSizes[a]));
+
+		List<NodeCluster> clusters = new ArrayList<NodeCluster>(nClusters);
+		int clusterNumber = 1;
+		for (Integer c: order) {
+			NodeCluster cluster = new NodeCluster(Arrays.asList(members[c]));
+			cluster.setClusterNumber(clusterNumber++);
+			clusters.add(cluster);
+		}
+		return clusters;
+	}
+}
@@ -52,11 +52,14 @@ import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.AbstractClusterAlgorithm;
 import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.attributeClusterers.silhouette.SilhouetteCalculator;
 import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.attributeClusterers.silhouette.Silhouettes;
 import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.matrix.CyMatrixFactory;
+import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.matrix.DistanceProgressImpl;
 import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.matrix.MatrixUtils;
 
 import edu.ucsf.rbvi.clusterMaker2.internal.api.ClusterManager;
 import edu.ucsf.rbvi.clusterMaker2.internal.api.CyMatrix;
 import edu.ucsf.rbvi.clusterMaker2.internal.api.DistanceMetric;
+import edu.ucsf.rbvi.clusterMaker2.internal.api.Matrix;
+import edu.ucsf.rbvi.clusterMaker2.internal.api.Precision;
 
 import edu.ucsf.rbvi.clusterMaker2.internal.utils.ModelUtils;
 
@@ -76,6 +79,7 @@ public abstract class AbstractKClusterAlgorithm {
 	protected boolean ignoreMissing = true;
 	protected boolean selectedOnly = false;
 	protected boolean useSilhouette = false;
+	protected Precision precision = Precision.DOUBLE;
 	protected Integer[] rowOrder;
 	protected Random random = null;
 	protected Silhouettes sResult;
@@ -95,6 +99,15 @@ public abstract class AbstractKClusterAlgorithm {
 		this.parentTask = task;
 	}
 
+	/**
+	 * Set the precision used to store the data matrix
+	 *
+	 * @param precision the precision
+	 */
+	public void setPrecision(Precision precision) {
+		this.precision = precision;
+	}
+
 	// This should be overridden by any k-cluster implementation
 	public abstract int kcluster(int nClusters, int nIterations, CyMatrix matrix,
 								 DistanceMetric metric, int[] clusters);
@@ -123,7 +136,10 @@ public abstract class AbstractKClusterAlgorithm {
 
 		// Create the matrix
 		matrix = CyMatrixFactory.makeSmallMatrix(network, weightAttributes, 
-														 selectedOnly, ignoreMissing, transpose, false);
+														 selectedOnly, ignoreMissing, transpose, false, precision);
+		// Share the distances with other runs on the same data (e.g. a k sweep)
+		matrix.setDistanceCache(clusterManager.getDistanceMatrixCache()
+		                        .forData(network, weightAttributes, selectedOnly, ignoreMissing, transpose, precision));
 		monitor.showMessage(TaskMonitor.Level.INFO,"cluster matrix has "+matrix.nRows()+" rows");
 		int kMax = Math.min(context.kMax, matrix.nRows());
 
@@ -222,6 +238,21 @@ public abstract class AbstractKClusterAlgorithm {
 	public CyMatrix getMatrix() { return matrix; }
 	public List<String> getAttributeList() { return attrList; }
 
+	/**
+	 * Get the distances between the rows of the data, reporting progress
+	 * to our monitor and stopping if our task is cancelled.
+	 *
+	 * @param matrix the data matrix
+	 * @param metric the metric to use to calculate the distances
+	 * @return the distance matrix, or null if the task was cancelled
+	 */
+	protected CyMatrix getDistanceMatrix(CyMatrix matrix, DistanceMetric metric) {
+		if (monitor != null)
+			monitor.setStatusMessage("Calculating distances");
+		return matrix.getDistanceMatrix(metric,
+		                                new DistanceProgressImpl(monitor, parentTask == null ? null : parentTask::cancelled));
+	}
+
 	protected void createAttrList(ClusterManager clusterManager, int nClusters, int[] clusters,
 								String algorithm) {
 
@@ -329,21 +360,18 @@ public abstract class AbstractKClusterAlgorithm {
 			}
 		}
 
-	protected int[] chooseCentralElementsAsCenters(int nElements, int nClusters, double[][] distances, int[] tclusterid) {
+	protected int[] chooseCentralElementsAsCenters(int nElements, int nClusters, Matrix distances, int[] tclusterid) {
 		int[] centers = new int[nClusters];
 
-		// calculate normalized distances
-		double[][] normalized = new double[nElements][nElements];
+		// calculate the row sums so we can normalize the distances as we go,
+		// rather than keeping a normalized copy of the whole matrix
+		double[] rowSums = new double[nElements];
 		for (int i = 0; i < nElements; i++) {
 			double sum = 0;
 			for (int j = 0; j < nElements; j++) {
-				double x = distances[i][j];
-				normalized[i][j] = x;
-				sum += x;
-			}
-			for (int j = 0; j < nElements; j++) {
-				normalized[i][j] /= sum;
+				sum += distances.doubleValue(i, j);
 			}
+			rowSums[i] = sum;
 		}
 
 		// sum the normalized distances across all rows
@@ -353,7 +381,7 @@ public abstract class AbstractKClusterAlgorithm {
 		for (int i = 0; i < nElements; i++) {
 			pairs[i] = new KeyValuePair(0.0, i);
 			for (int j = 0; j < nElements; j++) {
-				pairs[i].key += normalized[i][j];
+				pairs[i].key += distances.doubleValue(i, j)/rowSums[i];
 			}
 		}
 
@@ -373,8 +401,9 @@ public abstract class AbstractKClusterAlgorithm {
 			for (int j = 0; j < nElements; j++) {
 				double distance = Double.MAX_VALUE;
 				for (int cluster = 0; cluster < nClusters; cluster++) {
-					if (normalized[j][centers[cluster]] < distance) {
-						distance = normalized[j][centers[cluster]];
+					double normalized = distances.doubleValue(j, centers[cluster])/rowSums[j];
+					if (normalized < distance) {
+						distance = normalized;
 						tclusterid[j] = cluster;
 					}
 				}
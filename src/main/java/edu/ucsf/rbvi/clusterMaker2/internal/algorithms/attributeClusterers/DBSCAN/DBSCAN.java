@@ -94,6 +94,7 @@ public class DBSCAN extends AbstractAttributeClusterer {
 		distanceMetric = context.getDistanceMetric();
 		// Create a new clusterer
 		RunDBSCAN algorithm = new RunDBSCAN(network, attributeArray,distanceMetric , monitor, context);
+		algorithm.setDistanceMatrixCache(clusterManager.getDistanceMatrixCache());
 						
 		String resultsString = "DBSCAN results:";
 
@@ -10,6 +10,7 @@ import org.cytoscape.work.util.ListSingleSelection;
 import edu.ucsf.rbvi.clusterMaker2.internal.api.DistanceMetric;
 
 import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.attributeClusterers.AttributeList;
+import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.attributeClusterers.DataPrecision;
 import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.attributeClusterers.KClusterAttributes;
 
 public class DBSCANContext {
@@ -28,6 +29,9 @@ public class DBSCANContext {
 	@ContainsTunables
 	public AttributeList attributeList = null;
 
+	@ContainsTunables
+	public DataPrecision dataPrecision = new DataPrecision();
+
 	public boolean selectedOnly = false;
 	
 	@Tunable(description="Use only selected nodes/edges for cluster", 
@@ -42,6 +46,12 @@ public class DBSCANContext {
 	@Tunable(description="Cluster attributes as well as nodes", 
 	         groups={"DBSCAN Parameters"}, gravity=101)
 	public boolean clusterAttributes = false;
+
+	@Tunable(description="Approximate neighborhoods from this many nearest neighbors (0 for exact)", 
+	         groups={"DBSCAN Parameters"}, gravity=102,
+	         tooltip="<html>For large data sets, only look for points in a density neighborhood among<br/>"+
+	                 "each point's approximate nearest neighbors instead of calculating all of the distances</html>")
+	public int nearestNeighbors = 0;
 	
 	@Tunable(description="Create groups from clusters", groups={"Visualization Options"}, gravity=150)
 	public boolean createGroups = false;
@@ -81,6 +91,7 @@ public class DBSCANContext {
 		params.add("edgeAttribute="+attributeList.getEdgeAttribute());
 		params.add("selectedOnly="+selectedOnly);
 		params.add("clusterAttributes="+clusterAttributes);
+		params.add("nearestNeighbors="+nearestNeighbors);
 		params.add("createGroups="+createGroups);
 		return params;
 	}
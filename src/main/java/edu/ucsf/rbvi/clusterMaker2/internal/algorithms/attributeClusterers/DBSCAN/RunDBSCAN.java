@@ -7,12 +7,15 @@ import org.cytoscape.model.CyNetwork;
 import org.cytoscape.work.TaskMonitor;
 
 import edu.ucsf.rbvi.clusterMaker2.internal.api.CyMatrix;
+import edu.ucsf.rbvi.clusterMaker2.internal.api.DistanceMatrixCache;
 import edu.ucsf.rbvi.clusterMaker2.internal.api.DistanceMetric;
 import edu.ucsf.rbvi.clusterMaker2.internal.api.Matrix;
+import edu.ucsf.rbvi.clusterMaker2.internal.api.NearestNeighbors;
 
 import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.attributeClusterers.AbstractKClusterAlgorithm;
 import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.attributeClusterers.fft.FFTContext;
 import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.matrix.CyMatrixFactory;
+import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.matrix.NearestNeighborsImpl;
 
 public class RunDBSCAN  {
 
@@ -28,7 +31,9 @@ public class RunDBSCAN  {
 	double eps;
 	int minPts;
 	ArrayList<Integer> unvisited;
-	double distanceMatrix[][];
+	Matrix distanceMatrix;
+	NearestNeighbors nearestNeighbors = null;
+	DistanceMatrixCache distanceMatrixCache = null;
 
 	public RunDBSCAN(CyNetwork network, String weightAttributes[], DistanceMetric metric, 
             TaskMonitor monitor, DBSCANContext context) {
@@ -44,12 +49,17 @@ public class RunDBSCAN  {
 	}
 
 	public CyMatrix getMatrix() { return matrix; }
+	public void setDistanceMatrixCache(DistanceMatrixCache cache) { this.distanceMatrixCache = cache; }
 	public int getNClusters() {return nClusters;}
 
 	public int[] cluster(boolean transpose) {
 
 		// Create the matrix
-		matrix = CyMatrixFactory.makeSmallMatrix(network, weightAttributes, selectedOnly, ignoreMissing, transpose, false);
+		matrix = CyMatrixFactory.makeSmallMatrix(network, weightAttributes, selectedOnly, ignoreMissing, transpose, false,
+		                                         context.dataPrecision.getPrecision());
+		if (distanceMatrixCache != null)
+			matrix.setDistanceCache(distanceMatrixCache.forData(network, weightAttributes, selectedOnly, ignoreMissing,
+			                                                    transpose, context.dataPrecision.getPrecision()));
 		monitor.showMessage(TaskMonitor.Level.INFO,"cluster matrix has "+matrix.nRows()+" rows");
 		DistanceMetric metric = context.metric.getSelectedValue();
 
@@ -69,7 +79,12 @@ public class RunDBSCAN  {
 		// Matrix normMatrix = matrix.getDistanceMatrix(metric);
 		// normMatrix.ops().normalize();
 		// distanceMatrix = normMatrix.toArray();
-		distanceMatrix = matrix.getDistanceMatrix(metric).toArray();
+		// With approximate neighborhoods, we only need the nearest neighbors
+		if (context.nearestNeighbors > 0)
+			nearestNeighbors = matrix.getNearestNeighbors(metric, Math.max(context.nearestNeighbors, minPts),
+			                                              NearestNeighborsImpl.DEFAULT_SAMPLE_RATE);
+		else
+			distanceMatrix = matrix.getDistanceMatrix(metric);
 
 		unvisited = new ArrayList<Integer>();
 
@@ -97,6 +112,10 @@ public class RunDBSCAN  {
 		}
 		nClusters = currentC+1;
 		// System.out.println("nClusters = "+nClusters);
+		if (distanceMatrix != null) {
+			distanceMatrix.close();
+			distanceMatrix = null;
+		}
 		return clusters;
 	}
 
@@ -137,16 +156,26 @@ public class RunDBSCAN  {
 	private ArrayList<Integer> regionQuery(int p) {
 
 		ArrayList<Integer> neighborPts = new ArrayList<Integer>();
-		int nelements = distanceMatrix[p].length;
 
 		// always true (what's the purpose of this test?)
 		// if (!neighborPts.contains(p))
 			neighborPts.add(p);
 
+		if (nearestNeighbors != null) {
+			// The neighbors are sorted by distance, so the neighborhood is a prefix
+			int[] neighbors = nearestNeighbors.getNeighbors(p);
+			int count = nearestNeighbors.countWithin(p, eps);
+			for (int i = 0; i < count; i++)
+				neighborPts.add(neighbors[i]);
+			return neighborPts;
+		}
+
+		int nelements = distanceMatrix.nColumns();
+
 		for(int i = 0; i < nelements; i++){
 			if (i == p) continue;
 
-			if(distanceMatrix[p][i] <= eps){
+			if(distanceMatrix.doubleValue(p, i) <= eps){
 				// System.out.println("distanceMatrix["+p+"]["+i+"] = "+distanceMatrix[p][i]+"<="+eps);
 				if (!neighborPts.contains(i))
 					neighborPts.add(i);
@@ -0,0 +1,27 @@
+package edu.ucsf.rbvi.clusterMaker2.internal.algorithms.attributeClusterers;
+
+import org.cytoscape.work.Tunable;
+import org.cytoscape.work.util.ListSingleSelection;
+
+import edu.ucsf.rbvi.clusterMaker2.internal.api.Precision;
+
+/**
+ * The precision of the data matrix.  This is kept apart from AttributeList
+ * so that it is only offered by the clusterers that build their matrices
+ * with it.
+ */
+public class DataPrecision {
+	@Tunable(description="Data precision",
+	         longDescription="The precision used to store the data and distance matrices.  "+
+	                         "Single precision uses half of the memory, which allows larger "+
+	                         "data sets to be clustered, at the cost of about 7 significant digits.",
+	         exampleStringValue="Double (64-bit)",
+	         groups="Array sources", gravity=53)
+	public ListSingleSelection<Precision> precision =
+		new ListSingleSelection<Precision>(Precision.values());
+
+	public Precision getPrecision() {
+		if (precision == null || precision.getSelectedValue() == null) return Precision.DOUBLE;
+		return precision.getSelectedValue();
+	}
+}
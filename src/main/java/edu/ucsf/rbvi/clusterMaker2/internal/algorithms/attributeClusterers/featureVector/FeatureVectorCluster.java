@@ -34,15 +34,21 @@ package edu.ucsf.rbvi.clusterMaker2.internal.algorithms.attributeClusterers.feat
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.DoubleAccumulator;
+import java.util.function.IntPredicate;
+import java.util.stream.IntStream;
 
 // Cytoscape imports
 import org.cytoscape.model.CyEdge;
 import org.cytoscape.model.CyNetwork;
 import org.cytoscape.model.CyNode;
+import org.cytoscape.model.CyTable;
 import org.cytoscape.model.CyTableUtil;
 import org.cytoscape.view.model.CyNetworkView;
 import org.cytoscape.view.vizmap.VisualStyle;
@@ -57,12 +63,17 @@ import edu.ucsf.rbvi.clusterMaker2.internal.api.ClusterManager;
 import edu.ucsf.rbvi.clusterMaker2.internal.api.ClusterResults;
 import edu.ucsf.rbvi.clusterMaker2.internal.api.ClusterViz;
 import edu.ucsf.rbvi.clusterMaker2.internal.api.CyMatrix;
+import edu.ucsf.rbvi.clusterMaker2.internal.api.DistanceMetric;
+import edu.ucsf.rbvi.clusterMaker2.internal.api.NearestNeighbors;
 
 import edu.ucsf.rbvi.clusterMaker2.internal.utils.ModelUtils;
 import edu.ucsf.rbvi.clusterMaker2.internal.utils.ViewUtils;
 
 import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.attributeClusterers.AbstractAttributeClusterer;
 import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.matrix.CyMatrixFactory;
+import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.matrix.DistanceProgressImpl;
+import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.matrix.DistanceTiles;
+import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.matrix.NearestNeighborsImpl;
 
 public class FeatureVectorCluster extends AbstractAttributeClusterer {
 	public static String SHORTNAME = "featurevector";
@@ -70,6 +81,9 @@ public class FeatureVectorCluster extends AbstractAttributeClusterer {
 
 	final static String interaction = "distance";
 
+	// The number of edges added between checks for cancellation
+	final static int EDGE_BATCH = 10000;
+
 	@ContainsTunables
 	public FeatureVectorContext context = null;
 
@@ -133,65 +147,130 @@ public class FeatureVectorCluster extends AbstractAttributeClusterer {
 			matrix.setMissingToZero();
 
 		int nNodes = matrix.nRows();
+		DistanceMetric metric = context.metric.getSelectedValue();
+
+		// Look the nodes up once, rather than by name for every pair
+		CyNode[] nodes = new CyNode[nNodes];
+		for (int i = 0; i < nNodes; i++) {
+			nodes[i] = matrix.getRowNode(i);
+			if (nodes[i] == null)
+				nodes[i] = (CyNode)ModelUtils.getNetworkObjectWithName(network, matrix.getRowLabel(i), CyNode.class);
+		}
 
-		// For each node, get the distance to all other nodes
+		// For each node, get the distance to all other nodes (or to its nearest
+		// neighbors), keeping only the pairs that will get edges
 		double maxdistance = Double.MIN_VALUE;
 		double mindistance = Double.MAX_VALUE;
+		PairList pairs;
+
+		if (context.nearestNeighbors > 0) {
+			double sampleRate = context.approximateNeighbors ? NearestNeighborsImpl.DEFAULT_SAMPLE_RATE : 1.0;
+			NearestNeighbors nearestNeighbors = matrix.getNearestNeighbors(metric, context.nearestNeighbors, sampleRate);
+			pairs = new PairList();
+			for (int i = 0; i < nNodes; i++) {
+				int[] neighbors = nearestNeighbors.getNeighbors(i);
+				double[] distances = nearestNeighbors.getDistances(i);
+				for (int n = 0; n < Math.min(neighbors.length, context.nearestNeighbors); n++) {
+					int j = neighbors[n];
+					// Each pair only once, even if they are each other's neighbors
+					if (j < i && isNeighbor(nearestNeighbors, j, i)) continue;
+					pairs.add(i, j, distances[n]);
+					maxdistance = Math.max(maxdistance, distances[n]);
+					mindistance = Math.min(mindistance, distances[n]);
+				}
+			}
 
-		double distanceMatrix[][] = new double[nNodes][nNodes];
-		for (int i = 0; i < nNodes; i++) {
-			for (int j = i+1; j < nNodes; j++) {
- 				double distance = context.metric.getSelectedValue().getMetric(matrix, matrix, i, j);
-				maxdistance = Math.max(maxdistance, distance);
-				mindistance = Math.min(mindistance, distance);
-				distanceMatrix[i][j] = distance;
+			if (context.createNewNetwork) {
+				double lowest = mindistance;
+				double scale = maxdistance - mindistance;
+				PairList neighborPairs = pairs;
+				if (context.edgeCutoff != 0.0)
+					pairs.retain(p -> (neighborPairs.distances[p]-lowest)/scale <= context.edgeCutoff);
+			} else {
+				// Only the neighbors that are already connected get distances
+				for (int p = 0; p < pairs.size(); p++) {
+					List<CyEdge> connectingEdges = 
+						network.getConnectingEdgeList(nodes[pairs.rows[p]], nodes[pairs.columns[p]], CyEdge.Type.ANY);
+					if (connectingEdges != null && connectingEdges.size() > 0)
+						pairs.edges[p] = connectingEdges.get(0);
+				}
+				PairList neighborPairs = pairs;
+				pairs.retain(p -> neighborPairs.edges[p] != null);
+			}
+		} else {
+			// The distances are scaled to be between 0.0 and 1.0 before they're
+			// compared to the cutoff, so the first pass just finds their range
+			DoubleAccumulator max = new DoubleAccumulator(Math::max, maxdistance);
+			DoubleAccumulator min = new DoubleAccumulator(Math::min, mindistance);
+			if (!DistanceTiles.distances(matrix, metric, (row, column, distance) -> {
+				if (row != column && !Double.isNaN(distance)) {
+					max.accumulate(distance);
+					min.accumulate(distance);
+				}
+			}, new DistanceProgressImpl(monitor, this::cancelled, 0.1, 0.4)))
+				return;
+			maxdistance = max.get();
+			mindistance = min.get();
+
+			if (context.createNewNetwork) {
+				// Now keep the pairs under the cutoff
+				double lowest = mindistance;
+				double scale = maxdistance - mindistance;
+				boolean useCutoff = (context.edgeCutoff != 0.0);
+				ConcurrentLinkedQueue<PairList> lists = new ConcurrentLinkedQueue<>();
+				if (!DistanceTiles.distancesByTile(matrix, metric, (rowStart, columnStart) -> {
+					// Each tile collects its pairs in a list of its own
+					PairList list = new PairList(0);
+					lists.add(list);
+					return (row, column, distance) -> {
+						if (row == column || Double.isNaN(distance) ||
+						    (useCutoff && (distance-lowest)/scale > context.edgeCutoff))
+							return;
+						list.add(row, column, distance);
+					};
+				}, new DistanceProgressImpl(monitor, this::cancelled, 0.4, 0.7)))
+					return;
+				pairs = PairList.merge(lists, nNodes);
+			} else {
+				// Only the existing edges get distances
+				pairs = edgePairs(matrix, nodes, metric);
 			}
-			if (canceled) return;
-			monitor.setProgress((double)i/((double)nNodes*4));
 		}
 		monitor.setStatusMessage("Min distance = "+mindistance+", max distance = "+maxdistance);
 
 
 		monitor.setStatusMessage("Assigning values to edges");
 
-		List<CyEdge> edgeList = new ArrayList<CyEdge>();
-		double scale = maxdistance - mindistance;
-
 		CyNetwork newNet = null;
 		if (context.createNewNetwork) {
 			newNet = ModelUtils.createChildNetwork(clusterManager, network, network.getNodeList(), null, "--clustered");
 		}
 
-		for (int i = 0; i < nNodes; i++) {
-			for (int j = i+1; j < nNodes; j++) {
-				// time = System.currentTimeMillis();
+		// Add the edges (and their distances) in batches, checking for
+		// cancellation in between
+		CyNetwork edgeNet = context.createNewNetwork ? newNet : network;
+		CyTable edgeTable = edgeNet.getDefaultEdgeTable();
+		if (edgeTable.getColumn(context.edgeAttribute) == null)
+			edgeTable.createColumn(context.edgeAttribute, Double.class, false);
+
+		double scale = maxdistance - mindistance;
+		int nPairs = pairs.size();
+		CyEdge[] batch = new CyEdge[EDGE_BATCH];
+		for (int start = 0; start < nPairs; start += EDGE_BATCH) {
+			int end = Math.min(nPairs, start+EDGE_BATCH);
+			for (int p = start; p < end; p++) {
+				if (context.createNewNetwork)
+					batch[p-start] = newNet.addEdge(nodes[pairs.rows[p]], nodes[pairs.columns[p]], false);
+				else
+					batch[p-start] = pairs.edges[p];
+			}
+			for (int p = start; p < end; p++) {
 				// This scales the distances to be between 0.0 and 1.0
-				double distance = (distanceMatrix[i][j]-mindistance)/scale;
-
-				if (context.createNewNetwork == true && distance > context.edgeCutoff && context.edgeCutoff != 0.0)
-					continue;
-
-				CyNode source = (CyNode)ModelUtils.getNetworkObjectWithName(network, matrix.getRowLabel(i), CyNode.class);
-				CyNode target = (CyNode)ModelUtils.getNetworkObjectWithName(network, matrix.getRowLabel(j), CyNode.class);
-
-				// time = System.currentTimeMillis();
-				if (context.createNewNetwork == true) {
-					CyEdge edge = newNet.addEdge(source, target, false);
-					ModelUtils.createAndSet(newNet, edge, context.edgeAttribute, distance, Double.class, null);
-					edgeList.add(edge);
-				} else {
-					List<CyEdge> connectingEdges = network.getConnectingEdgeList(source, target, CyEdge.Type.ANY);
-					// edgeFetchTime += System.currentTimeMillis()-time;
-					// time = System.currentTimeMillis();
-					if (connectingEdges == null || connectingEdges.size() == 0) 
-						continue;
-
-					CyEdge edge = connectingEdges.get(0);
-					ModelUtils.createAndSet(network, edge, context.edgeAttribute, distance, Double.class, null);
-				}
+				double distance = (pairs.distances[p]-mindistance)/scale;
+				edgeNet.getRow(batch[p-start]).set(context.edgeAttribute, distance);
 			}
 			if (canceled) return;
-			monitor.setProgress(25.0 + (75.0 * (double)i/(double)nNodes)/100.0);
+			monitor.setProgress(0.7 + 0.3*(double)end/(double)nPairs);
 		}
 
 		System.out.println("Network created -- creating view");
@@ -220,4 +299,127 @@ public class FeatureVectorCluster extends AbstractAttributeClusterer {
 
 	}
 
+	// The existing edges between the rows of the matrix, with their distances
+	private PairList edgePairs(CyMatrix matrix, CyNode[] nodes, DistanceMetric metric) {
+		Map<CyNode, Integer> rows = new HashMap<CyNode, Integer>();
+		for (int i = 0; i < nodes.length; i++)
+			rows.put(nodes[i], i);
+
+		PairList pairs = new PairList();
+		for (CyEdge edge: network.getEdgeList()) {
+			Integer source = rows.get(edge.getSource());
+			Integer target = rows.get(edge.getTarget());
+			if (source == null || target == null || source.equals(target))
+				continue;
+			pairs.add(source, target, metric.getMetric(matrix, matrix, source, target));
+			pairs.edges[pairs.size()-1] = edge;
+		}
+		return pairs;
+	}
+
+	// True if j is among the first context.nearestNeighbors neighbors of i
+	private boolean isNeighbor(NearestNeighbors nearestNeighbors, int i, int j) {
+		int[] neighbors = nearestNeighbors.getNeighbors(i);
+		for (int n = 0; n < Math.min(neighbors.length, context.nearestNeighbors); n++) {
+			if (neighbors[n] == j) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * A growable list of row pairs and their distances, with the edge for
+	 * each pair when the edges already exist
+	 */
+	static class PairList {
+		int[] rows;
+		int[] columns;
+		double[] distances;
+		CyEdge[] edges;
+		int size = 0;
+
+		PairList() {
+			this(1024);
+		}
+
+		PairList(int capacity) {
+			rows = new int[capacity];
+			columns = new int[capacity];
+			distances = new double[capacity];
+			edges = new CyEdge[capacity];
+		}
+
+		int size() { return size; }
+
+		void add(int row, int column, double distance) {
+			if (size == rows.length) {
+				int length = Math.max(16, size*2);
+				rows = Arrays.copyOf(rows, length);
+				columns = Arrays.copyOf(columns, length);
+				distances = Arrays.copyOf(distances, length);
+				edges = Arrays.copyOf(edges, length);
+			}
+			rows[size] = row;
+			columns[size] = column;
+			distances[size++] = distance;
+		}
+
+		// Drop the pairs that don't pass the test, keeping the rest in order
+		void retain(IntPredicate keep) {
+			int kept = 0;
+			for (int p = 0; p < size; p++) {
+				if (!keep.test(p)) continue;
+				rows[kept] = rows[p];
+				columns[kept] = columns[p];
+				distances[kept] = distances[p];
+				edges[kept++] = edges[p];
+			}
+			size = kept;
+		}
+
+		// Combine the lists filled in by different tiles, sorted by row and
+		// column so that the edges are always created in the same order
+		static PairList merge(Collection<PairList> lists, int nRows) {
+			int total = 0;
+			int[] counts = new int[nRows+1];
+			for (PairList list: lists) {
+				total += list.size;
+				for (int p = 0; p < list.size; p++)
+					counts[list.rows[p]+1]++;
+			}
+			for (int row = 0; row < nRows; row++)
+				counts[row+1] += counts[row];
+
+			PairList merged = new PairList(total);
+			merged.size = total;
+			int[] next = Arrays.copyOf(counts, nRows);
+			for (PairList list: lists) {
+				for (int p = 0; p < list.size; p++) {
+					int slot = next[list.rows[p]]++;
+					merged.rows[slot] = list.rows[p];
+					merged.columns[slot] = list.columns[p];
+					merged.distances[slot] = list.distances[p];
+				}
+			}
+
+			// Within each row, order by column
+			IntStream.range(0, nRows).parallel()
+				.forEach(row -> {
+					int start = counts[row];
+					int length = counts[row+1]-start;
+					if (length < 2) return;
+					long[] keys = new long[length];
+					for (int p = 0; p < length; p++)
+						keys[p] = ((long)merged.columns[start+p] << 32) | p;
+					Arrays.sort(keys);
+					double[] sorted = new double[length];
+					for (int p = 0; p < length; p++)
+						sorted[p] = merged.distances[start+(int)keys[p]];
+					for (int p = 0; p < length; p++) {
+						merged.columns[start+p] = (int)(keys[p] >>> 32);
+						merged.distances[start+p] = sorted[p];
+					}
+				});
+			return merged;
+		}
+	}
 }
@@ -79,6 +79,16 @@ public class FeatureVectorContext {
 	         groups={"Visualization Options"}, dependsOn="createNewNetwork=true", gravity=64)
 	public double edgeCutoff = 0.01;
 
+	@Tunable(description="Only connect nodes to this many nearest neighbors (0 for all)", 
+	         groups={"Advanced Parameters"}, gravity=72,
+	         tooltip="<html>Only create (or set) edges between each node and its<br/>"+
+	                 "nearest neighbors, rather than between all close pairs of nodes</html>")
+	public int nearestNeighbors = 0;
+
+	@Tunable(description="Approximate the nearest neighbors (faster for large data sets)", 
+	         groups={"Advanced Parameters"}, gravity=73)
+	public boolean approximateNeighbors = true;
+
 	public FeatureVectorContext() {
 		metric.setSelectedValue(DistanceMetric.EUCLIDEAN);
 	}
@@ -92,6 +102,8 @@ public class FeatureVectorContext {
 		params.add("edgeAttribute="+edgeAttribute);
 		params.add("ignoreMissing="+ignoreMissing);
 		params.add("zeroMissing="+zeroMissing);
+		params.add("nearestNeighbors="+nearestNeighbors);
+		params.add("approximateNeighbors="+approximateNeighbors);
 		return params;
 	}
 
@@ -90,6 +90,7 @@ public class FFT extends AbstractAttributeClusterer {
 
 		// Create a new clusterer
 		RunFFT algorithm = new RunFFT(network, attributeArray, distanceMetric, monitor, context, this);
+		algorithm.setPrecision(context.dataPrecision.getPrecision());
 
 		// System.out.println("Algorithm defined");
 
@@ -10,6 +10,7 @@ import org.cytoscape.work.util.ListSingleSelection;
 import edu.ucsf.rbvi.clusterMaker2.internal.api.DistanceMetric;
 
 import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.attributeClusterers.AttributeList;
+import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.attributeClusterers.DataPrecision;
 import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.attributeClusterers.KClusterAttributes;
 
 public class FFTContext {
@@ -25,6 +26,9 @@ public class FFTContext {
 	@ContainsTunables
 	public AttributeList attributeList = null;
 
+	@ContainsTunables
+	public DataPrecision dataPrecision = new DataPrecision();
+
 	public boolean selectedOnly = false;
 	
 	@Tunable(description="Use only selected nodes/edges for cluster", 
@@ -37,7 +37,9 @@ public class RunFFT extends AbstractKClusterAlgorithm{
 		int[] mapping = new int[nClusters];
 		int[] counts = new int[nClusters];
 
-		CyMatrix distanceMatrix = matrix.getDistanceMatrix(metric);
+		CyMatrix distanceMatrix = getDistanceMatrix(matrix, metric);
+		if (distanceMatrix == null)
+			return 0;
 
 		HashMap<Integer,Integer> centers = new HashMap<Integer,Integer>();
 
@@ -85,6 +87,7 @@ public class RunFFT extends AbstractKClusterAlgorithm{
 			clusterID[i] = center;
 		}
 
+		distanceMatrix.close();
 		return nClusters;
 	}
 
@@ -149,7 +149,7 @@ public class HierarchicalCluster extends AbstractAttributeClusterer implements O
 		// Create a new clusterer
 		DistanceMetric metric = context.metric.getSelectedValue();
 		RunHierarchical algorithm = new RunHierarchical(network, attributeArray, metric, 
-		                                                clusterMethod, monitor, context);
+		                                                clusterMethod, monitor, context, this);
 
 		// Cluster the attributes, if requested
 		if (context.clusterAttributes && (attributeArray.length > 1 || context.isAssymetric())) {
@@ -157,6 +157,7 @@ public class HierarchicalCluster extends AbstractAttributeClusterer implements O
 
 			// System.out.println("Clustering attributes");
 			Integer[] rowOrder = algorithm.cluster(true);
+			if (cancelled()) return;
 			attributeTree = algorithm.getAttributeList();
 			CyMatrix matrix = algorithm.getMatrix();
 			updateAttributes(network, SHORTNAME, rowOrder, attributeArray, 
@@ -172,6 +173,7 @@ public class HierarchicalCluster extends AbstractAttributeClusterer implements O
 		// Cluster the nodes
 		// System.out.println("Clustering nodes");
 		Integer[] rowOrder = algorithm.cluster(false);
+		if (cancelled()) return;
 		nodeTree = algorithm.getAttributeList();
 		CyMatrix matrix = algorithm.getMatrix();
 		updateAttributes(network, SHORTNAME, rowOrder, attributeArray, 
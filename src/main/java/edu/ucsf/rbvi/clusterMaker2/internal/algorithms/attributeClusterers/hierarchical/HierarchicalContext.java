@@ -45,6 +45,7 @@ import edu.ucsf.rbvi.clusterMaker2.internal.api.CyMatrix;
 import edu.ucsf.rbvi.clusterMaker2.internal.api.DistanceMetric;
 import edu.ucsf.rbvi.clusterMaker2.internal.api.Matrix;
 import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.attributeClusterers.AttributeList;
+import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.attributeClusterers.DataPrecision;
 
 public class HierarchicalContext {
 	CyNetwork network;
@@ -60,6 +61,9 @@ public class HierarchicalContext {
 	@ContainsTunables
 	public AttributeList attributeList = null;
 
+	@ContainsTunables
+	public DataPrecision dataPrecision = new DataPrecision();
+
 	@Tunable(description="Only use selected nodes/edges for cluster", groups={"Clustering Parameters"}, gravity=60)
 	public boolean selectedOnly = false;
 
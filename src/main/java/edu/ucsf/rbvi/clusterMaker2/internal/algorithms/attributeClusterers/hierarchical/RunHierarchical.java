@@ -47,7 +47,10 @@ import edu.ucsf.rbvi.clusterMaker2.internal.api.ClusterManager;
 // import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.attributeClusterers.Matrix;
 import edu.ucsf.rbvi.clusterMaker2.internal.api.DistanceMetric;
 import edu.ucsf.rbvi.clusterMaker2.internal.api.CyMatrix;
+import edu.ucsf.rbvi.clusterMaker2.internal.api.Matrix;
+import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.AbstractClusterAlgorithm;
 import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.matrix.CyMatrixFactory;
+import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.matrix.DistanceProgressImpl;
 import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.matrix.MatrixUtils;
 import edu.ucsf.rbvi.clusterMaker2.internal.utils.ModelUtils;
 
@@ -65,13 +68,16 @@ public class RunHierarchical {
 	List<String>attrList;
 	final boolean debug = false;
 	CyMatrix matrix = null;
+	AbstractClusterAlgorithm parentTask;
 
 	// Instance variables
 	ClusterMethod clusterMethod;
 
 	public RunHierarchical(CyNetwork network, String[] weightAttributes, DistanceMetric metric, 
-	                       ClusterMethod clusterMethod, TaskMonitor monitor, HierarchicalContext context) {
+	                       ClusterMethod clusterMethod, TaskMonitor monitor, HierarchicalContext context,
+	                       AbstractClusterAlgorithm parentTask) {
 		this.weightAttributes = weightAttributes;
+		this.parentTask = parentTask;
 		this.metric = metric;
 		this.clusterMethod = clusterMethod;
 		this.monitor = monitor;
@@ -95,7 +101,8 @@ public class RunHierarchical {
 
 		// Create the matrix
 		matrix = CyMatrixFactory.makeSmallMatrix(network, weightAttributes, context.selectedOnly, 
-		                                         context.ignoreMissing, transpose, context.isAssymetric());
+		                                         context.ignoreMissing, transpose, context.isAssymetric(),
+		                                         context.dataPrecision.getPrecision());
 
 		// System.out.println("Done");
 
@@ -121,6 +128,8 @@ public class RunHierarchical {
 
 		// Cluster
 		TreeNode[] nodeList = treeCluster(matrix, metric, clusterMethod);
+		if (parentTask.cancelled())
+			return null;
 		if (nodeList == null || nodeList.length == 0) 
 			monitor.showMessage(TaskMonitor.Level.ERROR,"treeCluster returned empty tree!");
 
@@ -230,7 +239,11 @@ public class RunHierarchical {
 
 		// System.out.println("Getting the distance matrix");
 
-		double[][] distanceMatrix = matrix.getDistanceMatrix(metric).toArray();
+		// Single linkage only reads the distance matrix, so it can use it where it is (which
+		// may be off the heap).  The others modify it, so they work on a copy.
+		Matrix distanceMatrix = matrix.getDistanceMatrix(metric, new DistanceProgressImpl(monitor, parentTask::cancelled));
+		if (distanceMatrix == null)
+			return null;
 
 		// System.out.println("Done");
 
@@ -253,21 +266,22 @@ public class RunHierarchical {
 			case MAXIMUM_LINKAGE:
 				if (monitor != null) 
 					monitor.showMessage(TaskMonitor.Level.INFO,"Calculating maximum linkage hierarchical cluster");
-				result = pmlcluster(matrix.nRows(), distanceMatrix);
+				result = pmlcluster(matrix.nRows(), distanceMatrix.toArray());
 				break;
 
 			case AVERAGE_LINKAGE:
 				if (monitor != null) 
 					monitor.showMessage(TaskMonitor.Level.INFO,"Calculating average linkage hierarchical cluster");
-				result = palcluster(matrix.nRows(), distanceMatrix);
+				result = palcluster(matrix.nRows(), distanceMatrix.toArray());
 				break;
 
 			case CENTROID_LINKAGE:
 				if (monitor != null) 
 					monitor.showMessage(TaskMonitor.Level.INFO,"Calculating centroid linkage hierarchical cluster");
-				result = pclcluster(matrix, distanceMatrix, metric);
+				result = pclcluster(matrix, distanceMatrix.toArray(), metric);
 				break;
 		}
+		distanceMatrix.close();
 		return result;
 	}
 
@@ -290,7 +304,7 @@ public class RunHierarchical {
  	 * it it files for some reason.
  	 **/
 
-	private TreeNode[] pslCluster(CyMatrix matrix, double[][] distanceMatrix, DistanceMetric metric) {
+	private TreeNode[] pslCluster(CyMatrix matrix, Matrix distanceMatrix, DistanceMetric metric) {
 		int nRows = matrix.nRows();
 		int nNodes = nRows-1;
 
@@ -307,7 +321,7 @@ public class RunHierarchical {
 
 		for (int row = 0; row < nRows; row++) {
 			if (distanceMatrix != null) {
-				for (int j = 0; j < row; j++) temp[j] = distanceMatrix[row][j];
+				for (int j = 0; j < row; j++) temp[j] = distanceMatrix.doubleValue(row, j);
 			} else {
 				for (int j = 0; j < row; j++)
 					temp[j] = metric.getMetric(matrix, matrix, row, j);
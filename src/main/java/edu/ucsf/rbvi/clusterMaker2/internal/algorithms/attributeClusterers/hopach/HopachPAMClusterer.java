@@ -92,6 +92,7 @@ public class HopachPAMClusterer extends AbstractAttributeClusterer {
 					       context.summaryMethod.getSelectedValue(), 
 					       context.maxLevel.getValue(), context.K.getValue(), context.L.getValue(), 
 					       context.forceInitSplit, context.minCostReduction.getValue());
+		algo.setPrecision(context.dataPrecision.getPrecision());
 
 	/*	
 		algo.setCreateGroups(createGroups);
@@ -15,6 +15,7 @@ import org.cytoscape.work.util.ListSingleSelection;
 import edu.ucsf.rbvi.clusterMaker2.internal.api.DistanceMetric;
 
 import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.attributeClusterers.AttributeList;
+import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.attributeClusterers.DataPrecision;
 import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.attributeClusterers.KClusterAttributes;
 import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.attributeClusterers.hopach.types.SplitCost;
 import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.numeric.SummaryMethod;
@@ -59,6 +60,9 @@ public class HopachPAMContext{
 	
 	@ContainsTunables
 	public AttributeList attributeList = null;
+
+	@ContainsTunables
+	public DataPrecision dataPrecision = new DataPrecision();
 		
 	@Tunable(description="Use only selected nodes/edges for cluster",
 			groups={"HOPACH Parameters"}, gravity=100)
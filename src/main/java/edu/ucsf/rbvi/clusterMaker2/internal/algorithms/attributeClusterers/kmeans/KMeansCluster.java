@@ -139,6 +139,7 @@ public class KMeansCluster extends AbstractAttributeClusterer {
 
 		// Create a new clusterer
 		RunKCluster algorithm = new RunKCluster(network, attributeArray, distanceMetric, monitor, context, this);
+		algorithm.setPrecision(context.dataPrecision.getPrecision());
 
 		// System.out.println("Algorithm defined");
 
@@ -56,6 +56,7 @@ import edu.ucsf.rbvi.clusterMaker2.internal.api.ClusterResults;
 import edu.ucsf.rbvi.clusterMaker2.internal.api.ClusterViz;
 import edu.ucsf.rbvi.clusterMaker2.internal.api.CyMatrix;
 import edu.ucsf.rbvi.clusterMaker2.internal.api.DistanceMetric;
+import edu.ucsf.rbvi.clusterMaker2.internal.api.Matrix;
 
 import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.AbstractClusterAlgorithm;
 import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.attributeClusterers.AbstractKClusterAlgorithm;
@@ -105,6 +106,14 @@ public class RunKCluster extends AbstractKClusterAlgorithm {
 				clusterID[i] = 0;
 		}
 
+		// The distances are only used to choose the initial centers, so get them once
+		Matrix distances = null;
+		if (nIterations != 0 && context.kcluster.initializeNearCenter) {
+			distances = getDistanceMatrix(matrix, metric);
+			if (distances == null)
+				return 0;
+		}
+
 		// System.out.println("Entering do loop for "+nClusters);
 		int iteration = 0;
 		do {
@@ -128,8 +137,7 @@ public class RunKCluster extends AbstractKClusterAlgorithm {
 					// System.out.println("Done randomly assigning elements "+nClusters);
 					// if (nIterations != 0) debugAssign(nClusters, nelements, tclusterid);
 				} else {
-					int centers[] = chooseCentralElementsAsCenters(nelements, nClusters, 
-					                                               matrix.getDistanceMatrix(metric).toArray(), tclusterid);
+					int centers[] = chooseCentralElementsAsCenters(nelements, nClusters, distances, tclusterid);
 				}
 			}
 			// System.out.println("Done assigning elements "+nClusters);
@@ -231,6 +239,8 @@ public class RunKCluster extends AbstractKClusterAlgorithm {
 		// System.out.println("Do loop complete for "+nClusters);
 
 		// System.out.println("ifound = "+ifound+", error = "+error);
+		if (distances != null)
+			distances.close();
   	return ifound;
 	}
 
@@ -137,6 +137,7 @@ public class KMedoidCluster extends AbstractAttributeClusterer {
 
 		// Create a new clusterer
 		RunKMedoidCluster algorithm = new RunKMedoidCluster(network, attributeArray, distanceMetric, monitor, context, this);
+		algorithm.setPrecision(context.dataPrecision.getPrecision());
 
 		// System.out.println("Algorithm defined");
 
@@ -53,6 +53,7 @@ import edu.ucsf.rbvi.clusterMaker2.internal.api.ClusterViz;
 import edu.ucsf.rbvi.clusterMaker2.internal.api.DistanceMetric;
 
 import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.attributeClusterers.AttributeList;
+import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.attributeClusterers.DataPrecision;
 import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.attributeClusterers.KClusterAttributes;
 
 // clusterMaker imports
@@ -79,6 +80,9 @@ public class KMedoidContext {
 	@ContainsTunables
 	public AttributeList attributeList = null;
 
+	@ContainsTunables
+	public DataPrecision dataPrecision = new DataPrecision();
+
 	public boolean selectedOnly = false;
 	@Tunable(description="Use only selected nodes/edges for cluster",
 	         longDescription = "If nodes are edges are selected, only cluster those nodes or edges.",
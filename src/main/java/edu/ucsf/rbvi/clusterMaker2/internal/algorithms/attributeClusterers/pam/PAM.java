@@ -96,12 +96,14 @@ public class PAM implements KClusterable {
 		this.idx = idx;
 		
 		if (dists == null) {
-			this.distances = data.getDistanceMatrix(metric);
+			// The submatrix view keeps its own reference to the data
+			Matrix allDistances = data.getDistanceMatrix(metric);
 			// this.distances = new DistanceMatrix(data, metric, idx);
+			this.distances = allDistances.submatrix(idx);
+			allDistances.close();
 		} else {
-			this.distances = dists;
+			this.distances = dists.submatrix(idx);
 		}
-		this.distances = distances.submatrix(idx);
 		
 		this.clusters = null;
 	}
@@ -121,6 +121,7 @@ public class PAMClusterer extends AbstractAttributeClusterer {
 		resetAttributes(network, SHORTNAME);
 
 		RunPAM algo = new RunPAM(network, attributeArray, distanceMetric, monitor, context, this);
+		algo.setPrecision(context.dataPrecision.getPrecision());
 
 		String resultsString = "PAM results:";
 
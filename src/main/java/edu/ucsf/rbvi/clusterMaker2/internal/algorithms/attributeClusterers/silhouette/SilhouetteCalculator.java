@@ -6,6 +6,7 @@ import java.util.TreeMap;
 import java.util.TreeSet;
 
 import edu.ucsf.rbvi.clusterMaker2.internal.api.CyMatrix;
+import edu.ucsf.rbvi.clusterMaker2.internal.api.Matrix;
 import edu.ucsf.rbvi.clusterMaker2.internal.api.DistanceMetric;
 import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.attributeClusterers.Clusters;
 
@@ -28,13 +29,17 @@ public class SilhouetteCalculator {
 	 */
 	public static Silhouettes calculate(CyMatrix matrix, DistanceMetric metric, int[] labels)
 	{
-		double[][] distanceMatrix = matrix.getDistanceMatrix(metric).toArray();
+		Matrix distances = matrix.getDistanceMatrix(metric);
+		double[][] distanceMatrix = distances.toArray();
+		distances.close();
 		return calculate(distanceMatrix, labels);
 	}
 	
 	public static Silhouettes calculate(CyMatrix matrix, DistanceMetric metric, Clusters clusters)
 	{
-		double[][] distanceMatrix = matrix.getDistanceMatrix(metric).toArray();
+		Matrix distances = matrix.getDistanceMatrix(metric);
+		double[][] distanceMatrix = distances.toArray();
+		distances.close();
 		return calculate(distanceMatrix, clusters);
 	}
 	
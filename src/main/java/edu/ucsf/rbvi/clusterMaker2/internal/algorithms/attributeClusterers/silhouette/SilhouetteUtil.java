@@ -10,6 +10,7 @@ import java.util.SortedSet;
 import java.util.TreeMap;
 import java.util.TreeSet;
 import edu.ucsf.rbvi.clusterMaker2.internal.api.CyMatrix;
+import edu.ucsf.rbvi.clusterMaker2.internal.api.Matrix;
 import edu.ucsf.rbvi.clusterMaker2.internal.api.DistanceMetric;
 
 
@@ -32,7 +33,9 @@ public class SilhouetteUtil {
      */
     public static SilhouetteResult SilhouetteCalculator(CyMatrix matrix, DistanceMetric metric, int[] labels)
     {
-        double[][] distanceMatrix = matrix.getDistanceMatrix(metric).toArray();
+        Matrix distances = matrix.getDistanceMatrix(metric);
+        double[][] distanceMatrix = distances.toArray();
+        distances.close();
         return SilhouetteCalculator(distanceMatrix, labels);
     }
     
@@ -57,6 +57,7 @@ import edu.ucsf.rbvi.clusterMaker2.internal.api.ClusterManager;
 import edu.ucsf.rbvi.clusterMaker2.internal.api.ClusterResults;
 import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.AbstractClusterAlgorithm;
 import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.FuzzyNodeCluster;
+import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.NetworkGraph;
 import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.NodeCluster;
 import edu.ucsf.rbvi.clusterMaker2.internal.ui.NewNetworkView;
 import edu.ucsf.rbvi.clusterMaker2.internal.utils.ModelUtils;
@@ -68,6 +69,8 @@ import edu.ucsf.rbvi.clusterMaker2.internal.utils.ModelUtils;
  */
 public abstract class AbstractNetworkFilter extends AbstractNetworkClusterer {
 	protected String groupAttribute;
+	// The snapshot of the network being filtered
+	protected NetworkGraph graph;
 
 	public AbstractNetworkFilter(ClusterManager clusterManager, String groupAttribute) { 
 		super(clusterManager); 
@@ -82,6 +85,7 @@ public abstract class AbstractNetworkFilter extends AbstractNetworkClusterer {
 			network = clusterManager.getNetwork();
 
 		clusterAttributeName = getClusterAttributeName();
+		graph = NetworkGraph.cached(clusterManager.getNetworkCache(), network);
 
 		// get the cluster list
 		List<NodeCluster> clusterList = AbstractNetworkClusterer.getNodeClusters(network, getClusterAttribute());
@@ -33,6 +33,7 @@
 package edu.ucsf.rbvi.clusterMaker2.internal.algorithms.clusterFilters.BestNeighbor;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -91,17 +92,18 @@ public class BestNeighborFilter extends AbstractNetworkFilter {
 	 * our cluster
 	 */
 	public NodeCluster doFilter(List<CyNode>nodeList, Map<NodeCluster, List<CyNode>> addedNodeMap) {
-		Set<CyNode> clusterNodes = new HashSet<CyNode>(nodeList);
+		int[] clusterNodes = graph.indicesOf(nodeList);
 		List<CyNode> newNodeList = new ArrayList<CyNode>();
 		newNodeList.addAll(nodeList);
 		List<CyNode> nodesToAdd = new ArrayList<CyNode>();
-		for (CyNode node: nodeList) {
-			for (CyNode neighbor: network.getNeighborList(node, CyEdge.Type.ANY)) {
-				if (clusterNodes.contains(neighbor)) continue;
+		for (int node: clusterNodes) {
+			for (int i = graph.adjacencyStart(node); i < graph.adjacencyEnd(node); i++) {
+				int neighbor = graph.getNeighbor(i);
+				if (Arrays.binarySearch(clusterNodes, neighbor) >= 0) continue;
 				double adjacency = getAdjacency(neighbor, clusterNodes);
 				if (adjacency > context.threshold) {
 					// Add this node to our list
-					nodesToAdd.add(neighbor);
+					nodesToAdd.add(graph.getNode(neighbor));
 				}
 			}
 		}
@@ -117,14 +119,15 @@ public class BestNeighborFilter extends AbstractNetworkFilter {
 		return null;
 	}
 
-	private double getAdjacency(CyNode neighbor, Set<CyNode> clusterNodes) {
-		List<CyEdge> edgeList = network.getAdjacentEdgeList(neighbor, CyEdge.Type.ANY);
-		int totalEdges = edgeList.size();
+	private double getAdjacency(int neighbor, int[] clusterNodes) {
+		int totalEdges = graph.degree(neighbor);
 		if (totalEdges == 0) return 0;
 
 		int adjacentEdges = 0;
-		for (CyEdge edge: edgeList) {
-			if (clusterNodes.contains(edge.getSource()) || clusterNodes.contains(edge.getTarget())) {
+		for (int i = graph.adjacencyStart(neighbor); i < graph.adjacencyEnd(neighbor); i++) {
+			int edge = graph.getAdjacentEdge(i);
+			if (Arrays.binarySearch(clusterNodes, graph.getSource(edge)) >= 0 ||
+			    Arrays.binarySearch(clusterNodes, graph.getTarget(edge)) >= 0) {
 				adjacentEdges += 1;
 			}
 		}
@@ -33,6 +33,7 @@
 package edu.ucsf.rbvi.clusterMaker2.internal.algorithms.clusterFilters.CuttingEdge;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -87,21 +88,25 @@ public class CuttingEdgeFilter extends AbstractNetworkFilter {
 	public boolean showUI() {return context.vizProperties.showUI;}
 
 	public NodeCluster doFilter(List<CyNode>nodeList, Map<NodeCluster, List<CyNode>> addedNodeMap) {
-		// Get the total number of edges for all nodes
-		Set<CyEdge> allEdges = new HashSet<CyEdge>();
-		for (CyNode node: nodeList) {
-			List<CyEdge> edgeList = network.getAdjacentEdgeList(node, CyEdge.Type.ANY);
-			if (edgeList == null && edgeList.size() == 0) continue;
-			allEdges.addAll(edgeList);
+		// Get the total number of edges for all nodes, and the number
+		// of edges within the cluster.  An edge between two nodes in the
+		// cluster is seen from both ends, so only count it from one.
+		int[] members = graph.indicesOf(nodeList);
+		int totalEdges = 0;
+		int innerEdges = 0;
+		for (int node: members) {
+			for (int i = graph.adjacencyStart(node); i < graph.adjacencyEnd(node); i++) {
+				int neighbor = graph.getNeighbor(i);
+				if (Arrays.binarySearch(members, neighbor) < 0) {
+					totalEdges++;
+				} else if (neighbor >= node) {
+					totalEdges++;
+					innerEdges++;
+				}
+			}
 		}
-		int totalEdges = allEdges.size();
 		if (totalEdges == 0) return null;
 
-		// Get the number of edges within the cluster
-		List<CyEdge> edgeList = ModelUtils.getConnectingEdges(network,nodeList);
-		if (edgeList == null) return null;
-
-		int innerEdges = edgeList.size();
 		double ep = (double)innerEdges/(double)totalEdges;
 		System.out.println("innerEdges = "+innerEdges+", totalEdges = "+totalEdges);
 		System.out.println("Ratio = "+ep+", edgeProportion = "+context.edgeProportion);
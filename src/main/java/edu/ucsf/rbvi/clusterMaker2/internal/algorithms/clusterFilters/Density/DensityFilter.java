@@ -88,7 +88,7 @@ public class DensityFilter extends AbstractNetworkFilter {
 
 	public NodeCluster doFilter(List<CyNode>nodeList, Map<NodeCluster, List<CyNode>> addedNodeMap) {
 		// Get the number of edges within the cluster
-		List<CyEdge> edgeList = ModelUtils.getConnectingEdges(network,nodeList);
+		List<CyEdge> edgeList = graph.getConnectingEdges(nodeList);
 		if (edgeList == null) return null;
 		int edgeCount = edgeList.size();
 		int nodeCount = nodeList.size();
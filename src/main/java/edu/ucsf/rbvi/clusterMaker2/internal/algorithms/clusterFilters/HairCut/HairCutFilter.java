@@ -88,7 +88,7 @@ public class HairCutFilter extends AbstractNetworkFilter {
 
 	public NodeCluster doFilter(List<CyNode>nodeList, Map<NodeCluster, List<CyNode>> addedNodeMap) {
 		// Get the number of edges within the cluster
-		List<CyEdge> edgeList = ModelUtils.getConnectingEdges(network,nodeList);
+		List<CyEdge> edgeList = graph.getConnectingEdges(nodeList);
 		Map<CyNode, Integer> degreeMap = new HashMap<CyNode, Integer>();
 
 		for (CyEdge edge: edgeList) {
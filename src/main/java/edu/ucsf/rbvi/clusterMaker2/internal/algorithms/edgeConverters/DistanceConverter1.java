@@ -31,4 +31,11 @@ public class DistanceConverter1 implements EdgeWeightConverter {
 
 		return 1.0/weight;
 	}
+
+	/**
+ 	 * The conversion only depends on the weight
+ 	 *
+ 	 * @return false
+ 	 */
+	public boolean usesRange() { return false; }
 }
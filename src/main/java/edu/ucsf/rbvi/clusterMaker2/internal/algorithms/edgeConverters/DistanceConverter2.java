@@ -30,4 +30,11 @@ public class DistanceConverter2 implements EdgeWeightConverter {
 		if (Double.isNaN(weight)) return weight;
 		return 1.00-weight;
 	}
+
+	/**
+ 	 * The conversion only depends on the weight
+ 	 *
+ 	 * @return false
+ 	 */
+	public boolean usesRange() { return false; }
 }
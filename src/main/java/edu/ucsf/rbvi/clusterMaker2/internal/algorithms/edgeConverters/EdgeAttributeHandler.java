@@ -34,7 +34,8 @@ import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.edgeConverters.NegLogConv
 import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.edgeConverters.NoneConverter;
 import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.edgeConverters.SCPSConverter;
 import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.edgeConverters.ThresholdHeuristic;
-import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.matrix.CyMatrixFactory;
+import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.matrix.EdgeWeights;
+import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.matrix.SortedEdgeWeights;
 
 import edu.ucsf.rbvi.clusterMaker2.internal.ui.HistogramDialog;
 import edu.ucsf.rbvi.clusterMaker2.internal.ui.HistoChangeListener;
@@ -45,6 +46,12 @@ public class EdgeAttributeHandler implements HistoChangeListener, RequestsUIHelp
 
 	private CyMatrix matrix = null;
 	private CyNetwork network = null;
+	// The raw edge weights, so that changing the cutoff or the converter
+	// doesn't read the edge table again
+	private EdgeWeights weights = null;
+	// The converted weights in order, for the slider bounds, the histogram
+	// and the threshold heuristic
+	private SortedEdgeWeights sortedWeights = null;
 
 	// Remember all of our state so we can avoid unnecessary calls
 	// to CyMatrixFactory
@@ -187,6 +194,8 @@ public class EdgeAttributeHandler implements HistoChangeListener, RequestsUIHelp
 		this.network = network;
 		attribute = ModelUtils.updateEdgeAttributeList(network, attribute);
 		this.matrix = null;
+		this.weights = null;
+		this.sortedWeights = null;
 	}
 
 	/**
@@ -197,7 +206,9 @@ public class EdgeAttributeHandler implements HistoChangeListener, RequestsUIHelp
 	 *   4) The edge weight conversion has changed.
 	 * If we got here for reason 2,3, or 4, we need to rebuild our
 	 * slider and reset everything.  If we got here for reason one, we
-	 * just need to rebuild the matrix.
+	 * just need to forget the matrix, which will be built at the new
+	 * cutoff when it's asked for.  The slider only needs the sorted
+	 * weights, so moving it doesn't build anything.
 	 */
 	public BoundedDouble updateBounds() {
 		if (attribute == null || attribute.getSelectedValue().equals("--None--")) {
@@ -210,28 +221,22 @@ public class EdgeAttributeHandler implements HistoChangeListener, RequestsUIHelp
 		if (!somethingChanged())
 			return edgeCutOff;
 
+		// Any matrix we have is for the old settings
+		this.matrix = null;
+
 		// If we've only updated the cutoff, don't change
 		// anything else
-		boolean cutoffOnly = cutoffOnly();
-
-		double base = edgeCutOff.getValue();
-		if (!cutoffOnly) {
-			base = Double.MIN_VALUE;
-		}
-
-		// System.out.println("Getting distance matrix");
-		// this.matrix = new DistanceMatrix(network, attribute.getSelectedValue(), 
-		//                                  selectedOnly, edgeWeighter.getSelectedValue());
-		this.matrix = CyMatrixFactory.makeLargeMatrix(network, attribute.getSelectedValue(), 
-		                                              selectedOnly, edgeWeighter.getSelectedValue(),
-																									undirectedEdges, base);
-		if (cutoffOnly)
+		if (cutoffOnly()) {
+			cutOff = edgeCutOff.getValue();
 			return edgeCutOff;
+		}
 
 		// So, something besides just the cutoff changed, so we need
 		// to rebuild the slider, etc.
-		double max = matrix.getMaxValue();
-		double min = matrix.getMinValue();
+		this.sortedWeights = null;
+		SortedEdgeWeights sorted = getSortedWeights();
+		double max = sorted.getMaxValue();
+		double min = sorted.getMinValue();
 
 		if ((max != edgeCutOff.getUpperBound()) || 
 		    (min != edgeCutOff.getLowerBound()) && (max > min)) {
@@ -255,19 +260,18 @@ public class EdgeAttributeHandler implements HistoChangeListener, RequestsUIHelp
 	}
 
 	public void createHistogramDialog() {
-		if (this.matrix == null)
-			getMatrix();
+		SortedEdgeWeights sorted = getSortedWeights();
 
-		ThresholdHeuristic thueristic = new ThresholdHeuristic(matrix);
+		ThresholdHeuristic thueristic = new ThresholdHeuristic(sorted);
 
 		// TODO: There really needs to be a better way to calculate the number of bins
 		int nbins = 100;
-		if (matrix.nRows()*matrix.nColumns() < 100)
+		if (sorted.nNodes()*sorted.nNodes() < 100)
 			nbins = 10;
 		// else if (dataArray.length > 10000)
 		// 	nbins = 1000;
 		String title = "Histogram for "+attribute.getSelectedValue()+" edge attribute";
-		histo = new HistogramDialog(helper.getParent(), title, matrix, nbins, thueristic);
+		histo = new HistogramDialog(helper.getParent(), title, sorted, nbins, thueristic);
 		histo.pack();
 		histo.setVisible(true);
 		histo.addHistoChangeListener(this);
@@ -276,9 +280,11 @@ public class EdgeAttributeHandler implements HistoChangeListener, RequestsUIHelp
 	public CyMatrix getMatrix() {
 		if (this.matrix == null) {
 			if (attribute.getSelectedValue() == null) return null;
-			this.matrix = CyMatrixFactory.makeLargeMatrix(network, attribute.getSelectedValue(), 
-			                                              selectedOnly, edgeWeighter.getSelectedValue(),
-																										undirectedEdges, edgeCutOff.getValue());
+			if (weights == null || !weights.isCurrent(network, attribute.getSelectedValue(), selectedOnly))
+				weights = new EdgeWeights(network, attribute.getSelectedValue(), selectedOnly);
+			// The sorted weights let a new cutoff only look at the edges that pass it
+			this.matrix = weights.makeMatrix(edgeWeighter.getSelectedValue(), undirectedEdges, 
+			                                 edgeCutOff.getValue(), sortedWeights);
 		}
 
 		if (adjustLoops)
@@ -287,6 +293,22 @@ public class EdgeAttributeHandler implements HistoChangeListener, RequestsUIHelp
 		return this.matrix;
 	}
 
+	/**
+	 * Return the converted edge weights in sorted order.  These don't depend
+	 * on the cutoff, so they are kept until the attribute, the converter or
+	 * the nodes change.
+	 *
+	 * @return the sorted edge weights
+	 */
+	public SortedEdgeWeights getSortedWeights() {
+		if (this.sortedWeights == null) {
+			if (weights == null || !weights.isCurrent(network, attribute.getSelectedValue(), selectedOnly))
+				weights = new EdgeWeights(network, attribute.getSelectedValue(), selectedOnly);
+			this.sortedWeights = weights.sortWeights(edgeWeighter.getSelectedValue(), Double.MIN_VALUE);
+		}
+		return this.sortedWeights;
+	}
+
 	public void setParams(List<String> params) {
 		if (adjustLoops)
 			params.add("adjustLoops");
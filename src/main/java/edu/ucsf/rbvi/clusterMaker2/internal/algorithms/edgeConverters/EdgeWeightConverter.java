@@ -31,4 +31,12 @@ public interface EdgeWeightConverter {
  	 * @return the converted edge weight
  	 */
 	public double convert(double weight, double minValue, double maxValue);
+
+	/**
+ 	 * Return true if the converted weight depends on the minimum and
+ 	 * maximum values, and not just on the weight
+ 	 *
+ 	 * @return true if convert uses minValue or maxValue
+ 	 */
+	default public boolean usesRange() { return true; }
 }
@@ -28,4 +28,11 @@ public class NoneConverter implements EdgeWeightConverter {
 	public double convert(double weight, double minValue, double maxValue) {
 		return weight;
 	}
+
+	/**
+ 	 * The conversion only depends on the weight
+ 	 *
+ 	 * @return false
+ 	 */
+	public boolean usesRange() { return false; }
 }
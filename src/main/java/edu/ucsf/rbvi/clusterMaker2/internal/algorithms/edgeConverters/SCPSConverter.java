@@ -38,4 +38,11 @@ public class SCPSConverter implements EdgeWeightConverter {
 	    weight = 1/(1 + Math.exp(w*Math.log10(weight) + b));
 	    return weight;
 	}
+
+	/**
+ 	 * The conversion only depends on the weight
+ 	 *
+ 	 * @return false
+ 	 */
+	public boolean usesRange() { return false; }
 }
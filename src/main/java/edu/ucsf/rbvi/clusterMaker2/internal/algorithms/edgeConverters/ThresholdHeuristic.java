@@ -1,21 +1,13 @@
 package edu.ucsf.rbvi.clusterMaker2.internal.algorithms.edgeConverters;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
-import java.util.Iterator;
-
-import org.cytoscape.model.CyEdge;
-import org.cytoscape.model.CyNetwork;
-import org.cytoscape.model.CyNode;
-import org.cytoscape.model.CyNetworkManager;
+import java.util.Arrays;
 
+import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.matrix.SortedEdgeWeights;
 import edu.ucsf.rbvi.clusterMaker2.internal.api.CyMatrix;
 
 public class ThresholdHeuristic{
 
-	private CyMatrix matrix;
+	private SortedEdgeWeights weights;
 
 	//total minimum and maximum weights encoutered in edgeWeight array
 	private int totalMin = 100000000;
@@ -25,14 +17,18 @@ public class ThresholdHeuristic{
 	private double binFactor;
 
 	public ThresholdHeuristic(CyMatrix matrix){
-		this.matrix = matrix;
+		this(SortedEdgeWeights.fromMatrix(matrix));
+	}
+
+	public ThresholdHeuristic(SortedEdgeWeights weights){
+		this.weights = weights;
 		setBinFactor();
 	}
 
 	//calculates the binFactor. Multiplies edgeweights by binFactor edge weight range less then 100
 	private void setBinFactor(){
-		double minWeight = matrix.getMinValue();
-		double maxWeight = matrix.getMaxValue();
+		double minWeight = weights.getMinValue();
+		double maxWeight = weights.getMaxValue();
 		double weightRange;
 
 		weightRange = maxWeight - minWeight;
@@ -51,70 +47,33 @@ public class ThresholdHeuristic{
 
 	//run threshold heuristic, returning -1000 if no threshold is found
 	public double run() {
+		if(weights.size() == 0)
+		    return -1000;
+
+		//the weights are sorted, so the bins of the first and last are the extremes
+		totalMin = (int)(weights.getValue(0)*binFactor);
+		totalMax = (int)(weights.getValue(weights.size()-1)*binFactor);
+
 		int[] numConnectedNodes  = getNumConnectedNodes();
 		int[] seArray = getSEarray();
 
-		if(seArray.length == 0)
-		    return -1000;
-
 		return selectThreshold(numConnectedNodes,seArray);
 	}
 
 	//return the number of non-singleton nodes at each edge weight (rounded to the nearest integer)
 	private int[] getNumConnectedNodes(){
-		//maps id of each node to its maximum edge weight connection
-		HashMap <Integer,Integer>  maxNodeConnection = new HashMap<Integer, Integer>();
-
 		//each index of array maps number of non-singleton nodes remaining at 
 		//index (taking account a shift such that lowest index is zero)
-		int[] numConnectedNodes = null;
-
-		for (int row = 0; row < matrix.nRows(); row++) {
-			for (int col = row; col < matrix.nColumns(); col++) {
-				if (!matrix.hasValue(row, col))
-					continue;
-
-				int edgeWeight = (int)(matrix.doubleValue(row, col)*binFactor);
-
-				//update totalMin and totalMax, if neccesary
-				if(totalMin > edgeWeight)
-					totalMin = edgeWeight;
-
-				if(totalMax < edgeWeight)
-					totalMax = edgeWeight;
-
-		    //update the maximum EdgeWeight associated with each source and target nodes
-				if(maxNodeConnection.get(row) != null){
-					int maxWeight = maxNodeConnection.get(row).intValue();
-
-					//update max EdgeWeight for node if neccesary
-					if(maxWeight < edgeWeight)
-						maxNodeConnection.put(row,new Integer(edgeWeight));
-				} else {
-					maxNodeConnection.put(row,new Integer(edgeWeight));
-				}
-
-				if(maxNodeConnection.get(col) != null){
-					int maxWeight = maxNodeConnection.get(col).intValue();
-
-					//update max EdgeWeight for node if neccesary
-					if(maxWeight < edgeWeight)
-						maxNodeConnection.put(col,new Integer(edgeWeight));
-				} else {
-					maxNodeConnection.put(col,new Integer(edgeWeight));
-				}
-			}
-		}
-
-		//initialize array
-		numConnectedNodes = initDistributionArray();
+		int[] numConnectedNodes = initDistributionArray();
 
-		//Iterate through maxNodeConnection values, updating the numConnectedNodes array
-		for (Integer value: maxNodeConnection.values()) {
-	    int index = shiftIndex(value);
+		//bin each node by its maximum edge weight
+		for (int node = 0; node < weights.nNodes(); node++) {
+			double maxWeight = weights.getNodeMaximum(node);
+			if (Double.isNaN(maxWeight))
+				continue;
 
-	    //increment numConnected Nodes at index
-	    numConnectedNodes[index] += 1;
+			//increment numConnected Nodes at index
+			numConnectedNodes[shiftIndex((int)(maxWeight*binFactor))] += 1;
 		}
 
 		return numConnectedNodes;
@@ -122,12 +81,7 @@ public class ThresholdHeuristic{
 
 	//initialize numConnectedNodes array or SEarray
 	private int[] initDistributionArray(){
-		int[] distribArray = new int[shiftIndex(totalMax + 1)];
-
-		for(int i = 0; i < distribArray.length; i++)
-			distribArray[i] = 0;
-
-		return distribArray;
+		return new int[shiftIndex(totalMax + 1)];
 	}
 
 	//takes edge weight threshold value and adjusts it thus that the min threshold corresponds to Zero index in array
@@ -135,26 +89,10 @@ public class ThresholdHeuristic{
 
 	//intializes array where each index represents the number of edges remaining after a shifted threshold is applied
 	private int[] getSEarray(){
-
-		int[] distribArray = initDistributionArray();
+		//every entry sums the whole edgeweight distribution, which is just the number
+		//of edges, so there's no need to bin them
 		int[] seArray = initDistributionArray();
-
-		//loop through edge weights, and create the network distribution
-		for(int row = 0; row < matrix.nRows(); row++){
-			for(int col = row; col < matrix.nColumns(); col++){
-				if (matrix.hasValue(row, col)) {
-	  	  	int edgeWeight = (int)(matrix.doubleValue(row, col)*binFactor);
-	    		int index = shiftIndex(edgeWeight);
-	    		distribArray[index] += 1;
-				}
-			}
-		}
-
-		//Create SE array from edgeweight distribution
-		for(int i = 0; i < distribArray.length; i++)
-			for(int j = 0; j < distribArray.length; j++)
-				seArray[i] += distribArray[j];
-
+		Arrays.fill(seArray, weights.size());
 		return seArray;
 	}
 
@@ -32,6 +32,7 @@ import edu.ucsf.rbvi.clusterMaker2.internal.api.DistanceMetric;
 import edu.ucsf.rbvi.clusterMaker2.internal.api.Matrix;
 import edu.ucsf.rbvi.clusterMaker2.internal.api.Matrix.DISTRIBUTION;
 import edu.ucsf.rbvi.clusterMaker2.internal.api.MatrixOps;
+import edu.ucsf.rbvi.clusterMaker2.internal.api.RowView;
 
 public class ColtMatrix implements Matrix {
 	protected DoubleMatrix2D data;
@@ -391,20 +392,7 @@ public class ColtMatrix implements Matrix {
 	 * @return a new Matrix of the distances between the rows
 	 */
 	public Matrix getDistanceMatrix(DistanceMetric metric) {
-		ColtMatrix mat = new ColtMatrix(nRows, nRows);
-		mat.transposed = false;
-		mat.symmetric = true;
-		mat.rowLabels = Arrays.copyOf(rowLabels, rowLabels.length);
-		mat.columnLabels = Arrays.copyOf(rowLabels, rowLabels.length);
-
-		IntStream.range(0, nRows).parallel()
-			.forEach(row -> IntStream.range(row, nRows)
-				.forEach(column -> {
-						mat.setValue(row, column, metric.getMetric(this, this, row, column));
-						if (row != column)
-							mat.setValue(column, row, metric.getMetric(this, this, row, column));
-				}));
-		return mat;
+		return TriangularMatrix.distanceMatrix(this, metric);
 	}
  
 	/**
@@ -429,6 +417,19 @@ public class ColtMatrix implements Matrix {
 		return data.viewRow(row).toArray();
 	}
 
+	/**
+	 * Return a view of a row.  The Colt storage doesn't expose its
+	 * rows, so this is a single bulk copy of the row.
+	 *
+	 * @param row the row to get the data from
+	 * @return a view of the row
+	 */
+	public RowView getRowView(int row) {
+		if (index != null)
+			return Matrix.super.getRowView(row);
+		return new RowView(getRow(row));
+	}
+
 	public double[] getColumn(int col) {
 		return data.viewColumn(col).toArray();
 	}
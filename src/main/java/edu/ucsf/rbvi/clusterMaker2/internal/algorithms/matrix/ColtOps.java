@@ -3,10 +3,6 @@ package edu.ucsf.rbvi.clusterMaker2.internal.algorithms.matrix;
 import java.text.DecimalFormat;
 import java.util.Arrays;
 import java.util.List;
-import java.util.concurrent.Callable;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.TimeUnit;
 
 import org.cytoscape.application.CyUserLog;
 import org.apache.log4j.Logger;
@@ -30,7 +26,6 @@ public class ColtOps implements MatrixOps {
 	private static double EPSILON=Math.sqrt(Math.pow(2, -52));//get tolerance to reduce eigens
 	private DenseDoubleEigenvalueDecomposition decomp = null;
 	private DenseDoubleSingularValueDecomposition svdDecomp = null;
-	private int nThreads = -1;
 	final Logger logger = Logger.getLogger(CyUserLog.NAME);
 
 	// For debugging messages
@@ -39,7 +34,6 @@ public class ColtOps implements MatrixOps {
 	private final ColtMatrix matrix;
 
 	public ColtOps(ColtMatrix matrix) {
-		nThreads = Runtime.getRuntime().availableProcessors()-1;
 		this.matrix = matrix;
 	}
 
@@ -308,54 +302,12 @@ public class ColtOps implements MatrixOps {
 	}
 
 	// For some reason, the parallelcolt version of zMult doesn't
-	// really take advantage of the available cores.  This version does, but
-	// it seems like it only works for multiplying matrices of the same
-	// size.
+	// really take advantage of the available cores.  This version splits
+	// the rows of the result across the fork/join pool, using a blocked
+	// kernel for dense data and a sparse accumulator for sparse data.
 	public Matrix multiplyMatrix(Matrix matrix2) {
-		// return mult(matrix);
-		// if (matrix2.nRows() != matrix.nRows() || matrix2.nColumns() != matrix.nColumns()())
-		// 	return mult(matrix);
-
-		DoubleMatrix2D A = getData();
-		DoubleMatrix2D B = matrix2.getColtMatrix();
-
-		int m = A.rows();
-		int n = A.columns();
-		int p = B.columns();
-
-		// Create views into B
-		final DoubleMatrix1D[] Brows= new DoubleMatrix1D[n];
-		for (int i = n; --i>=0; ) Brows[i] = B.viewRow(i);
-
-		// Create a series of 1D vectors
-		final DoubleMatrix1D[] Crows= new DoubleMatrix1D[m];
-		for (int i = m; --i>=0; ) Crows[i] = B.like1D(p);
-
-		// Create the thread pools
-		final ExecutorService[] threadPools = new ExecutorService[nThreads];
-		for (int pool = 0; pool < threadPools.length; pool++) {
-				threadPools[pool] = Executors.newFixedThreadPool(1);
-		}
-
-		A.forEachNonZero(
-			new IntIntDoubleFunction() {
-				public double apply(int row, int column, double value) {
-
-					Runnable r = new ThreadedDotProduct(value, Brows[column], Crows[row]);
-					threadPools[row%nThreads].submit(r);
-					return value;
-				}
-			}
-		);
-
-		for (int pool = 0; pool < threadPools.length; pool++) {
-			threadPools[pool].shutdown();
-			try {
-				boolean result = threadPools[pool].awaitTermination(7, TimeUnit.DAYS);
-			} catch (Exception e) {}
-		}
-		// Recreate C
-		return new ColtMatrix(matrix, create2DMatrix(Crows));
+		DoubleMatrix2D C = ParallelMultiply.multiply(getData(), matrix2.getColtMatrix());
+		return new ColtMatrix(matrix, C);
 	}
 
 	/**
@@ -500,19 +452,6 @@ public class ColtOps implements MatrixOps {
 		);
 	}
 
-	private DoubleMatrix2D create2DMatrix (DoubleMatrix1D[] rows) {
-		int columns = (int)rows[0].size();
-		DoubleMatrix2D C = DoubleFactory2D.sparse.make(rows.length, columns);
-		for (int row = 0; row < rows.length; row++) {
-			for (int col = 0; col < columns; col++) {
-				double value = rows[row].getQuick(col);
-				if (value != 0.0)
-					C.setQuick(row, col, value);
-			}
-		}
-		return C;
-	}
-
 	public Matrix covariance() {
 		// We want a dense matrix for this
 		DoubleMatrix2D data = DoubleFactory2D.dense.make(getData().toArray());
@@ -622,28 +561,4 @@ public class ColtOps implements MatrixOps {
 		result.nColumns = mat.columns();
 		return result;
 	}
-
-	private class ThreadedDotProduct implements Runnable {
-		double value;
-		DoubleMatrix1D Bcol;
-		DoubleMatrix1D Crow;
-		// final cern.jet.math.PlusMult fun = cern.jet.math.PlusMult.plusMult(0);
-
-		ThreadedDotProduct(double value, DoubleMatrix1D Bcol, 
-		                   DoubleMatrix1D Crow) {
-			this.value = value;
-			this.Bcol = Bcol;
-			this.Crow = Crow;
-		}
-
-		public void run() {
-			// fun.multiplicator = value;
-			for (int k = 0; k < Bcol.size(); k++) {
-				if (Bcol.getQuick(k) != 0.0) {
-					Crow.setQuick(k, Crow.getQuick(k)+Bcol.getQuick(k)*value);
-				}
-			}
-			// Crow.assign(Bcol, fun);
-		}
-	}
 }
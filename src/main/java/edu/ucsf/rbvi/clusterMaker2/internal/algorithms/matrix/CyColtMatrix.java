@@ -12,6 +12,7 @@ import cern.colt.matrix.tdouble.DoubleMatrix2D;
 import edu.ucsf.rbvi.clusterMaker2.internal.api.CyMatrix;
 import edu.ucsf.rbvi.clusterMaker2.internal.api.DistanceMetric;
 import edu.ucsf.rbvi.clusterMaker2.internal.api.Matrix;
+import edu.ucsf.rbvi.clusterMaker2.internal.api.NearestNeighbors;
 
 /**
  * A wrapper around the Parallel Colt matrix, with
@@ -183,13 +184,11 @@ public class CyColtMatrix extends ColtMatrix implements CyMatrix {
 	}
 
 	public CyMatrix getDistanceMatrix(DistanceMetric metric) {
-		CyColtMatrix dist = new CyColtMatrix(network, nRows, nRows);
-		if (rowNodes != null) {
-			dist.rowNodes = Arrays.copyOf(rowNodes, nRows);
-			dist.columnNodes = Arrays.copyOf(rowNodes, nRows);
-		}
-		Matrix cMatrix = super.getDistanceMatrix(metric);
-		return dist.copy(cMatrix);
+		return CyTriangularMatrix.getDistanceMatrix(this, metric);
+	}
+
+	public NearestNeighbors getNearestNeighbors(DistanceMetric metric, int k, double sampleRate) {
+		return NearestNeighborsImpl.build(this, metric, k, sampleRate);
 	}
 
 	/**
@@ -0,0 +1,303 @@
+package edu.ucsf.rbvi.clusterMaker2.internal.algorithms.matrix;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.cytoscape.model.CyNetwork;
+import org.cytoscape.model.CyNode;
+
+import edu.ucsf.rbvi.clusterMaker2.internal.api.CyMatrix;
+import edu.ucsf.rbvi.clusterMaker2.internal.api.DistanceCache;
+import edu.ucsf.rbvi.clusterMaker2.internal.api.DistanceMetric;
+import edu.ucsf.rbvi.clusterMaker2.internal.api.DistanceProgress;
+import edu.ucsf.rbvi.clusterMaker2.internal.api.Matrix;
+import edu.ucsf.rbvi.clusterMaker2.internal.api.NearestNeighbors;
+
+/**
+ * A wrapper around the single precision matrix, with
+ * information necessary to support Cytoscape objects
+ */
+public class CyFloatMatrix extends FloatMatrix implements CyMatrix {
+	protected CyNetwork network;
+	protected CyNode[] rowNodes = null;
+	protected CyNode[] columnNodes = null;
+	protected boolean assymetricalEdge = false;
+	protected CyFloatMatrix dist = null;
+	protected DistanceCache distanceCache = null;
+	protected NearestNeighbors neighbors = null;
+
+	public CyFloatMatrix(CyNetwork network) {
+		super();
+		this.network = network;
+	}
+
+	public CyFloatMatrix(CyNetwork network, int rows, int columns) {
+		super(rows, columns);
+		this.network = network;
+	}
+
+	public CyFloatMatrix(CyFloatMatrix matrix) {
+		super((FloatMatrix)matrix);
+		network = matrix.network;
+		assymetricalEdge = matrix.assymetricalEdge;
+		if (matrix.rowNodes != null)
+			rowNodes = Arrays.copyOf(matrix.rowNodes, matrix.rowNodes.length);
+		if (matrix.columnNodes != null)
+			columnNodes = Arrays.copyOf(matrix.columnNodes, matrix.columnNodes.length);
+	}
+
+	/**
+	 * Return the network associated with this matrix
+	 *
+	 * @return the network
+	 */
+	public CyNetwork getNetwork() {
+		return network;
+	}
+
+	/**
+	 * Set the nodes for all rows
+	 *
+	 * @param rowNodes array of {@link CyNode}s for the rows
+	 */
+	public void setRowNodes(CyNode rowNodes[]) {
+		this.rowNodes = rowNodes;
+	}
+
+	/**
+	 * Set the nodes for all rows
+	 *
+	 * @param rowNodes list of {@link CyNode}s for the rows
+	 */
+	public void setRowNodes(List<CyNode> rowNodes) {
+		this.rowNodes = rowNodes.toArray(new CyNode[0]);
+	}
+
+	/**
+	 * Set the node for a particular row
+	 *
+	 * @param row the row to get the node for
+	 * @param node the node for that row
+	 */
+	public void setRowNode(int row, CyNode node) {
+		if (rowNodes == null) {
+			rowNodes = new CyNode[nRows()];
+		}
+		rowNodes[row] = node;
+	}
+
+	/**
+	 * Get the nodes for all rows
+	 *
+	 * @return the nodes for all rows
+	 */
+	public List<CyNode> getRowNodes() {
+		if (rowNodes == null)
+			return null;
+		return Arrays.asList(rowNodes);
+	}
+
+	/**
+	 * Get the node for a particular row
+	 *
+	 * @param row the row to get the node for
+	 * @return the node for that row
+	 */
+	public CyNode getRowNode(int row) {
+		return rowNodes[row];
+	}
+
+	/**
+	 * Set the nodes for all columns
+	 *
+	 * @param columnNodes array of {@link CyNode}s for the columns
+	 */
+	public void setColumnNodes(CyNode columnNodes[]) {
+		this.columnNodes = columnNodes;
+	}
+
+	/**
+	 * Set the nodes for all columns
+	 *
+	 * @param columnNodes list of {@link CyNode}s for the columns
+	 */
+	public void setColumnNodes(List<CyNode> columnNodes) {
+		this.columnNodes = columnNodes.toArray(new CyNode[0]);
+	}
+
+	/**
+	 * Set the node for a particular column
+	 *
+	 * @param column the column to set the node for
+	 * @param node the node for that column
+	 */
+	public void setColumnNode(int column, CyNode node) {
+		if (columnNodes == null) {
+			columnNodes = new CyNode[nColumns()];
+		}
+		columnNodes[column] = node;
+	}
+
+	/**
+	 * Get the node for a particular column
+	 *
+	 * @param column the column to get the node for
+	 * @return the node for that column
+	 */
+	public CyNode getColumnNode(int column) {
+		return columnNodes[column];
+	}
+
+	/**
+	 * Get the nodes for all columns
+	 *
+	 * @return the nodes for all columns
+	 */
+	public List<CyNode> getColumnNodes() {
+		if (columnNodes == null)
+			return null;
+		return Arrays.asList(columnNodes);
+	}
+
+	/**
+	 * Return true if the matrix is based on edges, but isn't
+	 * symmetrical.  This will probably be very rara -- currently
+	 * only Hierarchical clusters support it.
+	 *
+	 * @return true if the matrix is edge-based but assymetrical
+	 */
+	public boolean isAssymetricalEdge() { return assymetricalEdge; }
+
+	/**
+	 * Set the value of assymetrical edge.
+	 *
+	 * @param true if the matrix is edge-based but assymetrical
+	 */
+	public void setAssymetricalEdge(boolean assymetricalEdge) {
+		this.assymetricalEdge = assymetricalEdge;
+	}
+
+	public CyMatrix getDistanceMatrix(DistanceMetric metric) {
+		return getDistanceMatrix(metric, null);
+	}
+
+	public CyMatrix getDistanceMatrix(DistanceMetric metric, DistanceProgress progress) {
+		if (distanceCache != null)
+			return distanceCache.getDistanceMatrix(metric, m -> calculateDistanceMatrix(m, progress));
+		return calculateDistanceMatrix(metric, progress);
+	}
+
+	public void setDistanceCache(DistanceCache cache) {
+		this.distanceCache = cache;
+	}
+
+	public NearestNeighbors getNearestNeighbors(DistanceMetric metric, int k, double sampleRate) {
+		if (neighbors == null || !neighbors.covers(metric, k, sampleRate))
+			neighbors = NearestNeighborsImpl.build(this, metric, k, sampleRate);
+		return neighbors;
+	}
+
+	private CyMatrix calculateDistanceMatrix(DistanceMetric metric, DistanceProgress progress) {
+		// Too large for the heap?
+		if (MappedMatrix.isTooLarge(nRows(), nRows()))
+			return CyMappedMatrix.getDistanceMatrix(this, metric, progress);
+
+		if (dist != null && metric == distanceMetric)
+			return dist;
+
+		FloatMatrix distances = distanceMatrix(metric, progress);
+		if (distances == null)
+			return null;
+		dist = new CyFloatMatrix(network);
+		dist.share(distances);
+		if (rowNodes != null) {
+			dist.rowNodes = Arrays.copyOf(rowNodes, nRows);
+			dist.columnNodes = Arrays.copyOf(rowNodes, nRows);
+		}
+		return dist;
+	}
+
+	/**
+	 * Return a copy of this matrix
+	 *
+	 * @return deep copy of the matrix
+	 */
+	public CyMatrix copy() {
+		return new CyFloatMatrix(this);
+	}
+
+	/**
+	 * Return a copy of this matrix with the data replaced by the
+	 * argument.  If the argument isn't a FloatMatrix, its data is
+	 * converted to single precision.
+	 *
+	 * @param matrix the data matrix to insert
+	 * @return new CyMatrix with new underlying data
+	 */
+	public CyMatrix copy(Matrix matrix) {
+		FloatMatrix fMatrix;
+		if (matrix instanceof FloatMatrix) {
+			fMatrix = (FloatMatrix)matrix;
+		} else {
+			fMatrix = new FloatMatrix();
+			fMatrix.initialize(matrix.nRows(), matrix.nColumns(), matrix.toArray());
+			fMatrix.transposed = matrix.isTransposed();
+			fMatrix.symmetric = matrix.isSymmetrical();
+			fMatrix.rowLabels = matrix.getRowLabels();
+			fMatrix.columnLabels = matrix.getColumnLabels();
+			fMatrix.updateMinMax();
+		}
+		CyFloatMatrix newMatrix = new CyFloatMatrix(this.network);
+		newMatrix.share(fMatrix);
+		if (fMatrix.index != null)
+			newMatrix.index = Arrays.copyOf(fMatrix.index, fMatrix.index.length);
+		if (rowNodes != null)
+			newMatrix.rowNodes = Arrays.copyOf(rowNodes, rowNodes.length);
+		if (columnNodes != null)
+			newMatrix.columnNodes = Arrays.copyOf(columnNodes, columnNodes.length);
+		return newMatrix;
+	}
+
+	public void sortByRowLabels(boolean isNumeric) {
+		Integer[] index;
+		if (isNumeric) {
+			double[] labels = new double[rowLabels.length];
+			for (int i = 0; i < labels.length; i++) {
+				if (rowLabels[i] != null)
+					labels[i] = Double.parseDouble(rowLabels[i]);
+			}
+			index = MatrixUtils.indexSort(labels, labels.length);
+		} else {
+			index = MatrixUtils.indexSort(rowLabels, rowLabels.length);
+		}
+
+		String[] newRowLabels = new String[nRows];
+		float[][] newData = new float[nRows][];
+		CyNode[] newRowNodes = new CyNode[nRows];
+		for (int row = 0; row < nRows; row++) {
+			newRowLabels[index[row]] = rowLabels[row];
+			newData[index[row]] = data[row];
+			if (rowNodes != null)
+				newRowNodes[index[row]] = rowNodes[row];
+		}
+		rowLabels = newRowLabels;
+		data = newData;
+		if (rowNodes != null)
+			rowNodes = newRowNodes;
+	}
+
+	// Use the data (but not the nodes) from another float matrix
+	private void share(FloatMatrix mat) {
+		data = mat.data;
+		nRows = mat.nRows;
+		nColumns = mat.nColumns;
+		transposed = mat.transposed;
+		symmetric = mat.symmetric;
+		minValue = mat.minValue;
+		maxValue = mat.maxValue;
+		if (mat.rowLabels != null)
+			rowLabels = Arrays.copyOf(mat.rowLabels, mat.rowLabels.length);
+		if (mat.columnLabels != null)
+			columnLabels = Arrays.copyOf(mat.columnLabels, mat.columnLabels.length);
+	}
+}
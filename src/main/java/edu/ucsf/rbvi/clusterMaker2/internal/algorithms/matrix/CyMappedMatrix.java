@@ -0,0 +1,332 @@
+package edu.ucsf.rbvi.clusterMaker2.internal.algorithms.matrix;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import org.cytoscape.model.CyNetwork;
+import org.cytoscape.model.CyNode;
+
+import edu.ucsf.rbvi.clusterMaker2.internal.api.CyMatrix;
+import edu.ucsf.rbvi.clusterMaker2.internal.api.DistanceMetric;
+import edu.ucsf.rbvi.clusterMaker2.internal.api.DistanceProgress;
+import edu.ucsf.rbvi.clusterMaker2.internal.api.Matrix;
+import edu.ucsf.rbvi.clusterMaker2.internal.api.NearestNeighbors;
+
+/**
+ * A wrapper around the memory-mapped matrix, with
+ * information necessary to support Cytoscape objects
+ */
+public class CyMappedMatrix extends MappedMatrix implements CyMatrix {
+	protected CyNetwork network;
+	protected CyNode[] rowNodes = null;
+	protected CyNode[] columnNodes = null;
+	protected boolean assymetricalEdge = false;
+
+	public CyMappedMatrix(CyNetwork network) {
+		super();
+		this.network = network;
+	}
+
+	public CyMappedMatrix(CyNetwork network, int rows, int columns) {
+		super(rows, columns);
+		this.network = network;
+	}
+
+	public CyMappedMatrix(CyMappedMatrix matrix) {
+		super((MappedMatrix)matrix);
+		network = matrix.network;
+		if (matrix.rowNodes != null)
+			rowNodes = Arrays.copyOf(matrix.rowNodes, matrix.rowNodes.length);
+		if (matrix.columnNodes != null)
+			columnNodes = Arrays.copyOf(matrix.columnNodes, matrix.columnNodes.length);
+	}
+
+	/**
+	 * Calculate the distances between the rows of a CyMatrix into a
+	 * condensed memory-mapped matrix.  This is used by the other CyMatrix
+	 * implementations when their distance matrix won't fit on the heap.
+	 *
+	 * @param matrix the data matrix
+	 * @param metric the metric to use to calculate the distances
+	 * @return the distance matrix
+	 */
+	public static CyMappedMatrix getDistanceMatrix(CyMatrix matrix, DistanceMetric metric) {
+		return getDistanceMatrix(matrix, metric, null);
+	}
+
+	/**
+	 * Calculate the distances between the rows of a CyMatrix into a
+	 * condensed memory-mapped matrix, reporting progress and stopping early
+	 * if the task is cancelled.
+	 *
+	 * @param matrix the data matrix
+	 * @param metric the metric to use to calculate the distances
+	 * @param progress the (possibly null) progress to report to
+	 * @return the distance matrix, or null if the task was cancelled
+	 */
+	public static CyMappedMatrix getDistanceMatrix(CyMatrix matrix, DistanceMetric metric,
+	                                               DistanceProgress progress) {
+		MappedMatrix distances = MappedMatrix.distanceMatrix(matrix, metric, progress);
+		if (distances == null)
+			return null;
+		CyMappedMatrix dist = new CyMappedMatrix(matrix.getNetwork());
+		dist.share(distances);
+		distances.close();
+		List<CyNode> nodes = matrix.getRowNodes();
+		if (nodes != null) {
+			dist.rowNodes = nodes.toArray(new CyNode[0]);
+			dist.columnNodes = nodes.toArray(new CyNode[0]);
+		}
+		return dist;
+	}
+
+	/**
+	 * Return the network associated with this matrix
+	 *
+	 * @return the network
+	 */
+	public CyNetwork getNetwork() {
+		return network;
+	}
+
+	/**
+	 * Set the nodes for all rows
+	 *
+	 * @param rowNodes array of {@link CyNode}s for the rows
+	 */
+	public void setRowNodes(CyNode rowNodes[]) {
+		this.rowNodes = rowNodes;
+	}
+
+	/**
+	 * Set the nodes for all rows
+	 *
+	 * @param rowNodes list of {@link CyNode}s for the rows
+	 */
+	public void setRowNodes(List<CyNode> rowNodes) {
+		this.rowNodes = rowNodes.toArray(new CyNode[0]);
+	}
+
+	/**
+	 * Set the node for a particular row
+	 *
+	 * @param row the row to get the node for
+	 * @param node the node for that row
+	 */
+	public void setRowNode(int row, CyNode node) {
+		if (rowNodes == null) {
+			rowNodes = new CyNode[nRows()];
+		}
+		rowNodes[row] = node;
+	}
+
+	/**
+	 * Get the nodes for all rows
+	 *
+	 * @return the nodes for all rows
+	 */
+	public List<CyNode> getRowNodes() {
+		if (rowNodes == null)
+			return null;
+		return Arrays.asList(rowNodes);
+	}
+
+	/**
+	 * Get the node for a particular row
+	 *
+	 * @param row the row to get the node for
+	 * @return the node for that row
+	 */
+	public CyNode getRowNode(int row) {
+		return rowNodes[row];
+	}
+
+	/**
+	 * Set the nodes for all columns
+	 *
+	 * @param columnNodes array of {@link CyNode}s for the columns
+	 */
+	public void setColumnNodes(CyNode columnNodes[]) {
+		this.columnNodes = columnNodes;
+	}
+
+	/**
+	 * Set the nodes for all columns
+	 *
+	 * @param columnNodes list of {@link CyNode}s for the columns
+	 */
+	public void setColumnNodes(List<CyNode> columnNodes) {
+		this.columnNodes = columnNodes.toArray(new CyNode[0]);
+	}
+
+	/**
+	 * Set the node for a particular column
+	 *
+	 * @param column the column to set the node for
+	 * @param node the node for that column
+	 */
+	public void setColumnNode(int column, CyNode node) {
+		if (columnNodes == null) {
+			columnNodes = new CyNode[nColumns()];
+		}
+		columnNodes[column] = node;
+	}
+
+	/**
+	 * Get the node for a particular column
+	 *
+	 * @param column the column to get the node for
+	 * @return the node for that column
+	 */
+	public CyNode getColumnNode(int column) {
+		return columnNodes[column];
+	}
+
+	/**
+	 * Get the nodes for all columns
+	 *
+	 * @return the nodes for all columns
+	 */
+	public List<CyNode> getColumnNodes() {
+		if (columnNodes == null)
+			return null;
+		return Arrays.asList(columnNodes);
+	}
+
+	/**
+	 * Return true if the matrix is based on edges, but isn't
+	 * symmetrical.  This will probably be very rara -- currently
+	 * only Hierarchical clusters support it.
+	 *
+	 * @return true if the matrix is edge-based but assymetrical
+	 */
+	public boolean isAssymetricalEdge() { return assymetricalEdge; }
+
+	/**
+	 * Set the value of assymetrical edge.
+	 *
+	 * @param true if the matrix is edge-based but assymetrical
+	 */
+	public void setAssymetricalEdge(boolean assymetricalEdge) {
+		this.assymetricalEdge = assymetricalEdge;
+	}
+
+	public CyMatrix getDistanceMatrix(DistanceMetric metric) {
+		CyMappedMatrix dist = new CyMappedMatrix(network);
+		if (rowNodes != null) {
+			dist.rowNodes = Arrays.copyOf(rowNodes, nRows);
+			dist.columnNodes = Arrays.copyOf(rowNodes, nRows);
+		}
+		MappedMatrix distances = (MappedMatrix)super.getDistanceMatrix(metric);
+		dist.share(distances);
+		distances.close();
+		return dist;
+	}
+
+	public NearestNeighbors getNearestNeighbors(DistanceMetric metric, int k, double sampleRate) {
+		return NearestNeighborsImpl.build(this, metric, k, sampleRate);
+	}
+
+	/**
+	 * Return a copy of this matrix with the data replaced by the
+	 * argument.  If the argument is a mapped matrix, the new matrix
+	 * shares its data.
+	 *
+	 * @param matrix the data matrix to insert
+	 * @return new CyMatrix with new underlying data
+	 */
+	public CyMatrix copy(Matrix matrix) {
+		MappedMatrix mMatrix;
+		if (matrix instanceof MappedMatrix) {
+			mMatrix = (MappedMatrix)matrix;
+		} else {
+			mMatrix = new MappedMatrix(matrix);
+		}
+		CyMappedMatrix newMatrix = new CyMappedMatrix(this.network);
+		newMatrix.share(mMatrix);
+		if (mMatrix != matrix)
+			mMatrix.close();
+		if (rowNodes != null)
+			newMatrix.rowNodes = Arrays.copyOf(rowNodes, mMatrix.nRows);
+
+		// Careful!  Make sure to properly account for the transition from a symmetrix matrix to
+		// a vector
+		if (columnNodes != null && mMatrix.nColumns > 1)
+			newMatrix.columnNodes = Arrays.copyOf(columnNodes, mMatrix.nColumns);
+		return newMatrix;
+	}
+
+	/**
+	 * Return a copy of this matrix
+	 *
+	 * @return deep copy of the matrix
+	 */
+	public CyMatrix copy() {
+		return new CyMappedMatrix(this);
+	}
+
+	@Override
+	CyMappedMatrix view() {
+		CyMappedMatrix view = new CyMappedMatrix(network);
+		view.share(this);
+		view.rowNodes = rowNodes;
+		view.columnNodes = columnNodes;
+		view.assymetricalEdge = assymetricalEdge;
+		return view;
+	}
+
+	public void sortByRowLabels(boolean isNumeric) {
+		Integer[] index;
+		if (isNumeric) {
+			double[] labels = new double[rowLabels.length];
+			for (int i = 0; i < labels.length; i++) {
+				if (rowLabels[i] != null)
+					labels[i] = Double.parseDouble(rowLabels[i]);
+			}
+			index = MatrixUtils.indexSort(labels, labels.length);
+		} else {
+			index = MatrixUtils.indexSort(rowLabels, rowLabels.length);
+		}
+
+		// Moving rows breaks the symmetry, so the sorted matrix is never condensed
+		MappedMatrix sorted = new MappedMatrix(nRows, nColumns, 0.0);
+		String[] newRowLabels = new String[nRows];
+		CyNode[] newRowNodes = new CyNode[nRows];
+		for (int row = 0; row < nRows; row++) {
+			newRowLabels[index[row]] = rowLabels[row];
+			if (rowNodes != null)
+				newRowNodes[index[row]] = rowNodes[row];
+		}
+		IntStream.range(0, nRows).parallel()
+			.forEach(row -> {
+				long offset = (long)index[row]*nColumns;
+				for (int column = 0; column < nColumns; column++)
+					sorted.storage.set(offset++, storage.get(offset(row, column)));
+			});
+		setStorage(sorted.storage);
+		sorted.close();
+		condensed = false;
+		symmetric = false;
+		rowLabels = newRowLabels;
+		if (rowNodes != null)
+			rowNodes = newRowNodes;
+	}
+
+	// Use the data (but not the nodes) from another mapped matrix
+	private void share(MappedMatrix mat) {
+		setStorage(mat.storage);
+		condensed = mat.condensed;
+		index = mat.index;
+		nRows = mat.nRows;
+		nColumns = mat.nColumns;
+		transposed = mat.transposed;
+		symmetric = mat.symmetric;
+		minValue = mat.minValue;
+		maxValue = mat.maxValue;
+		if (mat.rowLabels != null)
+			rowLabels = Arrays.copyOf(mat.rowLabels, mat.rowLabels.length);
+		if (mat.columnLabels != null)
+			columnLabels = Arrays.copyOf(mat.columnLabels, mat.columnLabels.length);
+	}
+}
@@ -9,21 +9,24 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import org.cytoscape.model.CyColumn;
 import org.cytoscape.model.CyEdge;
 import org.cytoscape.model.CyNetwork;
 import org.cytoscape.model.CyNode;
+import org.cytoscape.model.CyRow;
 import org.cytoscape.model.CyTable;
 import org.cytoscape.model.CyTableUtil;
 
 import edu.ucsf.rbvi.clusterMaker2.internal.api.CyMatrix;
 import edu.ucsf.rbvi.clusterMaker2.internal.api.Matrix;
+import edu.ucsf.rbvi.clusterMaker2.internal.api.Precision;
 import edu.ucsf.rbvi.clusterMaker2.internal.utils.CyIdentifiableNameComparator;
 import edu.ucsf.rbvi.clusterMaker2.internal.utils.ModelUtils;
 
 import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.edgeConverters.EdgeWeightConverter;
 
 public class CyMatrixFactory {
-	public enum MatrixType {SIMPLE, COLT, SPARSE, LARGE, OJALGO};
+	public enum MatrixType {SIMPLE, COLT, SPARSE, LARGE, OJALGO, FLOAT};
 
 	/**
 	 * Create an empty matrix that may be very large
@@ -64,78 +67,8 @@ public class CyMatrixFactory {
 	public static CyMatrix makeLargeMatrix(CyNetwork network, String edgeAttribute, 
 	                                        boolean selectedOnly, EdgeWeightConverter converter,
 																					boolean unDirected, double cutOff) {
-		List<CyNode> nodes;
-		List<CyEdge> edges;
-		double maxAttribute = Double.MIN_VALUE;
-		double minAttribute = Double.MAX_VALUE;
-		if (!selectedOnly) {
-			nodes = network.getNodeList();
-			edges = network.getEdgeList();
-		} else {
-			nodes = new ArrayList<CyNode>();
-			edges = new ArrayList<CyEdge>();
-			nodes.addAll(CyTableUtil.getNodesInState(network,CyNetwork.SELECTED,true));
-			edges.addAll(ModelUtils.getConnectingEdges(network,nodes));
-		}
-
-		CyMatrix matrix = makeTypedMatrix(network, nodes.size(), nodes.size(), false, MatrixType.LARGE);
-		matrix.setRowNodes(nodes);
-		matrix.setColumnNodes(nodes);
-		Map<CyNode, Integer> nodeMap = new HashMap<CyNode, Integer>(nodes.size());
-		for (int row = 0; row < nodes.size(); row++) {
-			CyNode node = nodes.get(row);
-			nodeMap.put(node, row);
-			matrix.setRowLabel(row, ModelUtils.getNodeName(network, node));
-			matrix.setColumnLabel(row, ModelUtils.getNodeName(network, node));
-		}
-
-		matrix.setSymmetrical(unDirected);
-
-		CyTable edgeAttributes = network.getDefaultEdgeTable();
-
-		// First, we need the min and max values for our converter
-		if( edgeAttributes.getColumn(edgeAttribute) == null) {
-			minAttribute = 1.0;
-			maxAttribute = 1.0;
-		} else {
-			for(CyEdge edge: edges) {
-    	  if (network.getRow(edge).getRaw(edgeAttribute) == null) 
-					continue;
-
-				double edgeWeight = ModelUtils.getNumericValue(network, edge, edgeAttribute);
-				if (edgeWeight < cutOff)
-					continue;
-				minAttribute = Math.min(minAttribute, edgeWeight);
-				maxAttribute = Math.max(maxAttribute, edgeWeight);
-			}
-		}
-
-		for (CyEdge edge: edges) {
-			double value;
-			if (minAttribute == 1.0 && maxAttribute == 1.0) {
-				value = 1.0;
-			} else {
-				Double val = ModelUtils.getNumericValue(network, edge, edgeAttribute);
-				if (val == null)
-					continue;
-				value = val.doubleValue();
-			}
-
-			double weight = converter.convert(value, minAttribute, maxAttribute);
-
-			if (weight < cutOff)
-				continue;
-
-			int sourceIndex = nodeMap.get(edge.getSource());
-			int targetIndex = nodeMap.get(edge.getTarget());
-			matrix.setValue(targetIndex, sourceIndex, weight);
-			// TODO: should we consider maybe doing this on the getValue side?
-			if (unDirected)
-				matrix.setValue(sourceIndex, targetIndex, weight);
-		}
-
-		// System.out.println("distance matrix: "+matrix.printMatrix());
-		return matrix;
+		// Edge matrices are almost always sparse, so EdgeWeights builds a CSR matrix
+		return new EdgeWeights(network, edgeAttribute, selectedOnly).makeMatrix(converter, unDirected, cutOff);
 	}
 
 	/**
@@ -159,6 +92,30 @@ public class CyMatrixFactory {
 		                  assymetric, MatrixType.LARGE);
 	}
 
+	/**
+	 * Create a large matrix populated with data from the indicated node
+	 * attributes, stored with the requested precision
+	 *
+	 * @param network the network that will be the source of the data
+	 * @param attributes the array of attributes.  If only one attribute is provided,
+	 *                   it begins with "edge.", then a symmetric network is created.
+	 * @param selectedOnly only include selected edges
+	 * @param ignoreMissing ignore nodes/edges with missing data
+	 * @param transpose transpose the nodes and attribute in the network (used for
+	 *                  clustering attributes rather than nodes).
+	 * @param assymetric true if we're looking at edge attributes but the matrix is not square.
+	 * @param precision the precision to store the data in
+	 * @return the resulting matrix
+	 */
+	public static CyMatrix makeLargeMatrix(CyNetwork network, String[] attributes,
+	                                       boolean selectedOnly, boolean ignoreMissing,
+	                                       boolean transpose, boolean assymetric,
+	                                       Precision precision) {
+		MatrixType type = precision == Precision.FLOAT ? MatrixType.FLOAT : MatrixType.LARGE;
+		return makeMatrix(network, attributes, selectedOnly, ignoreMissing, transpose, 
+		                  assymetric, type);
+	}
+
 	/**
 	 * Create a small empty matrix
 	 *
@@ -258,6 +215,30 @@ public class CyMatrixFactory {
 		                  ignoreMissing, transpose, assymetric, MatrixType.SIMPLE);
 	}
 
+	/**
+	 * Create a small matrix populated with data from the indicated node
+	 * attributes, stored with the requested precision
+	 *
+	 * @param network the network that will be the source of the data
+	 * @param attributes the array of attributes.  If only one attribute is provided,
+	 *                   it begins with "edge.", then a symmetric network is created.
+	 * @param selectedOnly only include selected edges
+	 * @param ignoreMissing ignore nodes/edges with missing data
+	 * @param transpose transpose the nodes and attribute in the network (used for
+	 *                  clustering attributes rather than nodes).
+	 * @param assymetric true if we're looking at edge attributes but the matrix is not square.
+	 * @param precision the precision to store the data in
+	 * @return the resulting matrix
+	 */
+	public static CyMatrix makeSmallMatrix(CyNetwork network, String[] attributes,
+	                                       boolean selectedOnly, boolean ignoreMissing,
+	                                       boolean transpose, boolean assymetric,
+	                                       Precision precision) {
+		MatrixType type = precision == Precision.FLOAT ? MatrixType.FLOAT : MatrixType.SIMPLE;
+		return makeMatrix(network, attributes, selectedOnly, 
+		                  ignoreMissing, transpose, assymetric, type);
+	}
+
 
 	public static CyMatrix makeMatrix(CyNetwork network, String[] attributes,
 	                                   boolean selectedOnly, boolean ignoreMissing,
@@ -271,10 +252,10 @@ public class CyMatrixFactory {
 				attributeArray[i] = attributes[i].substring(5);
 			}
 			List<CyNode> nodeList = ModelUtils.getSortedNodeList(network, selectedOnly);
-			Map<CyNode,Map<String,Double>>nodeCondMap = getNodeCondMap(network, nodeList, attributeArray, ignoreMissing);
-			CyMatrix matrix = makeTypedMatrix(network, nodeCondMap.size(), attributeArray.length, transpose, type);
+			NodeColumns columns = new NodeColumns(network, nodeList, attributeArray, ignoreMissing);
+			CyMatrix matrix = makeTypedMatrix(network, columns.nodes.length, attributeArray.length, transpose, type);
 			matrix.setAssymetricalEdge(false);
-			return makeAttributeMatrix(network, matrix, nodeList, nodeCondMap, attributeArray, transpose);
+			return makeAttributeMatrix(network, matrix, columns, attributeArray, transpose, ignoreMissing);
 		} else if (attributes.length == 1 && attributes[0].startsWith("edge.")) {
 			String weight = attributes[0].substring(5);
 			if (!assymetric) {
@@ -299,45 +280,35 @@ public class CyMatrixFactory {
 		return null;
 	}
 
-	private static CyMatrix makeAttributeMatrix(CyNetwork network, CyMatrix matrix, List<CyNode> nodeList,
-	                                            Map<CyNode,Map<String,Double>> nodeCondMap, 
-																							String attributeArray[], boolean transpose) {
+	private static CyMatrix makeAttributeMatrix(CyNetwork network, CyMatrix matrix, NodeColumns columns,
+	                                            String attributeArray[], boolean transpose,
+	                                            boolean ignoreMissing) {
 		if (transpose) {
-			int column = 0;
 			matrix.setRowLabels(Arrays.asList(attributeArray));
-
-			for (CyNode node: nodeList) {
-				if (!nodeCondMap.containsKey(node))
-					continue;
-
-				Map<String,Double>thisCondMap = nodeCondMap.get(node);
-				matrix.setColumnLabel(column, ModelUtils.getNodeName(network, node));
-				matrix.setColumnNode(column, node);
-				for (int row=0; row < matrix.nRows(); row++) {
-					String rowLabel = matrix.getRowLabel(row);
-					if (thisCondMap.containsKey(rowLabel)) {
-						matrix.setValue(row, column, thisCondMap.get(rowLabel));
-					}
-				}
-				column++;
+			for (int column = 0; column < columns.nodes.length; column++) {
+				matrix.setColumnLabel(column, columns.names[column]);
+				matrix.setColumnNode(column, columns.nodes[column]);
 			}
 		} else {
 			matrix.setColumnLabels(Arrays.asList(attributeArray));
+			for (int row = 0; row < columns.nodes.length; row++) {
+				matrix.setRowLabel(row, columns.names[row]);
+				matrix.setRowNode(row, columns.nodes[row]);
+			}
+		}
 
-			int row = 0;
-			for (CyNode node: nodeList) {
-				if (!nodeCondMap.containsKey(node))
+		for (int attr = 0; attr < attributeArray.length; attr++) {
+			double[] values = columns.values[attr];
+			if (values == null)
+				continue;
+			for (int node = 0; node < values.length; node++) {
+				double value = values[node];
+				if (Double.isNaN(value) && ignoreMissing)
 					continue;
-				matrix.setRowLabel(row, ModelUtils.getNodeName(network, node));
-				matrix.setRowNode(row, node);
-				Map<String,Double>thisCondMap = nodeCondMap.get(node);
-				for (int column=0; column < matrix.nColumns(); column++) {
-					String columnLabel = matrix.getColumnLabel(column);
-					if (thisCondMap.containsKey(columnLabel)) {
-						matrix.setValue(row, column, thisCondMap.get(columnLabel));
-					}
-				}
-				row++;
+				if (transpose)
+					matrix.setValue(attr, node, value);
+				else
+					matrix.setValue(node, attr, value);
 			}
 		}
 		return matrix;
@@ -417,70 +388,28 @@ public class CyMatrixFactory {
 				matrix = new CySimpleMatrix(network, nrows, ncolumns);
 				break;
 
-			// For now, we use Colt for both large and sparse matrices
 			case COLT:
-			case SPARSE:
 				matrix = new CyColtMatrix(network, nrows, ncolumns);
 				break;
 
+			case SPARSE:
+				matrix = new CySparseMatrix(network, nrows, ncolumns);
+				break;
+
 			case LARGE:
 			case OJALGO:
 				matrix = new CyOjAlgoMatrix(network, nrows, ncolumns);
 				break;
+
+			case FLOAT:
+				matrix = new CyFloatMatrix(network, nrows, ncolumns);
+				break;
 		}
 
 		matrix.setTransposed(transpose);
 		return matrix;
 	}
 
-	private static Map<CyNode, Map<String,Double>> getNodeCondMap(CyNetwork network, List<CyNode> nodeList, 
-	                                                              String nodeAttributes[], boolean ignoreMissing) {
-		// Make a map of the conditions, indexed by CyNode
-		Map<CyNode,Map<String,Double>>nodeCondMap = new HashMap<CyNode,Map<String,Double>>();
-
-		// Make a map of the conditions, by name
-		List<String>condList = Arrays.asList(nodeAttributes);
-
-		// Get our node attribute list
-		CyTable nodeTable = network.getDefaultNodeTable();
-
-		// Iterate over all of our nodes, getting the conditions attributes
-		for (CyNode node: nodeList) {
-			// Create the map for this node
-			Map<String,Double>thisCondMap = new HashMap<String,Double>();
-
-			for (String attr: condList) {
-				Double value = null;
-				// Get the attribute type
-				if (nodeTable.getColumn(attr).getType() == Integer.class) {
-					Integer intVal = nodeTable.getRow(node.getSUID()).get(attr, Integer.class);
-					if (intVal != null)
-						value = Double.valueOf(intVal.doubleValue());
-				} else if (nodeTable.getColumn(attr).getType() == Long.class) {
-					Long longVal = nodeTable.getRow(node.getSUID()).get(attr, Long.class);
-					if (longVal != null)
-						value = Double.valueOf(longVal.doubleValue());
-				} else if (nodeTable.getColumn(attr).getType() == Float.class) {
-					Float floatVal = nodeTable.getRow(node.getSUID()).get(attr, Float.class);
-					if (floatVal != null)
-						value = Double.valueOf(floatVal.doubleValue());
-				} else if (nodeTable.getColumn(attr).getType() == Double.class) {
-					value = nodeTable.getRow(node.getSUID()).get(attr, Double.class);
-				} else {
-					continue; // At some point, handle lists?
-				}
-				if (!ignoreMissing || value != null) {
-					// System.out.println("Node = "+node.getIdentifier()+", attribute = "+attr+", ignoreMissing = "+ignoreMissing+" value = "+value);
-					// Set it
-					thisCondMap.put(attr, value);
-				}
-			}
-			if (!ignoreMissing || thisCondMap.size() > 0)
-				nodeCondMap.put(node, thisCondMap);
-		}
-		return nodeCondMap;
-	}
-
 	private static List<CyEdge> getEdgeList(CyNetwork network, boolean selectedOnly) {
 		List<CyEdge> edgeList;
 		if (selectedOnly)
@@ -519,4 +448,84 @@ public class CyMatrixFactory {
 		targetNodeList.addAll(targetNodeSet);
 		return new ArrayList<CyNode>(sourceNodeSet);
 	}
+
+	/**
+	 * The values of node attributes, read through the row of each node.  Each
+	 * row is looked up by its key once and all of the attributes (and the
+	 * name) are read from it, so only the rows of the nodes in use are read
+	 * and nothing depends on the order a column returns its values in.
+	 */
+	static class NodeColumns {
+		// The nodes that have data, in the order of the node list
+		final CyNode[] nodes;
+		// The names of those nodes
+		final String[] names;
+		// The values for each attribute (NaN if missing), or null if the
+		// attribute isn't numeric
+		final double[][] values;
+
+		NodeColumns(CyNetwork network, List<CyNode> nodeList, String[] attributes, boolean ignoreMissing) {
+			CyTable table = network.getDefaultNodeTable();
+
+			// Find the type of each numeric attribute
+			Class<?>[] types = new Class<?>[attributes.length];
+			double[][] allValues = new double[attributes.length][];
+			for (int attr = 0; attr < attributes.length; attr++) {
+				CyColumn column = table.getColumn(attributes[attr]);
+				if (column == null || !Number.class.isAssignableFrom(column.getType()))
+					continue;
+				types[attr] = column.getType();
+				allValues[attr] = new double[nodeList.size()];
+			}
+
+			String[] allNames = new String[nodeList.size()];
+			for (int node = 0; node < nodeList.size(); node++) {
+				Long suid = nodeList.get(node).getSUID();
+				CyRow row = table.rowExists(suid) ? table.getRow(suid) : null;
+				allNames[node] = row == null ? null : row.get(CyNetwork.NAME, String.class);
+				for (int attr = 0; attr < attributes.length; attr++) {
+					if (allValues[attr] == null)
+						continue;
+					Object value = row == null ? null : row.get(attributes[attr], types[attr]);
+					allValues[attr][node] = value == null ? Double.NaN : ((Number)value).doubleValue();
+				}
+			}
+
+			// Drop the nodes that don't have any values, if we've been asked to
+			int nNodes = 0;
+			int[] keep = new int[nodeList.size()];
+			for (int node = 0; node < nodeList.size(); node++) {
+				if (!ignoreMissing || hasValue(allValues, node))
+					keep[nNodes++] = node;
+			}
+
+			nodes = new CyNode[nNodes];
+			names = new String[nNodes];
+			for (int i = 0; i < nNodes; i++) {
+				nodes[i] = nodeList.get(keep[i]);
+				names[i] = allNames[keep[i]];
+			}
+
+			values = new double[attributes.length][];
+			for (int attr = 0; attr < attributes.length; attr++) {
+				if (allValues[attr] == null)
+					continue;
+				if (nNodes == nodeList.size()) {
+					values[attr] = allValues[attr];
+				} else {
+					values[attr] = new double[nNodes];
+					for (int i = 0; i < nNodes; i++)
+						values[attr][i] = allValues[attr][keep[i]];
+				}
+			}
+		}
+
+		private static boolean hasValue(double[][] allValues, int node) {
+			for (double[] values: allValues) {
+				if (values != null && !Double.isNaN(values[node]))
+					return true;
+			}
+			return false;
+		}
+	}
 }
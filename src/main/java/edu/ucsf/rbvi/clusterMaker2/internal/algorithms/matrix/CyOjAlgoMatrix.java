@@ -11,6 +11,7 @@ import org.ojalgo.matrix.store.PhysicalStore;
 import edu.ucsf.rbvi.clusterMaker2.internal.api.CyMatrix;
 import edu.ucsf.rbvi.clusterMaker2.internal.api.DistanceMetric;
 import edu.ucsf.rbvi.clusterMaker2.internal.api.Matrix;
+import edu.ucsf.rbvi.clusterMaker2.internal.api.NearestNeighbors;
 
 /**
  * A wrapper around the ojAlgo matrix, with
@@ -182,13 +183,11 @@ public class CyOjAlgoMatrix extends OjAlgoMatrix implements CyMatrix {
 	}
 
 	public CyMatrix getDistanceMatrix(DistanceMetric metric) {
-		CyOjAlgoMatrix dist = new CyOjAlgoMatrix(network, nRows, nRows);
-		if (rowNodes != null) {
-			dist.rowNodes = Arrays.copyOf(rowNodes, nRows);
-			dist.columnNodes = Arrays.copyOf(rowNodes, nRows);
-		}
-		Matrix cMatrix = super.getDistanceMatrix(metric);
-		return dist.copy(cMatrix);
+		return CyTriangularMatrix.getDistanceMatrix(this, metric);
+	}
+
+	public NearestNeighbors getNearestNeighbors(DistanceMetric metric, int k, double sampleRate) {
+		return NearestNeighborsImpl.build(this, metric, k, sampleRate);
 	}
 
 	/**
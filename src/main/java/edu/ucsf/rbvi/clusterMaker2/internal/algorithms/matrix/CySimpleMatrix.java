@@ -7,8 +7,11 @@ import org.cytoscape.model.CyNetwork;
 import org.cytoscape.model.CyNode;
 
 import edu.ucsf.rbvi.clusterMaker2.internal.api.CyMatrix;
+import edu.ucsf.rbvi.clusterMaker2.internal.api.DistanceCache;
 import edu.ucsf.rbvi.clusterMaker2.internal.api.DistanceMetric;
+import edu.ucsf.rbvi.clusterMaker2.internal.api.DistanceProgress;
 import edu.ucsf.rbvi.clusterMaker2.internal.api.Matrix;
+import edu.ucsf.rbvi.clusterMaker2.internal.api.NearestNeighbors;
 
 /**
  * A wrapper around the Matrix implementations, that adds 
@@ -19,7 +22,9 @@ public class CySimpleMatrix extends SimpleMatrix implements CyMatrix {
 	protected CyNode[] rowNodes;
 	protected CyNode[] columnNodes;
 	protected boolean assymetricalEdge = false;
-	protected CySimpleMatrix dist = null;
+	protected CyMatrix dist = null;
+	protected DistanceCache distanceCache = null;
+	protected NearestNeighbors neighbors = null;
 	protected DistanceMetric distanceMetric = null;
 
 	public CySimpleMatrix(CyNetwork network) {
@@ -175,31 +180,38 @@ public class CySimpleMatrix extends SimpleMatrix implements CyMatrix {
 	}
 
 	public CyMatrix getDistanceMatrix(DistanceMetric metric) {
+		return getDistanceMatrix(metric, null);
+	}
+
+	public CyMatrix getDistanceMatrix(DistanceMetric metric, DistanceProgress progress) {
+		if (distanceCache != null)
+			return distanceCache.getDistanceMatrix(metric, m -> calculateDistanceMatrix(m, progress));
+		return calculateDistanceMatrix(metric, progress);
+	}
+
+	public void setDistanceCache(DistanceCache cache) {
+		this.distanceCache = cache;
+	}
+
+	public NearestNeighbors getNearestNeighbors(DistanceMetric metric, int k, double sampleRate) {
+		if (neighbors == null || !neighbors.covers(metric, k, sampleRate))
+			neighbors = NearestNeighborsImpl.build(this, metric, k, sampleRate);
+		return neighbors;
+	}
+
+	private CyMatrix calculateDistanceMatrix(DistanceMetric metric, DistanceProgress progress) {
 		if (dist != null && metric == distanceMetric)
 			return dist;
 
-		distanceMetric = metric;
-		Matrix cMatrix = super.getDistanceMatrix(metric);
-
-		// System.out.println("CyMatrix got Matrix distance matrix -- making copy");
-		dist = new CySimpleMatrix(this.network);
-		SimpleMatrix sMatrix = (SimpleMatrix)cMatrix;
-		dist.data = sMatrix.data;
-		dist.transposed = sMatrix.transposed;
-		dist.symmetric = sMatrix.symmetric;
-		dist.minValue = sMatrix.minValue;
-		dist.maxValue = sMatrix.maxValue;
-		// System.out.println("Copying labels");
-		dist.rowLabels = sMatrix.rowLabels;
-		dist.columnLabels = sMatrix.columnLabels;
-		dist.nRows = sMatrix.nRows;
-		dist.nColumns = sMatrix.nColumns;
-		if (rowNodes != null) {
-			dist.rowNodes = Arrays.copyOf(rowNodes, nRows);
-			dist.columnNodes = Arrays.copyOf(rowNodes, nRows);
+		CyMatrix distances = CyTriangularMatrix.getDistanceMatrix(this, metric, progress);
+		if (distances == null)
+			return null;
+		// Mapped distances belong to the caller, who closes them, so only keep the ones on the heap
+		if (!(distances instanceof MappedMatrix)) {
+			dist = distances;
+			distanceMetric = metric;
 		}
-		// System.out.println("CyMatrix got Matrix distance matrix -- done");
-		return dist;
+		return distances;
 	}
 
 	/**
@@ -227,6 +239,7 @@ public class CySimpleMatrix extends SimpleMatrix implements CyMatrix {
 		}
 		CySimpleMatrix newMatrix = new CySimpleMatrix(this.network, nRows, nColumns);
 		newMatrix.data = sMatrix.data;
+		newMatrix.missing = sMatrix.missingMasks();
 		newMatrix.transposed = sMatrix.transposed;
 		newMatrix.symmetric = sMatrix.symmetric;
 		newMatrix.minValue = sMatrix.minValue;
@@ -263,6 +276,7 @@ public class CySimpleMatrix extends SimpleMatrix implements CyMatrix {
 		}
 		rowLabels = newRowLabels;
 		data = newData;
+		missing = null;
 	}
 
 	/*
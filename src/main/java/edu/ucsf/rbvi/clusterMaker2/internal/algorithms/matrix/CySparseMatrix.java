@@ -0,0 +1,265 @@
+package edu.ucsf.rbvi.clusterMaker2.internal.algorithms.matrix;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.cytoscape.model.CyNetwork;
+import org.cytoscape.model.CyNode;
+
+import edu.ucsf.rbvi.clusterMaker2.internal.api.CyMatrix;
+import edu.ucsf.rbvi.clusterMaker2.internal.api.DistanceMetric;
+import edu.ucsf.rbvi.clusterMaker2.internal.api.Matrix;
+import edu.ucsf.rbvi.clusterMaker2.internal.api.NearestNeighbors;
+
+/**
+ * A wrapper around the compressed sparse row matrix, with
+ * information necessary to support Cytoscape objects
+ */
+public class CySparseMatrix extends SparseMatrix implements CyMatrix {
+	protected CyNetwork network;
+	protected CyNode[] rowNodes = null;
+	protected CyNode[] columnNodes = null;
+	protected boolean assymetricalEdge = false;
+
+	public CySparseMatrix(CyNetwork network) {
+		super();
+		this.network = network;
+	}
+
+	public CySparseMatrix(CyNetwork network, int rows, int columns) {
+		super(rows, columns);
+		this.network = network;
+	}
+
+	public CySparseMatrix(CySparseMatrix matrix) {
+		super((SparseMatrix)matrix);
+		network = matrix.network;
+		if (matrix.rowNodes != null)
+			rowNodes = Arrays.copyOf(matrix.rowNodes, matrix.rowNodes.length);
+		if (matrix.columnNodes != null)
+			columnNodes = Arrays.copyOf(matrix.columnNodes, matrix.columnNodes.length);
+	}
+
+	/**
+	 * Return the network associated with this matrix
+	 *
+	 * @return the network
+	 */
+	public CyNetwork getNetwork() {
+		return network;
+	}
+
+	/**
+	 * Set the nodes for all rows
+	 *
+	 * @param rowNodes array of {@link CyNode}s for the rows
+	 */
+	public void setRowNodes(CyNode rowNodes[]) {
+		this.rowNodes = rowNodes;
+	}
+
+	/**
+	 * Set the nodes for all rows
+	 *
+	 * @param rowNodes list of {@link CyNode}s for the rows
+	 */
+	public void setRowNodes(List<CyNode> rowNodes) {
+		this.rowNodes = rowNodes.toArray(new CyNode[0]);
+	}
+
+	/**
+	 * Set the node for a particular row
+	 *
+	 * @param row the row to get the node for
+	 * @param node the node for that row
+	 */
+	public void setRowNode(int row, CyNode node) {
+		if (rowNodes == null) {
+			rowNodes = new CyNode[nRows()];
+		}
+		rowNodes[row] = node;
+	}
+
+	/**
+	 * Get the nodes for all rows
+	 *
+	 * @return the nodes for all rows
+	 */
+	public List<CyNode> getRowNodes() {
+		if (rowNodes == null)
+			return null;
+		return Arrays.asList(rowNodes);
+	}
+
+	/**
+	 * Get the node for a particular row
+	 *
+	 * @param row the row to get the node for
+	 * @return the node for that row
+	 */
+	public CyNode getRowNode(int row) {
+		return rowNodes[row];
+	}
+
+	/**
+	 * Set the nodes for all columns
+	 *
+	 * @param columnNodes array of {@link CyNode}s for the columns
+	 */
+	public void setColumnNodes(CyNode columnNodes[]) {
+		this.columnNodes = columnNodes;
+	}
+
+	/**
+	 * Set the nodes for all columns
+	 *
+	 * @param columnNodes list of {@link CyNode}s for the columns
+	 */
+	public void setColumnNodes(List<CyNode> columnNodes) {
+		this.columnNodes = columnNodes.toArray(new CyNode[0]);
+	}
+
+	/**
+	 * Set the node for a particular column
+	 *
+	 * @param column the column to set the node for
+	 * @param node the node for that column
+	 */
+	public void setColumnNode(int column, CyNode node) {
+		if (columnNodes == null) {
+			columnNodes = new CyNode[nColumns()];
+		}
+		columnNodes[column] = node;
+	}
+
+	/**
+	 * Get the node for a particular column
+	 *
+	 * @param column the column to get the node for
+	 * @return the node for that column
+	 */
+	public CyNode getColumnNode(int column) {
+		return columnNodes[column];
+	}
+
+	/**
+	 * Get the nodes for all columns
+	 *
+	 * @return the nodes for all columns
+	 */
+	public List<CyNode> getColumnNodes() {
+		if (columnNodes == null)
+			return null;
+		return Arrays.asList(columnNodes);
+	}
+
+	/**
+	 * Return true if the matrix is based on edges, but isn't
+	 * symmetrical.  This will probably be very rara -- currently
+	 * only Hierarchical clusters support it.
+	 *
+	 * @return true if the matrix is edge-based but assymetrical
+	 */
+	public boolean isAssymetricalEdge() { return assymetricalEdge; }
+
+	/**
+	 * Set the value of assymetrical edge.
+	 *
+	 * @param true if the matrix is edge-based but assymetrical
+	 */
+	public void setAssymetricalEdge(boolean assymetricalEdge) {
+		this.assymetricalEdge = assymetricalEdge;
+	}
+
+	public CyMatrix getDistanceMatrix(DistanceMetric metric) {
+		return CyTriangularMatrix.getDistanceMatrix(this, metric);
+	}
+
+	public NearestNeighbors getNearestNeighbors(DistanceMetric metric, int k, double sampleRate) {
+		return NearestNeighborsImpl.build(this, metric, k, sampleRate);
+	}
+
+	/**
+	 * Return a copy of this matrix with the data replaced by the
+	 * argument
+	 *
+	 * @param matrix the data matrix to insert
+	 * @return new CyMatrix with new underlying data
+	 */
+	public CyMatrix copy(Matrix matrix) {
+		SparseMatrix sMatrix;
+		if (matrix instanceof SparseMatrix) {
+			sMatrix = (SparseMatrix)matrix;
+		} else {
+			sMatrix = new SparseMatrix(matrix);
+		}
+		CySparseMatrix newMatrix = new CySparseMatrix(this.network);
+		newMatrix.setData(sMatrix.nRows(), sMatrix.nColumns(), sMatrix.getRowPointers(),
+		                  sMatrix.getColumnIndices(), sMatrix.getValues());
+		newMatrix.transposed = sMatrix.transposed;
+		newMatrix.symmetric = sMatrix.symmetric;
+		newMatrix.minValue = sMatrix.minValue;
+		newMatrix.maxValue = sMatrix.maxValue;
+		if (sMatrix.rowLabels != null)
+			newMatrix.rowLabels = Arrays.copyOf(sMatrix.rowLabels, sMatrix.rowLabels.length);
+		if (sMatrix.columnLabels != null)
+			newMatrix.columnLabels = Arrays.copyOf(sMatrix.columnLabels, sMatrix.columnLabels.length);
+		if (rowNodes != null)
+			newMatrix.rowNodes = Arrays.copyOf(rowNodes, sMatrix.nRows);
+
+		// Careful!  Make sure to properly account for the transition from a symmetrix matrix to
+		// a vector
+		if (columnNodes != null && sMatrix.nColumns > 1)
+			newMatrix.columnNodes = Arrays.copyOf(columnNodes, sMatrix.nColumns);
+		return newMatrix;
+	}
+
+	/**
+	 * Return a copy of this matrix
+	 *
+	 * @return deep copy of the matrix
+	 */
+	public CyMatrix copy() {
+		return new CySparseMatrix(this);
+	}
+
+	public void sortByRowLabels(boolean isNumeric) {
+		Integer[] index;
+		if (isNumeric) {
+			double[] labels = new double[rowLabels.length];
+			for (int i = 0; i < labels.length; i++) {
+				if (rowLabels[i] != null)
+					labels[i] = Double.parseDouble(rowLabels[i]);
+			}
+			index = MatrixUtils.indexSort(labels, labels.length);
+		} else {
+			index = MatrixUtils.indexSort(rowLabels, rowLabels.length);
+		}
+
+		String[] newRowLabels = new String[nRows];
+		CyNode[] newRowNodes = new CyNode[nRows];
+		int[] rowPtr = getRowPointers();
+		int[] colIdx = getColumnIndices();
+		double[] values = getValues();
+		int[] newRowPtr = new int[nRows+1];
+		for (int row = 0; row < nRows; row++) {
+			newRowLabels[index[row]] = rowLabels[row];
+			newRowNodes[index[row]] = rowNodes[row];
+			newRowPtr[index[row]+1] = rowPtr[row+1]-rowPtr[row];
+		}
+		for (int row = 0; row < nRows; row++)
+			newRowPtr[row+1] += newRowPtr[row];
+
+		int nnz = newRowPtr[nRows];
+		int[] newColIdx = new int[nnz];
+		double[] newValues = new double[nnz];
+		for (int row = 0; row < nRows; row++) {
+			int length = rowPtr[row+1]-rowPtr[row];
+			System.arraycopy(colIdx, rowPtr[row], newColIdx, newRowPtr[index[row]], length);
+			System.arraycopy(values, rowPtr[row], newValues, newRowPtr[index[row]], length);
+		}
+		rowLabels = newRowLabels;
+		rowNodes = newRowNodes;
+		setData(nRows, nColumns, newRowPtr, newColIdx, newValues);
+	}
+}
@@ -0,0 +1,336 @@
+package edu.ucsf.rbvi.clusterMaker2.internal.algorithms.matrix;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.cytoscape.model.CyNetwork;
+import org.cytoscape.model.CyNode;
+
+import edu.ucsf.rbvi.clusterMaker2.internal.api.CyMatrix;
+import edu.ucsf.rbvi.clusterMaker2.internal.api.DistanceMetric;
+import edu.ucsf.rbvi.clusterMaker2.internal.api.DistanceProgress;
+import edu.ucsf.rbvi.clusterMaker2.internal.api.Matrix;
+import edu.ucsf.rbvi.clusterMaker2.internal.api.NearestNeighbors;
+
+/**
+ * A wrapper around the packed triangular matrix, with
+ * information necessary to support Cytoscape objects
+ */
+public class CyTriangularMatrix extends TriangularMatrix implements CyMatrix {
+	protected CyNetwork network;
+	protected CyNode[] rowNodes = null;
+	protected CyNode[] columnNodes = null;
+	protected boolean assymetricalEdge = false;
+
+	public CyTriangularMatrix(CyNetwork network) {
+		super();
+		this.network = network;
+	}
+
+	public CyTriangularMatrix(CyNetwork network, int size) {
+		super(size);
+		this.network = network;
+	}
+
+	public CyTriangularMatrix(CyTriangularMatrix matrix) {
+		super((TriangularMatrix)matrix);
+		network = matrix.network;
+		if (matrix.rowNodes != null)
+			rowNodes = Arrays.copyOf(matrix.rowNodes, matrix.rowNodes.length);
+		if (matrix.columnNodes != null)
+			columnNodes = Arrays.copyOf(matrix.columnNodes, matrix.columnNodes.length);
+	}
+
+	/**
+	 * Calculate the distances between the rows of a CyMatrix.  This is
+	 * used by the other CyMatrix implementations for their distance matrices.
+	 * If the result won't fit on the heap, it's memory-mapped instead.
+	 *
+	 * @param matrix the data matrix
+	 * @param metric the metric to use to calculate the distances
+	 * @return the distance matrix
+	 */
+	public static CyMatrix getDistanceMatrix(CyMatrix matrix, DistanceMetric metric) {
+		return getDistanceMatrix(matrix, metric, null);
+	}
+
+	/**
+	 * Calculate the distances between the rows of a CyMatrix, reporting
+	 * progress and stopping early if the task is cancelled.
+	 *
+	 * @param matrix the data matrix
+	 * @param metric the metric to use to calculate the distances
+	 * @param progress the (possibly null) progress to report to
+	 * @return the distance matrix, or null if the task was cancelled
+	 */
+	public static CyMatrix getDistanceMatrix(CyMatrix matrix, DistanceMetric metric, DistanceProgress progress) {
+		if (isTooLarge(matrix.nRows()))
+			return CyMappedMatrix.getDistanceMatrix(matrix, metric, progress);
+
+		TriangularMatrix distances = distanceMatrix(matrix, metric, progress);
+		if (distances == null)
+			return null;
+		CyTriangularMatrix dist = new CyTriangularMatrix(matrix.getNetwork());
+		dist.share(distances);
+		List<CyNode> nodes = matrix.getRowNodes();
+		if (nodes != null) {
+			dist.rowNodes = nodes.toArray(new CyNode[0]);
+			dist.columnNodes = nodes.toArray(new CyNode[0]);
+		}
+		return dist;
+	}
+
+	/**
+	 * Return the network associated with this matrix
+	 *
+	 * @return the network
+	 */
+	public CyNetwork getNetwork() {
+		return network;
+	}
+
+	/**
+	 * Set the nodes for all rows
+	 *
+	 * @param rowNodes array of {@link CyNode}s for the rows
+	 */
+	public void setRowNodes(CyNode rowNodes[]) {
+		this.rowNodes = rowNodes;
+	}
+
+	/**
+	 * Set the nodes for all rows
+	 *
+	 * @param rowNodes list of {@link CyNode}s for the rows
+	 */
+	public void setRowNodes(List<CyNode> rowNodes) {
+		this.rowNodes = rowNodes.toArray(new CyNode[0]);
+	}
+
+	/**
+	 * Set the node for a particular row
+	 *
+	 * @param row the row to get the node for
+	 * @param node the node for that row
+	 */
+	public void setRowNode(int row, CyNode node) {
+		if (rowNodes == null) {
+			rowNodes = new CyNode[nRows()];
+		}
+		rowNodes[row] = node;
+	}
+
+	/**
+	 * Get the nodes for all rows
+	 *
+	 * @return the nodes for all rows
+	 */
+	public List<CyNode> getRowNodes() {
+		if (rowNodes == null)
+			return null;
+		return Arrays.asList(rowNodes);
+	}
+
+	/**
+	 * Get the node for a particular row
+	 *
+	 * @param row the row to get the node for
+	 * @return the node for that row
+	 */
+	public CyNode getRowNode(int row) {
+		return rowNodes[row];
+	}
+
+	/**
+	 * Set the nodes for all columns
+	 *
+	 * @param columnNodes array of {@link CyNode}s for the columns
+	 */
+	public void setColumnNodes(CyNode columnNodes[]) {
+		this.columnNodes = columnNodes;
+	}
+
+	/**
+	 * Set the nodes for all columns
+	 *
+	 * @param columnNodes list of {@link CyNode}s for the columns
+	 */
+	public void setColumnNodes(List<CyNode> columnNodes) {
+		this.columnNodes = columnNodes.toArray(new CyNode[0]);
+	}
+
+	/**
+	 * Set the node for a particular column
+	 *
+	 * @param column the column to set the node for
+	 * @param node the node for that column
+	 */
+	public void setColumnNode(int column, CyNode node) {
+		if (columnNodes == null) {
+			columnNodes = new CyNode[nColumns()];
+		}
+		columnNodes[column] = node;
+	}
+
+	/**
+	 * Get the node for a particular column
+	 *
+	 * @param column the column to get the node for
+	 * @return the node for that column
+	 */
+	public CyNode getColumnNode(int column) {
+		return columnNodes[column];
+	}
+
+	/**
+	 * Get the nodes for all columns
+	 *
+	 * @return the nodes for all columns
+	 */
+	public List<CyNode> getColumnNodes() {
+		if (columnNodes == null)
+			return null;
+		return Arrays.asList(columnNodes);
+	}
+
+	/**
+	 * Return true if the matrix is based on edges, but isn't
+	 * symmetrical.  This will probably be very rara -- currently
+	 * only Hierarchical clusters support it.
+	 *
+	 * @return true if the matrix is edge-based but assymetrical
+	 */
+	public boolean isAssymetricalEdge() { return assymetricalEdge; }
+
+	/**
+	 * Set the value of assymetrical edge.
+	 *
+	 * @param true if the matrix is edge-based but assymetrical
+	 */
+	public void setAssymetricalEdge(boolean assymetricalEdge) {
+		this.assymetricalEdge = assymetricalEdge;
+	}
+
+	public CyMatrix getDistanceMatrix(DistanceMetric metric) {
+		return getDistanceMatrix(this, metric);
+	}
+
+	public NearestNeighbors getNearestNeighbors(DistanceMetric metric, int k, double sampleRate) {
+		return NearestNeighborsImpl.build(this, metric, k, sampleRate);
+	}
+
+	/**
+	 * Return a copy of this matrix
+	 *
+	 * @return deep copy of the matrix
+	 */
+	public CyMatrix copy() {
+		return new CyTriangularMatrix(this);
+	}
+
+	/**
+	 * Return a copy of this matrix with the data replaced by the
+	 * argument.  If the argument is a triangular matrix, the new matrix
+	 * shares its data.  Other symmetric matrices are packed, and anything
+	 * else is copied into a {@link CySimpleMatrix}.
+	 *
+	 * @param matrix the data matrix to insert
+	 * @return new CyMatrix with new underlying data
+	 */
+	public CyMatrix copy(Matrix matrix) {
+		if (!(matrix instanceof TriangularMatrix) &&
+		    (!matrix.isSymmetrical() || matrix.nRows() != matrix.nColumns())) {
+			SimpleMatrix sMatrix = new SimpleMatrix();
+			sMatrix.initialize(matrix.nRows(), matrix.nColumns(), matrix.toArray());
+			sMatrix.setTransposed(matrix.isTransposed());
+			if (matrix.getRowLabels() != null)
+				sMatrix.setRowLabels(Arrays.asList(matrix.getRowLabels()));
+			if (matrix.getColumnLabels() != null)
+				sMatrix.setColumnLabels(Arrays.asList(matrix.getColumnLabels()));
+			CySimpleMatrix cyMatrix = new CySimpleMatrix(network, matrix.nRows(), matrix.nColumns());
+			if (rowNodes != null)
+				cyMatrix.setRowNodes(rowNodes);
+			if (columnNodes != null && matrix.nColumns() > 1)
+				cyMatrix.setColumnNodes(columnNodes);
+			return cyMatrix.copy(sMatrix);
+		}
+
+		TriangularMatrix tMatrix;
+		if (matrix instanceof TriangularMatrix) {
+			tMatrix = (TriangularMatrix)matrix;
+		} else {
+			tMatrix = new TriangularMatrix();
+			tMatrix.initialize(matrix.nRows(), matrix.nColumns(), matrix.toArray());
+			tMatrix.transposed = matrix.isTransposed();
+			tMatrix.rowLabels = matrix.getRowLabels();
+			tMatrix.columnLabels = matrix.getColumnLabels();
+		}
+		CyTriangularMatrix newMatrix = new CyTriangularMatrix(this.network);
+		newMatrix.share(tMatrix);
+		if (rowNodes != null)
+			newMatrix.rowNodes = Arrays.copyOf(rowNodes, rowNodes.length);
+		if (columnNodes != null)
+			newMatrix.columnNodes = Arrays.copyOf(columnNodes, columnNodes.length);
+		return newMatrix;
+	}
+
+	/**
+	 * Sort the matrix by the row labels.  To keep the matrix symmetric
+	 * the columns are sorted in the same order.
+	 */
+	public void sortByRowLabels(boolean isNumeric) {
+		Integer[] index;
+		if (isNumeric) {
+			double[] labels = new double[rowLabels.length];
+			for (int i = 0; i < labels.length; i++) {
+				if (rowLabels[i] != null)
+					labels[i] = Double.parseDouble(rowLabels[i]);
+			}
+			index = MatrixUtils.indexSort(labels, labels.length);
+		} else {
+			index = MatrixUtils.indexSort(rowLabels, rowLabels.length);
+		}
+
+		TriangularMatrix sorted = new TriangularMatrix(size);
+		if (!condensed)
+			sorted.expand();
+		String[] newRowLabels = new String[size];
+		String[] newColumnLabels = new String[size];
+		CyNode[] newRowNodes = new CyNode[size];
+		CyNode[] newColumnNodes = new CyNode[size];
+		for (int row = 0; row < size; row++) {
+			newRowLabels[index[row]] = rowLabels[row];
+			newColumnLabels[index[row]] = columnLabels[row];
+			if (rowNodes != null)
+				newRowNodes[index[row]] = rowNodes[row];
+			if (columnNodes != null)
+				newColumnNodes[index[row]] = columnNodes[row];
+			for (int column = colStart(row); column < size; column++)
+				sorted.data[sorted.offset(index[row], index[column])] = data[offset(row, column)];
+		}
+		data = sorted.data;
+		rowStart = sorted.rowStart;
+		rowLabels = newRowLabels;
+		columnLabels = newColumnLabels;
+		if (rowNodes != null)
+			rowNodes = newRowNodes;
+		if (columnNodes != null)
+			columnNodes = newColumnNodes;
+	}
+
+	// Use the data (but not the nodes) from another triangular matrix
+	private void share(TriangularMatrix mat) {
+		data = mat.data;
+		rowStart = mat.rowStart;
+		index = mat.index;
+		size = mat.size;
+		transposed = mat.transposed;
+		condensed = mat.condensed;
+		minValue = mat.minValue;
+		maxValue = mat.maxValue;
+		if (mat.rowLabels != null)
+			rowLabels = Arrays.copyOf(mat.rowLabels, mat.rowLabels.length);
+		if (mat.columnLabels != null)
+			columnLabels = Arrays.copyOf(mat.columnLabels, mat.columnLabels.length);
+	}
+}
@@ -0,0 +1,344 @@
+package edu.ucsf.rbvi.clusterMaker2.internal.algorithms.matrix;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.cytoscape.model.CyNetwork;
+import org.cytoscape.model.events.RowSetRecord;
+import org.cytoscape.model.events.RowsSetEvent;
+import org.cytoscape.model.events.RowsSetListener;
+
+import edu.ucsf.rbvi.clusterMaker2.internal.api.CyMatrix;
+import edu.ucsf.rbvi.clusterMaker2.internal.api.DistanceCache;
+import edu.ucsf.rbvi.clusterMaker2.internal.api.DistanceMatrixCache;
+import edu.ucsf.rbvi.clusterMaker2.internal.api.DistanceMetric;
+import edu.ucsf.rbvi.clusterMaker2.internal.api.Precision;
+
+/**
+ * A session-wide cache of the distance matrices calculated by the attribute
+ * clusterers.  Entries are keyed on the network, the attributes and the
+ * options used to build the data matrix, the metric, and a stamp that
+ * changes whenever one of the attribute columns is set or nodes or edges
+ * are added to or removed from the network.  Entries that go stale are
+ * never looked up again, and the least recently used entries are dropped
+ * when the cache grows past its memory budget.  Memory-mapped matrices live
+ * on disk rather than on the heap, so they are charged to a separate disk
+ * budget.  Callers close the distance
+ * matrices they're given, so memory-mapped entries are handed out as views
+ * that share the cached data, and the cache closes its own copy when the
+ * entry is dropped.
+ *
+ * The cache is owned by the ClusterManager, which registers it for
+ * RowsSetEvents.
+ */
+public class DistanceMatrixCacheImpl implements DistanceMatrixCache, RowsSetListener {
+	// The fraction of the maximum heap used by default
+	public static double DEFAULT_BUDGET_FRACTION = 0.25;
+
+	// The fraction of the free space in the temporary directory used by default
+	public static double DEFAULT_DISK_BUDGET_FRACTION = 0.25;
+
+	private long budget;
+	private long used = 0L;
+	private long diskBudget;
+	private long diskUsed = 0L;
+	private final LinkedHashMap<Key, CyMatrix> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+	// The calculations in progress.  Each completes once its matrix is in the
+	// cache (or turned out not to fit), so other callers asking for the same
+	// matrix wait for it rather than calculating it again.
+	private final ConcurrentHashMap<Key, CompletableFuture<Void>> calculating = new ConcurrentHashMap<>();
+
+	// The last modification of each column, by column name
+	private final Map<String, Long> columnStamps = new ConcurrentHashMap<>();
+	private final AtomicLong clock = new AtomicLong();
+
+	public DistanceMatrixCacheImpl() {
+		this((long)(Runtime.getRuntime().maxMemory()*DEFAULT_BUDGET_FRACTION));
+	}
+
+	/**
+	 * Create a cache with a specific memory budget
+	 *
+	 * @param budget the maximum number of bytes of distance matrices to keep on the heap
+	 */
+	public DistanceMatrixCacheImpl(long budget) {
+		this(budget, (long)(new File(System.getProperty("java.io.tmpdir")).getUsableSpace()*
+		                    DEFAULT_DISK_BUDGET_FRACTION));
+	}
+
+	/**
+	 * Create a cache with specific memory and disk budgets
+	 *
+	 * @param budget the maximum number of bytes of distance matrices to keep on the heap
+	 * @param diskBudget the maximum number of bytes of memory-mapped distance matrices to keep
+	 */
+	public DistanceMatrixCacheImpl(long budget, long diskBudget) {
+		this.budget = budget;
+		this.diskBudget = diskBudget;
+	}
+
+	public DistanceCache forData(CyNetwork network, String[] attributes, boolean selectedOnly,
+	                             boolean ignoreMissing, boolean transpose, Precision precision) {
+		String[] columns = new String[attributes.length];
+		for (int i = 0; i < attributes.length; i++) {
+			String attribute = attributes[i];
+			if (attribute.startsWith("node.") || attribute.startsWith("edge."))
+				attribute = attribute.substring(5);
+			columns[i] = attribute;
+		}
+
+		return (metric, calculate) -> {
+			Key key = new Key(network.getSUID(), attributes, selectedOnly, ignoreMissing, transpose, precision,
+			                  metric, getStamp(columns, selectedOnly), network.getNodeCount(), network.getEdgeCount());
+			while (true) {
+				CyMatrix distances = get(key);
+				if (distances != null)
+					return distances;
+
+				CompletableFuture<Void> calculation = new CompletableFuture<>();
+				CompletableFuture<Void> other = calculating.putIfAbsent(key, calculation);
+				if (other != null) {
+					// Someone else is calculating it, so wait for them and look again.  If
+					// their calculation was cancelled or too large to keep, we'll do our own.
+					other.join();
+					continue;
+				}
+
+				try {
+					distances = calculate.apply(metric);
+					// Nothing to keep if the calculation was cancelled
+					if (distances != null)
+						distances = put(key, distances);
+					return distances;
+				} finally {
+					calculating.remove(key, calculation);
+					calculation.complete(null);
+				}
+			}
+		};
+	}
+
+	/**
+	 * Set the memory budget, dropping entries if the cache is now too large
+	 *
+	 * @param budget the maximum number of bytes of distance matrices to keep on the heap
+	 */
+	public synchronized void setMemoryBudget(long budget) {
+		this.budget = budget;
+		evict();
+	}
+
+	/**
+	 * Return the memory budget
+	 *
+	 * @return the maximum number of bytes of distance matrices to keep on the heap
+	 */
+	public synchronized long getMemoryBudget() {
+		return budget;
+	}
+
+	/**
+	 * Return the approximate heap memory used by the cached distance matrices
+	 *
+	 * @return the number of bytes used
+	 */
+	public synchronized long getMemoryUsed() {
+		return used;
+	}
+
+	/**
+	 * Set the disk budget for memory-mapped matrices, dropping entries if
+	 * the cache is now too large
+	 *
+	 * @param diskBudget the maximum number of bytes of memory-mapped distance matrices to keep
+	 */
+	public synchronized void setDiskBudget(long diskBudget) {
+		this.diskBudget = diskBudget;
+		evict();
+	}
+
+	/**
+	 * Return the disk budget for memory-mapped matrices
+	 *
+	 * @return the maximum number of bytes of memory-mapped distance matrices to keep
+	 */
+	public synchronized long getDiskBudget() {
+		return diskBudget;
+	}
+
+	/**
+	 * Return the disk space used by the cached memory-mapped distance matrices
+	 *
+	 * @return the number of bytes used
+	 */
+	public synchronized long getDiskUsed() {
+		return diskUsed;
+	}
+
+	public synchronized void clear() {
+		for (CyMatrix distances: entries.values())
+			distances.close();
+		entries.clear();
+		used = 0L;
+		diskUsed = 0L;
+	}
+
+	public void handleEvent(RowsSetEvent e) {
+		Set<String> columns = new HashSet<>();
+		for (RowSetRecord record: e.getPayloadCollection())
+			columns.add(record.getColumn());
+		long stamp = clock.incrementAndGet();
+		for (String column: columns)
+			columnStamps.put(column, stamp);
+	}
+
+	synchronized CyMatrix get(Key key) {
+		CyMatrix distances = entries.get(key);
+		if (distances == null)
+			return null;
+		return share(distances);
+	}
+
+	// Returns the matrix to give the caller: a view of the matrix if we kept a
+	// mapped matrix, or the matrix itself
+	synchronized CyMatrix put(Key key, CyMatrix distances) {
+		if (sizeOf(distances) > (isMapped(distances) ? diskBudget : budget))
+			return distances;
+
+		// Anything cached for older versions of the same data is stale
+		Iterator<Map.Entry<Key, CyMatrix>> iterator = entries.entrySet().iterator();
+		while (iterator.hasNext()) {
+			Map.Entry<Key, CyMatrix> entry = iterator.next();
+			if (entry.getKey().sameData(key) && !entry.getKey().equals(key)) {
+				drop(entry.getValue());
+				iterator.remove();
+			}
+		}
+
+		CyMatrix old = entries.put(key, distances);
+		if (old == distances)
+			return share(distances);
+		if (old != null)
+			drop(old);
+		charge(distances, 1);
+		evict();
+		return share(distances);
+	}
+
+	// Drop the least recently used entries until we're within our budgets.  Heap
+	// and mapped matrices are only dropped to make room for their own kind.
+	private void evict() {
+		Iterator<CyMatrix> iterator = entries.values().iterator();
+		while ((used > budget || diskUsed > diskBudget) && iterator.hasNext()) {
+			CyMatrix distances = iterator.next();
+			if (isMapped(distances) ? diskUsed <= diskBudget : used <= budget)
+				continue;
+			drop(distances);
+			iterator.remove();
+		}
+	}
+
+	// Uncharge and close a matrix we're no longer keeping
+	private void drop(CyMatrix distances) {
+		charge(distances, -1);
+		distances.close();
+	}
+
+	private void charge(CyMatrix distances, int sign) {
+		if (isMapped(distances))
+			diskUsed += sign*sizeOf(distances);
+		else
+			used += sign*sizeOf(distances);
+	}
+
+	private static boolean isMapped(CyMatrix distances) {
+		return distances instanceof MappedMatrix;
+	}
+
+	// The caller closes the matrix it's given, so give it a view of a mapped matrix
+	private static CyMatrix share(CyMatrix distances) {
+		if (distances instanceof CyMappedMatrix)
+			return ((CyMappedMatrix)distances).view();
+		return distances;
+	}
+
+	// The last time any of the columns the data depends on changed
+	private long getStamp(String[] columns, boolean selectedOnly) {
+		long stamp = 0L;
+		for (String column: columns)
+			stamp = Math.max(stamp, columnStamps.getOrDefault(column, 0L));
+		if (selectedOnly)
+			stamp = Math.max(stamp, columnStamps.getOrDefault(CyNetwork.SELECTED, 0L));
+		return stamp;
+	}
+
+	static long sizeOf(CyMatrix matrix) {
+		long rows = matrix.nRows();
+		if (matrix instanceof TriangularMatrix)
+			return rows*(rows+1)/2*8;
+		if (matrix instanceof MappedMatrix)
+			return ((MappedMatrix)matrix).storage.length*8;
+		if (matrix instanceof FloatMatrix)
+			return rows*matrix.nColumns()*4;
+		return rows*matrix.nColumns()*8;
+	}
+
+	static class Key {
+		final long network;
+		final String[] attributes;
+		final boolean selectedOnly;
+		final boolean ignoreMissing;
+		final boolean transpose;
+		final Precision precision;
+		final DistanceMetric metric;
+		final long stamp;
+		final int nodeCount;
+		final int edgeCount;
+
+		Key(long network, String[] attributes, boolean selectedOnly, boolean ignoreMissing,
+		    boolean transpose, Precision precision, DistanceMetric metric, long stamp,
+		    int nodeCount, int edgeCount) {
+			this.network = network;
+			this.attributes = Arrays.copyOf(attributes, attributes.length);
+			this.selectedOnly = selectedOnly;
+			this.ignoreMissing = ignoreMissing;
+			this.transpose = transpose;
+			this.precision = precision;
+			this.metric = metric;
+			this.stamp = stamp;
+			this.nodeCount = nodeCount;
+			this.edgeCount = edgeCount;
+		}
+
+		// True if the key is for the same data and metric, ignoring any changes
+		boolean sameData(Key other) {
+			return network == other.network && Arrays.equals(attributes, other.attributes) &&
+			       selectedOnly == other.selectedOnly && ignoreMissing == other.ignoreMissing &&
+			       transpose == other.transpose && precision == other.precision && metric == other.metric;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Key)) return false;
+			Key other = (Key)o;
+			return sameData(other) && stamp == other.stamp &&
+			       nodeCount == other.nodeCount && edgeCount == other.edgeCount;
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(network, Arrays.hashCode(attributes), selectedOnly, ignoreMissing,
+			                    transpose, precision, metric, stamp, nodeCount, edgeCount);
+		}
+	}
+}
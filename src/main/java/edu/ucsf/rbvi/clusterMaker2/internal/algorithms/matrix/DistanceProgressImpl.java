@@ -0,0 +1,80 @@
+package edu.ucsf.rbvi.clusterMaker2.internal.algorithms.matrix;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+import org.cytoscape.work.TaskMonitor;
+
+import edu.ucsf.rbvi.clusterMaker2.internal.api.DistanceProgress;
+
+/**
+ * Reports the progress of a distance calculation to a TaskMonitor as a
+ * fraction (at most once per tenth of a percent), and polls the task to see
+ * if it has been cancelled.
+ */
+public class DistanceProgressImpl implements DistanceProgress {
+	private static final int STEPS = 1000;
+
+	private final TaskMonitor monitor;
+	private final BooleanSupplier cancelled;
+	private final double from;
+	private final double to;
+	private final AtomicLong done = new AtomicLong();
+	private volatile int reported = -1;
+	private volatile long total = 1L;
+
+	/**
+	 * Create a progress tracker
+	 *
+	 * @param monitor the (possibly null) task monitor to report progress to
+	 * @param cancelled returns true when the task has been cancelled, or null
+	 * if it can't be cancelled
+	 */
+	public DistanceProgressImpl(TaskMonitor monitor, BooleanSupplier cancelled) {
+		this(monitor, cancelled, 0.0, 1.0);
+	}
+
+	/**
+	 * Create a progress tracker for one phase of a longer task
+	 *
+	 * @param monitor the (possibly null) task monitor to report progress to
+	 * @param cancelled returns true when the task has been cancelled, or null
+	 * if it can't be cancelled
+	 * @param from the task's progress when the calculation starts
+	 * @param to the task's progress when the calculation is done
+	 */
+	public DistanceProgressImpl(TaskMonitor monitor, BooleanSupplier cancelled, double from, double to) {
+		this.monitor = monitor;
+		this.cancelled = cancelled;
+		this.from = from;
+		this.to = to;
+	}
+
+	public boolean isCancelled() {
+		return cancelled != null && cancelled.getAsBoolean();
+	}
+
+	public void start(long total) {
+		this.total = Math.max(1L, total);
+		done.set(0L);
+		reported = -1;
+		report(0L);
+	}
+
+	public void add(long pairs) {
+		report(done.addAndGet(pairs));
+	}
+
+	private void report(long finished) {
+		if (monitor == null) return;
+		int step = (int)(finished*STEPS/total);
+		if (step <= reported) return;
+		// Report each step once, and in order
+		synchronized (this) {
+			if (step > reported) {
+				reported = step;
+				monitor.setProgress(from+(to-from)*step/STEPS);
+			}
+		}
+	}
+}
@@ -0,0 +1,124 @@
+package edu.ucsf.rbvi.clusterMaker2.internal.algorithms.matrix;
+
+import java.util.stream.IntStream;
+
+import edu.ucsf.rbvi.clusterMaker2.internal.api.DistanceMetric;
+import edu.ucsf.rbvi.clusterMaker2.internal.api.DistanceProgress;
+import edu.ucsf.rbvi.clusterMaker2.internal.api.Matrix;
+import edu.ucsf.rbvi.clusterMaker2.internal.api.RowView;
+
+/**
+ * Runs an all-pairs calculation over square tiles of the upper triangle.
+ * Scheduling rows doesn't balance, since row 0 has n pairs and row n-1 has
+ * one, but all of the tiles are the same size except the ones on the diagonal,
+ * so the fork/join pool can split the list of tiles evenly.  Each tile is
+ * also the unit of cancellation and progress reporting.
+ */
+public class DistanceTiles {
+	// The number of rows (and columns) in each tile
+	public static final int TILE_SIZE = 64;
+
+	/**
+	 * Calculates one tile
+	 */
+	public interface Tile {
+		/**
+		 * Calculate the pairs (row, column) with rowStart &lt;= row &lt; rowEnd,
+		 * columnStart &lt;= column &lt; columnEnd and row &lt;= column.
+		 */
+		void run(int rowStart, int rowEnd, int columnStart, int columnEnd);
+	}
+
+	/**
+	 * Calculate all of the distances between the rows of a matrix and pass
+	 * them to a sink, without keeping them.  This goes through
+	 * {@link GramDistance} when it can, and calls the metric for each pair
+	 * when it can't.  The sink is called from several threads at once, and
+	 * gets each pair (including the diagonal) once, with row &lt;= column.
+	 *
+	 * @param data the matrix with the data
+	 * @param metric the metric to use to calculate the distances
+	 * @param sink where to put the distances
+	 * @param progress the (possibly null) progress to report to
+	 * @return false if the calculation was cancelled
+	 */
+	public static boolean distances(Matrix data, DistanceMetric metric, GramDistance.DistanceSink sink,
+	                                DistanceProgress progress) {
+		return distancesByTile(data, metric, (rowStart, columnStart) -> sink, progress);
+	}
+
+	/**
+	 * Calculate all of the distances between the rows of a matrix, passing
+	 * the distances of each tile to a sink of its own.  Each tile's sink is
+	 * only called from one thread, so results can be collected a tile at a
+	 * time without any locking.
+	 *
+	 * @param data the matrix with the data
+	 * @param metric the metric to use to calculate the distances
+	 * @param sinks makes the sink for each tile
+	 * @param progress the (possibly null) progress to report to
+	 * @return false if the calculation was cancelled
+	 */
+	public static boolean distancesByTile(Matrix data, DistanceMetric metric, GramDistance.TileSinks sinks,
+	                                      DistanceProgress progress) {
+		RowView[] views = TriangularMatrix.rowViews(data, metric);
+		if (!GramDistance.distancesByTile(views, metric, sinks, progress)) {
+			run(data.nRows(), progress, (rowStart, rowEnd, columnStart, columnEnd) -> {
+				GramDistance.DistanceSink sink = sinks.forTile(rowStart, columnStart);
+				for (int row = rowStart; row < rowEnd; row++) {
+					for (int column = Math.max(row, columnStart); column < columnEnd; column++)
+						sink.set(row, column, TriangularMatrix.distance(data, views, metric, row, column));
+				}
+			});
+		}
+		return progress == null || !progress.isCancelled();
+	}
+
+	/**
+	 * Run a calculation over all of the tiles on or above the diagonal
+	 *
+	 * @param nRows the number of rows (and columns)
+	 * @param progress the (possibly null) progress to report to
+	 * @param tile the calculation
+	 * @return false if the calculation was cancelled, in which case some tiles
+	 * weren't calculated
+	 */
+	public static boolean run(int nRows, DistanceProgress progress, Tile tile) {
+		int nTiles = (nRows+TILE_SIZE-1)/TILE_SIZE;
+		int[] tileRow = new int[nTiles*(nTiles+1)/2];
+		int[] tileColumn = new int[tileRow.length];
+		int t = 0;
+		for (int i = 0; i < nTiles; i++) {
+			for (int j = i; j < nTiles; j++) {
+				tileRow[t] = i;
+				tileColumn[t++] = j;
+			}
+		}
+
+		if (progress != null)
+			progress.start((long)nRows*(nRows+1)/2);
+
+		IntStream.range(0, tileRow.length).parallel()
+			.forEach(i -> {
+				if (progress != null && progress.isCancelled())
+					return;
+				int rowStart = tileRow[i]*TILE_SIZE;
+				int rowEnd = Math.min(nRows, rowStart+TILE_SIZE);
+				int columnStart = tileColumn[i]*TILE_SIZE;
+				int columnEnd = Math.min(nRows, columnStart+TILE_SIZE);
+				tile.run(rowStart, rowEnd, columnStart, columnEnd);
+				if (progress != null)
+					progress.add(pairs(rowStart, rowEnd, columnStart, columnEnd));
+			});
+
+		return progress == null || !progress.isCancelled();
+	}
+
+	// The number of pairs in a tile
+	private static long pairs(int rowStart, int rowEnd, int columnStart, int columnEnd) {
+		long rows = rowEnd-rowStart;
+		if (rowStart != columnStart)
+			return rows*(columnEnd-columnStart);
+		return rows*(rows+1)/2;
+	}
+}
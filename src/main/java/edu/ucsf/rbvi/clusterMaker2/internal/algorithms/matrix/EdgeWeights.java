@@ -0,0 +1,355 @@
+package edu.ucsf.rbvi.clusterMaker2.internal.algorithms.matrix;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.cytoscape.model.CyEdge;
+import org.cytoscape.model.CyNetwork;
+import org.cytoscape.model.CyNode;
+import org.cytoscape.model.CyTableUtil;
+
+import edu.ucsf.rbvi.clusterMaker2.internal.api.CyMatrix;
+import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.edgeConverters.EdgeWeightConverter;
+
+/**
+ * The weights of the edges of a network, read from an edge column in a
+ * single pass.  The column is pulled out of the edge table all at once, and
+ * each edge is reduced to the rows of its source and target and its raw
+ * weight, so the matrix for a different converter or cutoff can be built
+ * without going back to the network.  The matrix itself is built directly
+ * in compressed sparse row form, and the converted weights can also be
+ * sorted on their own for choosing a cutoff.
+ */
+public class EdgeWeights {
+	private final CyNetwork network;
+	private final String attribute;
+	private final boolean selectedOnly;
+	private final int nEdgesInNetwork;
+
+	private final CyNode[] nodes;
+	private final String[] names;
+
+	// The rows of the source and target of each edge, and its weight (NaN if
+	// it doesn't have one)
+	private final int nEdges;
+	private final int[] sources;
+	private final int[] targets;
+	private final double[] weights;
+
+	private final boolean hasColumn;
+	private final double minWeight;
+	private final double maxWeight;
+
+	/**
+	 * Read the weights of the edges in a network
+	 *
+	 * @param network the network
+	 * @param attribute the edge attribute with the weights
+	 * @param selectedOnly only include the selected nodes and the edges between them
+	 */
+	public EdgeWeights(CyNetwork network, String attribute, boolean selectedOnly) {
+		this.network = network;
+		this.attribute = attribute;
+		this.selectedOnly = selectedOnly;
+		this.nEdgesInNetwork = network.getEdgeCount();
+
+		List<CyNode> nodeList;
+		if (!selectedOnly)
+			nodeList = network.getNodeList();
+		else
+			nodeList = CyTableUtil.getNodesInState(network, CyNetwork.SELECTED, true);
+		nodes = nodeList.toArray(new CyNode[0]);
+
+		TableIndex nodeTable = new TableIndex(network.getDefaultNodeTable());
+		List<String> nameValues = nodeTable.getValues(CyNetwork.NAME, String.class);
+		long[] nodeSuids = new long[nodes.length];
+		names = new String[nodes.length];
+		for (int row = 0; row < nodes.length; row++) {
+			nodeSuids[row] = nodes[row].getSUID();
+			int tableRow = nodeTable.indexOf(nodeSuids[row]);
+			names[row] = tableRow < 0 ? null : nameValues.get(tableRow);
+		}
+		TableIndex.SuidIndex nodeIndex = new TableIndex.SuidIndex(nodeSuids);
+
+		TableIndex edgeTable = new TableIndex(network.getDefaultEdgeTable());
+		hasColumn = network.getDefaultEdgeTable().getColumn(attribute) != null;
+		double[] columnValues = edgeTable.getNumericValues(attribute);
+
+		// Only the edges between the nodes we're using (which is all of them,
+		// unless we only want the selected nodes)
+		List<CyEdge> edgeList = network.getEdgeList();
+		int[] edgeSources = new int[edgeList.size()];
+		int[] edgeTargets = new int[edgeList.size()];
+		double[] edgeWeights = new double[edgeList.size()];
+		double min = Double.MAX_VALUE;
+		double max = Double.MIN_VALUE;
+		int edge = 0;
+		for (CyEdge cyEdge: edgeList) {
+			int source = nodeIndex.indexOf(cyEdge.getSource().getSUID());
+			int target = nodeIndex.indexOf(cyEdge.getTarget().getSUID());
+			if (source < 0 || target < 0)
+				continue;
+
+			double weight = Double.NaN;
+			if (columnValues != null) {
+				int tableRow = edgeTable.indexOf(cyEdge.getSUID());
+				if (tableRow >= 0)
+					weight = columnValues[tableRow];
+			}
+			if (!Double.isNaN(weight)) {
+				min = Math.min(min, weight);
+				max = Math.max(max, weight);
+			}
+			edgeSources[edge] = source;
+			edgeTargets[edge] = target;
+			edgeWeights[edge++] = weight;
+		}
+		nEdges = edge;
+		sources = edgeSources;
+		targets = edgeTargets;
+		weights = edgeWeights;
+		minWeight = min;
+		maxWeight = max;
+	}
+
+	/**
+	 * Return true if these weights were read for the same data.  Only the
+	 * size of the network is checked, so this is meant for reusing the
+	 * weights as the parameters of a run are being chosen, not between runs.
+	 * A selection may have changed without changing any counts, so weights
+	 * for the selected nodes are never reused.
+	 *
+	 * @param network the network
+	 * @param attribute the edge attribute with the weights
+	 * @param selectedOnly only include the selected nodes and the edges between them
+	 * @return true if these weights can be used
+	 */
+	public boolean isCurrent(CyNetwork network, String attribute, boolean selectedOnly) {
+		return this.network == network && this.attribute.equals(attribute) &&
+		       !this.selectedOnly && !selectedOnly &&
+		       nEdgesInNetwork == network.getEdgeCount() && nodes.length == network.getNodeCount();
+	}
+
+	/**
+	 * Build the (sparse) matrix of converted edge weights
+	 *
+	 * @param converter the edge weight converter to use
+	 * @param unDirected if true, the edges are undirected
+	 * @param cutOff the minimum edge value to consider
+	 * @return the resulting matrix
+	 */
+	public CyMatrix makeMatrix(EdgeWeightConverter converter, boolean unDirected, double cutOff) {
+		return makeMatrix(converter, unDirected, cutOff, null);
+	}
+
+	/**
+	 * Build the (sparse) matrix of converted edge weights.  If the sorted
+	 * weights were made by {@link #sortWeights} with the same converter, and
+	 * the cutoff doesn't change how the weights are converted, only the
+	 * edges that pass the cutoff are looked at.  They are found by a binary
+	 * search of the sorted weights.
+	 *
+	 * @param converter the edge weight converter to use
+	 * @param unDirected if true, the edges are undirected
+	 * @param cutOff the minimum edge value to consider
+	 * @param sorted the sorted weights, or null
+	 * @return the resulting matrix
+	 */
+	public CyMatrix makeMatrix(EdgeWeightConverter converter, boolean unDirected, double cutOff,
+	                           SortedEdgeWeights sorted) {
+		// First, we need the min and max values for our converter
+		double[] range = getRange(cutOff);
+		double minAttribute = range[0];
+		double maxAttribute = range[1];
+		boolean unweighted = (minAttribute == 1.0 && maxAttribute == 1.0);
+
+		// The edges to look at, in order, with their converted weights if we
+		// already have them
+		int nCandidates = nEdges;
+		int[] candidates = null;
+		double[] converted = null;
+		if (sorted != null && sorted.weights == this && sorted.converter == converter &&
+		    cutOff >= sorted.cutOff && sameConversion(converter, range, getRange(sorted.cutOff))) {
+			int first = sorted.indexOf(cutOff);
+			nCandidates = sorted.size() - first;
+			long[] keys = new long[nCandidates];
+			for (int i = 0; i < nCandidates; i++)
+				keys[i] = ((long)sorted.edges[first+i] << 32) | (first+i);
+			Arrays.sort(keys);
+			candidates = new int[nCandidates];
+			converted = new double[nCandidates];
+			for (int i = 0; i < nCandidates; i++) {
+				candidates[i] = (int)(keys[i] >>> 32);
+				converted[i] = sorted.getValue((int)keys[i]);
+			}
+		}
+
+		// Now collect the entries, in the order that they would have been set
+		int nEntries = unDirected ? 2*nCandidates : nCandidates;
+		int[] rows = new int[nEntries];
+		int[] columns = new int[nEntries];
+		double[] values = new double[nEntries];
+		int entry = 0;
+		double minValue = Double.MAX_VALUE;
+		double maxValue = Double.MIN_VALUE;
+		for (int candidate = 0; candidate < nCandidates; candidate++) {
+			int edge = candidates == null ? candidate : candidates[candidate];
+			double weight;
+			if (converted != null) {
+				weight = converted[candidate];
+			} else {
+				double value = unweighted ? 1.0 : weights[edge];
+				if (Double.isNaN(value))
+					continue;
+
+				weight = converter.convert(value, minAttribute, maxAttribute);
+				if (weight < cutOff)
+					continue;
+			}
+			if (weight < minValue) minValue = weight;
+			if (weight > maxValue) maxValue = weight;
+
+			rows[entry] = targets[edge];
+			columns[entry] = sources[edge];
+			values[entry++] = weight;
+			if (unDirected) {
+				rows[entry] = sources[edge];
+				columns[entry] = targets[edge];
+				values[entry++] = weight;
+			}
+		}
+
+		CySparseMatrix matrix = new CySparseMatrix(network, nodes.length, nodes.length);
+		matrix.setRowNodes(Arrays.copyOf(nodes, nodes.length));
+		matrix.setColumnNodes(Arrays.copyOf(nodes, nodes.length));
+		for (int row = 0; row < nodes.length; row++) {
+			matrix.setRowLabel(row, names[row]);
+			matrix.setColumnLabel(row, names[row]);
+		}
+		matrix.setSymmetrical(unDirected);
+		compress(matrix, entry, rows, columns, values);
+		matrix.minValue = minValue;
+		matrix.maxValue = maxValue;
+		return matrix;
+	}
+
+	/**
+	 * Convert the edge weights and sort them, without building a matrix.
+	 * The weights are converted just as they would be by
+	 * {@link #makeMatrix}, but each edge is only counted once.
+	 *
+	 * @param converter the edge weight converter to use
+	 * @param cutOff the minimum edge value to consider
+	 * @return the sorted weights of the edges that pass the cutoff
+	 */
+	public SortedEdgeWeights sortWeights(EdgeWeightConverter converter, double cutOff) {
+		double[] range = getRange(cutOff);
+		boolean unweighted = (range[0] == 1.0 && range[1] == 1.0);
+
+		double[] values = new double[nEdges];
+		int[] edges = new int[nEdges];
+		double[] nodeMaxima = new double[nodes.length];
+		Arrays.fill(nodeMaxima, Double.NaN);
+		int nValues = 0;
+		for (int edge = 0; edge < nEdges; edge++) {
+			double value = unweighted ? 1.0 : weights[edge];
+			if (Double.isNaN(value))
+				continue;
+
+			double weight = converter.convert(value, range[0], range[1]);
+			// The matrix doesn't keep zeros
+			if (weight < cutOff || weight == 0.0)
+				continue;
+			edges[nValues] = edge;
+			values[nValues++] = weight;
+			SortedEdgeWeights.updateMaximum(nodeMaxima, sources[edge], weight);
+			SortedEdgeWeights.updateMaximum(nodeMaxima, targets[edge], weight);
+		}
+		return new SortedEdgeWeights(Arrays.copyOf(values, nValues), nodeMaxima, this,
+		                             Arrays.copyOf(edges, nValues), converter, cutOff);
+	}
+
+	// The minimum and maximum raw weights at or above the cutoff, which
+	// are what the converters scale by
+	private double[] getRange(double cutOff) {
+		double minAttribute = Double.MAX_VALUE;
+		double maxAttribute = Double.MIN_VALUE;
+		if (!hasColumn) {
+			minAttribute = 1.0;
+			maxAttribute = 1.0;
+		} else if (cutOff <= minWeight) {
+			minAttribute = minWeight;
+			maxAttribute = maxWeight;
+		} else {
+			for (int edge = 0; edge < nEdges; edge++) {
+				double weight = weights[edge];
+				if (Double.isNaN(weight) || weight < cutOff)
+					continue;
+				minAttribute = Math.min(minAttribute, weight);
+				maxAttribute = Math.max(maxAttribute, weight);
+			}
+		}
+		return new double[] {minAttribute, maxAttribute};
+	}
+
+	// Return true if the weights are converted the same way with either range
+	private static boolean sameConversion(EdgeWeightConverter converter, double[] range1, double[] range2) {
+		if (Arrays.equals(range1, range2))
+			return true;
+		boolean unweighted1 = (range1[0] == 1.0 && range1[1] == 1.0);
+		boolean unweighted2 = (range2[0] == 1.0 && range2[1] == 1.0);
+		return !converter.usesRange() && unweighted1 == unweighted2;
+	}
+
+	// Put the entries into the matrix in CSR form.  As with setValue, a
+	// later entry for the same cell replaces an earlier one, and zeros
+	// aren't stored.
+	private static void compress(SparseMatrix matrix, int nEntries, int[] rows, int[] columns,
+	                             double[] values) {
+		int nRows = matrix.nRows();
+		int[] rowPtr = new int[nRows+1];
+		for (int entry = 0; entry < nEntries; entry++)
+			rowPtr[rows[entry]+1]++;
+		for (int row = 0; row < nRows; row++)
+			rowPtr[row+1] += rowPtr[row];
+
+		// Sort by row, keeping the order of the entries within each row
+		int[] byRow = new int[nEntries];
+		int[] next = Arrays.copyOf(rowPtr, nRows);
+		for (int entry = 0; entry < nEntries; entry++)
+			byRow[next[rows[entry]]++] = entry;
+
+		int[] colIdx = new int[nEntries];
+		double[] rowValues = new double[nEntries];
+		int nnz = 0;
+		long[] keys = new long[0];
+		for (int row = 0; row < nRows; row++) {
+			int start = rowPtr[row];
+			int length = rowPtr[row+1]-start;
+			rowPtr[row] = nnz;
+			if (length == 0) continue;
+
+			// Sort by column, then by the order the entries were made
+			if (keys.length < length)
+				keys = new long[length];
+			for (int i = 0; i < length; i++)
+				keys[i] = ((long)columns[byRow[start+i]] << 32) | byRow[start+i];
+			Arrays.sort(keys, 0, length);
+			for (int i = 0; i < length; i++) {
+				int column = (int)(keys[i] >>> 32);
+				// Only the last entry for a column counts
+				if (i+1 < length && (int)(keys[i+1] >>> 32) == column)
+					continue;
+				double value = values[(int)keys[i]];
+				if (value == 0.0)
+					continue;
+				colIdx[nnz] = column;
+				rowValues[nnz++] = value;
+			}
+		}
+		rowPtr[nRows] = nnz;
+
+		matrix.setData(nRows, matrix.nColumns(), rowPtr, Arrays.copyOf(colIdx, nnz),
+		               Arrays.copyOf(rowValues, nnz));
+	}
+}
@@ -0,0 +1,662 @@
+package edu.ucsf.rbvi.clusterMaker2.internal.algorithms.matrix;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import org.cytoscape.application.CyUserLog;
+import org.apache.log4j.Logger;
+
+import edu.ucsf.rbvi.clusterMaker2.internal.api.DistanceMetric;
+import edu.ucsf.rbvi.clusterMaker2.internal.api.DistanceProgress;
+import edu.ucsf.rbvi.clusterMaker2.internal.api.Matrix;
+import edu.ucsf.rbvi.clusterMaker2.internal.api.MatrixOps;
+
+import cern.colt.matrix.tdouble.DoubleFactory2D;
+import cern.colt.matrix.tdouble.DoubleMatrix2D;
+
+/**
+ * A simple dense matrix that stores its values in single precision.  This
+ * uses half of the memory (and memory bandwidth) of {@link SimpleMatrix}, which
+ * is plenty of precision for most expression data.  Values are widened to double
+ * when they are read, so the metrics and algorithms don't need to know about it.
+ */
+public class FloatMatrix implements Matrix {
+	protected float[][] data;
+	protected FloatMatrix distanceMatrix = null;
+	protected DistanceMetric distanceMetric = null;
+	protected int[] index;
+	protected int nRows;
+	protected int nColumns;
+	protected String[] rowLabels;
+	protected String[] columnLabels;
+	protected double maxValue = Double.MIN_VALUE;
+	protected double minValue = Double.MAX_VALUE;
+	protected boolean symmetric = false;
+	protected boolean transposed = false;
+	final Logger logger = Logger.getLogger(CyUserLog.NAME);
+	public final FloatOps ops;
+
+	public FloatMatrix() {
+		ops = new FloatOps(this);
+	}
+
+	public FloatMatrix(FloatMatrix mat) {
+		this();
+		nRows = mat.nRows;
+		nColumns = mat.nColumns;
+		transposed = mat.transposed;
+		symmetric = mat.symmetric;
+		minValue = mat.minValue;
+		maxValue = mat.maxValue;
+		if (mat.index != null)
+			index = Arrays.copyOf(mat.index, mat.index.length);
+		data = Arrays.stream(mat.data).map(row -> row.clone()).toArray(float[][]::new);
+		if (mat.rowLabels != null)
+			rowLabels = Arrays.copyOf(mat.rowLabels, mat.rowLabels.length);
+		if (mat.columnLabels != null)
+			columnLabels = Arrays.copyOf(mat.columnLabels, mat.columnLabels.length);
+	}
+
+	public FloatMatrix(int rows, int columns) {
+		this(rows, columns, Double.NaN);
+	}
+
+	public FloatMatrix(int rows, int columns, double initialValue) {
+		this();
+		data = new float[rows][columns];
+		nRows = rows;
+		nColumns = columns;
+		rowLabels = new String[rows];
+		columnLabels = new String[columns];
+		if (initialValue != 0.0)
+			IntStream.range(0, rows).forEach(row -> Arrays.fill(data[row], (float)initialValue));
+		index = null;
+	}
+
+	public void initialize(int rows, int columns, double[][] arrayData) {
+		nRows = rows;
+		nColumns = columns;
+		data = new float[rows][columns];
+		IntStream.range(0, rows).parallel()
+			.forEach(row -> {
+				for (int column = 0; column < columns; column++)
+					data[row][column] = (float)arrayData[row][column];
+			});
+		transposed = false;
+		symmetric = false;
+		rowLabels = new String[nRows];
+		columnLabels = new String[nColumns];
+	}
+
+	public void initialize(int rows, int columns, Double[][] arrayData) {
+		nRows = rows;
+		nColumns = columns;
+		data = new float[rows][columns];
+		if (arrayData != null) {
+			IntStream.range(0, rows).parallel()
+				.forEach(row -> {
+					for (int column = 0; column < columns; column++) {
+						if (arrayData[row][column] == null)
+							data[row][column] = Float.NaN;
+						else
+							data[row][column] = arrayData[row][column].floatValue();
+					}
+				});
+		}
+		transposed = false;
+		symmetric = false;
+		rowLabels = new String[nRows];
+		columnLabels = new String[nColumns];
+	}
+
+	public MatrixOps ops() { return ops; }
+
+	public Matrix like() {
+		return new FloatMatrix();
+	}
+
+	public Matrix like(int rows, int columns) {
+		return new FloatMatrix(rows, columns);
+	}
+
+	public Matrix like(int rows, int columns, double initialValue) {
+		return new FloatMatrix(rows, columns, initialValue);
+	}
+
+	public Matrix like(int rows, int columns, DISTRIBUTION dist) {
+		OjAlgoMatrix ojMat = new OjAlgoMatrix(rows, columns, dist);
+		Matrix newMat = like();
+		newMat.initialize(rows, columns, ojMat.toArray());
+		return newMat;
+	}
+
+	public Matrix like(Matrix initial) {
+		Matrix newMat = like();
+		newMat.initialize(initial.nRows(), initial.nColumns(), initial.toArray());
+		return newMat;
+	}
+
+	public Matrix like(int rows, int columns, double[][] initial) {
+		Matrix newMat = like();
+		newMat.initialize(rows, columns, initial);
+		return newMat;
+	}
+
+	/**
+	 * Return the number of rows in this matrix.
+	 *
+	 * @return number of rows
+	 */
+	public int nRows() {
+		if (index != null)
+			return index.length;
+		return nRows;
+	}
+
+	/**
+	 * Return the number of columns in this matrix.
+	 *
+	 * @return number of columns
+	 */
+	public int nColumns() { return nColumns; }
+
+	/**
+	 * Return the value at a specific location.
+	 *
+	 * @param row the row number of the value
+	 * @param column the coulmn number of the value
+	 * @return the (possibly null) value at that location
+	 */
+	public Double getValue(int row, int column) {
+		double v = doubleValue(row, column);
+		if (Double.isNaN(v))
+			return null;
+		return v;
+	}
+
+	/**
+	 * Return the value at a specific location.
+	 *
+	 * @param row the row number of the value
+	 * @param column the coulmn number of the value
+	 * @return the value at that location, if it was set, otherwise, return Double.NaN.
+	 */
+	public double doubleValue(int row, int column) {
+		if (index == null)
+			return data[row][column];
+		return data[index[row]][index[column]];
+	}
+
+	/**
+	 * Set the value at a specific location.  The value is rounded
+	 * to single precision.
+	 *
+	 * @param row the row number of the value
+	 * @param column the coulmn number of the value
+	 * @param value the value to set
+	 */
+	public void setValue(int row, int column, double value) {
+		if (value < minValue) minValue = value;
+		if (value > maxValue) maxValue = value;
+		if (index != null) {
+			row = index[row];
+			column = index[column];
+		}
+		data[row][column] = (float)value;
+	}
+
+	/**
+	 * Set the value at a specific location.
+	 *
+	 * @param row the row number of the value
+	 * @param column the coulmn number of the value
+	 * @param value the value to set
+	 */
+	public void setValue(int row, int column, Double value) {
+		if (value == null)
+			setValue(row, column, Double.NaN);
+		else
+			setValue(row, column, value.doubleValue());
+	}
+
+	/**
+	 * Return true if the location has a value
+	 *
+	 * @param row the row number of the value
+	 * @param column the coulmn number of the value
+	 * @return true if this location has a value, false otherwise
+	 */
+	public boolean hasValue(int row, int column) {
+		return !Double.isNaN(doubleValue(row, column));
+	}
+
+	/**
+	 * Return an array of column labels
+	 *
+	 * @return the column labels
+	 */
+	public String[] getColumnLabels() {
+		return columnLabels;
+	}
+
+	/**
+	 * Return a column label
+	 *
+	 * @param col the column to get the label for
+	 * @return the column label
+	 */
+	public String getColumnLabel(int col) {
+		if (index != null)
+			col = index[col];
+		return columnLabels[col];
+	}
+
+	/**
+	 * Set a column label
+	 *
+	 * @param col the column to set the label for
+	 * @param label the column label
+	 */
+	public void setColumnLabel(int col, String label) {
+		if (index != null)
+			col = index[col];
+		columnLabels[col] = label;
+	}
+
+	/**
+	 * Set the column labels
+	 *
+	 * @param labelList the list of column labels
+	 */
+	public void setColumnLabels(List<String>labelList) {
+		columnLabels = labelList.toArray(new String[0]);
+	}
+
+	/**
+	 * Return an array of row labels
+	 *
+	 * @return the row labels
+	 */
+	public String[] getRowLabels() {
+		return rowLabels;
+	}
+
+	/**
+	 * Return a row label
+	 *
+	 * @param row the row to get the label for
+	 * @return the row label
+	 */
+	public String getRowLabel(int row) {
+		if (index != null)
+			row = index[row];
+		return rowLabels[row];
+	}
+
+	/**
+	 * Set a row label
+	 *
+	 * @param row the row to set the label for
+	 * @param label the row label
+	 */
+	public void setRowLabel(int row, String label) {
+		if (index != null)
+			row = index[row];
+		rowLabels[row] = label;
+	}
+
+	/**
+	 * Set the row labels
+	 *
+	 * @param labelList the list of row labels
+	 */
+	public void setRowLabels(List<String>labelList) {
+		rowLabels = labelList.toArray(new String[0]);
+	}
+
+	/**
+	 * Return the distance between rows based on the metric.  The distances
+	 * are calculated in double precision and stored in single precision.
+	 *
+	 * @param metric the metric to use to calculate the distances
+	 * @return a new Matrix of the distances between the rows
+	 */
+	public Matrix getDistanceMatrix(DistanceMetric metric) {
+		return distanceMatrix(metric, null);
+	}
+
+	/**
+	 * Calculate the distance between rows based on the metric, reporting progress
+	 * and stopping early if the task is cancelled.
+	 *
+	 * @param metric the metric to use to calculate the distances
+	 * @param progress the (possibly null) progress to report to
+	 * @return the distance matrix, or null if the task was cancelled
+	 */
+	public FloatMatrix distanceMatrix(DistanceMetric metric, DistanceProgress progress) {
+		// First, see if we've already got the distance matrix
+		if (distanceMatrix != null && metric == distanceMetric)
+			return distanceMatrix;
+
+		FloatMatrix mat = new FloatMatrix(nRows, nRows, 0.0);
+		mat.transposed = false;
+		mat.symmetric = true;
+		mat.rowLabels = Arrays.copyOf(rowLabels, rowLabels.length);
+		mat.columnLabels = Arrays.copyOf(rowLabels, rowLabels.length);
+
+		if (!DistanceTiles.distances(this, metric, (row, column, distance) -> {
+			mat.data[row][column] = (float)distance;
+			mat.data[column][row] = (float)distance;
+		}, progress))
+			return null;
+		mat.updateMinMax();
+		distanceMatrix = mat;
+		distanceMetric = metric;
+		return mat;
+	}
+
+	/**
+	 * Return a 2D array with all of the values in the matrix.  The missing
+	 * values are set to Double.NaN
+	 *
+	 * @return the data in the matrix
+	 */
+	public double[][] toArray() {
+		int rows = nRows();
+		double doubleData[][] = new double[rows][];
+		IntStream.range(0, rows).parallel()
+			.forEach(row -> doubleData[row] = getRow(row));
+		return doubleData;
+	}
+
+	public double[] getRow(int row) {
+		double rowData[] = new double[nColumns];
+		if (index == null) {
+			float[] dataRow = data[row];
+			for (int col = 0; col < nColumns; col++)
+				rowData[col] = dataRow[col];
+		} else {
+			for (int col = 0; col < nColumns; col++)
+				rowData[col] = doubleValue(row, col);
+		}
+		return rowData;
+	}
+
+	public double[] getColumn(int col) {
+		double columnData[] = new double[nRows()];
+		for (int row = 0; row < columnData.length; row++)
+			columnData[row] = doubleValue(row, col);
+		return columnData;
+	}
+
+	/**
+	 * Return the maximum value in the matrix
+	 *
+	 * @return the max value
+	 */
+	public double getMaxValue() {
+		return maxValue;
+	}
+
+	/**
+	 * Return the minimum value in the matrix
+	 *
+	 * @return the min value
+	 */
+	public double getMinValue() {
+		return minValue;
+	}
+
+	/**
+	 * Return true if the matrix is transposed
+	 *
+	 * @return true if the matrix is transposed
+	 */
+	public boolean isTransposed() {
+		return transposed;
+	}
+
+	/**
+	 * Set true if the matrix is transposed
+	 *
+	 * @param transposed true if the matrix is transposed
+	 */
+	public void setTransposed(boolean transposed) {
+		this.transposed = transposed;
+	}
+
+	/**
+	 * Return true if the matrix is symmetraical
+	 *
+	 * @return true if the matrix is symmetraical
+	 */
+	public boolean isSymmetrical() {
+		return symmetric;
+	}
+
+	/**
+	 * Set true if the matrix is symmetrical
+	 *
+	 * @param symmetrical true if the matrix is symmetrical
+	 */
+	public void setSymmetrical(boolean symmetrical) {
+		this.symmetric = symmetrical;
+	}
+
+	/**
+	 * Set all missing values to zero
+	 */
+	public void setMissingToZero() {
+		IntStream.range(0, nRows).parallel()
+			.forEach(row -> {
+				float[] dataRow = data[row];
+				for (int column = 0; column < nColumns; column++) {
+					if (Float.isNaN(dataRow[column]))
+						dataRow[column] = 0.0f;
+				}
+			});
+	}
+
+	/**
+	 * Adjust the diagonals
+	 */
+	public void adjustDiagonals() {
+		for (int col = 0; col < nColumns; col++ ) {
+			data[col][col] = (float)maxValue;
+		}
+	}
+
+	/**
+	 * Return the rank order of the columns in a row
+	 *
+	 * @param row the row to rank the columns in
+	 * @return the rank order of the columns
+	 */
+	public double[] getRank(int row) {
+		// Get the masked row
+		double[] tData = new double[nColumns()];
+		int nVals = 0;
+		for (int column = 0; column < nColumns(); column++) {
+			double value = doubleValue(row, column);
+			if (!Double.isNaN(value))
+				tData[nVals++] = value;
+		}
+		if (nVals == 0)
+			return null;
+
+		// Sort the data
+		Integer index[] = MatrixUtils.indexSort(tData,nVals);
+
+		// Build a rank table
+		double[] rank = new double[nVals];
+		for (int i = 0; i < nVals; i++) rank[index[i]] = i;
+
+		// Fix for equal ranks
+		int i = 0;
+		while (i < nVals) {
+			int m = 0;
+			double value = tData[index[i]];
+			int j = i+1;
+			while (j < nVals && tData[index[j]] == value) j++;
+			m = j - i; // Number of equal ranks found
+			value = rank[index[i]] + (m-1)/2.0;
+			for (j = i; j < i+m; j++) rank[index[j]] = value;
+			i += m;
+		}
+
+		return rank;
+	}
+
+	/**
+	 * Create an index on the matrix
+	 */
+	public void index() {
+		if (!symmetric) {
+			// Can't index a non-symmetric matrix!
+			logger.warn("clusterMaker2 FloatMatrix: attempt to index an assymetric network");
+			return;
+		}
+
+		// initialize indexing array to original order
+		index = new int[data.length];
+		for (int i = 0; i < data.length; ++i) {
+			index[i] = i;
+		}
+	}
+
+	/**
+	 * Create a shallow copy of the matrix with an alternative
+	 * index.  This is an efficient way to access submatrices
+	 */
+	public Matrix submatrix(int[] index) {
+		FloatMatrix mat = new FloatMatrix();
+		mat.data = data;
+		mat.index = index;
+		mat.nRows = nRows;
+		mat.nColumns = nColumns;
+		mat.symmetric = symmetric;
+		mat.transposed = transposed;
+		mat.rowLabels = rowLabels;
+		mat.columnLabels = columnLabels;
+		mat.maxValue = maxValue;
+		mat.minValue = minValue;
+		return mat;
+	}
+
+	/**
+	 * Return a submatrix
+	 *
+	 * @param row the starting row of the submatrix
+	 * @param col the starting column of the submatrix
+	 * @param rows the number of rows
+	 * @param cols the number of columnss
+	 * @return submatrix
+	 */
+	public Matrix submatrix(int row, int col, int rows, int cols) {
+		FloatMatrix newMatrix = new FloatMatrix(rows, cols, 0.0);
+		for (int r = 0; r < rows; r++) {
+			newMatrix.rowLabels[r] = rowLabels[r+row];
+			System.arraycopy(data[r+row], col, newMatrix.data[r], 0, cols);
+		}
+		for (int c = 0; c < cols; c++)
+			newMatrix.columnLabels[c] = columnLabels[c+col];
+		newMatrix.updateMinMax();
+
+		if (transposed)
+			newMatrix.setTransposed(transposed);
+		if (symmetric && rows == cols && row == col)
+			newMatrix.setSymmetrical(symmetric);
+		return newMatrix;
+	}
+
+	/**
+	 * Return a copy of the Matrix
+	 *
+	 * @return matrix copy
+	 */
+	public Matrix copy() {
+		return new FloatMatrix(this);
+	}
+
+	public DoubleMatrix2D getColtMatrix() {
+		return DoubleFactory2D.dense.make(toArray());
+	}
+
+	/**
+	 * Debugging routine to print out information about a matrix
+	 *
+	 * @param matrix the matrix we're going to print out information about
+	 */
+	public String printMatrixInfo() {
+		String s = "Float Matrix("+nRows+", "+nColumns+")\n";
+		s += " cardinality is "+ops.cardinality()+"\n";
+		return s;
+	}
+
+	public String printMatrix() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("FloatMatrix("+nRows+", "+nColumns+")\n\t");
+		for (int col = 0; col < nColumns; col++) {
+			sb.append(getColumnLabel(col)+"\t");
+		}
+		sb.append("\n");
+		for (int row = 0; row < nRows; row++) {
+			sb.append(getRowLabel(row)+":\t"); //node.getIdentifier()
+			for (int col = 0; col < nColumns; col++) {
+				sb.append(""+doubleValue(row,col)+"\t");
+			}
+			sb.append("\n");
+		}
+		return sb.toString();
+	}
+
+	public void writeMatrix(String fileName) {
+		String tmpDir = System.getProperty("java.io.tmpdir");
+		try{
+			File file = new File(tmpDir + fileName);
+			if(!file.exists()) {
+				file.createNewFile();
+			}
+			PrintWriter writer = new PrintWriter(tmpDir + fileName, "UTF-8");
+			writer.write(printMatrix());
+			writer.close();
+		}catch(IOException e){
+			e.printStackTrace(System.out);
+		}
+	}
+
+	protected Matrix copyDataFromMatrix(DoubleMatrix2D matrix2D) {
+		FloatMatrix mat = new FloatMatrix();
+		mat.initialize(matrix2D.rows(), matrix2D.columns(), matrix2D.toArray());
+		mat.symmetric = true;
+		mat.transposed = this.transposed;
+		String[] labels;
+		if (this.transposed)
+			labels = rowLabels;
+		else
+			labels = columnLabels;
+		if (labels != null) {
+			mat.rowLabels = Arrays.copyOf(labels, labels.length);
+			mat.columnLabels = Arrays.copyOf(labels, labels.length);
+		}
+		return mat;
+	}
+
+	public void updateMinMax() {
+		maxValue = Double.MIN_VALUE;
+		minValue = Double.MAX_VALUE;
+		for (int row = 0; row < nRows; row++) {
+			float[] dataRow = data[row];
+			for (int col = 0; col < nColumns; col++) {
+				float d = dataRow[col];
+				if (Float.isNaN(d)) continue;
+				if (d > maxValue) maxValue = d;
+				if (d < minValue) minValue = d;
+			}
+		}
+	}
+}
@@ -0,0 +1,443 @@
+package edu.ucsf.rbvi.clusterMaker2.internal.algorithms.matrix;
+
+import java.util.Arrays;
+import java.util.function.DoubleUnaryOperator;
+import java.util.stream.IntStream;
+
+import org.cytoscape.application.CyUserLog;
+import org.apache.log4j.Logger;
+
+import cern.colt.matrix.tdouble.DoubleFactory2D;
+import cern.colt.matrix.tdouble.DoubleMatrix2D;
+import cern.colt.matrix.tdouble.algo.decomposition.DenseDoubleEigenvalueDecomposition;
+import cern.colt.matrix.tdouble.algo.decomposition.DenseDoubleSingularValueDecomposition;
+import cern.colt.matrix.tdouble.algo.DenseDoubleAlgebra;
+import cern.colt.matrix.tdouble.algo.DoubleStatistic;
+
+import edu.ucsf.rbvi.clusterMaker2.internal.api.Matrix;
+import edu.ucsf.rbvi.clusterMaker2.internal.api.MatrixOps;
+
+/**
+ * MatrixOps for the single precision matrix.  The cell-wise operations
+ * run over the float data directly and accumulate in double precision.
+ * The dense linear algebra is handed off to Colt, and the results of
+ * those come back as (double precision) SimpleMatrices.
+ */
+public class FloatOps implements MatrixOps {
+	private static double EPSILON=Math.sqrt(Math.pow(2, -52));//get tolerance to reduce eigens
+	private DenseDoubleEigenvalueDecomposition decomp = null;
+	private DenseDoubleSingularValueDecomposition svdDecomp = null;
+	final Logger logger = Logger.getLogger(CyUserLog.NAME);
+	private final FloatMatrix matrix;
+
+	public FloatOps(FloatMatrix matrix) {
+		this.matrix = matrix;
+	}
+
+	public void threshold() {
+		threshold(EPSILON);
+	}
+
+	public void threshold(double thresh) {
+		replace(v -> v <= thresh ? 0.0 : v);
+	}
+
+	/**
+	 * Create a transposed matrix
+	 */
+	public Matrix transpose() {
+		int nRows = matrix.nRows();
+		int nColumns = matrix.nColumns();
+		FloatMatrix result = new FloatMatrix(nColumns, nRows, 0.0);
+		IntStream.range(0, nColumns).parallel()
+			.forEach(column -> {
+				float[] resultRow = result.data[column];
+				for (int row = 0; row < nRows; row++)
+					resultRow[row] = (float)matrix.doubleValue(row, column);
+			});
+		if (matrix.columnLabels != null)
+			result.rowLabels = Arrays.copyOf(matrix.columnLabels, nColumns);
+		if (matrix.rowLabels != null)
+			result.columnLabels = Arrays.copyOf(matrix.rowLabels, nRows);
+		result.minValue = matrix.minValue;
+		result.maxValue = matrix.maxValue;
+		result.transposed = true;
+		return result;
+	}
+
+	/**
+	 * Invert the matrix in place
+	 */
+	public void invertMatrix() {
+		if (matrix.nRows() != matrix.nColumns()) {
+			logger.warn("clusterMaker2 FloatMatrix: attempt to invert an assymetric network");
+		}
+		DoubleMatrix2D inverse = new DenseDoubleAlgebra().inverse(getDenseData());
+		replaceData(inverse.toArray());
+	}
+
+	/**
+	 * Normalize the matrix in place
+	 */
+	public void normalize() {
+		double span = matrix.maxValue - matrix.minValue;
+		double min = matrix.minValue;
+		replace(v -> Double.isNaN(v) ? v : (v-min)/span);
+	}
+
+	/**
+	 * Normalize the matrix in place.  This is actual matrix normalization,
+	 * i.e. all cells sum to 1.0
+	 */
+	public void normalizeMatrix() {
+		double sum = sum();
+		replace(v -> Double.isNaN(v) ? v : v/sum);
+	}
+
+	/**
+	 * Normalize a matrix row in place (all columns in the row sum to 1.0)
+	 *
+	 * @param row the row to normalize
+	 */
+	public double normalizeRow(int row) {
+		double sum = rowSum(row);
+		divideScalarRow(row, sum);
+		return sum;
+	}
+
+	/**
+	 * Normalize a matrix column in place (all rows in the column sum to 1.0)
+	 *
+	 * @param column the column to normalize
+	 */
+	public double normalizeColumn(int column) {
+		double sum = columnSum(column);
+		divideScalarColumn(column, sum);
+		return sum;
+	}
+
+	public void standardizeRow(int row) {
+		double mean = rowMean(row);
+		double stdev = Math.sqrt(rowVariance(row, mean));
+		for (int column = 0; column < matrix.nColumns(); column++) {
+			double cell = matrix.doubleValue(row, column);
+			matrix.setValue(row, column, (cell-mean)/stdev);
+		}
+	}
+
+	public void standardizeColumn(int column) {
+		double mean = columnMean(column);
+		double stdev = Math.sqrt(columnVariance(column, mean));
+		for (int row = 0; row < matrix.nRows(); row++) {
+			double cell = matrix.doubleValue(row, column);
+			matrix.setValue(row, column, (cell-mean)/stdev);
+		}
+	}
+
+	public void centralizeColumns() {
+		IntStream.range(0, matrix.nColumns()).parallel()
+			.forEach(column -> {
+				double mean = columnSum(column)/matrix.nRows();
+				for (int row = 0; row < matrix.nRows(); row++) {
+					float[] dataRow = matrix.data[row];
+					float cell = dataRow[column];
+					dataRow[column] = Float.isNaN(cell) ? 0.0f : (float)(cell-mean);
+				}
+			});
+		matrix.updateMinMax();
+	}
+
+	public void centralizeRows() {
+		IntStream.range(0, matrix.nRows()).parallel()
+			.forEach(row -> {
+				double mean = rowSum(row)/matrix.nColumns();
+				float[] dataRow = matrix.data[row];
+				for (int column = 0; column < matrix.nColumns(); column++) {
+					float cell = dataRow[column];
+					dataRow[column] = Float.isNaN(cell) ? 0.0f : (float)(cell-mean);
+				}
+			});
+		matrix.updateMinMax();
+	}
+
+	public double sum() {
+		return IntStream.range(0, matrix.nRows).parallel()
+			.mapToDouble(row -> {
+				double sum = 0.0;
+				for (float v: matrix.data[row]) {
+					if (!Float.isNaN(v)) sum += v;
+				}
+				return sum;
+			}).sum();
+	}
+
+	public double columnSum(int column) {
+		double sum = 0.0;
+		for (int row = 0; row < matrix.nRows(); row++) {
+			double cell = matrix.doubleValue(row, column);
+			if (!Double.isNaN(cell)) sum += cell;
+		}
+		return sum;
+	}
+
+	public double columnSum2(int column) {
+		double sum = 0.0;
+		for (int row = 0; row < matrix.nRows(); row++) {
+			double cell = matrix.doubleValue(row, column);
+			if (!Double.isNaN(cell)) sum += cell*cell;
+		}
+		return sum;
+	}
+
+	public double rowSum(int row) {
+		return Arrays.stream(matrix.getRow(row))
+						.filter(v -> !Double.isNaN(v))
+						.sum();
+	}
+
+	public double rowSum2(int row) {
+		return Arrays.stream(matrix.getRow(row))
+						.filter(v -> !Double.isNaN(v))
+						.map(d -> d*d)
+						.sum();
+	}
+
+	public double columnMean(int column) {
+		return Arrays.stream(matrix.getColumn(column))
+						.filter(v -> !Double.isNaN(v))
+						.average().getAsDouble();
+	}
+
+	public double rowMean(int row) {
+		return Arrays.stream(matrix.getRow(row))
+						.filter(v -> !Double.isNaN(v))
+						.average().getAsDouble();
+	}
+
+	public double columnVariance(int column) {
+		return columnVariance(column, columnMean(column));
+	}
+
+	public double columnVariance(int column, double mean) {
+		double variance = 0.0;
+		for (int row = 0; row < matrix.nRows(); row++) {
+			double cell = matrix.doubleValue(row, column);
+			if (!Double.isNaN(cell))
+				variance += Math.pow((cell-mean),2);
+		}
+		return variance/matrix.nRows();
+	}
+
+	public double rowVariance(int row) {
+		return rowVariance(row, rowMean(row));
+	}
+
+	public double rowVariance(int row, double mean) {
+		double variance = 0.0;
+		for (int column = 0; column < matrix.nColumns(); column++) {
+			double cell = matrix.doubleValue(row, column);
+			if (!Double.isNaN(cell))
+				variance += Math.pow((cell-mean),2);
+		}
+		return variance/matrix.nColumns();
+	}
+
+	public int cardinality() {
+		return IntStream.range(0, matrix.nRows).parallel()
+			.map(row -> {
+				int count = 0;
+				for (float v: matrix.data[row]) {
+					if (!Float.isNaN(v)) count++;
+				}
+				return count;
+			}).sum();
+	}
+
+	/**
+	 * Multiply this matrix by another.  The products are accumulated
+	 * in double precision and the result is stored as a FloatMatrix.
+	 */
+	public Matrix multiplyMatrix(Matrix b) {
+		int nRows = matrix.nRows();
+		int n = matrix.nColumns();
+		int p = b.nColumns();
+		double[][] bData = b.toArray();
+		FloatMatrix result = new FloatMatrix(nRows, p, 0.0);
+
+		IntStream.range(0, nRows).parallel()
+			.forEach(row -> {
+				double[] aRow = matrix.getRow(row);
+				double[] cRow = new double[p];
+				for (int k = 0; k < n; k++) {
+					double aik = aRow[k];
+					if (aik == 0.0) continue;
+					double[] bRow = bData[k];
+					for (int j = 0; j < p; j++)
+						cRow[j] += aik*bRow[j];
+				}
+				float[] resultRow = result.data[row];
+				for (int j = 0; j < p; j++)
+					resultRow[j] = (float)cRow[j];
+			});
+		result.updateMinMax();
+		return result;
+	}
+
+	public void addScalar(double value) {
+		replace(v -> Double.isNaN(v) ? v : v+value);
+	}
+
+	public void addElement(Matrix addend) {
+		combine(addend, 1.0);
+	}
+
+	public void subtractScalar(double value) {
+		replace(v -> Double.isNaN(v) ? v : v-value);
+	}
+
+	public void subtractElement(Matrix subtrahend) {
+		combine(subtrahend, -1.0);
+	}
+
+	public void multiplyScalar(double value) {
+		replace(v -> Double.isNaN(v) ? v : v*value);
+	}
+
+	public void divideScalar(double value) {
+		replace(v -> Double.isNaN(v) ? v : v/value);
+	}
+
+	public void divideScalarColumn(int column, double value) {
+		for (int row = 0; row < matrix.nRows(); row++) {
+			double cell = matrix.doubleValue(row, column);
+			if (!Double.isNaN(cell))
+				matrix.setValue(row, column, cell/value);
+		}
+	}
+
+	public void powScalar(double value) {
+		replace(v -> Double.isNaN(v) ? v : Math.pow(v, value));
+	}
+
+	public Matrix covariance() {
+		DoubleMatrix2D matrix2D = DoubleStatistic.covariance(getDenseData());
+		return copyDataFromMatrix(matrix2D);
+	}
+
+	public Matrix correlation() {
+		DoubleMatrix2D matrix2D = DoubleStatistic.covariance(getDenseData());
+		matrix2D = DoubleStatistic.correlation(matrix2D);
+		return copyDataFromMatrix(matrix2D);
+	}
+
+	public void eigenInit(){
+		decomp = null;
+	}
+
+	public double[] eigenValues(boolean nonZero){
+		if (decomp == null)
+			decomp = new DenseDoubleEigenvalueDecomposition(getDenseData());
+
+		double[] allValues = decomp.getRealEigenvalues().toArray();
+		if (!nonZero)
+			return allValues;
+
+		return Arrays.stream(allValues).filter(d -> Math.abs(d) > EPSILON).toArray();
+	}
+
+	public double[][] eigenVectors() {
+		if (decomp == null)
+			decomp = new DenseDoubleEigenvalueDecomposition(getDenseData());
+
+		return decomp.getV().toArray();
+	}
+
+	public void svdInit(){
+		svdDecomp = null;
+	}
+
+	public Matrix svdU() {
+		if (svdDecomp == null)
+			svdDecomp = new DenseDoubleSingularValueDecomposition(getDenseData(), true, false);
+		return wrap(svdDecomp.getU());
+	}
+
+	public Matrix svdS() {
+		if (svdDecomp == null)
+			svdDecomp = new DenseDoubleSingularValueDecomposition(getDenseData(), true, false);
+		return wrap(svdDecomp.getS());
+	}
+
+	public Matrix svdV() {
+		if (svdDecomp == null)
+			svdDecomp = new DenseDoubleSingularValueDecomposition(getDenseData(), true, false);
+		return wrap(svdDecomp.getV());
+	}
+
+	// Apply an operation to every cell (in double precision)
+	private void replace(DoubleUnaryOperator op) {
+		IntStream.range(0, matrix.nRows).parallel()
+			.forEach(row -> {
+				float[] dataRow = matrix.data[row];
+				for (int column = 0; column < dataRow.length; column++)
+					dataRow[column] = (float)op.applyAsDouble(dataRow[column]);
+			});
+		matrix.updateMinMax();
+	}
+
+	// Add (sign = 1) or subtract (sign = -1) another matrix
+	private void combine(Matrix other, double sign) {
+		IntStream.range(0, matrix.nRows()).parallel()
+			.forEach(row -> {
+				for (int column = 0; column < matrix.nColumns(); column++) {
+					double value = matrix.doubleValue(row, column);
+					double v = other.doubleValue(row, column);
+					if (!Double.isNaN(value) && !Double.isNaN(v))
+						matrix.setValue(row, column, value+sign*v);
+				}
+			});
+		matrix.updateMinMax();
+	}
+
+	private void divideScalarRow(int row, double value) {
+		for (int column = 0; column < matrix.nColumns(); column++) {
+			double cell = matrix.doubleValue(row, column);
+			if (!Double.isNaN(cell))
+				matrix.setValue(row, column, cell/value);
+		}
+	}
+
+	private Matrix copyDataFromMatrix(DoubleMatrix2D matrix2D) {
+		SimpleMatrix mat = new SimpleMatrix();
+		mat.initialize(matrix2D.rows(), matrix2D.columns(), matrix2D.toArray());
+		mat.symmetric = true;
+		mat.transposed = matrix.transposed;
+		String[] labels = matrix.transposed ? matrix.rowLabels : matrix.columnLabels;
+		if (labels != null) {
+			mat.rowLabels = Arrays.copyOf(labels, labels.length);
+			mat.columnLabels = Arrays.copyOf(labels, labels.length);
+		}
+		return mat;
+	}
+
+	private DoubleMatrix2D getDenseData() {
+		return DoubleFactory2D.dense.make(matrix.toArray());
+	}
+
+	private void replaceData(double[][] data) {
+		boolean transposed = matrix.transposed;
+		String[] rowLabels = matrix.rowLabels;
+		String[] columnLabels = matrix.columnLabels;
+		matrix.initialize(data.length, data.length == 0 ? 0 : data[0].length, data);
+		matrix.transposed = transposed;
+		matrix.rowLabels = rowLabels;
+		matrix.columnLabels = columnLabels;
+		matrix.updateMinMax();
+	}
+
+	private Matrix wrap(DoubleMatrix2D mat) {
+		SimpleMatrix result = new SimpleMatrix();
+		result.initialize(mat.rows(), mat.columns(), mat.toArray());
+		return result;
+	}
+}
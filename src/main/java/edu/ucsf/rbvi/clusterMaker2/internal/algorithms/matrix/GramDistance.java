@@ -0,0 +1,244 @@
+package edu.ucsf.rbvi.clusterMaker2.internal.algorithms.matrix;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+import edu.ucsf.rbvi.clusterMaker2.internal.api.DistanceMetric;
+import edu.ucsf.rbvi.clusterMaker2.internal.api.DistanceProgress;
+import edu.ucsf.rbvi.clusterMaker2.internal.api.RowView;
+
+/**
+ * All-pairs distances computed from the Gram matrix X*X' of the prepared
+ * rows.  With no missing values, Pearson and uncentered correlation are
+ * dot products of rows scaled to unit length (and centered for Pearson),
+ * and the squared Euclidean distance is |x|^2 + |y|^2 - 2x.y.  Spearman's
+ * rank correlation is Pearson's correlation on the rows' ranks.  That turns
+ * n^2/2 separate metric calls into a single blocked matrix product, which
+ * is run over the tiles of {@link DistanceTiles}.
+ *
+ * For the Euclidean metrics the columns are centered first.  That doesn't
+ * change the distances, but it keeps the norms small, which limits the
+ * cancellation in the norm expansion.  Results agree with
+ * {@link DistanceMetric#getMetric} to within rounding.
+ */
+public class GramDistance {
+	// A pair of DistanceTiles.TILE_SIZE x K_BLOCK row blocks is 256KB
+	static final int K_BLOCK = 256;
+
+	/**
+	 * Receives the distances.  Only cells on or above the diagonal are set.
+	 */
+	public interface DistanceSink {
+		void set(int row, int column, double distance);
+	}
+
+	/**
+	 * Makes a sink for each tile.  All of a tile's distances go to its own
+	 * sink from a single thread, so the sink doesn't need to be thread-safe.
+	 */
+	public interface TileSinks {
+		DistanceSink forTile(int rowStart, int columnStart);
+	}
+
+	/**
+	 * Return true if the metric can be calculated from the Gram matrix
+	 *
+	 * @param metric the distance metric
+	 * @return true if {@link #distances} supports it
+	 */
+	public static boolean supports(DistanceMetric metric) {
+		switch (metric) {
+			case CORRELATION:
+			case SPEARMANS_RANK:
+			case UNCENTERED_CORRELATION:
+			case EUCLIDEAN:
+			case EUCLIDEANSQ:
+				return true;
+			default:
+				return false;
+		}
+	}
+
+	/**
+	 * Calculate all of the distances between the rows.  This only applies
+	 * to the supported metrics, and only if none of the rows have missing
+	 * values, since a missing value changes the columns that each pair
+	 * is compared on.
+	 *
+	 * @param views the rows
+	 * @param metric the distance metric
+	 * @param sink where to put the distances
+	 * @return false if the distances can't be calculated this way, in which
+	 * case nothing has been written to the sink
+	 */
+	public static boolean distances(RowView[] views, DistanceMetric metric, DistanceSink sink) {
+		return distances(views, metric, sink, null);
+	}
+
+	/**
+	 * Calculate all of the distances between the rows, reporting progress and
+	 * stopping early if the task is cancelled.
+	 *
+	 * @param views the rows
+	 * @param metric the distance metric
+	 * @param sink where to put the distances
+	 * @param progress the (possibly null) progress to report to
+	 * @return false if the distances can't be calculated this way, in which
+	 * case nothing has been written to the sink.  Check the progress to see
+	 * if the calculation was cancelled.
+	 */
+	public static boolean distances(RowView[] views, DistanceMetric metric, DistanceSink sink,
+	                                DistanceProgress progress) {
+		return distancesByTile(views, metric, (rowStart, columnStart) -> sink, progress);
+	}
+
+	/**
+	 * Calculate all of the distances between the rows, passing the distances
+	 * of each tile to a sink of its own.
+	 *
+	 * @param views the rows
+	 * @param metric the distance metric
+	 * @param sinks makes the sink for each tile
+	 * @param progress the (possibly null) progress to report to
+	 * @return false if the distances can't be calculated this way, in which
+	 * case no sinks have been made.  Check the progress to see if the
+	 * calculation was cancelled.
+	 */
+	public static boolean distancesByTile(RowView[] views, DistanceMetric metric, TileSinks sinks,
+	                                      DistanceProgress progress) {
+		if (views == null || !supports(metric))
+			return false;
+		int nRows = views.length;
+		if (nRows == 0)
+			return false;
+		int nColumns = views[0].length();
+		if (nColumns == 0)
+			return false;
+		for (RowView view: views) {
+			if (view.hasMissing() || view.length() != nColumns)
+				return false;
+		}
+
+		boolean euclidean = (metric == DistanceMetric.EUCLIDEAN || metric == DistanceMetric.EUCLIDEANSQ);
+		double[][] rows = new double[nRows][];
+		double[] norms = new double[nRows];
+		// Rows with no variance (or all zeros) have a distance of 1 to everything
+		boolean[] degenerate = new boolean[nRows];
+
+		if (euclidean) {
+			double[] means = columnMeans(views, nColumns);
+			IntStream.range(0, nRows).parallel()
+				.forEach(row -> {
+					double[] x = copyRow(views[row]);
+					double norm = 0.0;
+					for (int k = 0; k < nColumns; k++) {
+						x[k] -= means[k];
+						norm += x[k]*x[k];
+					}
+					rows[row] = x;
+					norms[row] = norm;
+				});
+		} else {
+			boolean ranked = (metric == DistanceMetric.SPEARMANS_RANK);
+			boolean centered = (metric == DistanceMetric.CORRELATION || ranked);
+			IntStream.range(0, nRows).parallel()
+				.forEach(row -> {
+					double[] x = ranked ? views[row].getRank().clone() : copyRow(views[row]);
+					if (centered) {
+						double mean = 0.0;
+						for (int k = 0; k < nColumns; k++)
+							mean += x[k];
+						mean /= nColumns;
+						for (int k = 0; k < nColumns; k++)
+							x[k] -= mean;
+					}
+					double norm = 0.0;
+					for (int k = 0; k < nColumns; k++)
+						norm += x[k]*x[k];
+					if (norm <= 0.0) {
+						degenerate[row] = true;
+					} else {
+						double scale = 1.0/Math.sqrt(norm);
+						for (int k = 0; k < nColumns; k++)
+							x[k] *= scale;
+					}
+					rows[row] = x;
+				});
+		}
+
+		DistanceTiles.run(nRows, progress, (rowStart, rowEnd, columnStart, columnEnd) -> {
+			double[][] gram = gramTile(rows, nColumns, rowStart, rowEnd, columnStart, columnEnd);
+			DistanceSink sink = sinks.forTile(rowStart, columnStart);
+
+			for (int row = rowStart; row < rowEnd; row++) {
+				double[] g = gram[row-rowStart];
+				for (int column = Math.max(row, columnStart); column < columnEnd; column++) {
+					double dot = g[column-columnStart];
+					double distance;
+					if (euclidean) {
+						if (row == column) {
+							distance = 0.0;
+						} else {
+							distance = Math.max(0.0, norms[row]+norms[column]-2.0*dot)/nColumns;
+							if (metric == DistanceMetric.EUCLIDEAN)
+								distance = Math.sqrt(distance);
+						}
+					} else if (degenerate[row] || degenerate[column]) {
+						distance = 1.0;
+					} else {
+						distance = 1.0 - dot;
+					}
+					sink.set(row, column, distance);
+				}
+			}
+		});
+		return true;
+	}
+
+	// The dot products between two blocks of rows.  The column block is
+	// transposed a slice of columns at a time, so the inner loop is a
+	// vectorizable axpy over the tile rather than a dot product reduction.
+	private static double[][] gramTile(double[][] rows, int nColumns,
+	                                   int rowStart, int rowEnd, int columnStart, int columnEnd) {
+		int width = columnEnd-columnStart;
+		double[][] gram = new double[rowEnd-rowStart][width];
+		double[][] slice = new double[Math.min(K_BLOCK, nColumns)][width];
+		for (int k0 = 0; k0 < nColumns; k0 += K_BLOCK) {
+			int k1 = Math.min(nColumns, k0+K_BLOCK);
+			for (int column = columnStart; column < columnEnd; column++) {
+				double[] y = rows[column];
+				for (int k = k0; k < k1; k++)
+					slice[k-k0][column-columnStart] = y[k];
+			}
+			for (int row = rowStart; row < rowEnd; row++) {
+				double[] x = rows[row];
+				double[] g = gram[row-rowStart];
+				for (int k = k0; k < k1; k++) {
+					double xk = x[k];
+					double[] yk = slice[k-k0];
+					for (int j = 0; j < width; j++)
+						g[j] += xk*yk[j];
+				}
+			}
+		}
+		return gram;
+	}
+
+	private static double[] columnMeans(RowView[] views, int nColumns) {
+		double[] means = new double[nColumns];
+		for (RowView view: views) {
+			double[] values = view.getValues();
+			int offset = view.getOffset();
+			for (int k = 0; k < nColumns; k++)
+				means[k] += values[offset+k];
+		}
+		for (int k = 0; k < nColumns; k++)
+			means[k] /= views.length;
+		return means;
+	}
+
+	private static double[] copyRow(RowView view) {
+		int offset = view.getOffset();
+		return Arrays.copyOfRange(view.getValues(), offset, offset+view.length());
+	}
+}
@@ -0,0 +1,991 @@
+package edu.ucsf.rbvi.clusterMaker2.internal.algorithms.matrix;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.DoubleUnaryOperator;
+import java.util.stream.IntStream;
+
+import org.cytoscape.application.CyUserLog;
+import org.apache.log4j.Logger;
+
+import edu.ucsf.rbvi.clusterMaker2.internal.api.DistanceMetric;
+import edu.ucsf.rbvi.clusterMaker2.internal.api.DistanceProgress;
+import edu.ucsf.rbvi.clusterMaker2.internal.api.Matrix;
+import edu.ucsf.rbvi.clusterMaker2.internal.api.MatrixOps;
+
+import cern.colt.matrix.tdouble.DoubleFactory2D;
+import cern.colt.matrix.tdouble.DoubleMatrix2D;
+
+/**
+ * A dense matrix that lives outside of the Java heap in a memory-mapped
+ * temporary file.  The file is mapped in segments of up to 1GB and all of
+ * the offsets are longs, so the size of the matrix is only limited by the
+ * disk and the address space.  This is meant for distance matrices that
+ * won't fit on the heap as double[][].
+ *
+ * Symmetric square matrices may be stored condensed: only the upper triangle
+ * (including the diagonal) is kept, which halves the size of the file.  Setting
+ * a value in a condensed matrix sets both (row, column) and (column, row).
+ *
+ * The temporary file is deleted when the matrix and every submatrix view that
+ * shares its data have been closed.  Matrices that are dropped without being
+ * closed release their data when they are garbage collected, but callers that
+ * are done with a matrix should close it rather than wait for the collector.
+ */
+public class MappedMatrix implements Matrix, Closeable {
+	// The fraction of the maximum heap a dense matrix may use before we map it instead
+	public static double HEAP_FRACTION = 0.25;
+
+	// Each mapped segment holds 2^27 doubles (1GB)
+	static final int SEGMENT_SHIFT = 27;
+	static final long SEGMENT_SIZE = 1L << SEGMENT_SHIFT;
+	static final long SEGMENT_MASK = SEGMENT_SIZE-1;
+
+	protected Storage storage;
+	private Storage.Holder holder;
+	protected boolean condensed = false;
+	protected MappedMatrix distanceMatrix = null;
+	protected DistanceMetric distanceMetric = null;
+	protected int[] index;
+	protected int nRows;
+	protected int nColumns;
+	protected String[] rowLabels;
+	protected String[] columnLabels;
+	protected double maxValue = Double.MIN_VALUE;
+	protected double minValue = Double.MAX_VALUE;
+	protected boolean symmetric = false;
+	protected boolean transposed = false;
+	final Logger logger = Logger.getLogger(CyUserLog.NAME);
+	public final MappedOps ops;
+
+	public MappedMatrix() {
+		ops = new MappedOps(this);
+	}
+
+	public MappedMatrix(int rows, int columns) {
+		this(rows, columns, Double.NaN);
+	}
+
+	public MappedMatrix(int rows, int columns, double initialValue) {
+		this();
+		allocate(rows, columns, false);
+		if (initialValue != 0.0)
+			storage.fill(initialValue);
+	}
+
+	/**
+	 * Create a condensed symmetric matrix.  The values are initialized to 0.
+	 *
+	 * @param size the number of rows and columns
+	 */
+	public MappedMatrix(int size) {
+		this();
+		allocate(size, size, true);
+		symmetric = true;
+	}
+
+	public MappedMatrix(MappedMatrix mat) {
+		this();
+		allocate(mat.nRows, mat.nColumns, mat.condensed);
+		storage.copy(mat.storage);
+		transposed = mat.transposed;
+		symmetric = mat.symmetric;
+		minValue = mat.minValue;
+		maxValue = mat.maxValue;
+		if (mat.index != null)
+			index = Arrays.copyOf(mat.index, mat.index.length);
+		if (mat.rowLabels != null)
+			rowLabels = Arrays.copyOf(mat.rowLabels, mat.rowLabels.length);
+		if (mat.columnLabels != null)
+			columnLabels = Arrays.copyOf(mat.columnLabels, mat.columnLabels.length);
+	}
+
+	/**
+	 * Create a mapped copy of another matrix
+	 *
+	 * @param mat the matrix to copy
+	 */
+	public MappedMatrix(Matrix mat) {
+		this();
+		int rows = mat.nRows();
+		int columns = mat.nColumns();
+		allocate(rows, columns, mat.isSymmetrical() && rows == columns);
+		transposed = mat.isTransposed();
+		symmetric = mat.isSymmetrical();
+		IntStream.range(0, rows).parallel()
+			.forEach(row -> {
+				long offset = offset(row, colStart(row));
+				for (int column = colStart(row); column < columns; column++)
+					storage.set(offset++, mat.doubleValue(row, column));
+			});
+		if (mat.getRowLabels() != null)
+			rowLabels = Arrays.copyOf(mat.getRowLabels(), rows);
+		if (mat.getColumnLabels() != null)
+			columnLabels = Arrays.copyOf(mat.getColumnLabels(), columns);
+		updateMinMax();
+	}
+
+	/**
+	 * Return true if a dense matrix of this size should be memory-mapped
+	 * rather than stored on the heap.
+	 *
+	 * @param rows the number of rows
+	 * @param columns the number of columns
+	 * @return true if the matrix would use more than HEAP_FRACTION of the maximum heap
+	 */
+	public static boolean isTooLarge(int rows, int columns) {
+		double bytes = (double)rows*(double)columns*8.0;
+		return bytes > Runtime.getRuntime().maxMemory()*HEAP_FRACTION;
+	}
+
+	/**
+	 * Calculate the distances between all of the rows of a matrix into a new
+	 * condensed matrix.  Each distance is only calculated once.
+	 *
+	 * @param data the matrix with the data
+	 * @param metric the metric to use to calculate the distances
+	 * @return the condensed distance matrix
+	 */
+	public static MappedMatrix distanceMatrix(Matrix data, DistanceMetric metric) {
+		return distanceMatrix(data, metric, null);
+	}
+
+	/**
+	 * Calculate the distances between all of the rows of a matrix into a new
+	 * condensed matrix, reporting progress and stopping early if the task is
+	 * cancelled.
+	 *
+	 * @param data the matrix with the data
+	 * @param metric the metric to use to calculate the distances
+	 * @param progress the (possibly null) progress to report to
+	 * @return the condensed distance matrix, or null if the task was cancelled
+	 */
+	public static MappedMatrix distanceMatrix(Matrix data, DistanceMetric metric, DistanceProgress progress) {
+		int nRows = data.nRows();
+		MappedMatrix mat = new MappedMatrix(nRows);
+		String[] labels = data.getRowLabels();
+		if (labels != null) {
+			mat.rowLabels = Arrays.copyOf(labels, nRows);
+			mat.columnLabels = Arrays.copyOf(labels, nRows);
+		}
+
+		if (!DistanceTiles.distances(data, metric,
+		                             (row, column, distance) -> mat.storage.set(mat.offset(row, column), distance),
+		                             progress)) {
+			mat.close();
+			return null;
+		}
+		mat.updateMinMax();
+		return mat;
+	}
+
+	public void initialize(int rows, int columns, double[][] arrayData) {
+		allocate(rows, columns, false);
+		IntStream.range(0, rows).parallel()
+			.forEach(row -> {
+				long offset = (long)row*columns;
+				for (int column = 0; column < columns; column++)
+					storage.set(offset++, arrayData[row][column]);
+			});
+		transposed = false;
+		symmetric = false;
+	}
+
+	public void initialize(int rows, int columns, Double[][] arrayData) {
+		allocate(rows, columns, false);
+		if (arrayData != null) {
+			IntStream.range(0, rows).parallel()
+				.forEach(row -> {
+					long offset = (long)row*columns;
+					for (int column = 0; column < columns; column++) {
+						if (arrayData[row][column] == null)
+							storage.set(offset++, Double.NaN);
+						else
+							storage.set(offset++, arrayData[row][column]);
+					}
+				});
+		}
+		transposed = false;
+		symmetric = false;
+	}
+
+	public MatrixOps ops() { return ops; }
+
+	public Matrix like() {
+		return new MappedMatrix();
+	}
+
+	public Matrix like(int rows, int columns) {
+		return new MappedMatrix(rows, columns);
+	}
+
+	public Matrix like(int rows, int columns, double initialValue) {
+		return new MappedMatrix(rows, columns, initialValue);
+	}
+
+	public Matrix like(int rows, int columns, DISTRIBUTION dist) {
+		OjAlgoMatrix ojMat = new OjAlgoMatrix(rows, columns, dist);
+		Matrix newMat = like();
+		newMat.initialize(rows, columns, ojMat.toArray());
+		return newMat;
+	}
+
+	public Matrix like(Matrix initial) {
+		return new MappedMatrix(initial);
+	}
+
+	public Matrix like(int rows, int columns, double[][] initial) {
+		Matrix newMat = like();
+		newMat.initialize(rows, columns, initial);
+		return newMat;
+	}
+
+	/**
+	 * Return the number of rows in this matrix.
+	 *
+	 * @return number of rows
+	 */
+	public int nRows() {
+		if (index != null)
+			return index.length;
+		return nRows;
+	}
+
+	/**
+	 * Return the number of columns in this matrix.
+	 *
+	 * @return number of columns
+	 */
+	public int nColumns() { return nColumns; }
+
+	/**
+	 * Return true if only the upper triangle of the matrix is stored
+	 *
+	 * @return true if the matrix is condensed
+	 */
+	public boolean isCondensed() { return condensed; }
+
+	/**
+	 * Return the value at a specific location.
+	 *
+	 * @param row the row number of the value
+	 * @param column the coulmn number of the value
+	 * @return the (possibly null) value at that location
+	 */
+	public Double getValue(int row, int column) {
+		double v = doubleValue(row, column);
+		if (Double.isNaN(v))
+			return null;
+		return v;
+	}
+
+	/**
+	 * Return the value at a specific location.
+	 *
+	 * @param row the row number of the value
+	 * @param column the coulmn number of the value
+	 * @return the value at that location, if it was set, otherwise, return Double.NaN.
+	 */
+	public double doubleValue(int row, int column) {
+		if (index != null) {
+			row = index[row];
+			column = index[column];
+		}
+		return storage.get(offset(row, column));
+	}
+
+	/**
+	 * Set the value at a specific location.
+	 *
+	 * @param row the row number of the value
+	 * @param column the coulmn number of the value
+	 * @param value the value to set
+	 */
+	public void setValue(int row, int column, double value) {
+		if (value < minValue) minValue = value;
+		if (value > maxValue) maxValue = value;
+		if (index != null) {
+			row = index[row];
+			column = index[column];
+		}
+		storage.set(offset(row, column), value);
+	}
+
+	/**
+	 * Set the value at a specific location.
+	 *
+	 * @param row the row number of the value
+	 * @param column the coulmn number of the value
+	 * @param value the value to set
+	 */
+	public void setValue(int row, int column, Double value) {
+		if (value == null)
+			setValue(row, column, Double.NaN);
+		else
+			setValue(row, column, value.doubleValue());
+	}
+
+	/**
+	 * Return true if the location has a value
+	 *
+	 * @param row the row number of the value
+	 * @param column the coulmn number of the value
+	 * @return true if this location has a value, false otherwise
+	 */
+	public boolean hasValue(int row, int column) {
+		return !Double.isNaN(doubleValue(row, column));
+	}
+
+	/**
+	 * Return an array of column labels
+	 *
+	 * @return the column labels
+	 */
+	public String[] getColumnLabels() {
+		return columnLabels;
+	}
+
+	/**
+	 * Return a column label
+	 *
+	 * @param col the column to get the label for
+	 * @return the column label
+	 */
+	public String getColumnLabel(int col) {
+		if (index != null)
+			col = index[col];
+		return columnLabels[col];
+	}
+
+	/**
+	 * Set a column label
+	 *
+	 * @param col the column to set the label for
+	 * @param label the column label
+	 */
+	public void setColumnLabel(int col, String label) {
+		if (index != null)
+			col = index[col];
+		columnLabels[col] = label;
+	}
+
+	/**
+	 * Set the column labels
+	 *
+	 * @param labelList the list of column labels
+	 */
+	public void setColumnLabels(List<String>labelList) {
+		columnLabels = labelList.toArray(new String[0]);
+	}
+
+	/**
+	 * Return an array of row labels
+	 *
+	 * @return the row labels
+	 */
+	public String[] getRowLabels() {
+		return rowLabels;
+	}
+
+	/**
+	 * Return a row label
+	 *
+	 * @param row the row to get the label for
+	 * @return the row label
+	 */
+	public String getRowLabel(int row) {
+		if (index != null)
+			row = index[row];
+		return rowLabels[row];
+	}
+
+	/**
+	 * Set a row label
+	 *
+	 * @param row the row to set the label for
+	 * @param label the row label
+	 */
+	public void setRowLabel(int row, String label) {
+		if (index != null)
+			row = index[row];
+		rowLabels[row] = label;
+	}
+
+	/**
+	 * Set the row labels
+	 *
+	 * @param labelList the list of row labels
+	 */
+	public void setRowLabels(List<String>labelList) {
+		rowLabels = labelList.toArray(new String[0]);
+	}
+
+	/**
+	 * Return the distance between rows based on the metric.
+	 *
+	 * @param metric the metric to use to calculate the distances
+	 * @return a new condensed Matrix of the distances between the rows
+	 */
+	public Matrix getDistanceMatrix(DistanceMetric metric) {
+		if (distanceMatrix == null || metric != distanceMetric) {
+			if (distanceMatrix != null)
+				distanceMatrix.close();
+			distanceMatrix = distanceMatrix(this, metric);
+			distanceMetric = metric;
+		}
+		// The caller may close what we return, so give it a view of our copy
+		return distanceMatrix.view();
+	}
+
+	/**
+	 * Return a 2D array with all of the values in the matrix.  The missing
+	 * values are set to Double.NaN.  Note that this brings the entire matrix
+	 * onto the heap.
+	 *
+	 * @return the data in the matrix
+	 */
+	public double[][] toArray() {
+		int rows = nRows();
+		double doubleData[][] = new double[rows][];
+		IntStream.range(0, rows).parallel()
+			.forEach(row -> doubleData[row] = getRow(row));
+		return doubleData;
+	}
+
+	public double[] getRow(int row) {
+		double rowData[] = new double[nColumns];
+		if (index == null && !condensed) {
+			long offset = (long)row*nColumns;
+			for (int col = 0; col < nColumns; col++)
+				rowData[col] = storage.get(offset++);
+		} else {
+			for (int col = 0; col < nColumns; col++)
+				rowData[col] = doubleValue(row, col);
+		}
+		return rowData;
+	}
+
+	public double[] getColumn(int col) {
+		double columnData[] = new double[nRows()];
+		for (int row = 0; row < columnData.length; row++)
+			columnData[row] = doubleValue(row, col);
+		return columnData;
+	}
+
+	/**
+	 * Return the maximum value in the matrix
+	 *
+	 * @return the max value
+	 */
+	public double getMaxValue() {
+		return maxValue;
+	}
+
+	/**
+	 * Return the minimum value in the matrix
+	 *
+	 * @return the min value
+	 */
+	public double getMinValue() {
+		return minValue;
+	}
+
+	/**
+	 * Return true if the matrix is transposed
+	 *
+	 * @return true if the matrix is transposed
+	 */
+	public boolean isTransposed() {
+		return transposed;
+	}
+
+	/**
+	 * Set true if the matrix is transposed
+	 *
+	 * @param transposed true if the matrix is transposed
+	 */
+	public void setTransposed(boolean transposed) {
+		this.transposed = transposed;
+	}
+
+	/**
+	 * Return true if the matrix is symmetraical
+	 *
+	 * @return true if the matrix is symmetraical
+	 */
+	public boolean isSymmetrical() {
+		return symmetric;
+	}
+
+	/**
+	 * Set true if the matrix is symmetrical.  A condensed matrix
+	 * is always symmetrical.
+	 *
+	 * @param symmetrical true if the matrix is symmetrical
+	 */
+	public void setSymmetrical(boolean symmetrical) {
+		this.symmetric = symmetrical || condensed;
+	}
+
+	/**
+	 * Set all missing values to zero
+	 */
+	public void setMissingToZero() {
+		storage.replace(v -> Double.isNaN(v) ? 0.0d : v);
+	}
+
+	/**
+	 * Adjust the diagonals
+	 */
+	public void adjustDiagonals() {
+		for (int col = 0; col < Math.min(nRows, nColumns); col++) {
+			storage.set(offset(col, col), maxValue);
+		}
+	}
+
+	/**
+	 * Return the rank order of the columns in a row
+	 *
+	 * @param row the row to rank the columns in
+	 * @return the rank order of the columns
+	 */
+	public double[] getRank(int row) {
+		// Get the masked row
+		double[] tData = new double[nColumns()];
+		int nVals = 0;
+		for (int column = 0; column < nColumns(); column++) {
+			double value = doubleValue(row, column);
+			if (!Double.isNaN(value))
+				tData[nVals++] = value;
+		}
+		if (nVals == 0)
+			return null;
+
+		// Sort the data
+		Integer index[] = MatrixUtils.indexSort(tData,nVals);
+
+		// Build a rank table
+		double[] rank = new double[nVals];
+		for (int i = 0; i < nVals; i++) rank[index[i]] = i;
+
+		// Fix for equal ranks
+		int i = 0;
+		while (i < nVals) {
+			int m = 0;
+			double value = tData[index[i]];
+			int j = i+1;
+			while (j < nVals && tData[index[j]] == value) j++;
+			m = j - i; // Number of equal ranks found
+			value = rank[index[i]] + (m-1)/2.0;
+			for (j = i; j < i+m; j++) rank[index[j]] = value;
+			i += m;
+		}
+
+		return rank;
+	}
+
+	/**
+	 * Create an index on the matrix
+	 */
+	public void index() {
+		if (!symmetric) {
+			// Can't index a non-symmetric matrix!
+			logger.warn("clusterMaker2 MappedMatrix: attempt to index an assymetric network");
+			return;
+		}
+
+		// initialize indexing array to original order
+		index = new int[nRows];
+		for (int i = 0; i < nRows; ++i) {
+			index[i] = i;
+		}
+	}
+
+	/**
+	 * Create a shallow copy of the matrix with an alternative
+	 * index.  This is an efficient way to access submatrices.  The
+	 * new matrix shares the mapped data with this one.
+	 */
+	public Matrix submatrix(int[] index) {
+		MappedMatrix mat = new MappedMatrix();
+		mat.setStorage(storage);
+		mat.condensed = condensed;
+		mat.index = index;
+		mat.nRows = nRows;
+		mat.nColumns = nColumns;
+		mat.symmetric = symmetric;
+		mat.transposed = transposed;
+		mat.rowLabels = rowLabels;
+		mat.columnLabels = columnLabels;
+		mat.maxValue = maxValue;
+		mat.minValue = minValue;
+		return mat;
+	}
+
+	/**
+	 * Return a submatrix
+	 *
+	 * @param row the starting row of the submatrix
+	 * @param col the starting column of the submatrix
+	 * @param rows the number of rows
+	 * @param cols the number of columnss
+	 * @return submatrix
+	 */
+	public Matrix submatrix(int row, int col, int rows, int cols) {
+		MappedMatrix newMatrix = new MappedMatrix(rows, cols, 0.0);
+		IntStream.range(0, rows).parallel()
+			.forEach(r -> {
+				long offset = (long)r*cols;
+				for (int c = 0; c < cols; c++)
+					newMatrix.storage.set(offset++, doubleValue(r+row, c+col));
+			});
+		for (int r = 0; r < rows; r++)
+			newMatrix.rowLabels[r] = getRowLabel(r+row);
+		for (int c = 0; c < cols; c++)
+			newMatrix.columnLabels[c] = getColumnLabel(c+col);
+		newMatrix.updateMinMax();
+
+		if (transposed)
+			newMatrix.setTransposed(transposed);
+		if (symmetric && rows == cols && row == col)
+			newMatrix.setSymmetrical(symmetric);
+		return newMatrix;
+	}
+
+	/**
+	 * Return a copy of the Matrix
+	 *
+	 * @return matrix copy
+	 */
+	public Matrix copy() {
+		return new MappedMatrix(this);
+	}
+
+	public DoubleMatrix2D getColtMatrix() {
+		return DoubleFactory2D.dense.make(toArray());
+	}
+
+	/**
+	 * Debugging routine to print out information about a matrix
+	 *
+	 * @param matrix the matrix we're going to print out information about
+	 */
+	public String printMatrixInfo() {
+		String s = "Mapped Matrix("+nRows+", "+nColumns+")\n";
+		if (condensed)
+			s += " condensed\n";
+		s += " cardinality is "+ops.cardinality()+"\n";
+		return s;
+	}
+
+	public String printMatrix() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("MappedMatrix("+nRows+", "+nColumns+")\n\t");
+		for (int col = 0; col < nColumns; col++) {
+			sb.append(getColumnLabel(col)+"\t");
+		}
+		sb.append("\n");
+		for (int row = 0; row < nRows(); row++) {
+			sb.append(getRowLabel(row)+":\t"); //node.getIdentifier()
+			for (int col = 0; col < nColumns; col++) {
+				sb.append(""+doubleValue(row,col)+"\t");
+			}
+			sb.append("\n");
+		}
+		return sb.toString();
+	}
+
+	public void writeMatrix(String fileName) {
+		String tmpDir = System.getProperty("java.io.tmpdir");
+		try{
+			File file = new File(tmpDir + fileName);
+			if(!file.exists()) {
+				file.createNewFile();
+			}
+			PrintWriter writer = new PrintWriter(tmpDir + fileName, "UTF-8");
+			writer.write(printMatrix());
+			writer.close();
+		}catch(IOException e){
+			e.printStackTrace(System.out);
+		}
+	}
+
+	public void updateMinMax() {
+		double[] minMax = storage.minMax();
+		minValue = minMax[0];
+		maxValue = minMax[1];
+	}
+
+	/**
+	 * Return a view of this matrix that shares its data.  The view holds its
+	 * own reference to the data, so it must be closed separately.
+	 *
+	 * @return the view
+	 */
+	MappedMatrix view() {
+		return (MappedMatrix)submatrix(index);
+	}
+
+	/**
+	 * Release this matrix's reference to the mapped data.  The temporary
+	 * file is deleted once every matrix sharing the data has been closed.
+	 * The matrix can't be used after it's closed.
+	 */
+	public void close() {
+		if (distanceMatrix != null)
+			distanceMatrix.close();
+		distanceMatrix = null;
+		setStorage(null);
+	}
+
+	/**
+	 * Take a reference to some mapped data, releasing the reference to the
+	 * data this matrix had before.
+	 *
+	 * @param newStorage the data, or null to just release the old data
+	 */
+	protected void setStorage(Storage newStorage) {
+		Storage.Holder oldHolder = holder;
+		storage = newStorage;
+		holder = newStorage == null ? null : newStorage.hold(this);
+		if (oldHolder != null)
+			oldHolder.close();
+	}
+
+	/**
+	 * Return the offset of a cell in the mapped data.  The row and
+	 * column must already have been translated through the index.
+	 *
+	 * @param row the row
+	 * @param column the column
+	 * @return the offset of the value
+	 */
+	protected long offset(int row, int column) {
+		if (!condensed)
+			return (long)row*nColumns+column;
+
+		if (row > column) {
+			int tmp = row; row = column; column = tmp;
+		}
+		return (long)row*nColumns - ((long)row*(row-1))/2 + (column-row);
+	}
+
+	protected void allocate(int rows, int columns, boolean condensed) {
+		this.nRows = rows;
+		this.nColumns = columns;
+		this.condensed = condensed;
+		long length;
+		if (condensed)
+			length = (long)rows*(rows+1)/2;
+		else
+			length = (long)rows*columns;
+		setStorage(new Storage(length));
+		rowLabels = new String[rows];
+		columnLabels = new String[columns];
+		index = null;
+	}
+
+	/**
+	 * Convert a condensed matrix to a full one.  This is needed before operations
+	 * that make the matrix assymetric, such as normalizing a single row.
+	 */
+	protected void expand() {
+		if (!condensed)
+			return;
+
+		Storage full = new Storage((long)nRows*nColumns);
+		IntStream.range(0, nRows).parallel()
+			.forEach(row -> {
+				long offset = (long)row*nColumns;
+				for (int column = 0; column < nColumns; column++)
+					full.set(offset++, storage.get(offset(row, column)));
+			});
+		// Any submatrix views keep their own reference to the old data
+		setStorage(full);
+		condensed = false;
+	}
+
+	protected int colStart(int row) {
+		if (!condensed) return 0;
+		return row;
+	}
+
+	/**
+	 * The mapped data.  A matrix and all of its submatrix views share a
+	 * single Storage, and each of them holds a reference to it.  The data is
+	 * unmapped and the temporary file deleted when the last reference is
+	 * closed.  A reference held by a matrix that is garbage collected without
+	 * being closed is closed the next time any Storage is created or held.
+	 */
+	static class Storage implements AutoCloseable {
+		// The references that haven't been closed, and the queue their matrices
+		// are put on when they are collected
+		private static final Set<Holder> holders = ConcurrentHashMap.newKeySet();
+		private static final ReferenceQueue<MappedMatrix> collected = new ReferenceQueue<>();
+
+		final long length;
+		final File file;
+		DoubleBuffer[] segments;
+		private int references = 0;
+
+		Storage(long length) {
+			closeCollected();
+			this.length = length;
+			File tmpFile = null;
+			try {
+				tmpFile = File.createTempFile("clusterMaker", ".matrix");
+				// The mapping stays valid after the channel is closed
+				try (RandomAccessFile raf = new RandomAccessFile(tmpFile, "rw");
+				     FileChannel channel = raf.getChannel()) {
+					raf.setLength(length*8);
+					int nSegments = (int)((length+SEGMENT_SIZE-1) >>> SEGMENT_SHIFT);
+					segments = new DoubleBuffer[nSegments];
+					for (int s = 0; s < nSegments; s++) {
+						long start = (long)s << SEGMENT_SHIFT;
+						long size = Math.min(SEGMENT_SIZE, length-start);
+						segments[s] = channel.map(FileChannel.MapMode.READ_WRITE, start*8, size*8)
+						                     .order(ByteOrder.nativeOrder()).asDoubleBuffer();
+					}
+				}
+			} catch (IOException e) {
+				if (tmpFile != null)
+					tmpFile.delete();
+				throw new UncheckedIOException("Unable to create memory-mapped matrix", e);
+			}
+			file = tmpFile;
+		}
+
+		/**
+		 * Take a reference to the data for a matrix
+		 *
+		 * @param matrix the matrix that will use the data
+		 * @return the reference, which the matrix closes when it's done with the data
+		 */
+		Holder hold(MappedMatrix matrix) {
+			closeCollected();
+			synchronized (this) {
+				references++;
+			}
+			Holder holder = new Holder(matrix, this);
+			holders.add(holder);
+			return holder;
+		}
+
+		/**
+		 * Release a reference to the data, unmapping it and deleting the
+		 * file if it was the last one.
+		 */
+		@Override
+		public synchronized void close() {
+			if (references > 0)
+				references--;
+			if (references == 0 && segments != null) {
+				segments = null;
+				file.delete();
+			}
+		}
+
+		// Close the references of the matrices that were collected without being closed
+		private static void closeCollected() {
+			Reference<? extends MappedMatrix> reference;
+			while ((reference = collected.poll()) != null)
+				((Holder)reference).close();
+		}
+
+		/**
+		 * A matrix's reference to its data.  This doesn't keep the matrix
+		 * alive, so it can be closed after the matrix is collected.
+		 */
+		static class Holder extends PhantomReference<MappedMatrix> implements AutoCloseable {
+			private final Storage storage;
+
+			Holder(MappedMatrix matrix, Storage storage) {
+				super(matrix, collected);
+				this.storage = storage;
+			}
+
+			@Override
+			public void close() {
+				// Only release the data once, however the reference is closed
+				if (holders.remove(this)) {
+					clear();
+					storage.close();
+				}
+			}
+		}
+		double get(long offset) {
+			return segments[(int)(offset >>> SEGMENT_SHIFT)].get((int)(offset & SEGMENT_MASK));
+		}
+
+		void set(long offset, double value) {
+			segments[(int)(offset >>> SEGMENT_SHIFT)].put((int)(offset & SEGMENT_MASK), value);
+		}
+
+		void fill(double value) {
+			IntStream.range(0, segments.length).parallel()
+				.forEach(s -> {
+					DoubleBuffer segment = segments[s];
+					for (int i = 0; i < segment.capacity(); i++)
+						segment.put(i, value);
+				});
+		}
+
+		void copy(Storage from) {
+			IntStream.range(0, segments.length).parallel()
+				.forEach(s -> {
+					DoubleBuffer source = from.segments[s].duplicate();
+					source.clear();
+					DoubleBuffer target = segments[s].duplicate();
+					target.clear();
+					target.put(source);
+				});
+		}
+
+		void replace(DoubleUnaryOperator op) {
+			IntStream.range(0, segments.length).parallel()
+				.forEach(s -> {
+					DoubleBuffer segment = segments[s];
+					for (int i = 0; i < segment.capacity(); i++)
+						segment.put(i, op.applyAsDouble(segment.get(i)));
+				});
+		}
+
+		// Returns {min, max} of the values that aren't missing
+		double[] minMax() {
+			double[][] results = new double[segments.length][];
+			IntStream.range(0, segments.length).parallel()
+				.forEach(s -> {
+					DoubleBuffer segment = segments[s];
+					double min = Double.MAX_VALUE;
+					double max = Double.MIN_VALUE;
+					for (int i = 0; i < segment.capacity(); i++) {
+						double v = segment.get(i);
+						if (Double.isNaN(v)) continue;
+						if (v < min) min = v;
+						if (v > max) max = v;
+					}
+					results[s] = new double[] {min, max};
+				});
+			double[] minMax = {Double.MAX_VALUE, Double.MIN_VALUE};
+			for (double[] result: results) {
+				minMax[0] = Math.min(minMax[0], result[0]);
+				minMax[1] = Math.max(minMax[1], result[1]);
+			}
+			return minMax;
+		}
+	}
+}
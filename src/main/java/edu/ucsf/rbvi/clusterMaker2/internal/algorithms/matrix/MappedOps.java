@@ -0,0 +1,456 @@
+package edu.ucsf.rbvi.clusterMaker2.internal.algorithms.matrix;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+import org.cytoscape.application.CyUserLog;
+import org.apache.log4j.Logger;
+
+import cern.colt.matrix.tdouble.DoubleFactory2D;
+import cern.colt.matrix.tdouble.DoubleMatrix2D;
+import cern.colt.matrix.tdouble.algo.decomposition.DenseDoubleEigenvalueDecomposition;
+import cern.colt.matrix.tdouble.algo.decomposition.DenseDoubleSingularValueDecomposition;
+import cern.colt.matrix.tdouble.algo.DenseDoubleAlgebra;
+import cern.colt.matrix.tdouble.algo.DoubleStatistic;
+
+import edu.ucsf.rbvi.clusterMaker2.internal.api.Matrix;
+import edu.ucsf.rbvi.clusterMaker2.internal.api.MatrixOps;
+
+/**
+ * MatrixOps for the memory-mapped matrix.  The cell-wise operations run over
+ * the mapped data directly (so each cell of a condensed matrix is only visited
+ * once) and anything that would break the symmetry of a condensed matrix
+ * expands it first.  The dense linear algebra is handed off to Colt, which
+ * means it needs the matrix to fit on the heap.
+ */
+public class MappedOps implements MatrixOps {
+	private static double EPSILON=Math.sqrt(Math.pow(2, -52));//get tolerance to reduce eigens
+	private DenseDoubleEigenvalueDecomposition decomp = null;
+	private DenseDoubleSingularValueDecomposition svdDecomp = null;
+	final Logger logger = Logger.getLogger(CyUserLog.NAME);
+	private final MappedMatrix matrix;
+
+	public MappedOps(MappedMatrix matrix) {
+		this.matrix = matrix;
+	}
+
+	public void threshold() {
+		threshold(EPSILON);
+	}
+
+	public void threshold(double thresh) {
+		matrix.storage.replace(v -> v <= thresh ? 0.0 : v);
+	}
+
+	/**
+	 * Create a transposed matrix
+	 */
+	public Matrix transpose() {
+		int nRows = matrix.nRows();
+		int nColumns = matrix.nColumns();
+		MappedMatrix result = new MappedMatrix(nColumns, nRows, 0.0);
+		IntStream.range(0, nColumns).parallel()
+			.forEach(column -> {
+				long offset = (long)column*nRows;
+				for (int row = 0; row < nRows; row++)
+					result.storage.set(offset++, matrix.doubleValue(row, column));
+			});
+		if (matrix.columnLabels != null)
+			result.rowLabels = Arrays.copyOf(matrix.columnLabels, nColumns);
+		if (matrix.rowLabels != null)
+			result.columnLabels = Arrays.copyOf(matrix.rowLabels, nRows);
+		result.minValue = matrix.minValue;
+		result.maxValue = matrix.maxValue;
+		result.transposed = true;
+		return result;
+	}
+
+	/**
+	 * Invert the matrix in place
+	 */
+	public void invertMatrix() {
+		if (matrix.nRows() != matrix.nColumns()) {
+			logger.warn("clusterMaker2 MappedMatrix: attempt to invert an assymetric network");
+		}
+		DoubleMatrix2D inverse = new DenseDoubleAlgebra().inverse(getDenseData());
+		replaceData(inverse.toArray());
+	}
+
+	/**
+	 * Normalize the matrix in place
+	 */
+	public void normalize() {
+		double span = matrix.maxValue - matrix.minValue;
+		double min = matrix.minValue;
+		matrix.storage.replace(v -> Double.isNaN(v) ? v : (v-min)/span);
+		matrix.updateMinMax();
+	}
+
+	/**
+	 * Normalize the matrix in place.  This is actual matrix normalization,
+	 * i.e. all cells sum to 1.0
+	 */
+	public void normalizeMatrix() {
+		double sum = sum();
+		matrix.storage.replace(v -> Double.isNaN(v) ? v : v/sum);
+		matrix.updateMinMax();
+	}
+
+	/**
+	 * Normalize a matrix row in place (all columns in the row sum to 1.0)
+	 *
+	 * @param row the row to normalize
+	 */
+	public double normalizeRow(int row) {
+		matrix.expand();
+		double sum = rowSum(row);
+		divideScalarRow(row, sum);
+		return sum;
+	}
+
+	/**
+	 * Normalize a matrix column in place (all rows in the column sum to 1.0)
+	 *
+	 * @param column the column to normalize
+	 */
+	public double normalizeColumn(int column) {
+		double sum = columnSum(column);
+		divideScalarColumn(column, sum);
+		return sum;
+	}
+
+	public void standardizeRow(int row) {
+		matrix.expand();
+		double mean = rowMean(row);
+		double stdev = Math.sqrt(rowVariance(row, mean));
+		for (int column = 0; column < matrix.nColumns(); column++) {
+			double cell = matrix.doubleValue(row, column);
+			matrix.setValue(row, column, (cell-mean)/stdev);
+		}
+	}
+
+	public void standardizeColumn(int column) {
+		matrix.expand();
+		double mean = columnMean(column);
+		double stdev = Math.sqrt(columnVariance(column, mean));
+		for (int row = 0; row < matrix.nRows(); row++) {
+			double cell = matrix.doubleValue(row, column);
+			matrix.setValue(row, column, (cell-mean)/stdev);
+		}
+	}
+
+	public void centralizeColumns() {
+		matrix.expand();
+		matrix.minValue = Double.MAX_VALUE;
+		matrix.maxValue = Double.MIN_VALUE;
+		IntStream.range(0, matrix.nColumns()).parallel()
+			.forEach(column -> {
+				double mean = columnSum(column)/matrix.nRows();
+				for (int row = 0; row < matrix.nRows(); row++) {
+					double cell = matrix.doubleValue(row, column);
+					matrix.setValue(row, column, Double.isNaN(cell) ? 0.0d : cell-mean);
+				}
+			});
+		matrix.updateMinMax();
+	}
+
+	public void centralizeRows() {
+		matrix.expand();
+		matrix.minValue = Double.MAX_VALUE;
+		matrix.maxValue = Double.MIN_VALUE;
+		IntStream.range(0, matrix.nRows()).parallel()
+			.forEach(row -> {
+				double mean = rowSum(row)/matrix.nColumns();
+				for (int column = 0; column < matrix.nColumns(); column++) {
+					double cell = matrix.doubleValue(row, column);
+					matrix.setValue(row, column, Double.isNaN(cell) ? 0.0d : cell-mean);
+				}
+			});
+		matrix.updateMinMax();
+	}
+
+	public double sum() {
+		return IntStream.range(0, matrix.nRows).parallel()
+			.mapToDouble(row -> {
+				double sum = 0.0;
+				long offset = matrix.offset(row, matrix.colStart(row));
+				for (int column = matrix.colStart(row); column < matrix.nColumns; column++) {
+					double v = matrix.storage.get(offset++);
+					if (Double.isNaN(v)) continue;
+					// Off-diagonal cells of a condensed matrix are stored once but count twice
+					sum += (matrix.condensed && column != row) ? 2*v : v;
+				}
+				return sum;
+			}).sum();
+	}
+
+	public double columnSum(int column) {
+		double sum = 0.0;
+		for (int row = 0; row < matrix.nRows(); row++) {
+			double cell = matrix.doubleValue(row, column);
+			if (!Double.isNaN(cell)) sum += cell;
+		}
+		return sum;
+	}
+
+	public double columnSum2(int column) {
+		double sum = 0.0;
+		for (int row = 0; row < matrix.nRows(); row++) {
+			double cell = matrix.doubleValue(row, column);
+			if (!Double.isNaN(cell)) sum += cell*cell;
+		}
+		return sum;
+	}
+
+	public double rowSum(int row) {
+		return Arrays.stream(matrix.getRow(row))
+						.filter(v -> !Double.isNaN(v))
+						.sum();
+	}
+
+	public double rowSum2(int row) {
+		return Arrays.stream(matrix.getRow(row))
+						.filter(v -> !Double.isNaN(v))
+						.map(d -> d*d)
+						.sum();
+	}
+
+	public double columnMean(int column) {
+		return Arrays.stream(matrix.getColumn(column))
+						.filter(v -> !Double.isNaN(v))
+						.average().getAsDouble();
+	}
+
+	public double rowMean(int row) {
+		return Arrays.stream(matrix.getRow(row))
+						.filter(v -> !Double.isNaN(v))
+						.average().getAsDouble();
+	}
+
+	public double columnVariance(int column) {
+		return columnVariance(column, columnMean(column));
+	}
+
+	public double columnVariance(int column, double mean) {
+		double variance = 0.0;
+		for (int row = 0; row < matrix.nRows(); row++) {
+			double cell = matrix.doubleValue(row, column);
+			if (!Double.isNaN(cell))
+				variance += Math.pow((cell-mean),2);
+		}
+		return variance/matrix.nRows();
+	}
+
+	public double rowVariance(int row) {
+		return rowVariance(row, rowMean(row));
+	}
+
+	public double rowVariance(int row, double mean) {
+		double variance = 0.0;
+		for (int column = 0; column < matrix.nColumns(); column++) {
+			double cell = matrix.doubleValue(row, column);
+			if (!Double.isNaN(cell))
+				variance += Math.pow((cell-mean),2);
+		}
+		return variance/matrix.nColumns();
+	}
+
+	public int cardinality() {
+		return IntStream.range(0, matrix.nRows).parallel()
+			.map(row -> {
+				int count = 0;
+				long offset = matrix.offset(row, matrix.colStart(row));
+				for (int column = matrix.colStart(row); column < matrix.nColumns; column++) {
+					if (Double.isNaN(matrix.storage.get(offset++))) continue;
+					count += (matrix.condensed && column != row) ? 2 : 1;
+				}
+				return count;
+			}).sum();
+	}
+
+	/**
+	 * Multiply this matrix by another.  The result is mapped if it's too large
+	 * for the heap, otherwise it's a SimpleMatrix.
+	 */
+	public Matrix multiplyMatrix(Matrix b) {
+		int nRows = matrix.nRows();
+		int n = matrix.nColumns();
+		int p = b.nColumns();
+		double[][] bData = b.toArray();
+		Matrix result;
+		if (MappedMatrix.isTooLarge(nRows, p))
+			result = new MappedMatrix(nRows, p, 0.0);
+		else
+			result = new SimpleMatrix(nRows, p, 0.0);
+
+		IntStream.range(0, nRows).parallel()
+			.forEach(row -> {
+				double[] aRow = matrix.getRow(row);
+				double[] cRow = new double[p];
+				for (int k = 0; k < n; k++) {
+					double aik = aRow[k];
+					if (aik == 0.0) continue;
+					double[] bRow = bData[k];
+					for (int j = 0; j < p; j++)
+						cRow[j] += aik*bRow[j];
+				}
+				for (int j = 0; j < p; j++)
+					result.setValue(row, j, cRow[j]);
+			});
+		result.updateMinMax();
+		return result;
+	}
+
+	public void addScalar(double value) {
+		matrix.storage.replace(v -> Double.isNaN(v) ? v : v+value);
+		matrix.updateMinMax();
+	}
+
+	public void addElement(Matrix addend) {
+		combine(addend, 1.0);
+	}
+
+	public void subtractScalar(double value) {
+		matrix.storage.replace(v -> Double.isNaN(v) ? v : v-value);
+		matrix.updateMinMax();
+	}
+
+	public void subtractElement(Matrix subtrahend) {
+		combine(subtrahend, -1.0);
+	}
+
+	public void multiplyScalar(double value) {
+		matrix.storage.replace(v -> Double.isNaN(v) ? v : v*value);
+		matrix.updateMinMax();
+	}
+
+	public void divideScalar(double value) {
+		matrix.storage.replace(v -> Double.isNaN(v) ? v : v/value);
+		matrix.updateMinMax();
+	}
+
+	public void divideScalarColumn(int column, double value) {
+		matrix.expand();
+		for (int row = 0; row < matrix.nRows(); row++) {
+			double cell = matrix.doubleValue(row, column);
+			if (!Double.isNaN(cell))
+				matrix.setValue(row, column, cell/value);
+		}
+	}
+
+	public void powScalar(double value) {
+		matrix.storage.replace(v -> Double.isNaN(v) ? v : Math.pow(v, value));
+		matrix.updateMinMax();
+	}
+
+	public Matrix covariance() {
+		DoubleMatrix2D matrix2D = DoubleStatistic.covariance(getDenseData());
+		return copyDataFromMatrix(matrix2D);
+	}
+
+	public Matrix correlation() {
+		DoubleMatrix2D matrix2D = DoubleStatistic.covariance(getDenseData());
+		matrix2D = DoubleStatistic.correlation(matrix2D);
+		return copyDataFromMatrix(matrix2D);
+	}
+
+	public void eigenInit(){
+		decomp = null;
+	}
+
+	public double[] eigenValues(boolean nonZero){
+		if (decomp == null)
+			decomp = new DenseDoubleEigenvalueDecomposition(getDenseData());
+
+		double[] allValues = decomp.getRealEigenvalues().toArray();
+		if (!nonZero)
+			return allValues;
+
+		return Arrays.stream(allValues).filter(d -> Math.abs(d) > EPSILON).toArray();
+	}
+
+	public double[][] eigenVectors() {
+		if (decomp == null)
+			decomp = new DenseDoubleEigenvalueDecomposition(getDenseData());
+
+		return decomp.getV().toArray();
+	}
+
+	public void svdInit(){
+		svdDecomp = null;
+	}
+
+	public Matrix svdU() {
+		if (svdDecomp == null)
+			svdDecomp = new DenseDoubleSingularValueDecomposition(getDenseData(), true, false);
+		return wrap(svdDecomp.getU());
+	}
+
+	public Matrix svdS() {
+		if (svdDecomp == null)
+			svdDecomp = new DenseDoubleSingularValueDecomposition(getDenseData(), true, false);
+		return wrap(svdDecomp.getS());
+	}
+
+	public Matrix svdV() {
+		if (svdDecomp == null)
+			svdDecomp = new DenseDoubleSingularValueDecomposition(getDenseData(), true, false);
+		return wrap(svdDecomp.getV());
+	}
+
+	// Add (sign = 1) or subtract (sign = -1) another matrix
+	private void combine(Matrix other, double sign) {
+		IntStream.range(0, matrix.nRows()).parallel()
+			.forEach(row -> {
+				for (int column = matrix.colStart(row); column < matrix.nColumns(); column++) {
+					double value = matrix.doubleValue(row, column);
+					double v = other.doubleValue(row, column);
+					if (!Double.isNaN(value) && !Double.isNaN(v))
+						matrix.setValue(row, column, value+sign*v);
+				}
+			});
+		matrix.updateMinMax();
+	}
+
+	private void divideScalarRow(int row, double value) {
+		for (int column = 0; column < matrix.nColumns(); column++) {
+			double cell = matrix.doubleValue(row, column);
+			if (!Double.isNaN(cell))
+				matrix.setValue(row, column, cell/value);
+		}
+	}
+
+	private Matrix copyDataFromMatrix(DoubleMatrix2D matrix2D) {
+		SimpleMatrix mat = new SimpleMatrix();
+		mat.initialize(matrix2D.rows(), matrix2D.columns(), matrix2D.toArray());
+		mat.symmetric = true;
+		mat.transposed = matrix.transposed;
+		String[] labels = matrix.transposed ? matrix.rowLabels : matrix.columnLabels;
+		if (labels != null) {
+			mat.rowLabels = Arrays.copyOf(labels, labels.length);
+			mat.columnLabels = Arrays.copyOf(labels, labels.length);
+		}
+		return mat;
+	}
+
+	private DoubleMatrix2D getDenseData() {
+		return DoubleFactory2D.dense.make(matrix.toArray());
+	}
+
+	private void replaceData(double[][] data) {
+		boolean transposed = matrix.transposed;
+		String[] rowLabels = matrix.rowLabels;
+		String[] columnLabels = matrix.columnLabels;
+		matrix.initialize(data.length, data.length == 0 ? 0 : data[0].length, data);
+		matrix.transposed = transposed;
+		matrix.rowLabels = rowLabels;
+		matrix.columnLabels = columnLabels;
+		matrix.updateMinMax();
+	}
+
+	private Matrix wrap(DoubleMatrix2D mat) {
+		SimpleMatrix result = new SimpleMatrix();
+		result.initialize(mat.rows(), mat.columns(), mat.toArray());
+		return result;
+	}
+}
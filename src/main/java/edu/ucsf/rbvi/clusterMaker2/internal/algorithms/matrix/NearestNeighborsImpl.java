@@ -0,0 +1,337 @@
+package edu.ucsf.rbvi.clusterMaker2.internal.algorithms.matrix;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.IntStream;
+
+import edu.ucsf.rbvi.clusterMaker2.internal.api.DistanceMetric;
+import edu.ucsf.rbvi.clusterMaker2.internal.api.Matrix;
+import edu.ucsf.rbvi.clusterMaker2.internal.api.NearestNeighbors;
+import edu.ucsf.rbvi.clusterMaker2.internal.api.RowView;
+
+/**
+ * The k nearest neighbors of every row of a matrix.  Small matrices are
+ * searched exhaustively.  Larger ones use NN-Descent (Dong, Charikar and Li,
+ * "Efficient k-nearest neighbor graph construction for generic similarity
+ * measures", WWW 2011), which starts from random neighbors and repeatedly
+ * checks whether a neighbor of a neighbor is closer.  That only needs the
+ * distance metric, so it works for all of the metrics in
+ * {@link DistanceMetric}, and it makes roughly n*k*k*sampleRate*sampleRate
+ * distance calls per iteration instead of n*n/2.
+ *
+ * The sample rate trades recall for speed: it is the fraction of each row's
+ * neighbors that take part in each iteration.  A sample rate of 1.0 or more
+ * asks for the exact neighbors.
+ */
+public class NearestNeighborsImpl implements NearestNeighbors {
+	// The default fraction of the neighbors sampled on each iteration
+	public static double DEFAULT_SAMPLE_RATE = 0.5;
+
+	// Matrices with no more rows than this are searched exhaustively
+	public static int EXACT_LIMIT = 1024;
+
+	// Stop when fewer than this fraction of the neighbors change in an iteration
+	static final double DELTA = 0.001;
+	static final int MAX_ITERATIONS = 20;
+	static final long SEED = 42L;
+
+	private final DistanceMetric metric;
+	private final int k;
+	private final double sampleRate;
+	private final int[][] neighbors;
+	private final double[][] distances;
+
+	private NearestNeighborsImpl(DistanceMetric metric, int k, double sampleRate,
+	                             int[][] neighbors, double[][] distances) {
+		this.metric = metric;
+		this.k = k;
+		this.sampleRate = sampleRate;
+		this.neighbors = neighbors;
+		this.distances = distances;
+	}
+
+	/**
+	 * Find the nearest neighbors of each row of a matrix
+	 *
+	 * @param data the matrix with the data
+	 * @param metric the metric to use to calculate the distances
+	 * @param k the number of neighbors to find for each row
+	 * @param sampleRate the fraction of the neighbors sampled on each iteration,
+	 * or 1.0 for the exact neighbors
+	 * @return the neighbors
+	 */
+	public static NearestNeighbors build(Matrix data, DistanceMetric metric, int k, double sampleRate) {
+		int nRows = data.nRows();
+		int kUsed = Math.max(0, Math.min(k, nRows-1));
+		Heap[] heaps = new Heap[nRows];
+		for (int row = 0; row < nRows; row++)
+			heaps[row] = new Heap(kUsed);
+
+		if (kUsed > 0) {
+			if (sampleRate >= 1.0 || nRows <= EXACT_LIMIT)
+				exact(data, metric, heaps);
+			else
+				descend(data, TriangularMatrix.rowViews(data, metric), metric, heaps, sampleRate);
+		}
+
+		int[][] neighbors = new int[nRows][];
+		double[][] distances = new double[nRows][];
+		IntStream.range(0, nRows).parallel()
+			.forEach(row -> {
+				Heap heap = heaps[row];
+				heap.sort();
+				neighbors[row] = Arrays.copyOf(heap.ids, heap.size);
+				distances[row] = Arrays.copyOf(heap.distances, heap.size);
+			});
+		return new NearestNeighborsImpl(metric, kUsed, sampleRate, neighbors, distances);
+	}
+
+	public DistanceMetric getMetric() { return metric; }
+
+	public int getK() { return k; }
+
+	public double getSampleRate() { return sampleRate; }
+
+	public int nRows() { return neighbors.length; }
+
+	public int[] getNeighbors(int row) { return neighbors[row]; }
+
+	public double[] getDistances(int row) { return distances[row]; }
+
+	public int countWithin(int row, double distance) {
+		double[] d = distances[row];
+		int lo = 0, hi = d.length;
+		while (lo < hi) {
+			int mid = (lo+hi) >>> 1;
+			if (d[mid] <= distance)
+				lo = mid+1;
+			else
+				hi = mid;
+		}
+		return lo;
+	}
+
+	public boolean covers(DistanceMetric metric, int k, double sampleRate) {
+		return this.metric == metric && this.sampleRate >= Math.min(sampleRate, 1.0) &&
+		       (this.k >= k || this.k == nRows()-1);
+	}
+
+	// Compare each row to all of the others.  Each distance is calculated
+	// once (through the Gram product where possible) and offered to both rows.
+	private static void exact(Matrix data, DistanceMetric metric, Heap[] heaps) {
+		DistanceTiles.distances(data, metric, (row, column, distance) -> {
+			if (row == column) return;
+			if (Double.isNaN(distance)) distance = Double.POSITIVE_INFINITY;
+			offer(heaps[row], column, distance);
+			offer(heaps[column], row, distance);
+		}, null);
+	}
+
+	private static void offer(Heap heap, int id, double distance) {
+		// Most distances are further than everything in a full heap, so
+		// check that before taking the lock (and again after)
+		if (heap.size == heap.ids.length && distance >= heap.distances[0]) return;
+		synchronized (heap) {
+			heap.push(id, distance, false);
+		}
+	}
+
+	private static void descend(Matrix data, RowView[] views, DistanceMetric metric,
+	                            Heap[] heaps, double sampleRate) {
+		int nRows = heaps.length;
+		int k = heaps[0].ids.length;
+		int nSample = Math.max(1, (int)Math.ceil(sampleRate*k));
+
+		// Start from random neighbors
+		IntStream.range(0, nRows).parallel()
+			.forEach(row -> {
+				Random random = new Random(SEED+row);
+				Heap heap = heaps[row];
+				while (heap.size < k) {
+					int other = random.nextInt(nRows);
+					if (other != row && !heap.contains(other))
+						heap.push(other, distance(data, views, metric, row, other), true);
+				}
+			});
+
+		Random random = new Random(SEED);
+		for (int iteration = 0; iteration < MAX_ITERATIONS; iteration++) {
+			// Sample the new neighbors (which are then marked old), and
+			// add the reverse neighbors
+			Candidates newCandidates = new Candidates(nRows, 2*nSample);
+			Candidates oldCandidates = new Candidates(nRows, 2*nSample);
+			for (int row = 0; row < nRows; row++) {
+				Heap heap = heaps[row];
+				int[] flagged = new int[heap.size];
+				int nFlagged = 0;
+				for (int i = 0; i < heap.size; i++) {
+					if (heap.isNew[i])
+						flagged[nFlagged++] = i;
+					else {
+						oldCandidates.add(row, heap.ids[i], random);
+						oldCandidates.add(heap.ids[i], row, random);
+					}
+				}
+				// Partial shuffle to pick the sample
+				for (int i = 0; i < Math.min(nSample, nFlagged); i++) {
+					int j = i+random.nextInt(nFlagged-i);
+					int slot = flagged[j];
+					flagged[j] = flagged[i];
+					heap.isNew[slot] = false;
+					newCandidates.add(row, heap.ids[slot], random);
+					newCandidates.add(heap.ids[slot], row, random);
+				}
+			}
+
+			// Introduce the candidates to each other
+			LongAdder updates = new LongAdder();
+			IntStream.range(0, nRows).parallel()
+				.forEach(row -> {
+					int[] newIds = newCandidates.ids[row];
+					int nNew = newCandidates.size[row];
+					int[] oldIds = oldCandidates.ids[row];
+					int nOld = oldCandidates.size[row];
+					for (int i = 0; i < nNew; i++) {
+						int u = newIds[i];
+						for (int j = i+1; j < nNew; j++)
+							updates.add(join(data, views, metric, heaps, u, newIds[j]));
+						for (int j = 0; j < nOld; j++)
+							updates.add(join(data, views, metric, heaps, u, oldIds[j]));
+					}
+				});
+
+			if (updates.sum() <= DELTA*nRows*k)
+				break;
+		}
+	}
+
+	// Offer u and v to each other as neighbors
+	private static int join(Matrix data, RowView[] views, DistanceMetric metric, Heap[] heaps, int u, int v) {
+		if (u == v) return 0;
+		// Skip the distance if neither row would take it
+		if (heaps[u].contains(v) && heaps[v].contains(u)) return 0;
+		double d = distance(data, views, metric, u, v);
+		int updates = 0;
+		synchronized (heaps[u]) {
+			if (heaps[u].push(v, d, true)) updates++;
+		}
+		synchronized (heaps[v]) {
+			if (heaps[v].push(u, d, true)) updates++;
+		}
+		return updates;
+	}
+
+	// Distances we can't calculate sort last
+	private static double distance(Matrix data, RowView[] views, DistanceMetric metric, int row, int column) {
+		double d = TriangularMatrix.distance(data, views, metric, row, column);
+		return Double.isNaN(d) ? Double.POSITIVE_INFINITY : d;
+	}
+
+	// A bounded max-heap of neighbors, with the furthest on top
+	static class Heap {
+		final int[] ids;
+		final double[] distances;
+		final boolean[] isNew;
+		int size = 0;
+
+		Heap(int k) {
+			ids = new int[k];
+			distances = new double[k];
+			isNew = new boolean[k];
+		}
+
+		boolean contains(int id) {
+			for (int i = 0; i < size; i++) {
+				if (ids[i] == id) return true;
+			}
+			return false;
+		}
+
+		// Add a neighbor if it's closer than the furthest one we have
+		boolean push(int id, double distance, boolean checkDuplicates) {
+			if (ids.length == 0) return false;
+			if (size == ids.length && distance >= distances[0]) return false;
+			if (checkDuplicates && contains(id)) return false;
+			int i;
+			if (size < ids.length) {
+				// Sift up
+				i = size++;
+				while (i > 0) {
+					int parent = (i-1)/2;
+					if (distances[parent] >= distance) break;
+					move(parent, i);
+					i = parent;
+				}
+			} else {
+				// Replace the top and sift down
+				i = 0;
+				while (true) {
+					int child = 2*i+1;
+					if (child >= size) break;
+					if (child+1 < size && distances[child+1] > distances[child]) child++;
+					if (distances[child] <= distance) break;
+					move(child, i);
+					i = child;
+				}
+			}
+			ids[i] = id;
+			distances[i] = distance;
+			isNew[i] = true;
+			return true;
+		}
+
+		// Sort the neighbors nearest first, breaking ties by row
+		void sort() {
+			Integer[] order = new Integer[size];
+			for (int i = 0; i < size; i++) order[i] = i;
+			Arrays.sort(order, (a, b) -> {
+				int c = Double.compare(distances[a], distances[b]);
+				return (c != 0) ? c : Integer.compare(ids[a], ids[b]);
+			});
+			int[] sortedIds = new int[size];
+			double[] sortedDistances = new double[size];
+			for (int i = 0; i < size; i++) {
+				sortedIds[i] = ids[order[i]];
+				sortedDistances[i] = distances[order[i]];
+			}
+			System.arraycopy(sortedIds, 0, ids, 0, size);
+			System.arraycopy(sortedDistances, 0, distances, 0, size);
+		}
+
+		private void move(int from, int to) {
+			ids[to] = ids[from];
+			distances[to] = distances[from];
+			isNew[to] = isNew[from];
+		}
+	}
+
+	// The candidates for each row in an iteration, reservoir sampled
+	// down to a fixed number per row
+	static class Candidates {
+		final int[][] ids;
+		final int[] size;
+		final int[] seen;
+
+		Candidates(int nRows, int capacity) {
+			ids = new int[nRows][capacity];
+			size = new int[nRows];
+			seen = new int[nRows];
+		}
+
+		void add(int row, int id, Random random) {
+			int[] list = ids[row];
+			for (int i = 0; i < size[row]; i++) {
+				if (list[i] == id) return;
+			}
+			int n = seen[row]++;
+			if (size[row] < list.length) {
+				list[size[row]++] = id;
+			} else {
+				int slot = random.nextInt(n+1);
+				if (slot < list.length)
+					list[slot] = id;
+			}
+		}
+	}
+}
@@ -44,6 +44,7 @@ import edu.ucsf.rbvi.clusterMaker2.internal.api.DistanceMetric;
 import edu.ucsf.rbvi.clusterMaker2.internal.api.Matrix;
 import edu.ucsf.rbvi.clusterMaker2.internal.api.Matrix.DISTRIBUTION;
 import edu.ucsf.rbvi.clusterMaker2.internal.api.MatrixOps;
+import edu.ucsf.rbvi.clusterMaker2.internal.api.RowView;
 
 public class OjAlgoMatrix implements Matrix {
 	protected PhysicalStore<Double> data;
@@ -437,20 +438,7 @@ public class OjAlgoMatrix implements Matrix {
 	 * @return a new Matrix of the distances between the rows
 	 */
 	public Matrix getDistanceMatrix(DistanceMetric metric) {
-		OjAlgoMatrix mat = new OjAlgoMatrix(nRows, nRows);
-		mat.transposed = false;
-		mat.symmetric = true;
-		mat.rowLabels = Arrays.copyOf(rowLabels, rowLabels.length);
-		mat.columnLabels = Arrays.copyOf(rowLabels, rowLabels.length);
-
-		IntStream.range(0, nRows).parallel()
-			.forEach(row -> IntStream.range(row, nRows)
-				.forEach(column -> {
-						mat.setValue(row, column, metric.getMetric(this, this, row, column));
-						if (row != column)
-							mat.setValue(column, row, metric.getMetric(this, this, row, column));
-				}));
-		return mat;
+		return TriangularMatrix.distanceMatrix(this, metric);
 	}
  
 	/**
@@ -478,6 +466,19 @@ public class OjAlgoMatrix implements Matrix {
 		return data.sliceRow(row, 0).toRawCopy1D();
 	}
 
+	/**
+	 * Return a view of a row.  The dense store is column-major, so this
+	 * is a single bulk copy of the row.
+	 *
+	 * @param row the row to get the data from
+	 * @return a view of the row
+	 */
+	public RowView getRowView(int row) {
+		if (index != null)
+			return Matrix.super.getRowView(row);
+		return new RowView(getRow(row));
+	}
+
 	public double[] getColumn(int column) {
 		return data.sliceColumn(0, column).toRawCopy1D();
 	}
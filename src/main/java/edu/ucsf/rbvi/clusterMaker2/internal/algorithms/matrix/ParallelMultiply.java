@@ -0,0 +1,245 @@
+package edu.ucsf.rbvi.clusterMaker2.internal.algorithms.matrix;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+import cern.colt.list.tdouble.DoubleArrayList;
+import cern.colt.list.tint.IntArrayList;
+import cern.colt.matrix.tdouble.DoubleFactory2D;
+import cern.colt.matrix.tdouble.DoubleMatrix2D;
+import cern.colt.matrix.tdouble.impl.SparseCCDoubleMatrix2D;
+import cern.colt.matrix.tdouble.impl.SparseDoubleMatrix2D;
+import cern.colt.matrix.tdouble.impl.SparseRCDoubleMatrix2D;
+
+/**
+ * Matrix multiplication kernels shared by the matrix implementations.
+ * The rows of the result are split into blocks which are handed to the
+ * common fork/join pool, so idle threads steal blocks from busy ones.
+ * Dense operands use a cache-blocked kernel and sparse operands use
+ * Gustavson's row-by-row algorithm with a sparse accumulator per task.
+ */
+public class ParallelMultiply {
+	// Above this fraction of non-zero values, the dense kernel is faster
+	public static double DENSE_CUTOFF = 0.10;
+
+	// Block sizes for the dense kernel.  A block of B (K_BLOCK x J_BLOCK doubles)
+	// is 256KB, which fits in a typical L2 cache
+	static final int ROW_BLOCK = 32;
+	static final int K_BLOCK = 128;
+	static final int J_BLOCK = 256;
+
+	// The number of rows handed to a task by the sparse kernel
+	static final int SPARSE_ROW_BLOCK = 64;
+
+	/**
+	 * Multiply two Colt matrices.  If A is sparse, the result is a sparse Colt
+	 * matrix, otherwise it's dense.
+	 *
+	 * @param A the left matrix
+	 * @param B the right matrix
+	 * @return A*B
+	 */
+	public static DoubleMatrix2D multiply(DoubleMatrix2D A, DoubleMatrix2D B) {
+		int m = A.rows();
+		int n = A.columns();
+		int p = B.columns();
+		boolean sparseResult = isSparse(A);
+
+		if (!sparseResult || density(A) > DENSE_CUTOFF) {
+			double[][] c = multiply(A.toArray(), B.toArray(), p);
+			if (sparseResult) {
+				DoubleMatrix2D C = DoubleFactory2D.sparse.make(m, p);
+				for (int row = 0; row < m; row++) {
+					double[] cRow = c[row];
+					for (int col = 0; col < p; col++) {
+						if (cRow[col] != 0.0)
+							C.setQuick(row, col, cRow[col]);
+					}
+				}
+				return C;
+			}
+			return DoubleFactory2D.dense.make(c);
+		}
+
+		CSR a = new CSR(A);
+		CSR b = new CSR(B);
+		int[][] cCols = new int[m][];
+		double[][] cValues = new double[m][];
+		multiply(m, p, a.rowPtr, a.colIdx, a.values, b.rowPtr, b.colIdx, b.values, cCols, cValues);
+
+		DoubleMatrix2D C = DoubleFactory2D.sparse.make(m, p);
+		for (int row = 0; row < m; row++) {
+			int[] cols = cCols[row];
+			double[] vals = cValues[row];
+			for (int i = 0; i < cols.length; i++)
+				C.setQuick(row, cols[i], vals[i]);
+		}
+		return C;
+	}
+
+	/**
+	 * Multiply two dense matrices stored as arrays of rows.
+	 *
+	 * @param a the left matrix (m x n)
+	 * @param b the right matrix (n x p)
+	 * @param p the number of columns in b
+	 * @return the product (m x p)
+	 */
+	public static double[][] multiply(double[][] a, double[][] b, int p) {
+		final int m = a.length;
+		final int n = b.length;
+		final double[][] c = new double[m][p];
+		int blocks = (m+ROW_BLOCK-1)/ROW_BLOCK;
+
+		IntStream.range(0, blocks).parallel()
+			.forEach(block -> {
+				int i0 = block*ROW_BLOCK;
+				int i1 = Math.min(m, i0+ROW_BLOCK);
+				for (int k0 = 0; k0 < n; k0 += K_BLOCK) {
+					int k1 = Math.min(n, k0+K_BLOCK);
+					for (int j0 = 0; j0 < p; j0 += J_BLOCK) {
+						int j1 = Math.min(p, j0+J_BLOCK);
+						for (int i = i0; i < i1; i++) {
+							double[] aRow = a[i];
+							double[] cRow = c[i];
+							for (int k = k0; k < k1; k++) {
+								double aik = aRow[k];
+								if (aik == 0.0) continue;
+								double[] bRow = b[k];
+								for (int j = j0; j < j1; j++)
+									cRow[j] += aik*bRow[j];
+							}
+						}
+					}
+				}
+			});
+		return c;
+	}
+
+	/**
+	 * Multiply two matrices in compressed sparse row form.  The column
+	 * indices within a row of A or B don't need to be sorted, but the
+	 * columns of each result row are.  Zeros are dropped from the result.
+	 *
+	 * @param m the number of rows in A
+	 * @param p the number of columns in B
+	 * @param aRowPtr the row offsets of A
+	 * @param aCols the column indices of A
+	 * @param aValues the values of A
+	 * @param bRowPtr the row offsets of B
+	 * @param bCols the column indices of B
+	 * @param bValues the values of B
+	 * @param cCols returns the column indices of each row of the result
+	 * @param cValues returns the values of each row of the result
+	 */
+	public static void multiply(int m, int p,
+	                            int[] aRowPtr, int[] aCols, double[] aValues,
+	                            int[] bRowPtr, int[] bCols, double[] bValues,
+	                            int[][] cCols, double[][] cValues) {
+		int blocks = (m+SPARSE_ROW_BLOCK-1)/SPARSE_ROW_BLOCK;
+		// Each task gets its own accumulator, so there are only a few tasks
+		// per thread, each with a run of blocks
+		int tasks = Math.min(blocks, 4*ForkJoinPool.getCommonPoolParallelism());
+
+		IntStream.range(0, tasks).parallel()
+			.forEach(task -> {
+				Accumulator acc = new Accumulator(p);
+				int firstRow = (int)((long)blocks*task/tasks)*SPARSE_ROW_BLOCK;
+				int end = Math.min(m, (int)((long)blocks*(task+1)/tasks)*SPARSE_ROW_BLOCK);
+				for (int row = firstRow; row < end; row++) {
+					int n = 0;
+					for (int ap = aRowPtr[row]; ap < aRowPtr[row+1]; ap++) {
+						double av = aValues[ap];
+						if (av == 0.0) continue;
+						int k = aCols[ap];
+						for (int bp = bRowPtr[k]; bp < bRowPtr[k+1]; bp++) {
+							int j = bCols[bp];
+							if (acc.marker[j] != row) {
+								acc.marker[j] = row;
+								acc.sums[j] = av*bValues[bp];
+								acc.touched[n++] = j;
+							} else {
+								acc.sums[j] += av*bValues[bp];
+							}
+						}
+					}
+					Arrays.sort(acc.touched, 0, n);
+					int count = 0;
+					for (int i = 0; i < n; i++) {
+						if (acc.sums[acc.touched[i]] != 0.0) count++;
+					}
+					int[] cols = new int[count];
+					double[] vals = new double[count];
+					count = 0;
+					for (int i = 0; i < n; i++) {
+						int j = acc.touched[i];
+						if (acc.sums[j] == 0.0) continue;
+						cols[count] = j;
+						vals[count++] = acc.sums[j];
+					}
+					cCols[row] = cols;
+					cValues[row] = vals;
+				}
+			});
+	}
+
+	static boolean isSparse(DoubleMatrix2D mat) {
+		return mat instanceof SparseDoubleMatrix2D || mat instanceof SparseRCDoubleMatrix2D ||
+		       mat instanceof SparseCCDoubleMatrix2D;
+	}
+
+	static double density(DoubleMatrix2D mat) {
+		double size = (double)mat.rows()*(double)mat.columns();
+		if (size == 0.0) return 0.0;
+		return mat.cardinality()/size;
+	}
+
+	// A compressed sparse row copy of a Colt matrix
+	static class CSR {
+		final int[] rowPtr;
+		final int[] colIdx;
+		final double[] values;
+
+		CSR(DoubleMatrix2D mat) {
+			IntArrayList rowList = new IntArrayList();
+			IntArrayList columnList = new IntArrayList();
+			DoubleArrayList valueList = new DoubleArrayList();
+			mat.getNonZeros(rowList, columnList, valueList);
+
+			int nnz = rowList.size();
+			int[] rows = rowList.elements();
+			int[] columns = columnList.elements();
+			double[] vals = valueList.elements();
+
+			// Counting sort by row
+			rowPtr = new int[mat.rows()+1];
+			for (int i = 0; i < nnz; i++)
+				rowPtr[rows[i]+1]++;
+			for (int row = 0; row < mat.rows(); row++)
+				rowPtr[row+1] += rowPtr[row];
+			int[] next = Arrays.copyOf(rowPtr, mat.rows());
+			colIdx = new int[nnz];
+			values = new double[nnz];
+			for (int i = 0; i < nnz; i++) {
+				int pos = next[rows[i]]++;
+				colIdx[pos] = columns[i];
+				values[pos] = vals[i];
+			}
+		}
+	}
+
+	// Scratch space for the sparse accumulator
+	static class Accumulator {
+		final double[] sums;
+		final int[] marker;
+		final int[] touched;
+
+		Accumulator(int size) {
+			sums = new double[size];
+			marker = new int[size];
+			touched = new int[size];
+			Arrays.fill(marker, -1);
+		}
+	}
+}
@@ -14,6 +14,7 @@ import edu.ucsf.rbvi.clusterMaker2.internal.api.DistanceMetric;
 import edu.ucsf.rbvi.clusterMaker2.internal.api.Matrix;
 import edu.ucsf.rbvi.clusterMaker2.internal.api.Matrix.DISTRIBUTION;
 import edu.ucsf.rbvi.clusterMaker2.internal.api.MatrixOps;
+import edu.ucsf.rbvi.clusterMaker2.internal.api.RowView;
 
 import cern.colt.matrix.tdouble.DoubleFactory2D;
 import cern.colt.matrix.tdouble.DoubleMatrix2D;
@@ -24,7 +25,7 @@ import cern.colt.matrix.tdouble.algo.SmpDoubleBlas;
 
 public class SimpleMatrix implements Matrix {
 	protected double[][] data;
-	protected SimpleMatrix distanceMatrix = null;
+	protected Matrix distanceMatrix = null;
 	protected DistanceMetric distanceMetric = null;
 	protected int[] index;
 	protected int nRows;
@@ -35,6 +36,10 @@ public class SimpleMatrix implements Matrix {
 	protected double minValue = Double.MAX_VALUE;
 	protected boolean symmetric = false;
 	protected boolean transposed = false;
+	// The missing-value masks of the rows of data, built the first time a row
+	// view is asked for.  Matrices that share data share its masks, so that
+	// changing the data through any of them drops the masks for all of them.
+	protected MissingMasks missing = null;
 	private static double EPSILON=Math.sqrt(Math.pow(2, -52));//get tolerance to reduce eigens
 	final Logger logger = Logger.getLogger(CyUserLog.NAME);
 	public final SimpleOps ops;
@@ -108,6 +113,7 @@ public class SimpleMatrix implements Matrix {
 	}
 
 	public void initialize(int rows, int columns, double[][] arrayData) {
+		missing = null;
 		nRows = rows;
 		nColumns = columns;
 		data = Arrays.stream(arrayData).map(e1->e1.clone()).toArray($->arrayData.clone());
@@ -118,6 +124,7 @@ public class SimpleMatrix implements Matrix {
 	}
 
 	public void initialize(int rows, int columns, Double[][] arrayData) {
+		missing = null;
 		nRows = rows;
 		nColumns = columns;
 		data = new double[rows][columns];
@@ -234,6 +241,7 @@ public class SimpleMatrix implements Matrix {
 		}
 
 		data[row][column] = value;
+		dataChanged();
 	}
 
 	/**
@@ -257,6 +265,7 @@ public class SimpleMatrix implements Matrix {
 			data[row][column] = Double.NaN;
 		else
 			data[row][column] = value;
+		dataChanged();
 	}
 
 	/**
@@ -368,22 +377,9 @@ public class SimpleMatrix implements Matrix {
 		if (distanceMatrix != null && metric == distanceMetric)
 			return distanceMatrix;
 
-		SimpleMatrix mat = new SimpleMatrix(nRows, nRows);
-		mat.transposed = false;
-		mat.symmetric = true;
-		mat.rowLabels = Arrays.copyOf(rowLabels, rowLabels.length);
-		mat.columnLabels = Arrays.copyOf(rowLabels, rowLabels.length);
-
-		IntStream.range(0, nRows).parallel()
-			.forEach(row -> IntStream.range(row, nRows)
-				.forEach(column -> {
-						mat.setValue(row, column, metric.getMetric(this, this, row, column));
-						if (row != column)
-							mat.setValue(column, row, metric.getMetric(this, this, row, column));
-				}));
-		distanceMatrix = mat;
+		distanceMatrix = TriangularMatrix.distanceMatrix(this, metric);
 		distanceMetric = metric;
-		return mat;
+		return distanceMatrix;
 	}
  
 	/**
@@ -414,6 +410,64 @@ public class SimpleMatrix implements Matrix {
 		return rowData;
 	}
 
+	/**
+	 * Return a view of a row.  Unless the matrix is indexed, this is the
+	 * row array itself.
+	 *
+	 * @param row the row to get the data from
+	 * @return a view of the row
+	 */
+	public RowView getRowView(int row) {
+		if (index != null)
+			return Matrix.super.getRowView(row);
+		return new RowView(data[row], 0, nColumns, getMissing()[row]);
+	}
+
+	/**
+	 * Return the missing-value masks for the rows, in the form used by
+	 * {@link RowView}.  The masks are built once and kept until the data
+	 * changes.
+	 *
+	 * @return the masks, with null for each row that has no missing values
+	 */
+	public long[][] getMissing() {
+		MissingMasks holder = missingMasks();
+		long[][] masks = holder.masks;
+		if (masks == null) {
+			double[][] rows = holder.data;
+			long[][] rowMasks = new long[nRows][];
+			IntStream.range(0, nRows).parallel()
+				.forEach(row -> rowMasks[row] = RowView.findMissing(rows[row], 0, nColumns));
+			holder.masks = masks = rowMasks;
+		}
+		return masks;
+	}
+
+	/**
+	 * Return the holder of the missing-value masks for the current data, which
+	 * is handed to any matrix that shares the data
+	 *
+	 * @return the holder, whose masks may not have been built yet
+	 */
+	protected MissingMasks missingMasks() {
+		MissingMasks holder = missing;
+		// The data may have been replaced since the masks were made
+		if (holder == null || holder.data != data)
+			missing = holder = new MissingMasks(data);
+		return holder;
+	}
+
+	/**
+	 * Drop the missing-value masks, for this matrix and every matrix that
+	 * shares its data.  Anything that changes the values in data other than
+	 * through setValue must call this.
+	 */
+	protected void dataChanged() {
+		MissingMasks holder = missing;
+		if (holder != null)
+			holder.masks = null;
+	}
+
 	public double[] getColumn(int col) {
 		double columnData[] = new double[nRows];
 		IntStream.range(0, nRows).parallel()
@@ -479,15 +533,33 @@ public class SimpleMatrix implements Matrix {
 	 * Set all missing values to zero
 	 */
 	public void setMissingToZero() {
+		if (symmetric) {
+			IntStream.range(0, nRows).parallel()
+				.forEach(row -> IntStream.range(colStart(row), nColumns)
+					.forEach(column -> {
+						if (Double.isNaN(data[row][column])) {
+							data[row][column] = 0.0d;
+							if (row != column)
+								data[column][row] = 0.0d;
+						}
+					}));
+			dataChanged();
+			return;
+		}
+
+		// Only the rows with missing values need to be looked at, and only
+		// the columns their masks say are missing
+		long[][] masks = getMissing();
 		IntStream.range(0, nRows).parallel()
-			.forEach(row -> IntStream.range(colStart(row), nColumns)
-				.forEach(column -> {
-					if (Double.isNaN(data[row][column])) {
-						data[row][column] = 0.0d;
-						if (symmetric && row != column)
-							data[column][row] = 0.0d;
-					}
-				}));
+			.forEach(row -> {
+				long[] mask = masks[row];
+				if (mask == null) return;
+				for (int word = 0; word < mask.length; word++) {
+					for (long bits = mask[word]; bits != 0; bits &= bits-1)
+						data[row][(word << 6) + Long.numberOfTrailingZeros(bits)] = 0.0d;
+				}
+				masks[row] = null;
+			});
 	}
 
 	/**
@@ -497,6 +569,7 @@ public class SimpleMatrix implements Matrix {
 		for (int col = 0; col < nColumns; col++ ) {
 			data[col][col] = maxValue;
 		}
+		dataChanged();
 	}
 
 	/**
@@ -564,6 +637,7 @@ public class SimpleMatrix implements Matrix {
 	public Matrix submatrix(int[] index) {
 		SimpleMatrix mat = new SimpleMatrix();
 		mat.data = data;
+		mat.missing = missingMasks();
 		mat.index = index;
 		mat.nRows = nRows;
 		mat.nColumns = nColumns;
@@ -707,4 +781,14 @@ public class SimpleMatrix implements Matrix {
 		if (!symmetric) return 0;
 		return row;
 	}
+
+	// The masks for one data array, shared by the matrices that use it
+	static class MissingMasks {
+		final double[][] data;
+		volatile long[][] masks = null;
+
+		MissingMasks(double[][] data) {
+			this.data = data;
+		}
+	}
 }
@@ -87,8 +87,10 @@ public class SimpleOps implements MatrixOps {
 						b[row][column] = 0.0d;
 				}));
 
-		// Transform the matrix into an upper triangle
+		// Transform the matrix into an upper triangle.  This works on the data
+		// in place, so anything sharing it has to forget its missing values.
 		gaussian(matrix.data, idx);
+		matrix.dataChanged();
 
 		// Update the matrix b[i][j] with the ratios stored
 		for (int i = 0; i < nRows-1; ++i) {
@@ -262,7 +264,6 @@ public class SimpleOps implements MatrixOps {
 				} else {
 					matrix.setValue(i, j, 0.0d);
 				}
-				matrix.setValue(j, i, cell);
 			}
 		}
 	}
@@ -0,0 +1,187 @@
+package edu.ucsf.rbvi.clusterMaker2.internal.algorithms.matrix;
+
+import java.util.Arrays;
+
+import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.edgeConverters.EdgeWeightConverter;
+import edu.ucsf.rbvi.clusterMaker2.internal.api.Matrix;
+
+/**
+ * The converted weights of the edges of a network, sorted in ascending
+ * order, along with the largest weight of the edges of each node.  This
+ * is all that the edge cutoff slider, the histogram, and the threshold
+ * heuristic need, so moving the cutoff only takes a binary search rather
+ * than building a new matrix.
+ */
+public class SortedEdgeWeights {
+	private final double[] values;
+	// The largest weight of the edges of each node, or NaN if the node
+	// doesn't have any
+	private final double[] nodeMaxima;
+
+	// For weights sorted by EdgeWeights, the edge of each value and what the
+	// values were converted with, so the matrix for a cutoff can be built
+	// from the values that pass it
+	final EdgeWeights weights;
+	final int[] edges;
+	final EdgeWeightConverter converter;
+	final double cutOff;
+
+	/**
+	 * Sort edge weights.  The array of weights is sorted in place.
+	 *
+	 * @param values the weights of the edges
+	 * @param nodeMaxima the largest weight of the edges of each node, or NaN
+	 */
+	public SortedEdgeWeights(double[] values, double[] nodeMaxima) {
+		this(values, nodeMaxima, null, null, null, 0.0);
+	}
+
+	/**
+	 * Sort the converted weights of a set of edges.  The arrays of weights
+	 * and edges are sorted in place, and edges with the same weight stay in
+	 * the order they were given in.
+	 *
+	 * @param values the converted weights of the edges
+	 * @param nodeMaxima the largest weight of the edges of each node, or NaN
+	 * @param weights the edge weights that were converted
+	 * @param edges the edge of each weight
+	 * @param converter the converter that was used
+	 * @param cutOff the cutoff that was used
+	 */
+	SortedEdgeWeights(double[] values, double[] nodeMaxima, EdgeWeights weights, int[] edges,
+	                  EdgeWeightConverter converter, double cutOff) {
+		this.values = values;
+		this.nodeMaxima = nodeMaxima;
+		this.weights = weights;
+		this.converter = converter;
+		this.cutOff = cutOff;
+		if (edges == null) {
+			Arrays.parallelSort(values);
+			this.edges = null;
+			return;
+		}
+
+		double[] unsorted = Arrays.copyOf(values, values.length);
+		Arrays.parallelSort(values);
+		// Each edge goes after the edges before it with the same weight
+		int[] placed = new int[values.length];
+		this.edges = new int[values.length];
+		for (int i = 0; i < unsorted.length; i++) {
+			int first = indexOf(unsorted[i]);
+			this.edges[first + placed[first]++] = edges[i];
+		}
+	}
+
+	/**
+	 * Sort the values in a matrix of edge weights.  Only the upper
+	 * triangle of a symmetrical matrix is used, so that each edge is
+	 * counted once.
+	 *
+	 * @param matrix the matrix of edge weights
+	 * @return the sorted weights
+	 */
+	public static SortedEdgeWeights fromMatrix(Matrix matrix) {
+		int nNodes = Math.max(matrix.nRows(), matrix.nColumns());
+		double[] nodeMaxima = new double[nNodes];
+		Arrays.fill(nodeMaxima, Double.NaN);
+		double[] values = new double[16];
+		int nValues = 0;
+		for (int row = 0; row < matrix.nRows(); row++) {
+			int colStart = matrix.isSymmetrical() ? row : 0;
+			for (int col = colStart; col < matrix.nColumns(); col++) {
+				if (!matrix.hasValue(row, col))
+					continue;
+				double value = matrix.doubleValue(row, col);
+				if (nValues == values.length)
+					values = Arrays.copyOf(values, values.length*2);
+				values[nValues++] = value;
+				updateMaximum(nodeMaxima, row, value);
+				updateMaximum(nodeMaxima, col, value);
+			}
+		}
+		return new SortedEdgeWeights(Arrays.copyOf(values, nValues), nodeMaxima);
+	}
+
+	/**
+	 * Return the number of edges with a weight
+	 *
+	 * @return the number of edges
+	 */
+	public int size() { return values.length; }
+
+	/**
+	 * Return the i'th smallest weight
+	 *
+	 * @param i the position of the edge in sorted order
+	 * @return the weight
+	 */
+	public double getValue(int i) { return values[i]; }
+
+	/**
+	 * Return the number of nodes
+	 *
+	 * @return the number of nodes
+	 */
+	public int nNodes() { return nodeMaxima.length; }
+
+	/**
+	 * Return the largest weight of the edges of a node
+	 *
+	 * @param node the row of the node
+	 * @return the largest weight, or NaN if the node doesn't have any edges
+	 */
+	public double getNodeMaximum(int node) { return nodeMaxima[node]; }
+
+	/**
+	 * Return the smallest weight
+	 *
+	 * @return the smallest weight, or Double.MAX_VALUE if there are no edges
+	 */
+	public double getMinValue() {
+		return values.length == 0 ? Double.MAX_VALUE : values[0];
+	}
+
+	/**
+	 * Return the largest weight
+	 *
+	 * @return the largest weight, or Double.MIN_VALUE if there are no edges
+	 */
+	public double getMaxValue() {
+		return values.length == 0 ? Double.MIN_VALUE : values[values.length-1];
+	}
+
+	/**
+	 * Return the position of the first weight that is at least the cutoff, so
+	 * that the edges that pass the cutoff are those from there to the end.
+	 *
+	 * @param cutOff the minimum edge weight
+	 * @return the position of the first edge that passes the cutoff
+	 */
+	public int indexOf(double cutOff) {
+		int low = 0;
+		int high = values.length;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (values[mid] < cutOff)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return low;
+	}
+
+	/**
+	 * Return the number of edges with a weight of at least the cutoff
+	 *
+	 * @param cutOff the minimum edge weight
+	 * @return the number of edges that pass the cutoff
+	 */
+	public int countAtLeast(double cutOff) {
+		return values.length - indexOf(cutOff);
+	}
+
+	static void updateMaximum(double[] maxima, int node, double weight) {
+		if (Double.isNaN(maxima[node]) || maxima[node] < weight)
+			maxima[node] = weight;
+	}
+}
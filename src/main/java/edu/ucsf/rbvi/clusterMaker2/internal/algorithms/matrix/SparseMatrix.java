@@ -0,0 +1,1140 @@
+package edu.ucsf.rbvi.clusterMaker2.internal.algorithms.matrix;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.text.DecimalFormat;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import org.cytoscape.application.CyUserLog;
+import org.apache.log4j.Logger;
+
+import cern.colt.function.tdouble.IntIntDoubleFunction;
+import cern.colt.matrix.tdouble.DoubleFactory2D;
+import cern.colt.matrix.tdouble.DoubleMatrix2D;
+
+import edu.ucsf.rbvi.clusterMaker2.internal.api.DistanceMetric;
+import edu.ucsf.rbvi.clusterMaker2.internal.api.Matrix;
+import edu.ucsf.rbvi.clusterMaker2.internal.api.Matrix.DISTRIBUTION;
+import edu.ucsf.rbvi.clusterMaker2.internal.api.MatrixOps;
+
+/**
+ * A compressed sparse row (CSR) implementation of Matrix that keeps all
+ * of its data in primitive arrays:
+ * 	o	rowPtr: nRows+1 offsets into the colIdx and values arrays
+ * 	o	colIdx: the column of each stored value, sorted within each row
+ * 	o	values: the stored values
+ *
+ * Column oriented operations use a compressed sparse column (CSC) index
+ * that points back into the CSR values array.  The column index is built
+ * on demand and survives any change that doesn't alter the structure of
+ * the matrix, so column normalization updates the CSR values in place.
+ *
+ * As with the Colt sparse matrices, a cell that has never been set is zero.
+ * New entries are collected into small, sorted, per-row buffers and merged
+ * into the compressed arrays the next time a bulk operation needs them.
+ */
+public class SparseMatrix implements Matrix {
+	protected int nRows;
+	protected int nColumns;
+
+	// The compressed sparse row data
+	protected int[] rowPtr;
+	protected int[] colIdx;
+	protected double[] values;
+
+	// Entries that have been set, but haven't been merged into the CSR arrays yet.
+	// Each row is sorted by column, and never contains a column already in the CSR arrays.
+	protected int[][] pendingCols;
+	protected double[][] pendingValues;
+	protected int[] pendingCount;
+	protected volatile boolean dirty = false;
+
+	// The compressed sparse column index.  colPos points into the CSR values array.
+	protected int[] colPtr = null;
+	protected int[] colRows = null;
+	protected int[] colPos = null;
+
+	protected String[] rowLabels = null;
+	protected String[] columnLabels = null;
+	protected double maxValue = Double.MIN_VALUE;
+	protected double minValue = Double.MAX_VALUE;
+	protected boolean symmetric = false;
+	protected boolean transposed = false;
+	final Logger logger = Logger.getLogger(CyUserLog.NAME);
+
+	// For debugging messages
+	private static DecimalFormat scFormat = new DecimalFormat("0.###E0");
+	private static DecimalFormat format = new DecimalFormat("0.###");
+
+	// Our MatrixOps
+	public final SparseOps ops;
+
+	public SparseMatrix() {
+		ops = new SparseOps(this);
+	}
+
+	public SparseMatrix(int rows, int columns) {
+		this();
+		nRows = rows;
+		nColumns = columns;
+		rowPtr = new int[rows+1];
+		colIdx = new int[0];
+		values = new double[0];
+		rowLabels = new String[rows];
+		columnLabels = new String[columns];
+		initPending();
+	}
+
+	public SparseMatrix(int rows, int columns, double initialValue) {
+		this(rows, columns);
+		if (initialValue != 0.0) {
+			fill((row, col) -> initialValue);
+			minValue = initialValue;
+			maxValue = initialValue;
+		}
+	}
+
+	public SparseMatrix(int rows, int columns, DISTRIBUTION dist) {
+		this(rows, columns);
+		Random random = new Random();
+		if (dist.equals(DISTRIBUTION.NORMAL))
+			fill((row, col) -> random.nextGaussian());
+		else if (dist.equals(DISTRIBUTION.BINOMIAL))
+			fill((row, col) -> random.nextBoolean() ? 1.0 : 0.0);
+		updateMinMax();
+	}
+
+	public SparseMatrix(SparseMatrix mat) {
+		this();
+		mat.compress();
+		nRows = mat.nRows;
+		nColumns = mat.nColumns;
+		int nnz = mat.rowPtr[nRows];
+		rowPtr = Arrays.copyOf(mat.rowPtr, mat.rowPtr.length);
+		colIdx = Arrays.copyOf(mat.colIdx, nnz);
+		values = Arrays.copyOf(mat.values, nnz);
+		copyAttributes(mat);
+		minValue = mat.minValue;
+		maxValue = mat.maxValue;
+		initPending();
+	}
+
+	/**
+	 * Create a new matrix from already compressed data.  The arrays are
+	 * not copied, so the caller gives up ownership of them.
+	 *
+	 * @param mat the matrix to copy the labels and flags from (may be null)
+	 * @param rows the number of rows
+	 * @param columns the number of columns
+	 * @param rowPtr the row offsets (rows+1 entries)
+	 * @param colIdx the column indices, sorted within each row
+	 * @param values the values
+	 */
+	public SparseMatrix(SparseMatrix mat, int rows, int columns,
+	                    int[] rowPtr, int[] colIdx, double[] values) {
+		this();
+		nRows = rows;
+		nColumns = columns;
+		this.rowPtr = rowPtr;
+		this.colIdx = colIdx;
+		this.values = values;
+		if (mat != null) {
+			copyAttributes(mat);
+		} else {
+			rowLabels = new String[rows];
+			columnLabels = new String[columns];
+		}
+		initPending();
+		updateMinMax();
+	}
+
+	public SparseMatrix(Matrix mat) {
+		this();
+		initialize(mat.nRows(), mat.nColumns(), mat.toArray());
+		transposed = mat.isTransposed();
+		symmetric = mat.isSymmetrical();
+		if (mat.getRowLabels() != null)
+			rowLabels = Arrays.copyOf(mat.getRowLabels(), mat.getRowLabels().length);
+		if (mat.getColumnLabels() != null)
+			columnLabels = Arrays.copyOf(mat.getColumnLabels(), mat.getColumnLabels().length);
+	}
+
+	public MatrixOps ops() { return ops; }
+
+	public Matrix like() {
+		return new SparseMatrix();
+	}
+
+	public Matrix like(int rows, int columns) {
+		return new SparseMatrix(rows, columns);
+	}
+
+	public Matrix like(int rows, int columns, double initialValue) {
+		return new SparseMatrix(rows, columns, initialValue);
+	}
+
+	public Matrix like(int rows, int columns, DISTRIBUTION dist) {
+		return new SparseMatrix(rows, columns, dist);
+	}
+
+	public Matrix like(Matrix initial) {
+		if (initial instanceof SparseMatrix) {
+			SparseMatrix newMat = new SparseMatrix((SparseMatrix)initial);
+			newMat.copyAttributes(this);
+			return newMat;
+		}
+		SparseMatrix newMat = new SparseMatrix();
+		newMat.initialize(initial.nRows(), initial.nColumns(), initial.toArray());
+		return newMat;
+	}
+
+	public Matrix like(int rows, int columns, double[][] initial) {
+		Matrix newMat = like();
+		newMat.initialize(rows, columns, initial);
+		return newMat;
+	}
+
+	public void initialize(int rows, int columns, double[][] arrayData) {
+		nRows = rows;
+		nColumns = columns;
+		rowPtr = new int[rows+1];
+		if (arrayData == null) {
+			colIdx = new int[0];
+			values = new double[0];
+		} else {
+			int nnz = 0;
+			for (int row = 0; row < rows; row++) {
+				for (int col = 0; col < columns; col++) {
+					if (arrayData[row][col] != 0.0) nnz++;
+				}
+			}
+			colIdx = new int[nnz];
+			values = new double[nnz];
+			int pos = 0;
+			for (int row = 0; row < rows; row++) {
+				for (int col = 0; col < columns; col++) {
+					double v = arrayData[row][col];
+					if (v != 0.0) {
+						colIdx[pos] = col;
+						values[pos++] = v;
+					}
+				}
+				rowPtr[row+1] = pos;
+			}
+		}
+		transposed = false;
+		symmetric = false;
+		rowLabels = new String[nRows];
+		columnLabels = new String[nColumns];
+		initPending();
+		invalidateColumnIndex();
+		updateMinMax();
+	}
+
+	public void initialize(int rows, int columns, Double[][] arrayData) {
+		double[][] data = null;
+		if (arrayData != null) {
+			data = new double[rows][columns];
+			for (int row = 0; row < rows; row++) {
+				for (int col = 0; col < columns; col++) {
+					if (arrayData[row][col] == null)
+						data[row][col] = Double.NaN;
+					else
+						data[row][col] = arrayData[row][col];
+				}
+			}
+		}
+		initialize(rows, columns, data);
+	}
+
+	/**
+	 * Return the number of rows in this matrix.
+	 *
+	 * @return number of rows
+	 */
+	public int nRows() { return nRows; }
+
+	/**
+	 * Return the number of columns in this matrix.
+	 *
+	 * @return number of columns
+	 */
+	public int nColumns() { return nColumns; }
+
+	/**
+	 * Return the value at a specific location.
+	 *
+	 * @param row the row number of the value
+	 * @param column the coulmn number of the value
+	 * @return the (possibly null) value at that location
+	 */
+	public Double getValue(int row, int column) {
+		double d = doubleValue(row, column);
+		if (Double.isNaN(d))
+			return null;
+		return d;
+	}
+
+	/**
+	 * Return the value at a specific location.  Note that this does not
+	 * merge the pending entries, so it's safe to call from multiple threads.
+	 *
+	 * @param row the row number of the value
+	 * @param column the coulmn number of the value
+	 * @return the value at that location, if it was set, otherwise, return 0.0.
+	 */
+	public double doubleValue(int row, int column) {
+		int pos = find(row, column);
+		if (pos >= 0)
+			return values[pos];
+
+		if (dirty) {
+			int count = pendingCount[row];
+			if (count > 0) {
+				int p = Arrays.binarySearch(pendingCols[row], 0, count, column);
+				if (p >= 0)
+					return pendingValues[row][p];
+			}
+		}
+		return 0.0;
+	}
+
+	/**
+	 * Set the value at a specific location.
+	 *
+	 * @param row the row number of the value
+	 * @param column the coulmn number of the value
+	 * @param value the value to set
+	 */
+	public void setValue(int row, int column, double value) {
+		if (value < minValue) minValue = value;
+		if (value > maxValue) maxValue = value;
+
+		int pos = find(row, column);
+		if (pos >= 0) {
+			values[pos] = value;
+			return;
+		}
+		setPending(row, column, value);
+	}
+
+	/**
+	 * Set the value at a specific location.
+	 *
+	 * @param row the row number of the value
+	 * @param column the coulmn number of the value
+	 * @param value the value to set
+	 */
+	public void setValue(int row, int column, Double value) {
+		if (value == null)
+			setValue(row, column, Double.NaN);
+		else
+			setValue(row, column, value.doubleValue());
+	}
+
+	/**
+	 * Return true if the location has a value
+	 *
+	 * @param row the row number of the value
+	 * @param column the coulmn number of the value
+	 * @return true if this location has a value, false otherwise
+	 */
+	public boolean hasValue(int row, int column) {
+		double d = doubleValue(row, column);
+		if (Double.isNaN(d))
+			return false;
+		return true;
+	}
+
+	/**
+	 * Return an array of column labels
+	 *
+	 * @return the column labels
+	 */
+	public String[] getColumnLabels() {
+		return columnLabels;
+	}
+
+	/**
+	 * Return a column label
+	 *
+	 * @param col the column to get the label for
+	 * @return the column label
+	 */
+	public String getColumnLabel(int col) {
+		if (columnLabels == null)
+			return null;
+		return columnLabels[col];
+	}
+
+	/**
+	 * Set a column label
+	 *
+	 * @param col the column to set the label for
+	 * @param label the column label
+	 */
+	public void setColumnLabel(int col, String label) {
+		columnLabels[col] = label;
+	}
+
+	/**
+	 * Set the column labels
+	 *
+	 * @param labelList the list of column labels
+	 */
+	public void setColumnLabels(List<String>labelList) {
+		columnLabels = labelList.toArray(new String[0]);
+	}
+
+	/**
+	 * Return an array of row labels
+	 *
+	 * @return the row labels
+	 */
+	public String[] getRowLabels() {
+		return rowLabels;
+	}
+
+	/**
+	 * Return a row label
+	 *
+	 * @param row the row to get the label for
+	 * @return the row label
+	 */
+	public String getRowLabel(int row) {
+		if (rowLabels == null)
+			return null;
+		return rowLabels[row];
+	}
+
+	/**
+	 * Set a row label
+	 *
+	 * @param row the row to set the label for
+	 * @param label the row label
+	 */
+	public void setRowLabel(int row, String label) {
+		rowLabels[row] = label;
+	}
+
+	/**
+	 * Set the row labels
+	 *
+	 * @param labelList the list of row labels
+	 */
+	public void setRowLabels(List<String>labelList) {
+		rowLabels = labelList.toArray(new String[0]);
+	}
+
+	/**
+	 * Return the distance between rows based on the metric.  Distance
+	 * matrices are dense, but we keep them in this format so that the
+	 * result is the same type as our matrix.
+	 *
+	 * @param metric the metric to use to calculate the distances
+	 * @return a new Matrix of the distances between the rows
+	 */
+	public Matrix getDistanceMatrix(DistanceMetric metric) {
+		compress();
+		return TriangularMatrix.distanceMatrix(this, metric);
+	}
+
+	/**
+	 * Return a 2D array with all of the values in the matrix.  The missing
+	 * values are set to Double.NaN
+	 *
+	 * @return the data in the matrix
+	 */
+	public double[][] toArray() {
+		compress();
+		double doubleData[][] = new double[nRows][nColumns];
+		for (int row = 0; row < nRows; row++) {
+			for (int pos = rowPtr[row]; pos < rowPtr[row+1]; pos++)
+				doubleData[row][colIdx[pos]] = values[pos];
+		}
+		return doubleData;
+	}
+
+	public double[] getRow(int row) {
+		compress();
+		double[] rowData = new double[nColumns];
+		for (int pos = rowPtr[row]; pos < rowPtr[row+1]; pos++)
+			rowData[colIdx[pos]] = values[pos];
+		return rowData;
+	}
+
+	public double[] getColumn(int col) {
+		buildColumnIndex();
+		double[] columnData = new double[nRows];
+		for (int p = colPtr[col]; p < colPtr[col+1]; p++)
+			columnData[colRows[p]] = values[colPos[p]];
+		return columnData;
+	}
+
+	/**
+	 * Return the maximum value in the matrix
+	 *
+	 * @return the max value
+	 */
+	public double getMaxValue() {
+		return maxValue;
+	}
+
+	/**
+	 * Return the minimum value in the matrix
+	 *
+	 * @return the min value
+	 */
+	public double getMinValue() {
+		return minValue;
+	}
+
+	/**
+	 * Return true if the matrix is transposed
+	 *
+	 * @return true if the matrix is transposed
+	 */
+	public boolean isTransposed() {
+		return transposed;
+	}
+
+	/**
+	 * Set true if the matrix is transposed
+	 *
+	 * @param transposed true if the matrix is transposed
+	 */
+	public void setTransposed(boolean transposed) {
+		this.transposed = transposed;
+	}
+
+	/**
+	 * Return true if the matrix is symmetraical
+	 *
+	 * @return true if the matrix is symmetraical
+	 */
+	public boolean isSymmetrical() {
+		return symmetric;
+	}
+
+	/**
+	 * Set true if the matrix is symmetrical
+	 *
+	 * @param symmetrical true if the matrix is symmetrical
+	 */
+	public void setSymmetrical(boolean symmetrical) {
+		this.symmetric = symmetrical;
+	}
+
+	/**
+	 * Set all missing values to zero.  Since zeros aren't stored, this
+	 * just removes the missing values from the matrix.
+	 */
+	public void setMissingToZero() {
+		compress();
+		int nnz = rowPtr[nRows];
+		for (int pos = 0; pos < nnz; pos++) {
+			if (Double.isNaN(values[pos]))
+				values[pos] = 0.0d;
+		}
+		compact();
+	}
+
+	/**
+	 * Adjust the diagonals
+	 */
+	public void adjustDiagonals() {
+		compress();
+		int n = Math.min(nRows, nColumns);
+		for (int row = 0; row < n; row++ ) {
+			double max = 0.0;
+			for (int pos = rowPtr[row]; pos < rowPtr[row+1]; pos++) {
+				if (values[pos] > max) max = values[pos];
+			}
+			setValue(row, row, max);
+		}
+	}
+
+	/**
+	 * Return the rank order of the columns in a row
+	 *
+	 * @param row the row to rank the columns in
+	 * @return the rank order of the columns
+	 */
+	public double[] getRank(int row) {
+		// Get the masked row
+		double[] rowData = getRow(row);
+		double[] tData = new double[nColumns];
+		int nVals = 0;
+		for (int column = 0; column < nColumns; column++) {
+			if (!Double.isNaN(rowData[column]))
+				tData[nVals++] = rowData[column];
+		}
+		if (nVals == 0)
+			return null;
+
+		// Sort the data
+		Integer index[] = MatrixUtils.indexSort(tData,nVals);
+
+		// Build a rank table
+		double[] rank = new double[nVals];
+		for (int i = 0; i < nVals; i++) rank[index[i]] = i;
+
+		// Fix for equal ranks
+		int i = 0;
+		while (i < nVals) {
+			int m = 0;
+			double value = tData[index[i]];
+			int j = i+1;
+			while (j < nVals && tData[index[j]] == value) j++;
+			m = j - i; // Number of equal ranks found
+			value = rank[index[i]] + (m-1)/2.0;
+			for (j = i; j < i+m; j++) rank[index[j]] = value;
+			i += m;
+		}
+
+		return rank;
+	}
+
+	/**
+	 * Create an index on the matrix.  The index for a sparse matrix
+	 * is always the identity, so this only checks that indexing makes sense.
+	 */
+	public void index() {
+		if (!symmetric) {
+			// Can't index a non-symmetric matrix!
+			logger.warn("clusterMaker2 SparseMatrix: attempt to index an assymetric network");
+		}
+	}
+
+	/**
+	 * Create a copy of the matrix with an alternative index.  Unlike the
+	 * dense implementations, this isn't a shallow copy: an index view
+	 * would defeat the compressed layout, so the rows and columns in the
+	 * index are copied into a new matrix.
+	 */
+	public Matrix submatrix(int[] index) {
+		compress();
+		int n = index.length;
+		int[] newPosition = new int[nColumns];
+		Arrays.fill(newPosition, -1);
+		for (int i = 0; i < n; i++)
+			newPosition[index[i]] = i;
+
+		int[] newRowPtr = new int[n+1];
+		int[] newCols = new int[rowPtr[nRows]];
+		double[] newValues = new double[rowPtr[nRows]];
+		int nnz = 0;
+		for (int i = 0; i < n; i++) {
+			int row = index[i];
+			int start = nnz;
+			for (int pos = rowPtr[row]; pos < rowPtr[row+1]; pos++) {
+				int col = newPosition[colIdx[pos]];
+				if (col < 0) continue;
+				newCols[nnz] = col;
+				newValues[nnz++] = values[pos];
+			}
+			sortRow(newCols, newValues, start, nnz);
+			newRowPtr[i+1] = nnz;
+		}
+
+		SparseMatrix mat = new SparseMatrix(null, n, n, newRowPtr, newCols, newValues);
+		mat.symmetric = symmetric;
+		mat.transposed = transposed;
+		for (int i = 0; i < n; i++) {
+			if (rowLabels != null) mat.rowLabels[i] = rowLabels[index[i]];
+			if (columnLabels != null) mat.columnLabels[i] = columnLabels[index[i]];
+		}
+		return mat;
+	}
+
+	/**
+	 * Return a submatrix
+	 *
+	 * @param row the starting row of the submatrix
+	 * @param col the starting column of the submatrix
+	 * @param rows the number of rows
+	 * @param cols the number of columnss
+	 * @return submatrix
+	 */
+	public Matrix submatrix(int row, int col, int rows, int cols) {
+		compress();
+		int[] newRowPtr = new int[rows+1];
+		int[] newCols = new int[rowPtr[row+rows]-rowPtr[row]];
+		double[] newValues = new double[newCols.length];
+		int nnz = 0;
+		for (int r = 0; r < rows; r++) {
+			for (int pos = rowPtr[row+r]; pos < rowPtr[row+r+1]; pos++) {
+				int c = colIdx[pos];
+				if (c < col || c >= col+cols) continue;
+				newCols[nnz] = c-col;
+				newValues[nnz++] = values[pos];
+			}
+			newRowPtr[r+1] = nnz;
+		}
+
+		SparseMatrix newMatrix = new SparseMatrix(null, rows, cols, newRowPtr, newCols, newValues);
+		for (int r = 0; r < rows; r++)
+			newMatrix.setRowLabel(r, rowLabels[r+row]);
+		for (int c = 0; c < cols; c++)
+			newMatrix.setColumnLabel(c, columnLabels[c+col]);
+
+		if (transposed)
+			newMatrix.setTransposed(transposed);
+		if (symmetric && rows == cols && row == col)
+			newMatrix.setSymmetrical(symmetric);
+		return newMatrix;
+	}
+
+	/**
+	 * Return a copy of the Matrix
+	 *
+	 * @return matrix copy
+	 */
+	public Matrix copy() {
+		return new SparseMatrix(this);
+	}
+
+	/**
+	 * Return a Colt sparse matrix with our data.  Note that this is
+	 * a copy, so changes to the Colt matrix are not reflected here.
+	 *
+	 * @return the Colt version of this matrix
+	 */
+	public DoubleMatrix2D getColtMatrix() {
+		compress();
+		DoubleMatrix2D mat = DoubleFactory2D.sparse.make(nRows, nColumns);
+		for (int row = 0; row < nRows; row++) {
+			for (int pos = rowPtr[row]; pos < rowPtr[row+1]; pos++)
+				mat.setQuick(row, colIdx[pos], values[pos]);
+		}
+		return mat;
+	}
+
+	/**
+	 * Return the number of stored entries
+	 *
+	 * @return the number of stored entries (including explicit zeros)
+	 */
+	public int nnz() {
+		compress();
+		return rowPtr[nRows];
+	}
+
+	/**
+	 * Return the CSR row offsets.  This is the live array, so callers
+	 * must not change it.
+	 *
+	 * @return the row offsets (nRows+1 entries)
+	 */
+	public int[] getRowPointers() {
+		compress();
+		return rowPtr;
+	}
+
+	/**
+	 * Return the CSR column indices.  This is the live array, so callers
+	 * must not change it.
+	 *
+	 * @return the column indices (at least nnz() entries)
+	 */
+	public int[] getColumnIndices() {
+		compress();
+		return colIdx;
+	}
+
+	/**
+	 * Return the CSR values.  This is the live array, so changes
+	 * are reflected in the matrix.  Call compact() after setting
+	 * values to zero to remove them from the matrix.
+	 *
+	 * @return the values (at least nnz() entries)
+	 */
+	public double[] getValues() {
+		compress();
+		return values;
+	}
+
+	/**
+	 * Return the CSC column offsets.
+	 *
+	 * @return the column offsets (nColumns+1 entries)
+	 */
+	public int[] getColumnPointers() {
+		buildColumnIndex();
+		return colPtr;
+	}
+
+	/**
+	 * Return the row of each entry in the CSC index.
+	 *
+	 * @return the row indices in column order
+	 */
+	public int[] getColumnRowIndices() {
+		buildColumnIndex();
+		return colRows;
+	}
+
+	/**
+	 * Return the position in the values array of each entry in the CSC index.
+	 *
+	 * @return the value positions in column order
+	 */
+	public int[] getColumnValuePositions() {
+		buildColumnIndex();
+		return colPos;
+	}
+
+	/**
+	 * Apply a function to all of the non-zero values in the matrix,
+	 * replacing each value with the result.
+	 *
+	 * @param function the function to apply
+	 */
+	public void forEachNonZero(IntIntDoubleFunction function) {
+		compress();
+		for (int row = 0; row < nRows; row++) {
+			for (int pos = rowPtr[row]; pos < rowPtr[row+1]; pos++) {
+				if (values[pos] != 0.0)
+					values[pos] = function.apply(row, colIdx[pos], values[pos]);
+			}
+		}
+	}
+
+	/**
+	 * Replace the data in this matrix with already compressed data.
+	 *
+	 * @param rowPtr the row offsets (nRows+1 entries)
+	 * @param colIdx the column indices, sorted within each row
+	 * @param values the values
+	 */
+	protected void setData(int rows, int columns, int[] rowPtr, int[] colIdx, double[] values) {
+		this.nRows = rows;
+		this.nColumns = columns;
+		this.rowPtr = rowPtr;
+		this.colIdx = colIdx;
+		this.values = values;
+		initPending();
+		invalidateColumnIndex();
+	}
+
+	/**
+	 * Remove any explicit zeros from the compressed arrays.  This changes
+	 * the structure of the matrix, so the column index is rebuilt on the
+	 * next column operation.
+	 */
+	public synchronized void compact() {
+		compress();
+		int oldNnz = rowPtr[nRows];
+		int nnz = 0;
+		int start = 0;
+		for (int row = 0; row < nRows; row++) {
+			int end = rowPtr[row+1];
+			for (int pos = start; pos < end; pos++) {
+				if (values[pos] != 0.0) {
+					colIdx[nnz] = colIdx[pos];
+					values[nnz++] = values[pos];
+				}
+			}
+			start = end;
+			rowPtr[row+1] = nnz;
+		}
+		if (nnz != oldNnz)
+			invalidateColumnIndex();
+	}
+
+	/**
+	 * Debugging routine to print out information about a matrix
+	 *
+	 * @param matrix the matrix we're going to print out information about
+	 */
+	public String printMatrixInfo() {
+		String s = "Sparse Matrix("+nRows+", "+nColumns+")\n";
+		s += " matrix is sparse\n";
+		s += " cardinality is "+ops.cardinality()+"\n";
+		return s;
+	}
+
+	public String printMatrix() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("SparseMatrix("+nRows+", "+nColumns+")\n");
+		sb.append(" matrix is sparse\n");
+		sb.append(" cardinality is "+ops.cardinality()+"\n\t");
+
+		for (int col = 0; col < nColumns; col++) {
+			sb.append(getColumnLabel(col)+"\t");
+		}
+		sb.append("\n");
+		for (int row = 0; row < nRows; row++) {
+			sb.append(getRowLabel(row)+":\t"); //node.getIdentifier()
+			for (int col = 0; col < nColumns; col++) {
+				double value = doubleValue(row, col);
+				if (value < 0.001)
+					sb.append(""+scFormat.format(value)+"\t");
+				else
+					sb.append(""+format.format(value)+"\t");
+			}
+			sb.append("\n");
+		}
+		return sb.toString();
+	}
+
+	public void writeMatrix(String fileName) {
+		String tmpDir = System.getProperty("java.io.tmpdir");
+		String filePath = tmpDir + File.separator + fileName;
+		try{
+			File file = new File(filePath);
+			if(!file.exists()) {
+				file.createNewFile();
+			}
+			PrintWriter writer = new PrintWriter(filePath, "UTF-8");
+			writer.write(printMatrix());
+			writer.close();
+		}catch(IOException e){
+			e.printStackTrace(System.out);
+		}
+	}
+
+	protected Matrix copyDataFromMatrix(DoubleMatrix2D matrix2D) {
+		SparseMatrix mat = new SparseMatrix();
+		mat.initialize(matrix2D.rows(), matrix2D.columns(), matrix2D.toArray());
+		mat.symmetric = true;
+		String[] labels;
+		if (this.transposed)
+			labels = rowLabels;
+		else
+			labels = columnLabels;
+		if (labels != null) {
+			mat.rowLabels = Arrays.copyOf(labels, labels.length);
+			mat.columnLabels = Arrays.copyOf(labels, labels.length);
+		}
+		return mat;
+	}
+
+	/**
+	 * Update the minimum and maximum values.  Only the stored values
+	 * are considered, since an empty cell in a sparse matrix means there
+	 * is no value there.
+	 */
+	public void updateMinMax() {
+		compress();
+		maxValue = Double.MIN_VALUE;
+		minValue = Double.MAX_VALUE;
+		int nnz = rowPtr[nRows];
+		for (int pos = 0; pos < nnz; pos++) {
+			double d = values[pos];
+			if (Double.isNaN(d)) continue;
+			if (d > maxValue) maxValue = d;
+			if (d < minValue) minValue = d;
+		}
+	}
+
+	/**
+	 * Merge any pending entries into the compressed arrays.  Explicit zeros
+	 * are dropped along the way.
+	 */
+	protected synchronized void compress() {
+		if (!dirty)
+			return;
+
+		int nnz = 0;
+		for (int row = 0; row < nRows; row++)
+			nnz += rowPtr[row+1]-rowPtr[row]+pendingCount[row];
+
+		int[] newRowPtr = new int[nRows+1];
+		int[] newCols = new int[nnz];
+		double[] newValues = new double[nnz];
+		int pos = 0;
+		for (int row = 0; row < nRows; row++) {
+			int p1 = rowPtr[row];
+			int end1 = rowPtr[row+1];
+			int p2 = 0;
+			int end2 = pendingCount[row];
+			int[] pCols = pendingCols[row];
+			double[] pValues = pendingValues[row];
+			while (p1 < end1 || p2 < end2) {
+				int col;
+				double value;
+				if (p2 >= end2 || (p1 < end1 && colIdx[p1] < pCols[p2])) {
+					col = colIdx[p1];
+					value = values[p1++];
+				} else {
+					col = pCols[p2];
+					value = pValues[p2++];
+				}
+				if (value == 0.0) continue;
+				newCols[pos] = col;
+				newValues[pos++] = value;
+			}
+			newRowPtr[row+1] = pos;
+		}
+
+		rowPtr = newRowPtr;
+		colIdx = newCols;
+		values = newValues;
+		initPending();
+		invalidateColumnIndex();
+	}
+
+	/**
+	 * Build the CSC index if we don't already have one
+	 */
+	protected synchronized void buildColumnIndex() {
+		compress();
+		if (colPtr != null)
+			return;
+
+		int nnz = rowPtr[nRows];
+		int[] ptr = new int[nColumns+1];
+		for (int pos = 0; pos < nnz; pos++)
+			ptr[colIdx[pos]+1]++;
+		for (int col = 0; col < nColumns; col++)
+			ptr[col+1] += ptr[col];
+
+		int[] next = Arrays.copyOf(ptr, nColumns);
+		int[] rows = new int[nnz];
+		int[] positions = new int[nnz];
+		for (int row = 0; row < nRows; row++) {
+			for (int pos = rowPtr[row]; pos < rowPtr[row+1]; pos++) {
+				int q = next[colIdx[pos]]++;
+				rows[q] = row;
+				positions[q] = pos;
+			}
+		}
+		colRows = rows;
+		colPos = positions;
+		colPtr = ptr;
+	}
+
+	protected void invalidateColumnIndex() {
+		colPtr = null;
+		colRows = null;
+		colPos = null;
+	}
+
+	protected void copyAttributes(SparseMatrix mat) {
+		transposed = mat.transposed;
+		symmetric = mat.symmetric;
+		if (mat.rowLabels != null && mat.rowLabels.length == nRows)
+			rowLabels = Arrays.copyOf(mat.rowLabels, mat.rowLabels.length);
+		else
+			rowLabels = new String[nRows];
+		if (mat.columnLabels != null && mat.columnLabels.length == nColumns)
+			columnLabels = Arrays.copyOf(mat.columnLabels, mat.columnLabels.length);
+		else
+			columnLabels = new String[nColumns];
+	}
+
+	// Find the position of (row, column) in the CSR arrays, or -1
+	private int find(int row, int column) {
+		int start = rowPtr[row];
+		int end = rowPtr[row+1];
+		if (start == end)
+			return -1;
+		int pos = Arrays.binarySearch(colIdx, start, end, column);
+		return pos >= 0 ? pos : -1;
+	}
+
+	private synchronized void setPending(int row, int column, double value) {
+		int count = pendingCount[row];
+		int[] cols = pendingCols[row];
+		int p;
+		if (count == 0 || cols[count-1] < column)
+			p = -(count+1);
+		else
+			p = Arrays.binarySearch(cols, 0, count, column);
+
+		if (p >= 0) {
+			pendingValues[row][p] = value;
+			return;
+		}
+
+		// Don't bother remembering a zero we don't have
+		if (value == 0.0)
+			return;
+
+		p = -(p+1);
+		if (cols == null) {
+			cols = new int[4];
+			pendingCols[row] = cols;
+			pendingValues[row] = new double[4];
+		} else if (count == cols.length) {
+			cols = Arrays.copyOf(cols, count*2);
+			pendingCols[row] = cols;
+			pendingValues[row] = Arrays.copyOf(pendingValues[row], count*2);
+		}
+		double[] vals = pendingValues[row];
+		if (p < count) {
+			System.arraycopy(cols, p, cols, p+1, count-p);
+			System.arraycopy(vals, p, vals, p+1, count-p);
+		}
+		cols[p] = column;
+		vals[p] = value;
+		pendingCount[row] = count+1;
+		dirty = true;
+	}
+
+	private void initPending() {
+		pendingCols = new int[nRows][];
+		pendingValues = new double[nRows][];
+		pendingCount = new int[nRows];
+		dirty = false;
+	}
+
+	// Fill every cell in the matrix (used for the non-zero initial values)
+	private void fill(CellValue cellValue) {
+		int nnz = nRows*nColumns;
+		rowPtr = new int[nRows+1];
+		colIdx = new int[nnz];
+		values = new double[nnz];
+		int pos = 0;
+		for (int row = 0; row < nRows; row++) {
+			for (int col = 0; col < nColumns; col++) {
+				colIdx[pos] = col;
+				values[pos++] = cellValue.value(row, col);
+			}
+			rowPtr[row+1] = pos;
+		}
+		invalidateColumnIndex();
+	}
+
+	// Sort a range of a row by column.  Short ranges use an insertion sort,
+	// longer ones sort the (column, position) pairs packed into a long[]
+	static void sortRow(int[] cols, double[] vals, int start, int end) {
+		int n = end-start;
+		if (n <= 16) {
+			for (int i = start+1; i < end; i++) {
+				int c = cols[i];
+				double v = vals[i];
+				int j = i-1;
+				while (j >= start && cols[j] > c) {
+					cols[j+1] = cols[j];
+					vals[j+1] = vals[j];
+					j--;
+				}
+				cols[j+1] = c;
+				vals[j+1] = v;
+			}
+			return;
+		}
+
+		long[] keys = new long[n];
+		for (int i = 0; i < n; i++)
+			keys[i] = ((long)cols[start+i] << 32) | i;
+		Arrays.sort(keys);
+		double[] sorted = new double[n];
+		for (int i = 0; i < n; i++) {
+			int from = (int)(keys[i] & 0xffffffffL);
+			sorted[i] = vals[start+from];
+			cols[start+i] = (int)(keys[i] >>> 32);
+		}
+		System.arraycopy(sorted, 0, vals, start, n);
+	}
+
+	private interface CellValue {
+		double value(int row, int col);
+	}
+}
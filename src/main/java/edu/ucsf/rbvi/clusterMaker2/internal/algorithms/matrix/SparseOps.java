@@ -0,0 +1,565 @@
+package edu.ucsf.rbvi.clusterMaker2.internal.algorithms.matrix;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+import org.cytoscape.application.CyUserLog;
+import org.apache.log4j.Logger;
+
+import cern.colt.matrix.tdouble.DoubleFactory2D;
+import cern.colt.matrix.tdouble.DoubleMatrix2D;
+import cern.colt.matrix.tdouble.algo.decomposition.DenseDoubleEigenvalueDecomposition;
+import cern.colt.matrix.tdouble.algo.decomposition.DenseDoubleSingularValueDecomposition;
+import cern.colt.matrix.tdouble.algo.DenseDoubleAlgebra;
+import cern.colt.matrix.tdouble.algo.DoubleStatistic;
+
+import edu.ucsf.rbvi.clusterMaker2.internal.api.Matrix;
+import edu.ucsf.rbvi.clusterMaker2.internal.api.MatrixOps;
+
+/**
+ * MatrixOps for the compressed sparse row matrix.  All of the element-wise
+ * operations work directly on the primitive CSR arrays.  Like the Colt
+ * operations, the scalar operations only touch the non-zero values.  The
+ * dense linear algebra (inversion, eigen and singular value decompositions)
+ * is handed off to Colt.
+ */
+public class SparseOps implements MatrixOps {
+	private static double EPSILON=Math.sqrt(Math.pow(2, -52));//get tolerance to reduce eigens
+	private DenseDoubleEigenvalueDecomposition decomp = null;
+	private DenseDoubleSingularValueDecomposition svdDecomp = null;
+	final Logger logger = Logger.getLogger(CyUserLog.NAME);
+	private final SparseMatrix matrix;
+
+	public SparseOps(SparseMatrix matrix) {
+		this.matrix = matrix;
+	}
+
+	public void threshold() {
+		threshold(EPSILON);
+	}
+
+	public void threshold(double thresh) {
+		double[] values = matrix.getValues();
+		int nnz = matrix.nnz();
+		for (int pos = 0; pos < nnz; pos++) {
+			if (values[pos] <= thresh)
+				values[pos] = 0.0;
+		}
+		matrix.compact();
+	}
+
+	/**
+	 * Create a new matrix that is the transpose of this matrix.  The CSC
+	 * index of this matrix is the CSR layout of the transpose.
+	 */
+	public Matrix transpose() {
+		int[] colPtr = matrix.getColumnPointers();
+		int[] colRows = matrix.getColumnRowIndices();
+		int[] colPos = matrix.getColumnValuePositions();
+		double[] values = matrix.getValues();
+		int nnz = colPtr[matrix.nColumns()];
+
+		double[] newValues = new double[nnz];
+		for (int q = 0; q < nnz; q++)
+			newValues[q] = values[colPos[q]];
+
+		SparseMatrix result = new SparseMatrix(null, matrix.nColumns(), matrix.nRows(),
+		                                       Arrays.copyOf(colPtr, colPtr.length),
+		                                       Arrays.copyOf(colRows, nnz), newValues);
+		result.symmetric = matrix.symmetric;
+		result.transposed = true;
+		if (matrix.rowLabels != null)
+			result.columnLabels = Arrays.copyOf(matrix.rowLabels, matrix.rowLabels.length);
+		if (matrix.columnLabels != null)
+			result.rowLabels = Arrays.copyOf(matrix.columnLabels, matrix.columnLabels.length);
+		return result;
+	}
+
+	/**
+	 * Invert the matrix in place
+	 */
+	public void invertMatrix() {
+		if (!matrix.isSymmetrical()) {
+			logger.warn("clusterMaker2 SparseMatrix: attempt to invert an assymetric network");
+		}
+
+		DenseDoubleAlgebra dda = new DenseDoubleAlgebra();
+		DoubleMatrix2D inverse = dda.inverse(getDenseData());
+		replaceData(inverse);
+	}
+
+	/**
+	 * Normalize the matrix in place.  Only the stored values
+	 * are bounded, since the empty cells have no value.
+	 */
+	public void normalize() {
+		double minValue = matrix.getMinValue();
+		double span = matrix.getMaxValue() - minValue;
+		double[] values = matrix.getValues();
+		int nnz = matrix.nnz();
+		for (int pos = 0; pos < nnz; pos++) {
+			double d = values[pos];
+			if (Double.isNaN(d))
+				continue;
+			values[pos] = (d-minValue)/span;
+		}
+		matrix.compact();
+		matrix.updateMinMax();
+	}
+
+	public void normalizeMatrix() {
+		double sum = sum();
+		double[] values = matrix.getValues();
+		int nnz = matrix.nnz();
+		for (int pos = 0; pos < nnz; pos++)
+			values[pos] /= sum;
+		matrix.updateMinMax();
+	}
+
+	public double normalizeRow(int row) {
+		double sum = rowSum(row);
+		int[] rowPtr = matrix.getRowPointers();
+		double[] values = matrix.getValues();
+		for (int pos = rowPtr[row]; pos < rowPtr[row+1]; pos++)
+			values[pos] /= sum;
+		return sum;
+	}
+
+	public double normalizeColumn(int column) {
+		double sum = columnSum(column);
+		divideScalarColumn(column, sum);
+		return sum;
+	}
+
+	public void standardizeRow(int row) {
+		double mean = rowMean(row);
+		double variance = rowVariance(row, mean);
+		double stdev = Math.sqrt(variance);
+		double[] rowData = matrix.getRow(row);
+		for (int column = 0; column < matrix.nColumns(); column++) {
+			matrix.setValue(row, column, (rowData[column]-mean)/stdev);
+		}
+	}
+
+	public void standardizeColumn(int column) {
+		double mean = columnMean(column);
+		double variance = columnVariance(column, mean);
+		double stdev = Math.sqrt(variance);
+		double[] columnData = matrix.getColumn(column);
+		for (int row = 0; row < matrix.nRows(); row++) {
+			matrix.setValue(row, column, (columnData[row]-mean)/stdev);
+		}
+	}
+
+	public void centralizeColumns() {
+		double[][] data = matrix.toArray();
+		int nRows = matrix.nRows();
+		for (int col = 0; col < matrix.nColumns(); col++) {
+			double mean = 0.0;
+			for (int row = 0; row < nRows; row++) {
+				if (!Double.isNaN(data[row][col]))
+					mean += data[row][col];
+			}
+			mean /= nRows;
+			for (int row = 0; row < nRows; row++) {
+				if (!Double.isNaN(data[row][col]))
+					data[row][col] -= mean;
+				else
+					data[row][col] = 0.0d;
+			}
+		}
+		replaceData(data);
+	}
+
+	public void centralizeRows() {
+		double[][] data = matrix.toArray();
+		int nColumns = matrix.nColumns();
+		for (int row = 0; row < matrix.nRows(); row++) {
+			double mean = 0.0;
+			for (int col = 0; col < nColumns; col++) {
+				if (!Double.isNaN(data[row][col]))
+					mean += data[row][col];
+			}
+			mean /= nColumns;
+			for (int col = 0; col < nColumns; col++) {
+				if (!Double.isNaN(data[row][col]))
+					data[row][col] -= mean;
+				else
+					data[row][col] = 0.0d;
+			}
+		}
+		replaceData(data);
+	}
+
+	public double sum() {
+		double[] values = matrix.getValues();
+		int nnz = matrix.nnz();
+		double sum = 0.0;
+		for (int pos = 0; pos < nnz; pos++) {
+			if (!Double.isNaN(values[pos]))
+				sum += values[pos];
+		}
+		return sum;
+	}
+
+	public double columnSum(int column) {
+		int[] colPtr = matrix.getColumnPointers();
+		int[] colPos = matrix.getColumnValuePositions();
+		double[] values = matrix.getValues();
+		double sum = 0.0;
+		for (int q = colPtr[column]; q < colPtr[column+1]; q++) {
+			double v = values[colPos[q]];
+			if (!Double.isNaN(v))
+				sum += v;
+		}
+		return sum;
+	}
+
+	public double columnSum2(int column) {
+		int[] colPtr = matrix.getColumnPointers();
+		int[] colPos = matrix.getColumnValuePositions();
+		double[] values = matrix.getValues();
+		double sum = 0.0;
+		for (int q = colPtr[column]; q < colPtr[column+1]; q++) {
+			double v = values[colPos[q]];
+			if (!Double.isNaN(v))
+				sum += v*v;
+		}
+		return sum;
+	}
+
+	public double rowSum(int row) {
+		int[] rowPtr = matrix.getRowPointers();
+		double[] values = matrix.getValues();
+		double sum = 0.0;
+		for (int pos = rowPtr[row]; pos < rowPtr[row+1]; pos++) {
+			if (!Double.isNaN(values[pos]))
+				sum += values[pos];
+		}
+		return sum;
+	}
+
+	public double rowSum2(int row) {
+		int[] rowPtr = matrix.getRowPointers();
+		double[] values = matrix.getValues();
+		double sum = 0.0;
+		for (int pos = rowPtr[row]; pos < rowPtr[row+1]; pos++) {
+			if (!Double.isNaN(values[pos]))
+				sum += values[pos]*values[pos];
+		}
+		return sum;
+	}
+
+	public double columnMean(int column) {
+		return columnSum(column)/matrix.nRows();
+	}
+
+	public double rowMean(int row) {
+		return rowSum(row)/matrix.nColumns();
+	}
+
+	public double columnVariance(int column) {
+		double mean = columnMean(column);
+		return columnVariance(column, mean);
+	}
+
+	// The empty cells are zeros, so each one adds mean^2 to the variance
+	public double columnVariance(int column, double mean) {
+		int[] colPtr = matrix.getColumnPointers();
+		int[] colPos = matrix.getColumnValuePositions();
+		double[] values = matrix.getValues();
+		int stored = colPtr[column+1]-colPtr[column];
+		double variance = (matrix.nRows()-stored)*mean*mean;
+		for (int q = colPtr[column]; q < colPtr[column+1]; q++) {
+			double v = values[colPos[q]];
+			if (!Double.isNaN(v))
+				variance += (v-mean)*(v-mean);
+		}
+		return variance/matrix.nRows();
+	}
+
+	public double rowVariance(int row) {
+		double mean = rowMean(row);
+		return rowVariance(row, mean);
+	}
+
+	public double rowVariance(int row, double mean) {
+		int[] rowPtr = matrix.getRowPointers();
+		double[] values = matrix.getValues();
+		int stored = rowPtr[row+1]-rowPtr[row];
+		double variance = (matrix.nColumns()-stored)*mean*mean;
+		for (int pos = rowPtr[row]; pos < rowPtr[row+1]; pos++) {
+			double v = values[pos];
+			if (!Double.isNaN(v))
+				variance += (v-mean)*(v-mean);
+		}
+		return variance/matrix.nColumns();
+	}
+
+	public int cardinality() {
+		double[] values = matrix.getValues();
+		int nnz = matrix.nnz();
+		int cardinality = 0;
+		for (int pos = 0; pos < nnz; pos++) {
+			if (values[pos] != 0.0) cardinality++;
+		}
+		return cardinality;
+	}
+
+	/**
+	 * Multiply two matrices.  Sparse products use Gustavson's row-by-row
+	 * algorithm and fairly dense ones use the blocked dense kernel.
+	 *
+	 * @param matrix2 the matrix to multiply with our matrix
+	 * @return the multiplied matrix
+	 */
+	public Matrix multiplyMatrix(Matrix matrix2) {
+		SparseMatrix B;
+		if (matrix2 instanceof SparseMatrix)
+			B = (SparseMatrix)matrix2;
+		else
+			B = new SparseMatrix(matrix2);
+
+		final int m = matrix.nRows();
+		final int p = B.nColumns();
+
+		double size = (double)m*(double)matrix.nColumns();
+		if (size > 0 && matrix.nnz()/size > ParallelMultiply.DENSE_CUTOFF) {
+			SparseMatrix result = new SparseMatrix();
+			result.initialize(m, p, ParallelMultiply.multiply(matrix.toArray(), B.toArray(), p));
+			copyLabels(result, B);
+			return result;
+		}
+
+		final int[][] cCols = new int[m][];
+		final double[][] cValues = new double[m][];
+		ParallelMultiply.multiply(m, p, matrix.getRowPointers(), matrix.getColumnIndices(), matrix.getValues(),
+		                          B.getRowPointers(), B.getColumnIndices(), B.getValues(), cCols, cValues);
+
+		int[] rowPtr = new int[m+1];
+		for (int row = 0; row < m; row++)
+			rowPtr[row+1] = rowPtr[row] + cCols[row].length;
+		int nnz = rowPtr[m];
+		int[] colIdx = new int[nnz];
+		double[] values = new double[nnz];
+		IntStream.range(0, m).parallel()
+			.forEach(row -> {
+				System.arraycopy(cCols[row], 0, colIdx, rowPtr[row], cCols[row].length);
+				System.arraycopy(cValues[row], 0, values, rowPtr[row], cValues[row].length);
+			});
+
+		SparseMatrix result = new SparseMatrix(null, m, p, rowPtr, colIdx, values);
+		copyLabels(result, B);
+		return result;
+	}
+
+	/**
+	 * add a value to all non-zero cells in the matrix
+	 *
+	 * @param value to add to each cell
+	 */
+	public void addScalar(double value) {
+		double[] values = matrix.getValues();
+		int nnz = matrix.nnz();
+		for (int pos = 0; pos < nnz; pos++) {
+			if (values[pos] != 0.0)
+				values[pos] += value;
+		}
+	}
+
+	/**
+	 * add two matrices together
+	 *
+	 * @param addend the matrix to add to our matrix
+	 */
+	public void addElement(Matrix addend) {
+		combine(addend, 1.0);
+	}
+
+	/**
+	 * subtract a value from all non-zero cells in the matrix
+	 *
+	 * @param value to subtract from each cell
+	 */
+	public void subtractScalar(double value) {
+		addScalar(-value);
+	}
+
+	/**
+	 * subtract a matrix from this matrix
+	 *
+	 * @param subtrahend the matrix to subtract from our matrix
+	 */
+	public void subtractElement(Matrix subtrahend) {
+		combine(subtrahend, -1.0);
+	}
+
+	/**
+	 * multiple all cells in the matrix by a value
+	 *
+	 * @param value to multiply each cell by
+	 */
+	public void multiplyScalar(double value) {
+		double[] values = matrix.getValues();
+		int nnz = matrix.nnz();
+		for (int pos = 0; pos < nnz; pos++)
+			values[pos] *= value;
+	}
+
+	/**
+	 * divide all cells in the matrix by a value
+	 *
+	 * @param value to divide each cell by
+	 */
+	public void divideScalar(double value) {
+		double[] values = matrix.getValues();
+		int nnz = matrix.nnz();
+		for (int pos = 0; pos < nnz; pos++)
+			values[pos] /= value;
+	}
+
+	/**
+	 * divide all cells in a column by a value.  This is used
+	 * primarily for normalization when the current sum
+	 * of the column is already known.
+	 * Note: does not update matrix min/max values.
+	 *
+	 * @param column the column we're dividing
+	 * @param value to divide each cell in the column by
+	 */
+	public void divideScalarColumn(int column, double value) {
+		int[] colPtr = matrix.getColumnPointers();
+		int[] colPos = matrix.getColumnValuePositions();
+		double[] values = matrix.getValues();
+		for (int q = colPtr[column]; q < colPtr[column+1]; q++)
+			values[colPos[q]] /= value;
+	}
+
+	/**
+	 * raise all non-zero cells in the matrix by a power
+	 *
+	 * @param value power to raise to each cell
+	 */
+	public void powScalar(double value) {
+		double[] values = matrix.getValues();
+		int nnz = matrix.nnz();
+		for (int pos = 0; pos < nnz; pos++) {
+			if (values[pos] != 0.0)
+				values[pos] = Math.pow(values[pos], value);
+		}
+	}
+
+	public Matrix covariance() {
+		DoubleMatrix2D matrix2D = DoubleStatistic.covariance(getDenseData());
+		return matrix.copyDataFromMatrix(matrix2D);
+	}
+
+	public Matrix correlation() {
+		DoubleMatrix2D matrix2D = DoubleStatistic.covariance(getDenseData());
+		matrix2D = DoubleStatistic.correlation(matrix2D);
+		return matrix.copyDataFromMatrix(matrix2D);
+	}
+
+	public void eigenInit(){
+		decomp = null;
+	}
+
+	public double[] eigenValues(boolean nonZero){
+		if (decomp == null)
+			decomp = new DenseDoubleEigenvalueDecomposition(getDenseData());
+
+		double[] allValues = decomp.getRealEigenvalues().toArray();
+		if (!nonZero)
+			return allValues;
+
+		return Arrays.stream(allValues).filter(d -> Math.abs(d) > EPSILON).toArray();
+	}
+
+	public double[][] eigenVectors() {
+		if (decomp == null)
+			decomp = new DenseDoubleEigenvalueDecomposition(getDenseData());
+
+		return decomp.getV().toArray();
+	}
+
+	public void svdInit(){
+		svdDecomp = null;
+	}
+
+	public Matrix svdU() {
+		if (svdDecomp == null)
+			svdDecomp = new DenseDoubleSingularValueDecomposition(getDenseData(), true, false);
+		return wrap(svdDecomp.getU());
+	}
+
+	public Matrix svdS() {
+		if (svdDecomp == null)
+			svdDecomp = new DenseDoubleSingularValueDecomposition(getDenseData(), true, false);
+		return wrap(svdDecomp.getS());
+	}
+
+	public Matrix svdV() {
+		if (svdDecomp == null)
+			svdDecomp = new DenseDoubleSingularValueDecomposition(getDenseData(), true, false);
+		return wrap(svdDecomp.getV());
+	}
+
+	// Add (sign = 1) or subtract (sign = -1) another matrix
+	private void combine(Matrix other, double sign) {
+		if (other instanceof SparseMatrix) {
+			SparseMatrix B = (SparseMatrix)other;
+			int[] bRowPtr = B.getRowPointers();
+			int[] bCols = B.getColumnIndices();
+			double[] bValues = B.getValues();
+			for (int row = 0; row < B.nRows(); row++) {
+				for (int bp = bRowPtr[row]; bp < bRowPtr[row+1]; bp++) {
+					double v = bValues[bp];
+					if (Double.isNaN(v) || v == 0.0) continue;
+					int col = bCols[bp];
+					matrix.setValue(row, col, matrix.doubleValue(row, col)+sign*v);
+				}
+			}
+		} else {
+			for (int row = 0; row < other.nRows(); row++) {
+				for (int col = 0; col < other.nColumns(); col++) {
+					double v = other.doubleValue(row, col);
+					if (Double.isNaN(v) || v == 0.0) continue;
+					matrix.setValue(row, col, matrix.doubleValue(row, col)+sign*v);
+				}
+			}
+		}
+	}
+
+	private void copyLabels(SparseMatrix result, SparseMatrix B) {
+		if (matrix.rowLabels != null)
+			result.rowLabels = Arrays.copyOf(matrix.rowLabels, result.nRows());
+		if (B.columnLabels != null)
+			result.columnLabels = Arrays.copyOf(B.columnLabels, result.nColumns());
+	}
+
+	private DoubleMatrix2D getDenseData() {
+		return DoubleFactory2D.dense.make(matrix.toArray());
+	}
+
+	private void replaceData(DoubleMatrix2D data) {
+		replaceData(data.toArray());
+	}
+
+	private void replaceData(double[][] data) {
+		boolean symmetric = matrix.symmetric;
+		boolean transposed = matrix.transposed;
+		String[] rowLabels = matrix.rowLabels;
+		String[] columnLabels = matrix.columnLabels;
+		matrix.initialize(data.length, data.length == 0 ? 0 : data[0].length, data);
+		matrix.symmetric = symmetric;
+		matrix.transposed = transposed;
+		matrix.rowLabels = rowLabels;
+		matrix.columnLabels = columnLabels;
+	}
+
+	private Matrix wrap(DoubleMatrix2D mat) {
+		SparseMatrix result = new SparseMatrix();
+		result.initialize(mat.rows(), mat.columns(), mat.toArray());
+		return result;
+	}
+}
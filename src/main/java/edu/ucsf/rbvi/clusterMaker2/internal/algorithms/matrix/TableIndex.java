@@ -0,0 +1,127 @@
+package edu.ucsf.rbvi.clusterMaker2.internal.algorithms.matrix;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.cytoscape.model.CyColumn;
+import org.cytoscape.model.CyRow;
+import org.cytoscape.model.CyTable;
+
+/**
+ * The rows of a CyTable, in the order of its primary keys, so that whole
+ * columns can be read into arrays indexed by row.  The rows are looked up
+ * once, and the primary keys are also kept sorted so that the row for a
+ * SUID can be found with a binary search.
+ */
+public class TableIndex {
+	private final CyTable table;
+	private final List<Long> keys;
+	private final SuidIndex index;
+	private List<CyRow> rows = null;
+
+	public TableIndex(CyTable table) {
+		this.table = table;
+		this.keys = table.getPrimaryKey().getValues(Long.class);
+
+		long[] suids = new long[keys.size()];
+		for (int row = 0; row < suids.length; row++)
+			suids[row] = keys.get(row);
+		index = new SuidIndex(suids);
+	}
+
+	/**
+	 * Return the row for a SUID
+	 *
+	 * @param suid the SUID to look for
+	 * @return the row, or -1 if the table doesn't have the SUID
+	 */
+	public int indexOf(long suid) {
+		return index.indexOf(suid);
+	}
+
+	/**
+	 * Return the values of a column in the order of the rows.  The values
+	 * are read through the row for each key: CyColumn.getValues doesn't
+	 * promise to return them in the order of the primary keys, and a column
+	 * shared with other networks has values for their rows as well.
+	 *
+	 * @param columnName the column to read
+	 * @param type the type of the values
+	 * @return the values, or null if there's no such column
+	 */
+	public <T> List<T> getValues(String columnName, Class<T> type) {
+		CyColumn column = table.getColumn(columnName);
+		if (column == null)
+			return null;
+		List<CyRow> tableRows = getRows();
+		List<T> values = new ArrayList<T>(tableRows.size());
+		for (CyRow row: tableRows)
+			values.add(row.get(columnName, type));
+		return values;
+	}
+
+	// The row for each key, looked up the first time a column is read
+	private List<CyRow> getRows() {
+		if (rows == null) {
+			List<CyRow> tableRows = new ArrayList<CyRow>(keys.size());
+			for (Long key: keys)
+				tableRows.add(table.getRow(key));
+			rows = tableRows;
+		}
+		return rows;
+	}
+
+	/**
+	 * Return the values of a numeric column in the order of the rows, with
+	 * NaN for the missing values
+	 *
+	 * @param columnName the column to read
+	 * @return the values, or null if there's no such column or it isn't numeric
+	 */
+	public double[] getNumericValues(String columnName) {
+		CyColumn column = table.getColumn(columnName);
+		if (column == null)
+			return null;
+		Class<?> type = column.getType();
+		if (type != Integer.class && type != Long.class && type != Float.class && type != Double.class)
+			return null; // At some point, handle lists?
+
+		List<?> columnValues = getValues(columnName, type);
+		double[] values = new double[columnValues.size()];
+		for (int row = 0; row < values.length; row++) {
+			Object value = columnValues.get(row);
+			values[row] = value == null ? Double.NaN : ((Number)value).doubleValue();
+		}
+		return values;
+	}
+
+	/**
+	 * Finds the position of a SUID in an array of SUIDs, using a sorted
+	 * copy of the array rather than a map of boxed Longs.
+	 */
+	public static class SuidIndex {
+		private final long[] sorted;
+		// The position in the original array of each of the sorted SUIDs
+		private final int[] positions;
+
+		public SuidIndex(long[] suids) {
+			sorted = Arrays.copyOf(suids, suids.length);
+			Arrays.sort(sorted);
+			positions = new int[suids.length];
+			for (int i = 0; i < suids.length; i++)
+				positions[Arrays.binarySearch(sorted, suids[i])] = i;
+		}
+
+		/**
+		 * Return the position of a SUID
+		 *
+		 * @param suid the SUID to look for
+		 * @return the position, or -1 if the SUID isn't in the array
+		 */
+		public int indexOf(long suid) {
+			int position = Arrays.binarySearch(sorted, suid);
+			return position < 0 ? -1 : positions[position];
+		}
+	}
+}
@@ -0,0 +1,760 @@
+package edu.ucsf.rbvi.clusterMaker2.internal.algorithms.matrix;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import org.cytoscape.application.CyUserLog;
+import org.apache.log4j.Logger;
+
+import edu.ucsf.rbvi.clusterMaker2.internal.api.DistanceMetric;
+import edu.ucsf.rbvi.clusterMaker2.internal.api.DistanceProgress;
+import edu.ucsf.rbvi.clusterMaker2.internal.api.Matrix;
+import edu.ucsf.rbvi.clusterMaker2.internal.api.MatrixOps;
+import edu.ucsf.rbvi.clusterMaker2.internal.api.RowView;
+
+import cern.colt.matrix.tdouble.DoubleFactory2D;
+import cern.colt.matrix.tdouble.DoubleMatrix2D;
+
+/**
+ * A symmetric square matrix that only stores the upper triangle (including
+ * the diagonal), packed row by row into a single array.  This is what
+ * getDistanceMatrix returns: it uses half of the memory of a full matrix and
+ * each distance only needs to be calculated once.
+ *
+ * Setting (row, column) also sets (column, row).  Operations that would make
+ * the matrix assymetric (normalizing a single row, for example) first expand
+ * it into a full square matrix, which takes twice the memory.
+ */
+public class TriangularMatrix implements Matrix {
+	protected double[] data;
+	protected int[] rowStart;
+	protected int[] index;
+	protected int size;
+	protected String[] rowLabels;
+	protected String[] columnLabels;
+	protected double maxValue = Double.MIN_VALUE;
+	protected double minValue = Double.MAX_VALUE;
+	protected boolean transposed = false;
+	protected boolean condensed = true;
+	final Logger logger = Logger.getLogger(CyUserLog.NAME);
+	public final TriangularOps ops;
+
+	public TriangularMatrix() {
+		ops = new TriangularOps(this);
+	}
+
+	/**
+	 * Create a matrix with all of the values initialized to 0.
+	 *
+	 * @param size the number of rows and columns
+	 */
+	public TriangularMatrix(int size) {
+		this();
+		allocate(size);
+	}
+
+	public TriangularMatrix(int size, double initialValue) {
+		this(size);
+		if (initialValue != 0.0)
+			Arrays.fill(data, initialValue);
+	}
+
+	public TriangularMatrix(TriangularMatrix mat) {
+		this();
+		size = mat.size;
+		data = Arrays.copyOf(mat.data, mat.data.length);
+		rowStart = mat.rowStart;
+		transposed = mat.transposed;
+		condensed = mat.condensed;
+		minValue = mat.minValue;
+		maxValue = mat.maxValue;
+		if (mat.index != null)
+			index = Arrays.copyOf(mat.index, mat.index.length);
+		if (mat.rowLabels != null)
+			rowLabels = Arrays.copyOf(mat.rowLabels, mat.rowLabels.length);
+		if (mat.columnLabels != null)
+			columnLabels = Arrays.copyOf(mat.columnLabels, mat.columnLabels.length);
+	}
+
+	/**
+	 * Return true if a triangular matrix of this size won't fit in
+	 * a single array, or would use more than the fraction of the heap
+	 * we allow before memory-mapping.
+	 *
+	 * @param size the number of rows and columns
+	 * @return true if the matrix should be memory-mapped instead
+	 */
+	public static boolean isTooLarge(int size) {
+		long length = (long)size*(size+1)/2;
+		if (length > Integer.MAX_VALUE-8)
+			return true;
+		return length*8.0 > Runtime.getRuntime().maxMemory()*MappedMatrix.HEAP_FRACTION;
+	}
+
+	/**
+	 * Calculate the distances between all of the rows of a matrix.  The
+	 * upper triangle is split into square tiles of rows that are calculated in
+	 * parallel, and each distance is only calculated once.  Correlation and
+	 * Euclidean distances on complete data go through {@link GramDistance}.
+	 *
+	 * @param data the matrix with the data
+	 * @param metric the metric to use to calculate the distances
+	 * @return the distance matrix
+	 */
+	public static TriangularMatrix distanceMatrix(Matrix data, DistanceMetric metric) {
+		return distanceMatrix(data, metric, null);
+	}
+
+	/**
+	 * Calculate the distances between all of the rows of a matrix, reporting
+	 * progress and stopping early if the task is cancelled.
+	 *
+	 * @param data the matrix with the data
+	 * @param metric the metric to use to calculate the distances
+	 * @param progress the (possibly null) progress to report to
+	 * @return the distance matrix, or null if the task was cancelled
+	 */
+	public static TriangularMatrix distanceMatrix(Matrix data, DistanceMetric metric, DistanceProgress progress) {
+		int nRows = data.nRows();
+		TriangularMatrix mat = new TriangularMatrix(nRows);
+		String[] labels = data.getRowLabels();
+		if (labels != null) {
+			mat.rowLabels = Arrays.copyOf(labels, nRows);
+			mat.columnLabels = Arrays.copyOf(labels, nRows);
+		}
+
+		if (!DistanceTiles.distances(data, metric,
+		                             (row, column, distance) -> mat.data[mat.rowStart[row]+column] = distance,
+		                             progress))
+			return null;
+		mat.updateMinMax();
+		return mat;
+	}
+
+	/**
+	 * Get a view of each row of the data up front, so the distance loops
+	 * don't go back to the matrix for every pair.
+	 *
+	 * @param data the matrix with the data
+	 * @param metric the metric that will be used
+	 * @return the row views, or null if the metric reads the matrix directly
+	 */
+	static RowView[] rowViews(Matrix data, DistanceMetric metric) {
+		if (metric == DistanceMetric.VALUE_IS_CORRELATION || metric == DistanceMetric.VALUE_IS_DISTANCE)
+			return null;
+		RowView[] views = new RowView[data.nRows()];
+		IntStream.range(0, views.length).parallel()
+			.forEach(row -> views[row] = data.getRowView(row));
+		return views;
+	}
+
+	static double distance(Matrix data, RowView[] views, DistanceMetric metric, int row, int column) {
+		if (views == null)
+			return metric.getMetric(data, data, row, column);
+		return metric.getMetric(views[row], views[column], null);
+	}
+
+	/**
+	 * Initialize the matrix from the upper triangle of a square array
+	 */
+	public void initialize(int rows, int columns, double[][] arrayData) {
+		if (rows != columns)
+			throw new IllegalArgumentException("TriangularMatrix must be square");
+		allocate(rows);
+		IntStream.range(0, rows).parallel()
+			.forEach(row -> {
+				for (int column = row; column < columns; column++)
+					data[rowStart[row]+column] = arrayData[row][column];
+			});
+		updateMinMax();
+	}
+
+	/**
+	 * Initialize the matrix from the upper triangle of a square array
+	 */
+	public void initialize(int rows, int columns, Double[][] arrayData) {
+		if (rows != columns)
+			throw new IllegalArgumentException("TriangularMatrix must be square");
+		allocate(rows);
+		if (arrayData != null) {
+			IntStream.range(0, rows).parallel()
+				.forEach(row -> {
+					for (int column = row; column < columns; column++) {
+						Double value = arrayData[row][column];
+						data[rowStart[row]+column] = value == null ? Double.NaN : value;
+					}
+				});
+		}
+		updateMinMax();
+	}
+
+	public MatrixOps ops() { return ops; }
+
+	public Matrix like() {
+		return new SimpleMatrix();
+	}
+
+	public Matrix like(int rows, int columns) {
+		return new SimpleMatrix(rows, columns);
+	}
+
+	public Matrix like(int rows, int columns, double initialValue) {
+		return new SimpleMatrix(rows, columns, initialValue);
+	}
+
+	public Matrix like(int rows, int columns, DISTRIBUTION dist) {
+		return new SimpleMatrix().like(rows, columns, dist);
+	}
+
+	public Matrix like(Matrix initial) {
+		return new SimpleMatrix().like(initial);
+	}
+
+	public Matrix like(int rows, int columns, double[][] initial) {
+		Matrix newMat = like();
+		newMat.initialize(rows, columns, initial);
+		return newMat;
+	}
+
+	/**
+	 * Return the number of rows in this matrix.
+	 *
+	 * @return number of rows
+	 */
+	public int nRows() {
+		if (index != null)
+			return index.length;
+		return size;
+	}
+
+	/**
+	 * Return the number of columns in this matrix.
+	 *
+	 * @return number of columns
+	 */
+	public int nColumns() {
+		if (index != null)
+			return index.length;
+		return size;
+	}
+
+	/**
+	 * Return the value at a specific location.
+	 *
+	 * @param row the row number of the value
+	 * @param column the coulmn number of the value
+	 * @return the (possibly null) value at that location
+	 */
+	public Double getValue(int row, int column) {
+		double v = doubleValue(row, column);
+		if (Double.isNaN(v))
+			return null;
+		return v;
+	}
+
+	/**
+	 * Return the value at a specific location.
+	 *
+	 * @param row the row number of the value
+	 * @param column the coulmn number of the value
+	 * @return the value at that location, if it was set, otherwise, return Double.NaN.
+	 */
+	public double doubleValue(int row, int column) {
+		if (index != null) {
+			row = index[row];
+			column = index[column];
+		}
+		return data[offset(row, column)];
+	}
+
+	/**
+	 * Set the value at a specific location.  Unless the matrix has been
+	 * expanded, this also sets the
+	 * value at (column, row).
+	 *
+	 * @param row the row number of the value
+	 * @param column the coulmn number of the value
+	 * @param value the value to set
+	 */
+	public void setValue(int row, int column, double value) {
+		if (value < minValue) minValue = value;
+		if (value > maxValue) maxValue = value;
+		if (index != null) {
+			row = index[row];
+			column = index[column];
+		}
+		data[offset(row, column)] = value;
+	}
+
+	/**
+	 * Set the value at a specific location.
+	 *
+	 * @param row the row number of the value
+	 * @param column the coulmn number of the value
+	 * @param value the value to set
+	 */
+	public void setValue(int row, int column, Double value) {
+		if (value == null)
+			setValue(row, column, Double.NaN);
+		else
+			setValue(row, column, value.doubleValue());
+	}
+
+	/**
+	 * Return true if the location has a value
+	 *
+	 * @param row the row number of the value
+	 * @param column the coulmn number of the value
+	 * @return true if this location has a value, false otherwise
+	 */
+	public boolean hasValue(int row, int column) {
+		return !Double.isNaN(doubleValue(row, column));
+	}
+
+	/**
+	 * Return an array of column labels
+	 *
+	 * @return the column labels
+	 */
+	public String[] getColumnLabels() {
+		return columnLabels;
+	}
+
+	/**
+	 * Return a column label
+	 *
+	 * @param col the column to get the label for
+	 * @return the column label
+	 */
+	public String getColumnLabel(int col) {
+		if (index != null)
+			col = index[col];
+		return columnLabels[col];
+	}
+
+	/**
+	 * Set a column label
+	 *
+	 * @param col the column to set the label for
+	 * @param label the column label
+	 */
+	public void setColumnLabel(int col, String label) {
+		if (index != null)
+			col = index[col];
+		columnLabels[col] = label;
+	}
+
+	/**
+	 * Set the column labels
+	 *
+	 * @param labelList the list of column labels
+	 */
+	public void setColumnLabels(List<String>labelList) {
+		columnLabels = labelList.toArray(new String[0]);
+	}
+
+	/**
+	 * Return an array of row labels
+	 *
+	 * @return the row labels
+	 */
+	public String[] getRowLabels() {
+		return rowLabels;
+	}
+
+	/**
+	 * Return a row label
+	 *
+	 * @param row the row to get the label for
+	 * @return the row label
+	 */
+	public String getRowLabel(int row) {
+		if (index != null)
+			row = index[row];
+		return rowLabels[row];
+	}
+
+	/**
+	 * Set a row label
+	 *
+	 * @param row the row to set the label for
+	 * @param label the row label
+	 */
+	public void setRowLabel(int row, String label) {
+		if (index != null)
+			row = index[row];
+		rowLabels[row] = label;
+	}
+
+	/**
+	 * Set the row labels
+	 *
+	 * @param labelList the list of row labels
+	 */
+	public void setRowLabels(List<String>labelList) {
+		rowLabels = labelList.toArray(new String[0]);
+	}
+
+	/**
+	 * Return the distance between rows based on the metric.
+	 *
+	 * @param metric the metric to use to calculate the distances
+	 * @return a new Matrix of the distances between the rows
+	 */
+	public Matrix getDistanceMatrix(DistanceMetric metric) {
+		return distanceMatrix(this, metric);
+	}
+
+	/**
+	 * Return a 2D array with all of the values in the matrix.  The missing
+	 * values are set to Double.NaN
+	 *
+	 * @return the data in the matrix
+	 */
+	public double[][] toArray() {
+		int rows = nRows();
+		double doubleData[][] = new double[rows][];
+		IntStream.range(0, rows).parallel()
+			.forEach(row -> doubleData[row] = getRow(row));
+		return doubleData;
+	}
+
+	public double[] getRow(int row) {
+		int columns = nColumns();
+		double rowData[] = new double[columns];
+		if (index == null && condensed) {
+			// The part of the row below the diagonal is stored in the earlier rows
+			for (int col = 0; col < row; col++)
+				rowData[col] = data[rowStart[col]+row];
+			System.arraycopy(data, rowStart[row]+row, rowData, row, size-row);
+		} else if (index == null) {
+			System.arraycopy(data, rowStart[row], rowData, 0, size);
+		} else {
+			for (int col = 0; col < columns; col++)
+				rowData[col] = doubleValue(row, col);
+		}
+		return rowData;
+	}
+
+	public double[] getColumn(int col) {
+		if (condensed)
+			return getRow(col);
+		int rows = nRows();
+		double columnData[] = new double[rows];
+		for (int row = 0; row < rows; row++)
+			columnData[row] = doubleValue(row, col);
+		return columnData;
+	}
+
+	/**
+	 * Return the maximum value in the matrix
+	 *
+	 * @return the max value
+	 */
+	public double getMaxValue() {
+		return maxValue;
+	}
+
+	/**
+	 * Return the minimum value in the matrix
+	 *
+	 * @return the min value
+	 */
+	public double getMinValue() {
+		return minValue;
+	}
+
+	/**
+	 * Return true if the matrix is transposed
+	 *
+	 * @return true if the matrix is transposed
+	 */
+	public boolean isTransposed() {
+		return transposed;
+	}
+
+	/**
+	 * Set true if the matrix is transposed
+	 *
+	 * @param transposed true if the matrix is transposed
+	 */
+	public void setTransposed(boolean transposed) {
+		this.transposed = transposed;
+	}
+
+	/**
+	 * A triangular matrix is symmetrical until an operation expands it
+	 *
+	 * @return true unless the matrix has been expanded
+	 */
+	public boolean isSymmetrical() {
+		return condensed;
+	}
+
+	/**
+	 * A triangular matrix is symmetrical until an operation expands it, so
+	 * this is ignored
+	 *
+	 * @param symmetrical ignored
+	 */
+	public void setSymmetrical(boolean symmetrical) {
+		if (!symmetrical)
+			logger.warn("clusterMaker2 TriangularMatrix: attempt to make a triangular matrix assymetric");
+	}
+
+	/**
+	 * Set all missing values to zero
+	 */
+	public void setMissingToZero() {
+		for (int i = 0; i < data.length; i++) {
+			if (Double.isNaN(data[i]))
+				data[i] = 0.0;
+		}
+	}
+
+	/**
+	 * Adjust the diagonals
+	 */
+	public void adjustDiagonals() {
+		for (int row = 0; row < size; row++)
+			data[rowStart[row]+row] = maxValue;
+	}
+
+	/**
+	 * Return the rank order of the columns in a row
+	 *
+	 * @param row the row to rank the columns in
+	 * @return the rank order of the columns
+	 */
+	public double[] getRank(int row) {
+		// Get the masked row
+		double[] tData = new double[nColumns()];
+		int nVals = 0;
+		for (int column = 0; column < nColumns(); column++) {
+			double value = doubleValue(row, column);
+			if (!Double.isNaN(value))
+				tData[nVals++] = value;
+		}
+		if (nVals == 0)
+			return null;
+
+		// Sort the data
+		Integer index[] = MatrixUtils.indexSort(tData,nVals);
+
+		// Build a rank table
+		double[] rank = new double[nVals];
+		for (int i = 0; i < nVals; i++) rank[index[i]] = i;
+
+		// Fix for equal ranks
+		int i = 0;
+		while (i < nVals) {
+			int m = 0;
+			double value = tData[index[i]];
+			int j = i+1;
+			while (j < nVals && tData[index[j]] == value) j++;
+			m = j - i; // Number of equal ranks found
+			value = rank[index[i]] + (m-1)/2.0;
+			for (j = i; j < i+m; j++) rank[index[j]] = value;
+			i += m;
+		}
+
+		return rank;
+	}
+
+	/**
+	 * Create an index on the matrix
+	 */
+	public void index() {
+		// initialize indexing array to original order
+		index = new int[size];
+		for (int i = 0; i < size; ++i) {
+			index[i] = i;
+		}
+	}
+
+	/**
+	 * Create a shallow copy of the matrix with an alternative
+	 * index.  This is an efficient way to access submatrices
+	 */
+	public Matrix submatrix(int[] index) {
+		TriangularMatrix mat = new TriangularMatrix();
+		mat.data = data;
+		mat.rowStart = rowStart;
+		mat.index = index;
+		mat.size = size;
+		mat.transposed = transposed;
+		mat.condensed = condensed;
+		mat.rowLabels = rowLabels;
+		mat.columnLabels = columnLabels;
+		mat.maxValue = maxValue;
+		mat.minValue = minValue;
+		return mat;
+	}
+
+	/**
+	 * Return a submatrix.  Square submatrices on the diagonal of a
+	 * matrix that hasn't been expanded are still triangular, otherwise a
+	 * SimpleMatrix is returned.
+	 *
+	 * @param row the starting row of the submatrix
+	 * @param col the starting column of the submatrix
+	 * @param rows the number of rows
+	 * @param cols the number of columnss
+	 * @return submatrix
+	 */
+	public Matrix submatrix(int row, int col, int rows, int cols) {
+		Matrix newMatrix;
+		boolean triangular = condensed && row == col && rows == cols;
+		if (triangular)
+			newMatrix = new TriangularMatrix(rows);
+		else
+			newMatrix = new SimpleMatrix(rows, cols, 0.0);
+
+		for (int r = 0; r < rows; r++) {
+			newMatrix.setRowLabel(r, getRowLabel(r+row));
+			for (int c = triangular ? r : 0; c < cols; c++)
+				newMatrix.setValue(r, c, doubleValue(r+row, c+col));
+		}
+		for (int c = 0; c < cols; c++)
+			newMatrix.setColumnLabel(c, getColumnLabel(c+col));
+		newMatrix.updateMinMax();
+		newMatrix.setTransposed(transposed);
+		return newMatrix;
+	}
+
+	/**
+	 * Return a copy of the Matrix
+	 *
+	 * @return matrix copy
+	 */
+	public Matrix copy() {
+		return new TriangularMatrix(this);
+	}
+
+	public DoubleMatrix2D getColtMatrix() {
+		return DoubleFactory2D.dense.make(toArray());
+	}
+
+	/**
+	 * Debugging routine to print out information about a matrix
+	 *
+	 * @param matrix the matrix we're going to print out information about
+	 */
+	public String printMatrixInfo() {
+		String s = "Triangular Matrix("+nRows()+", "+nColumns()+")\n";
+		s += " cardinality is "+ops.cardinality()+"\n";
+		return s;
+	}
+
+	public String printMatrix() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("TriangularMatrix("+nRows()+", "+nColumns()+")\n\t");
+		for (int col = 0; col < nColumns(); col++) {
+			sb.append(getColumnLabel(col)+"\t");
+		}
+		sb.append("\n");
+		for (int row = 0; row < nRows(); row++) {
+			sb.append(getRowLabel(row)+":\t"); //node.getIdentifier()
+			for (int col = 0; col < nColumns(); col++) {
+				sb.append(""+doubleValue(row,col)+"\t");
+			}
+			sb.append("\n");
+		}
+		return sb.toString();
+	}
+
+	public void writeMatrix(String fileName) {
+		String tmpDir = System.getProperty("java.io.tmpdir");
+		try{
+			File file = new File(tmpDir + fileName);
+			if(!file.exists()) {
+				file.createNewFile();
+			}
+			PrintWriter writer = new PrintWriter(tmpDir + fileName, "UTF-8");
+			writer.write(printMatrix());
+			writer.close();
+		}catch(IOException e){
+			e.printStackTrace(System.out);
+		}
+	}
+
+	public void updateMinMax() {
+		maxValue = Double.MIN_VALUE;
+		minValue = Double.MAX_VALUE;
+		for (double d: data) {
+			if (Double.isNaN(d)) continue;
+			if (d > maxValue) maxValue = d;
+			if (d < minValue) minValue = d;
+		}
+	}
+
+	/**
+	 * Return true if the matrix is still stored as a packed triangle
+	 *
+	 * @return true if the matrix hasn't been expanded
+	 */
+	public boolean isCondensed() { return condensed; }
+
+	/**
+	 * Return the offset of a cell in the packed data.  The row and
+	 * column must already have been translated through the index.
+	 *
+	 * @param row the row
+	 * @param column the column
+	 * @return the offset of the value
+	 */
+	protected int offset(int row, int column) {
+		if (row <= column || !condensed)
+			return rowStart[row]+column;
+		return rowStart[column]+row;
+	}
+
+	// The first column of a row that is stored
+	protected int colStart(int row) {
+		return condensed ? row : 0;
+	}
+
+	/**
+	 * Convert the packed triangle to a full square matrix.  This is needed
+	 * before operations that make the matrix assymetric, such as normalizing
+	 * a single row.
+	 */
+	protected void expand() {
+		if (!condensed)
+			return;
+		if ((long)size*size > Integer.MAX_VALUE-8)
+			throw new UnsupportedOperationException("clusterMaker2 TriangularMatrix: a "+size+"x"+size+
+			                                        " matrix is too large to expand");
+
+		double[] full = new double[size*size];
+		IntStream.range(0, size).parallel()
+			.forEach(row -> {
+				for (int column = 0; column < size; column++)
+					full[row*size+column] = data[offset(row, column)];
+			});
+		int[] fullStart = new int[size];
+		for (int row = 0; row < size; row++)
+			fullStart[row] = row*size;
+		// Any submatrix views keep their own reference to the packed data
+		data = full;
+		rowStart = fullStart;
+		condensed = false;
+	}
+
+	protected void allocate(int size) {
+		this.size = size;
+		this.data = new double[(int)((long)size*(size+1)/2)];
+		// Row i starts at i*size - i*(i-1)/2, less the i skipped columns
+		rowStart = new int[size];
+		for (int row = 0; row < size; row++)
+			rowStart[row] = (int)((long)row*size - (long)row*(row+1)/2);
+		rowLabels = new String[size];
+		columnLabels = new String[size];
+		index = null;
+		condensed = true;
+	}
+}
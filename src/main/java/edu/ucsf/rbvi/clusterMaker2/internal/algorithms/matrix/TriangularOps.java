@@ -0,0 +1,450 @@
+package edu.ucsf.rbvi.clusterMaker2.internal.algorithms.matrix;
+
+import java.util.Arrays;
+import java.util.function.DoubleUnaryOperator;
+import java.util.stream.IntStream;
+
+import org.cytoscape.application.CyUserLog;
+import org.apache.log4j.Logger;
+
+import cern.colt.matrix.tdouble.DoubleFactory2D;
+import cern.colt.matrix.tdouble.DoubleMatrix2D;
+import cern.colt.matrix.tdouble.algo.decomposition.DenseDoubleEigenvalueDecomposition;
+import cern.colt.matrix.tdouble.algo.decomposition.DenseDoubleSingularValueDecomposition;
+import cern.colt.matrix.tdouble.algo.DenseDoubleAlgebra;
+import cern.colt.matrix.tdouble.algo.DoubleStatistic;
+
+import edu.ucsf.rbvi.clusterMaker2.internal.api.Matrix;
+import edu.ucsf.rbvi.clusterMaker2.internal.api.MatrixOps;
+
+/**
+ * MatrixOps for the packed triangular matrix.  The cell-wise operations run
+ * over the packed data, so each off-diagonal value is only visited once.
+ * Operations on a single row or column would break the symmetry, so they
+ * expand the matrix to a full square first.  The dense linear algebra is
+ * handed off to Colt.
+ */
+public class TriangularOps implements MatrixOps {
+	private static double EPSILON=Math.sqrt(Math.pow(2, -52));//get tolerance to reduce eigens
+	private DenseDoubleEigenvalueDecomposition decomp = null;
+	private DenseDoubleSingularValueDecomposition svdDecomp = null;
+	final Logger logger = Logger.getLogger(CyUserLog.NAME);
+	private final TriangularMatrix matrix;
+
+	public TriangularOps(TriangularMatrix matrix) {
+		this.matrix = matrix;
+	}
+
+	public void threshold() {
+		threshold(EPSILON);
+	}
+
+	public void threshold(double thresh) {
+		replace(v -> v <= thresh ? 0.0 : v);
+	}
+
+	/**
+	 * The transpose of a symmetric matrix is a copy of it.  An expanded
+	 * matrix is copied with the cells swapped across the diagonal.
+	 */
+	public Matrix transpose() {
+		TriangularMatrix result = new TriangularMatrix(matrix);
+		result.transposed = true;
+		if (!result.condensed) {
+			int size = result.size;
+			double[] data = result.data;
+			IntStream.range(0, size).parallel()
+				.forEach(row -> {
+					for (int column = row+1; column < size; column++) {
+						double v = data[row*size+column];
+						data[row*size+column] = data[column*size+row];
+						data[column*size+row] = v;
+					}
+				});
+			String[] labels = result.rowLabels;
+			result.rowLabels = result.columnLabels;
+			result.columnLabels = labels;
+		}
+		return result;
+	}
+
+	/**
+	 * Invert the matrix in place.  The inverse of a symmetric
+	 * matrix is also symmetric, but an expanded matrix stays expanded.
+	 */
+	public void invertMatrix() {
+		DoubleMatrix2D inverse = new DenseDoubleAlgebra().inverse(getDenseData());
+		String[] rowLabels = matrix.rowLabels;
+		String[] columnLabels = matrix.columnLabels;
+		boolean condensed = matrix.condensed;
+		double[][] values = inverse.toArray();
+		matrix.initialize(inverse.rows(), inverse.columns(), values);
+		if (!condensed) {
+			matrix.expand();
+			for (int row = 0; row < values.length; row++)
+				System.arraycopy(values[row], 0, matrix.data, matrix.rowStart[row], values.length);
+			matrix.updateMinMax();
+		}
+		matrix.rowLabels = rowLabels;
+		matrix.columnLabels = columnLabels;
+	}
+
+	/**
+	 * Normalize the matrix in place
+	 */
+	public void normalize() {
+		double span = matrix.maxValue - matrix.minValue;
+		double min = matrix.minValue;
+		replace(v -> Double.isNaN(v) ? v : (v-min)/span);
+	}
+
+	/**
+	 * Normalize the matrix in place.  This is actual matrix normalization,
+	 * i.e. all cells sum to 1.0
+	 */
+	public void normalizeMatrix() {
+		double sum = sum();
+		replace(v -> Double.isNaN(v) ? v : v/sum);
+	}
+
+	/**
+	 * Normalize a matrix row in place (all columns in the row sum to 1.0).
+	 * This expands the matrix.
+	 *
+	 * @param row the row to normalize
+	 */
+	public double normalizeRow(int row) {
+		matrix.expand();
+		double sum = rowSum(row);
+		divideScalarRow(row, sum);
+		return sum;
+	}
+
+	/**
+	 * Normalize a matrix column in place (all rows in the column sum to 1.0).
+	 * This expands the matrix.
+	 *
+	 * @param column the column to normalize
+	 */
+	public double normalizeColumn(int column) {
+		double sum = columnSum(column);
+		divideScalarColumn(column, sum);
+		return sum;
+	}
+
+	public void standardizeRow(int row) {
+		matrix.expand();
+		double mean = rowMean(row);
+		double stdev = Math.sqrt(rowVariance(row, mean));
+		for (int column = 0; column < matrix.nColumns(); column++) {
+			double cell = matrix.doubleValue(row, column);
+			matrix.setValue(row, column, (cell-mean)/stdev);
+		}
+	}
+
+	public void standardizeColumn(int column) {
+		matrix.expand();
+		double mean = columnMean(column);
+		double stdev = Math.sqrt(columnVariance(column, mean));
+		for (int row = 0; row < matrix.nRows(); row++) {
+			double cell = matrix.doubleValue(row, column);
+			matrix.setValue(row, column, (cell-mean)/stdev);
+		}
+	}
+
+	public void centralizeColumns() {
+		matrix.expand();
+		// Each column's mean is taken before any of the cells are changed
+		double[] means = new double[matrix.nColumns()];
+		for (int column = 0; column < means.length; column++)
+			means[column] = columnSum(column)/matrix.nRows();
+		IntStream.range(0, matrix.nRows()).parallel()
+			.forEach(row -> {
+				for (int column = 0; column < means.length; column++) {
+					double cell = matrix.doubleValue(row, column);
+					matrix.setValue(row, column, Double.isNaN(cell) ? 0.0d : cell-means[column]);
+				}
+			});
+		matrix.updateMinMax();
+	}
+
+	public void centralizeRows() {
+		matrix.expand();
+		IntStream.range(0, matrix.nRows()).parallel()
+			.forEach(row -> {
+				double mean = rowSum(row)/matrix.nColumns();
+				for (int column = 0; column < matrix.nColumns(); column++) {
+					double cell = matrix.doubleValue(row, column);
+					matrix.setValue(row, column, Double.isNaN(cell) ? 0.0d : cell-mean);
+				}
+			});
+		matrix.updateMinMax();
+	}
+
+	public double sum() {
+		int size = matrix.nRows();
+		return IntStream.range(0, size).parallel()
+			.mapToDouble(row -> {
+				double sum = 0.0;
+				for (int column = matrix.colStart(row); column < size; column++) {
+					double v = matrix.doubleValue(row, column);
+					if (Double.isNaN(v)) continue;
+					// Off-diagonal cells of a packed matrix are stored once but count twice
+					sum += (matrix.condensed && column != row) ? 2*v : v;
+				}
+				return sum;
+			}).sum();
+	}
+
+	public double columnSum(int column) {
+		return Arrays.stream(matrix.getColumn(column))
+						.filter(v -> !Double.isNaN(v))
+						.sum();
+	}
+
+	public double columnSum2(int column) {
+		return Arrays.stream(matrix.getColumn(column))
+						.filter(v -> !Double.isNaN(v))
+						.map(d -> d*d)
+						.sum();
+	}
+
+	public double rowSum(int row) {
+		return Arrays.stream(matrix.getRow(row))
+						.filter(v -> !Double.isNaN(v))
+						.sum();
+	}
+
+	public double rowSum2(int row) {
+		return Arrays.stream(matrix.getRow(row))
+						.filter(v -> !Double.isNaN(v))
+						.map(d -> d*d)
+						.sum();
+	}
+
+	public double columnMean(int column) {
+		return Arrays.stream(matrix.getColumn(column))
+						.filter(v -> !Double.isNaN(v))
+						.average().getAsDouble();
+	}
+
+	public double rowMean(int row) {
+		return Arrays.stream(matrix.getRow(row))
+						.filter(v -> !Double.isNaN(v))
+						.average().getAsDouble();
+	}
+
+	public double columnVariance(int column) {
+		return columnVariance(column, columnMean(column));
+	}
+
+	public double columnVariance(int column, double mean) {
+		double variance = 0.0;
+		for (double cell: matrix.getColumn(column)) {
+			if (!Double.isNaN(cell))
+				variance += Math.pow((cell-mean),2);
+		}
+		return variance/matrix.nRows();
+	}
+
+	public double rowVariance(int row) {
+		return rowVariance(row, rowMean(row));
+	}
+
+	public double rowVariance(int row, double mean) {
+		double variance = 0.0;
+		for (double cell: matrix.getRow(row)) {
+			if (!Double.isNaN(cell))
+				variance += Math.pow((cell-mean),2);
+		}
+		return variance/matrix.nColumns();
+	}
+
+	public int cardinality() {
+		int size = matrix.nRows();
+		return IntStream.range(0, size).parallel()
+			.map(row -> {
+				int count = 0;
+				for (int column = matrix.colStart(row); column < size; column++) {
+					if (Double.isNaN(matrix.doubleValue(row, column))) continue;
+					count += (matrix.condensed && column != row) ? 2 : 1;
+				}
+				return count;
+			}).sum();
+	}
+
+	/**
+	 * Multiply this matrix by another.  The result is a SimpleMatrix.
+	 */
+	public Matrix multiplyMatrix(Matrix b) {
+		int nRows = matrix.nRows();
+		int n = matrix.nColumns();
+		int p = b.nColumns();
+		double[][] bData = b.toArray();
+		SimpleMatrix result = new SimpleMatrix(nRows, p, 0.0);
+
+		IntStream.range(0, nRows).parallel()
+			.forEach(row -> {
+				double[] aRow = matrix.getRow(row);
+				double[] cRow = result.data[row];
+				for (int k = 0; k < n; k++) {
+					double aik = aRow[k];
+					if (aik == 0.0) continue;
+					double[] bRow = bData[k];
+					for (int j = 0; j < p; j++)
+						cRow[j] += aik*bRow[j];
+				}
+			});
+		result.updateMinMax();
+		return result;
+	}
+
+	public void addScalar(double value) {
+		replace(v -> Double.isNaN(v) ? v : v+value);
+	}
+
+	public void addElement(Matrix addend) {
+		combine(addend, 1.0);
+	}
+
+	public void subtractScalar(double value) {
+		replace(v -> Double.isNaN(v) ? v : v-value);
+	}
+
+	public void subtractElement(Matrix subtrahend) {
+		combine(subtrahend, -1.0);
+	}
+
+	public void multiplyScalar(double value) {
+		replace(v -> Double.isNaN(v) ? v : v*value);
+	}
+
+	public void divideScalar(double value) {
+		replace(v -> Double.isNaN(v) ? v : v/value);
+	}
+
+	public void divideScalarColumn(int column, double value) {
+		matrix.expand();
+		for (int row = 0; row < matrix.nRows(); row++) {
+			double cell = matrix.doubleValue(row, column);
+			if (!Double.isNaN(cell))
+				matrix.setValue(row, column, cell/value);
+		}
+	}
+
+	public void powScalar(double value) {
+		replace(v -> Double.isNaN(v) ? v : Math.pow(v, value));
+	}
+
+	public Matrix covariance() {
+		DoubleMatrix2D matrix2D = DoubleStatistic.covariance(getDenseData());
+		return copyDataFromMatrix(matrix2D);
+	}
+
+	public Matrix correlation() {
+		DoubleMatrix2D matrix2D = DoubleStatistic.covariance(getDenseData());
+		matrix2D = DoubleStatistic.correlation(matrix2D);
+		return copyDataFromMatrix(matrix2D);
+	}
+
+	public void eigenInit(){
+		decomp = null;
+	}
+
+	public double[] eigenValues(boolean nonZero){
+		if (decomp == null)
+			decomp = new DenseDoubleEigenvalueDecomposition(getDenseData());
+
+		double[] allValues = decomp.getRealEigenvalues().toArray();
+		if (!nonZero)
+			return allValues;
+
+		return Arrays.stream(allValues).filter(d -> Math.abs(d) > EPSILON).toArray();
+	}
+
+	public double[][] eigenVectors() {
+		if (decomp == null)
+			decomp = new DenseDoubleEigenvalueDecomposition(getDenseData());
+
+		return decomp.getV().toArray();
+	}
+
+	public void svdInit(){
+		svdDecomp = null;
+	}
+
+	public Matrix svdU() {
+		if (svdDecomp == null)
+			svdDecomp = new DenseDoubleSingularValueDecomposition(getDenseData(), true, false);
+		return wrap(svdDecomp.getU());
+	}
+
+	public Matrix svdS() {
+		if (svdDecomp == null)
+			svdDecomp = new DenseDoubleSingularValueDecomposition(getDenseData(), true, false);
+		return wrap(svdDecomp.getS());
+	}
+
+	public Matrix svdV() {
+		if (svdDecomp == null)
+			svdDecomp = new DenseDoubleSingularValueDecomposition(getDenseData(), true, false);
+		return wrap(svdDecomp.getV());
+	}
+
+	// Apply an operation to every stored cell
+	private void replace(DoubleUnaryOperator op) {
+		double[] data = matrix.data;
+		IntStream.range(0, data.length).parallel()
+			.forEach(i -> data[i] = op.applyAsDouble(data[i]));
+		matrix.updateMinMax();
+	}
+
+	// Add (sign = 1) or subtract (sign = -1) another matrix.  The matrix is
+	// expanded unless the other one is symmetric.
+	private void combine(Matrix other, double sign) {
+		if (!other.isSymmetrical())
+			matrix.expand();
+		int size = matrix.nRows();
+		IntStream.range(0, size).parallel()
+			.forEach(row -> {
+				for (int column = matrix.colStart(row); column < size; column++) {
+					double value = matrix.doubleValue(row, column);
+					double v = other.doubleValue(row, column);
+					if (!Double.isNaN(value) && !Double.isNaN(v))
+						matrix.setValue(row, column, value+sign*v);
+				}
+			});
+		matrix.updateMinMax();
+	}
+
+	private void divideScalarRow(int row, double value) {
+		for (int column = 0; column < matrix.nColumns(); column++) {
+			double cell = matrix.doubleValue(row, column);
+			if (!Double.isNaN(cell))
+				matrix.setValue(row, column, cell/value);
+		}
+	}
+
+	private Matrix copyDataFromMatrix(DoubleMatrix2D matrix2D) {
+		SimpleMatrix mat = new SimpleMatrix();
+		mat.initialize(matrix2D.rows(), matrix2D.columns(), matrix2D.toArray());
+		mat.symmetric = true;
+		mat.transposed = matrix.transposed;
+		String[] labels = matrix.columnLabels;
+		if (labels != null) {
+			mat.rowLabels = Arrays.copyOf(labels, labels.length);
+			mat.columnLabels = Arrays.copyOf(labels, labels.length);
+		}
+		return mat;
+	}
+
+	private DoubleMatrix2D getDenseData() {
+		return DoubleFactory2D.dense.make(matrix.toArray());
+	}
+
+	private Matrix wrap(DoubleMatrix2D mat) {
+		SimpleMatrix result = new SimpleMatrix();
+		result.initialize(mat.rows(), mat.columns(), mat.toArray());
+		return result;
+	}
+}
@@ -115,7 +115,8 @@ public class APCluster extends AbstractNetworkClusterer  {
 		if (canceled) return;
 
 		//Cluster the nodes
-		runAP = new RunAP(matrix, context.lambda, context.preference, context.rNumber, monitor, debug);
+		runAP = new RunAP(matrix, context.lambda, context.preference, context.rNumber,
+		                  context.convits, monitor, debug);
 
 		if (canceled) return;
 
@@ -157,6 +158,7 @@ public class APCluster extends AbstractNetworkClusterer  {
 	public void setParams(List<String>params) {
 		params.add("lambda="+context.lambda);
 		params.add("rNumber="+context.rNumber);
+		params.add("convits="+context.convits);
 		params.add("preference="+context.preference);
 	}
 
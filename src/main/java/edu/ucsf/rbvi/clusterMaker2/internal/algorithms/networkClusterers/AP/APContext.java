@@ -59,9 +59,15 @@ public class APContext implements ClusterAlgorithmContext {
 	         groups={"AP Tuning"},gravity=2.0)
 	public double preference = -1;
 
-	@Tunable(description = "Number of iterations",
+	@Tunable(description = "Maximum number of iterations",
 	         groups={"AP Tuning"},gravity=3.0)
 	public int rNumber = 8;
+
+	@Tunable(description = "Convergence iterations (0 to always run the maximum)",
+	         tooltip="Stop once the exemplars are unchanged for this many iterations.  "+
+	                 "Must be less than the maximum number of iterations to have any effect",
+	         groups={"AP Tuning"},gravity=4.0)
+	public int convits = 5;
 	       
 	@ContainsTunables
 	public EdgeAttributeHandler edgeAttributeHandler;
@@ -87,6 +93,7 @@ public class APContext implements ClusterAlgorithmContext {
 		lambda = origin.lambda;
 		preference = origin.preference;
 		rNumber = origin.rNumber;
+		convits = origin.convits;
 	}
 
 	public void setNetwork(CyNetwork network) {
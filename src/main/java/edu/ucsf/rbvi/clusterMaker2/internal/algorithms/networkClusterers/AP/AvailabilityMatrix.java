@@ -1,15 +1,11 @@
 package edu.ucsf.rbvi.clusterMaker2.internal.algorithms.networkClusterers.AP;
 
-import cern.colt.function.tdouble.IntIntDoubleFunction;
-import cern.colt.matrix.tdouble.DoubleFactory2D;
-import cern.colt.matrix.tdouble.DoubleFactory1D;
-import cern.colt.matrix.tdouble.DoubleMatrix1D;
-import cern.colt.matrix.tdouble.DoubleMatrix2D;
+import java.util.stream.IntStream;
 
 public class AvailabilityMatrix extends APMatrix {
-	private DoubleMatrix1D evidenceVector = null;
+	private double[] evidenceVector = null;
 
-	public AvailabilityMatrix (DoubleMatrix2D s_matrix, double lambda) {
+	AvailabilityMatrix (SimilarityMatrix s_matrix, double lambda) {
 		super(s_matrix, lambda);
 	}
 
@@ -17,56 +13,45 @@ public class AvailabilityMatrix extends APMatrix {
 		if (evidenceVector == null) {
 			updateEvidence();
 		}
-		return evidenceVector.get(row);
+		return evidenceVector[row];
 	}
 
+	/**
+	 * Find the largest a(i,k)+s(i,k) in each row, leaving out the diagonal.
+	 * Each row is independent, so the rows are done in parallel.
+	 */
 	public void updateEvidence () { 
-		evidenceVector = DoubleFactory1D.dense.make(s_matrix.rows());
-		evidenceVector.assign(-Double.MAX_VALUE);
-		s_matrix.forEachNonZero(new CalculateEvidence(evidenceVector));
+		if (evidenceVector == null)
+			evidenceVector = new double[s_matrix.nRows];
+		IntStream.range(0, s_matrix.nRows).parallel().forEach(row -> {
+			double max = -Double.MAX_VALUE;
+			for (int pos = s_matrix.rowPtr[row]; pos < s_matrix.rowPtr[row+1]; pos++) {
+				if (s_matrix.colIdx[pos] != row)
+					max = Math.max(max, values[pos]+s_matrix.values[pos]);
+			}
+			evidenceVector[row] = max;
+		});
 		// printVector("Availability evidence: ", evidenceVector);
 	}
 
+	/**
+	 * Update the availabilities from the responsibilities.  The new values
+	 * only depend on the responsibilities, so the rows are done in parallel.
+	 *
+	 * @param r_matrix the responsibilities, with up-to-date evidence
+	 */
 	public void update(ResponsibilityMatrix r_matrix) {
-		s_matrix.forEachNonZero(new UpdateAvailability(r_matrix));
-	}
-
-	//
-	// These inner classes are used for the "forEachNonZero" calls...
-	//
-	class CalculateEvidence implements IntIntDoubleFunction {
-		DoubleMatrix1D maxVector;
-
-		public CalculateEvidence(DoubleMatrix1D maxMat) {
-			this.maxVector = maxMat;
-		}
-
-		public double apply(int row, int col, double value) {
-			if (row != col) {
-				maxVector.set(row, Math.max(maxVector.get(row),get(row,col)+value));
+		IntStream.range(0, s_matrix.nRows).parallel().forEach(row -> {
+			for (int pos = s_matrix.rowPtr[row]; pos < s_matrix.rowPtr[row+1]; pos++) {
+				int col = s_matrix.colIdx[pos];
+				double newValue;
+				if (row != col)
+					newValue = Math.min(0.0, r_matrix.getDiagonal(col) + r_matrix.getEvidence(col) - Math.max(0.0, r_matrix.values[pos]));
+				else
+					newValue = r_matrix.getEvidence(col);
+
+				setDamped(pos, newValue);
 			}
-
-			return value;
-		}
-	}
-
-	class UpdateAvailability implements IntIntDoubleFunction {
-		ResponsibilityMatrix rMatrix;
-
-		public UpdateAvailability(ResponsibilityMatrix responsibilityMatrix) {
-			rMatrix = responsibilityMatrix;
-		}
-
-		public double apply(int row, int col, double value) {
-			double newValue;
-			if (row != col)
-				newValue = Math.min(0.0, rMatrix.get(col, col) + rMatrix.getEvidence(col) - Math.max(0.0, rMatrix.get(row,col)));
-			else
-				newValue = rMatrix.getEvidence(col);
-
-			setDamped(row, col, newValue);
-
-			return value;
-		}
+		});
 	}
 }
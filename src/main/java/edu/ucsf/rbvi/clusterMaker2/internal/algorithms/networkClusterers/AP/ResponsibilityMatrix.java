@@ -1,16 +1,11 @@
 package edu.ucsf.rbvi.clusterMaker2.internal.algorithms.networkClusterers.AP;
 
-import cern.colt.function.tdouble.IntIntDoubleFunction;
-import cern.colt.matrix.tdouble.DoubleFactory2D;
-import cern.colt.matrix.tdouble.DoubleFactory1D;
-import cern.colt.matrix.tdouble.DoubleMatrix1D;
-import cern.colt.matrix.tdouble.DoubleMatrix2D;
-
+import java.util.stream.IntStream;
 
 public class ResponsibilityMatrix extends APMatrix {
-	private DoubleMatrix1D evidenceVector = null;
+	private double[] evidenceVector = null;
 
-	public ResponsibilityMatrix (DoubleMatrix2D s_matrix, double lambda) {
+	ResponsibilityMatrix (SimilarityMatrix s_matrix, double lambda) {
 		super(s_matrix, lambda);
 	}
 
@@ -18,53 +13,42 @@ public class ResponsibilityMatrix extends APMatrix {
 		if (evidenceVector == null) {
 			updateEvidence();
 		}
-		return evidenceVector.get(col);
+		return evidenceVector[col];
 	}
 
+	/**
+	 * Sum the positive responsibilities in each column, leaving out the
+	 * diagonal.  This walks the column index, so the columns are done in
+	 * parallel.
+	 */
 	public void updateEvidence () { 
-		evidenceVector = DoubleFactory1D.dense.make(s_matrix.columns());
-		s_matrix.forEachNonZero(new CalculateEvidence(evidenceVector));
+		if (evidenceVector == null)
+			evidenceVector = new double[s_matrix.nRows];
+		IntStream.range(0, s_matrix.nRows).parallel().forEach(col -> {
+			double sum = 0.0;
+			for (int p = s_matrix.colPtr[col]; p < s_matrix.colPtr[col+1]; p++) {
+				if (s_matrix.colRows[p] != col)
+					sum += Math.max(0.0, values[s_matrix.colPos[p]]);
+			}
+			evidenceVector[col] = sum;
+		});
 		// printVector("Responsibility evidence: ", evidenceVector);
 	}
 
+	/**
+	 * Update the responsibilities from the availabilities.  The new values
+	 * only depend on the availability evidence for their row, so the rows
+	 * are done in parallel.
+	 *
+	 * @param a_matrix the availabilities, with up-to-date evidence
+	 */
 	public void update(AvailabilityMatrix a_matrix) {
-		s_matrix.forEachNonZero(new UpdateResponsibility(a_matrix));
-	}
-	
-	class UpdateResponsibility implements IntIntDoubleFunction {
-		AvailabilityMatrix a_matrix;
-
-		public UpdateResponsibility(AvailabilityMatrix a_matrix) {
-			this.a_matrix = a_matrix;
-		}
-
-		public double apply(int row, int col, double value) {
-			double newValue;
-			if (row != col)
-				newValue = value - a_matrix.getEvidence(row);
-			else
-				newValue = s_matrix.get(row, col) - a_matrix.getEvidence(row);
-
-			// Damp
-			setDamped(row, col, newValue);
-
-			return value;
-		}
-	}
-
-	class CalculateEvidence implements IntIntDoubleFunction {
-		DoubleMatrix1D maxVector;
-
-		public CalculateEvidence(DoubleMatrix1D maxMat) {
-			maxVector = maxMat;
-		}
-
-		public double apply(int row, int col, double value) {
-			if (row != col) {
-				maxVector.set(col, maxVector.get(col) + Math.max(0.0, get(row, col)));
+		IntStream.range(0, s_matrix.nRows).parallel().forEach(row -> {
+			double evidence = a_matrix.getEvidence(row);
+			for (int pos = s_matrix.rowPtr[row]; pos < s_matrix.rowPtr[row+1]; pos++) {
+				// Damp
+				setDamped(pos, s_matrix.values[pos] - evidence);
 			}
-			return value;
-		}
+		});
 	}
-
 }
@@ -1,10 +1,12 @@
 package edu.ucsf.rbvi.clusterMaker2.internal.algorithms.networkClusterers.AP;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.stream.IntStream;
 
 import org.cytoscape.model.CyEdge;
 import org.cytoscape.model.CyNetwork;
@@ -12,16 +14,14 @@ import org.cytoscape.model.CyNode;
 import org.cytoscape.work.TaskMonitor;
 
 import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.NodeCluster;
+import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.UnionFind;
 import edu.ucsf.rbvi.clusterMaker2.internal.api.CyMatrix;
 
-
-import cern.colt.matrix.tdouble.DoubleMatrix1D;
-import cern.colt.matrix.tdouble.DoubleMatrix2D;
-
 public class RunAP {
 	private double lambda; /*lambda value from 0 to 1 dampens messages passed to avoid numberical oscillation*/
 	private double pref; //preference parameter determines cluster density. Larger Parameter equals more Clusters. If < 0, automatically set to avg edge_weight threshold
-	private int number_iterations; //number of inflation/expansion cycles
+	private int number_iterations; //maximum number of message exchanges
+	private int convits; //stop once the exemplars haven't changed for this many iterations
 
 	//private double clusteringThresh; Threshold used to remove weak edges between distinct clusters
 	//private double maxResidual; The maximum residual to look for
@@ -34,15 +34,15 @@ public class RunAP {
 	private CyMatrix distanceMatrix = null;
 	private ResponsibilityMatrix r_matrix = null;
 	private AvailabilityMatrix a_matrix = null;
-	private DoubleMatrix2D s_matrix = null;
-	private DoubleMatrix1D pref_vector = null;
+	private SimilarityMatrix s_matrix = null;
 	private boolean debug;
 
 	public RunAP( CyMatrix dMat,
 	              double lambdaParameter, double preferenceParameter, int num_iterations, 
-	              TaskMonitor monitor, boolean debug)
+	              int convits, TaskMonitor monitor, boolean debug)
 	{
 		this.distanceMatrix = dMat;
+		this.monitor = monitor;
 
 		this.lambda = lambdaParameter;
 		this.pref = preferenceParameter;
@@ -55,14 +55,12 @@ public class RunAP {
 			lambda = 1;
 
 		this.number_iterations = num_iterations;
+		this.convits = convits;
 		
 		nodes = distanceMatrix.getRowNodes();
-		this.s_matrix = distanceMatrix.getColtMatrix();
 
-		// Assign the preference vector to the diagonal
-		for (int row = 0; row < s_matrix.rows(); row++) {
-			s_matrix.set(row, row, pref);
-		}
+		// Copy the similarities, with the preference on the diagonal
+		this.s_matrix = new SimilarityMatrix(distanceMatrix, pref);
 
 		// System.out.println("lambda = "+lambda);
 		r_matrix = new ResponsibilityMatrix(s_matrix, lambda);
@@ -86,6 +84,14 @@ public class RunAP {
 		}
 		*/
 		
+		if (convits > 0 && convits >= number_iterations) {
+			monitor.showMessage(TaskMonitor.Level.WARN,"Convergence iterations ("+convits+
+			                    ") must be less than the maximum number of iterations ("+
+			                    number_iterations+") to stop early");
+		}
+
+		int[] exemplars = null;
+		int unchanged = 0;
 		for (int i=0; i<number_iterations; i++)
 		{
 			monitor.showMessage(TaskMonitor.Level.INFO,"Exchanging messages: iteration "+i);
@@ -96,49 +102,58 @@ public class RunAP {
 				return null;
 			}
 			monitor.setProgress((double)i/(double)number_iterations);
+
+			if (convits <= 0)
+				continue;
+
+			// Stop once every node has kept the same exemplar for convits iterations
+			int[] newExemplars = get_exemplars();
+			if (exemplars != null && Arrays.equals(exemplars, newExemplars))
+				unchanged++;
+			else
+				unchanged = 1;
+			exemplars = newExemplars;
+
+			if (unchanged >= convits) {
+				monitor.showMessage(TaskMonitor.Level.INFO,"Exemplars converged after "+(i+1)+" iterations");
+				break;
+			}
 		}
 
+		if (exemplars == null)
+			exemplars = get_exemplars();
+
 		if (debug) {
-			for (int i = 0; i < s_matrix.rows(); i++) {
-				monitor.showMessage(TaskMonitor.Level.INFO,"Node "+nodes.get(i)+" has exemplar "+get_exemplar(i));
+			for (int i = 0; i < s_matrix.nRows; i++) {
+				monitor.showMessage(TaskMonitor.Level.INFO,"Node "+nodes.get(i)+" has exemplar "+exemplars[i]);
 			}
 		}
 
 		monitor.showMessage(TaskMonitor.Level.INFO,"Assigning nodes to clusters");
 
-		Map<Integer, NodeCluster> clusterMap = getClusterMap();
+		List<NodeCluster> clusters = getClusters(exemplars);
+		clusterCount = clusters.size();
 
 		//Update node attributes in network to include clusters. Create cygroups from clustered nodes
-		monitor.showMessage(TaskMonitor.Level.INFO,"Created "+clusterMap.size()+" clusters");
+		monitor.showMessage(TaskMonitor.Level.INFO,"Created "+clusterCount+" clusters");
 	       
 		if (clusterCount == 0) {
 			monitor.showMessage(TaskMonitor.Level.ERROR,"Created 0 clusters!!!!");
 			return null;
 		}
 
-		int clusterNumber = 1;
-		Map<NodeCluster,NodeCluster> cMap = new HashMap<NodeCluster,NodeCluster>();
-		for (NodeCluster cluster: NodeCluster.sortMap(clusterMap)) {
-			if (cMap.containsKey(cluster))
-				continue;
-
-			if (debug) {
-				monitor.showMessage(TaskMonitor.Level.INFO, "Cluster "+clusterNumber);
+		if (debug) {
+			for (NodeCluster cluster: clusters) {
+				monitor.showMessage(TaskMonitor.Level.INFO, "Cluster "+cluster.getClusterNumber());
 				String s = "";
 				for (CyNode node: cluster) {
 			 		s += node.toString()+"\t";
 				}
 				monitor.showMessage(TaskMonitor.Level.INFO, s);
 			}
-
-			cMap.put(cluster,cluster);
-
-			cluster.setClusterNumber(clusterNumber);
-			clusterNumber++;
 		}
 
-		Set<NodeCluster>clusters = cMap.keySet();
-		return new ArrayList<NodeCluster>(clusters);
+		return clusters;
 	}	
 
 	//Exchange Messages between Responsibility and Availibility Matrix for Single Iteration of Affinity Propogation
@@ -175,6 +190,13 @@ public class RunAP {
 	}
 
 	
+	//return exemplar k for each element i
+	private int[] get_exemplars() {
+		int[] exemplars = new int[s_matrix.nRows];
+		IntStream.range(0, s_matrix.nRows).parallel().forEach(i -> exemplars[i] = get_exemplar(i));
+		return exemplars;
+	}
+
 	//return exemplar k for element i => Maximizer of a(i,k) + r(i,k)
 	private int get_exemplar(int i) {
 	
@@ -182,81 +204,48 @@ public class RunAP {
 		int exemplar = 0;
 		double sum;
 
-		for(int k = 0; k < s_matrix.rows(); k++) {
-			sum = a_matrix.get(i,k) + r_matrix.get(i,k);
+		// The cells that aren't stored are all 0, so only the first of them
+		// can be the maximizer
+		int missing = firstMissingColumn(i);
+
+		for(int pos = s_matrix.rowPtr[i]; pos < s_matrix.rowPtr[i+1]; pos++) {
+			int k = s_matrix.colIdx[pos];
+			if (missing < k) {
+				if (0.0 > max_value) {
+					max_value = 0.0;
+					exemplar = missing;
+				}
+				missing = s_matrix.nRows;
+			}
+
+			sum = a_matrix.values[pos] + r_matrix.values[pos];
 
 			if(sum > max_value){
 				max_value = sum;
 				exemplar = k;
 			}
 		}
-		if (debug)
-			monitor.showMessage(TaskMonitor.Level.INFO, "Exemplar for "+i+" is "+exemplar);
+		if (missing < s_matrix.nRows && 0.0 > max_value)
+			exemplar = missing;
 	  return exemplar;
 	}
 
-	private Map<Integer, NodeCluster> getClusterMap(){
-	    
-		HashMap<Integer, NodeCluster> clusterMap = new HashMap<Integer, NodeCluster>();
-
-		for(int i = 0; i < s_matrix.rows(); i++){
-		
-			int exemplar = get_exemplar(i);
-			// System.out.println("Examplar for node "+i+" is "+exemplar);
-		    
-			if (clusterMap.containsKey(exemplar)) {
-				if (i == exemplar)
-					continue;
-
-				// Already seen exemplar
-				NodeCluster exemplarCluster = clusterMap.get(exemplar);
-
-				if (clusterMap.containsKey(i)) {
-					// We've already seen i also -- join them
-					NodeCluster iCluster = clusterMap.get(i);
-					if (iCluster != exemplarCluster) {
-						exemplarCluster.addAll(iCluster);
-						// System.out.println("Combining "+i+"["+iCluster+"] and "+exemplar+" ["+exemplarCluster+"]");
-						clusterCount--;
-						clusterMap.remove(i);
-					}
-				} else {
-					exemplarCluster.add(nodes, i);
-					// System.out.println("Adding "+i+" to ["+exemplarCluster+"]");
-				}
-
-				// Update Clusters
-				updateClusters(exemplarCluster, clusterMap);
-			} else {
-				NodeCluster iCluster;
-
-				// First time we've seen this "exemplar" -- have we already seen "i"?
-				if (clusterMap.containsKey(i)) {
-					if (i == exemplar)
-						continue;
-					// Yes, just add exemplar to i's cluster
-					iCluster = clusterMap.get(i);
-					iCluster.add(nodes, exemplar);
-					// System.out.println("Adding "+exemplar+" to ["+iCluster+"]");
-				} else {
-					// No create new cluster from scratch
-					iCluster = new NodeCluster();
-					iCluster.add(nodes, i);
-					if (exemplar != i)
-						iCluster.add(nodes, exemplar);
-					// System.out.println("New cluster ["+iCluster+"]");
-					clusterCount++;
-				}
-				updateClusters(iCluster, clusterMap);
-			}
+	private int firstMissingColumn(int i) {
+		int col = 0;
+		for(int pos = s_matrix.rowPtr[i]; pos < s_matrix.rowPtr[i+1]; pos++) {
+			if (s_matrix.colIdx[pos] != col)
+				break;
+			col++;
 		}
-		return clusterMap;
+		return col;
 	}
 
-	private void updateClusters(NodeCluster cluster, Map<Integer, NodeCluster> clusterMap) {
-		for (CyNode node: cluster) {
-			clusterMap.put(nodes.indexOf(node), cluster);
+	// Each node is in the same cluster as its exemplar
+	private List<NodeCluster> getClusters(int[] exemplars){
+		UnionFind clusterSets = new UnionFind(s_matrix.nRows);
+		for(int i = 0; i < s_matrix.nRows; i++){
+			clusterSets.union(i, exemplars[i]);
 		}
+		return clusterSets.getClusters(nodes, 1);
 	}
 }
-
@@ -0,0 +1,137 @@
+package edu.ucsf.rbvi.clusterMaker2.internal.algorithms.networkClusterers.AP;
+
+import java.util.Arrays;
+
+import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.matrix.SparseMatrix;
+import edu.ucsf.rbvi.clusterMaker2.internal.api.Matrix;
+
+/**
+ * The similarities that messages are passed along, in compressed sparse
+ * row form, with the preference on the diagonal.  As with the Colt matrix
+ * this replaces, only the non-zero similarities are kept.  The
+ * responsibilities and availabilities are kept in arrays that line up with
+ * the values here, and a compressed sparse column index points back into
+ * them for the column passes.
+ */
+class SimilarityMatrix {
+	final int nRows;
+
+	// The compressed sparse row data
+	final int[] rowPtr;
+	final int[] colIdx;
+	final double[] values;
+
+	// The position of the diagonal of each row, or -1 if it's zero
+	final int[] diagonal;
+
+	// The compressed sparse column index.  colPos points into the CSR arrays.
+	final int[] colPtr;
+	final int[] colRows;
+	final int[] colPos;
+
+	/**
+	 * Copy the similarities out of a (square) matrix.  The matrix isn't
+	 * changed.
+	 *
+	 * @param matrix the similarities
+	 * @param preference the value for the diagonal
+	 */
+	SimilarityMatrix(Matrix matrix, double preference) {
+		nRows = matrix.nRows();
+
+		rowPtr = new int[nRows+1];
+		for (int row = 0; row < nRows; row++)
+			rowPtr[row+1] = rowPtr[row] + copyRow(matrix, row, preference, null, null, 0);
+
+		colIdx = new int[rowPtr[nRows]];
+		values = new double[rowPtr[nRows]];
+		for (int row = 0; row < nRows; row++)
+			copyRow(matrix, row, preference, colIdx, values, rowPtr[row]);
+
+		diagonal = new int[nRows];
+		for (int row = 0; row < nRows; row++)
+			diagonal[row] = find(row, row);
+
+		colPtr = new int[nRows+1];
+		for (int pos = 0; pos < colIdx.length; pos++)
+			colPtr[colIdx[pos]+1]++;
+		for (int col = 0; col < nRows; col++)
+			colPtr[col+1] += colPtr[col];
+		colRows = new int[colIdx.length];
+		colPos = new int[colIdx.length];
+		int[] next = Arrays.copyOf(colPtr, nRows);
+		for (int row = 0; row < nRows; row++) {
+			for (int pos = rowPtr[row]; pos < rowPtr[row+1]; pos++) {
+				int p = next[colIdx[pos]]++;
+				colRows[p] = row;
+				colPos[p] = pos;
+			}
+		}
+	}
+
+	/**
+	 * Return the number of stored similarities
+	 *
+	 * @return the number of stored similarities
+	 */
+	int nnz() { return colIdx.length; }
+
+	/**
+	 * Return the position of a cell in the values array
+	 *
+	 * @param row the row of the cell
+	 * @param column the column of the cell
+	 * @return the position, or -1 if the similarity is zero
+	 */
+	int find(int row, int column) {
+		int pos = Arrays.binarySearch(colIdx, rowPtr[row], rowPtr[row+1], column);
+		return pos < 0 ? -1 : pos;
+	}
+
+	/**
+	 * Copy (or just count) the non-zero values of a row, replacing the
+	 * diagonal with the preference
+	 */
+	private static int copyRow(Matrix matrix, int row, double preference,
+	                           int[] cols, double[] vals, int offset) {
+		int n = offset;
+		boolean diagonalDone = false;
+		if (matrix instanceof SparseMatrix) {
+			SparseMatrix sparse = (SparseMatrix)matrix;
+			int[] ptr = sparse.getRowPointers();
+			int[] idx = sparse.getColumnIndices();
+			double[] v = sparse.getValues();
+			for (int pos = ptr[row]; pos < ptr[row+1]; pos++) {
+				int col = idx[pos];
+				if (col >= row && !diagonalDone) {
+					n = add(cols, vals, n, row, preference);
+					diagonalDone = true;
+				}
+				if (col != row)
+					n = add(cols, vals, n, col, v[pos]);
+			}
+		} else {
+			for (int col = 0; col < matrix.nColumns(); col++) {
+				if (col == row) {
+					n = add(cols, vals, n, row, preference);
+					diagonalDone = true;
+				} else {
+					n = add(cols, vals, n, col, matrix.doubleValue(row, col));
+				}
+			}
+		}
+		if (!diagonalDone)
+			n = add(cols, vals, n, row, preference);
+		return n - offset;
+	}
+
+	private static int add(int[] cols, double[] vals, int n, int col, double value) {
+		if (value == 0.0)
+			return n;
+		if (cols != null) {
+			cols[n] = col;
+			vals[n] = value;
+		}
+		return n+1;
+	}
+}
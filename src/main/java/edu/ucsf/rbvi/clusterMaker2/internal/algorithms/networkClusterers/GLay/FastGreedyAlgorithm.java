@@ -14,15 +14,10 @@ package edu.ucsf.rbvi.clusterMaker2.internal.algorithms.networkClusterers.GLay;
  * (see www.pnas.org/cgi/doi/10.1073/pnas.122653799, PNAS (99) 12. 2002)
  */
 
-import java.util.HashMap;
+import java.util.Arrays;
 
 import org.cytoscape.work.TaskMonitor;
 
-import cern.colt.function.tdouble.IntIntDoubleFunction;
-import cern.colt.matrix.tdouble.DoubleFactory2D;
-import cern.colt.matrix.tdouble.DoubleMatrix1D;
-import cern.colt.matrix.tdouble.DoubleMatrix2D;
-
 public class FastGreedyAlgorithm implements GAlgorithm {
     private double modularity;
     private int[] membership;
@@ -64,7 +59,19 @@ public class FastGreedyAlgorithm implements GAlgorithm {
 			this.halt = true;
 		}
     
-    /*Still use the sparse matrix implementation, but with improved structure*/
+    /*
+     * The Clauset-Newman-Moore structure: each community keeps the deltaQ of
+     * joining each of its neighbors in a hash table with a max-heap, and a
+     * global heap holds the best join of each community.  A join only
+     * touches the rows of the two communities and of their neighbors, and
+     * the smaller row is merged into the larger one.
+     * Of the joins with equal deltaQ, the last one in row-major order (the
+     * pair with the highest lower number, then the highest higher number)
+     * is made.  That is how the dense version this replaced picked its
+     * first join.  Later ties it took in the order of its sparse matrix's
+     * hash table, which is rebuilt on every join and can't be followed
+     * without scanning all of it, so those take the same row-major rule.
+     */
     public void execute(GSimpleGraphData g, TaskMonitor monitor) {
 
         /*Initialize*/
@@ -73,75 +80,35 @@ public class FastGreedyAlgorithm implements GAlgorithm {
         double qInitial = 0;
 
         membership = new int[g.nodeCount];
-        //int counter = 0;
+        int[] parent = new int[g.nodeCount];
         for(int i=0; i<g.nodeCount; i++){
-             
-             //graphIndex[counter] = index;
-             membership[i] = i;
+             parent[i] = i;
              ai[i] = g.degree[i]/(2.0*g.edgeCount);
              qInitial -= ai[i]*ai[i];
-             //nodeDegree[i] = network.getDegree(index);
-             //counter++;
         }
 
-        //for(int i=0; i<nodeIndexes.length-1; i++){
-        //    for(int j=i+1; j<nodeIndexes.length; j++){
-        //        //If there are more than one edge connecting two nodes, reduce the degree
-        //        if(network.getEdgeCount(network.getNode(graphIndex[i]), network.getNode(graphIndex[j]), false)>1){
-        //
-        //        }
-        //    }
-        //}
+        //The pairs that hasEdge says are connected
+        int[] adjacencyStart = g.getAdjacencyStart();
+        int[] adjacency = g.getAdjacency();
 
-        DoubleMatrix2D deltaQMx = DoubleFactory2D.sparse.make(g.nodeCount, g.nodeCount);
-        
-        //if(this.mode == 0){
-            MaxFun func = new MaxFun();
-        //}
-        double maxDeltaQ = 0;
-        double q = 0;
-        int maxI=0;
-        int maxJ=0;
-        double deltaQ = 0;
-
-        int itojDirectedEdgecount = 0;
-        int jtoiDirectedEdgecount = 0;
-        int ijUndirectedEdgeCount = 0;
-        int ijTotalEdgeCount = 0;
+        Row[] rows = new Row[g.nodeCount];
+        DeltaQHeap best = new DeltaQHeap(g.nodeCount);
 				// System.out.println("Nodecount = "+g.nodeCount+" EdgeCount = "+g.edgeCount);
         
         for(int i=0; i<g.nodeCount; i++){
-            for(int j=0; j<g.nodeCount; j++){
-
-                if(i == j){
-                    continue;
-                }
-                if (g.hasEdge(i, j) && i < j) {
-										// System.out.println("Looking at "+i+","+j+": degree[i]="+g.degree[i]+", g.degree[j]="+g.degree[j]);
-                    deltaQ = (1.0d/(2*g.edgeCount)-(g.degree[i]*g.degree[j])/(4.0*Math.pow(g.edgeCount, 2.0))) * 2;                    
-                    deltaQMx.setQuick(i, j, deltaQ);
-                    if(maxDeltaQ <= deltaQ){
-                        maxDeltaQ = deltaQ;
-                        maxI = i;
-                        maxJ = j;
-                    }
-                } else if(g.hasEdge(i, j) && i > j) {
-                    deltaQMx.setQuick(i, j, deltaQMx.getQuick(j, i));
-                }
-
+            rows[i] = new Row(i, adjacencyStart[i+1]-adjacencyStart[i]);
+            for(int k=adjacencyStart[i]; k<adjacencyStart[i+1]; k++){
+                int lo = Math.min(i, adjacency[k]);
+                int hi = Math.max(i, adjacency[k]);
+                double deltaQ = (1.0d/(2*g.edgeCount)-(g.degree[lo]*g.degree[hi])/(4.0*Math.pow(g.edgeCount, 2.0))) * 2;
+                //a zero deltaQ is the same as no edge
+                if(deltaQ != 0)
+                    rows[i].put(adjacency[k], deltaQ);
             }
+            pushBest(best, rows[i], i);
         }
-                
-        //make sure i,j are ordered
-        if(maxI > maxJ){
-            //swap
-            int temp = maxI;
-            maxI = maxJ;
-            maxJ = temp;
-        }
-
 
-        q = qInitial;
+        double q = qInitial;
         int counter = 0;
         this.progress = (double)counter/(double)g.nodeCount;
 				if (monitor != null)
@@ -151,104 +118,100 @@ public class FastGreedyAlgorithm implements GAlgorithm {
 					return;
 
         // System.out.println("qInitial:" + qInitial);
-        // System.out.println("maxDeltaQ:" + maxDeltaQ);
-        while(maxDeltaQ > 0){
+        while(true){
+            //Find the best join, dropping the heap entries that are out of date
+            int maxI = -1;
+            int maxJ = -1;
+            double maxDeltaQ = 0;
+            while(best.size() > 0){
+                Row row = rows[best.first()];
+                if(row != null && row.top() && row.topKey() == best.second() && row.topValue() == best.value()){
+                    maxI = best.first();
+                    maxJ = best.second();
+                    maxDeltaQ = best.value();
+                    break;
+                }
+                best.pop();
+            }
+            if(maxI < 0 || !(maxDeltaQ > 0))
+                break;
+
+            if (halt)
+                return;
+
             counter++;
-            //this.progress = (int)(100.0*counter/nodeCount);
             q += maxDeltaQ;
 
-            // System.out.println(q);
-        
-            for(int k=0; k<g.nodeCount; k++){
-                if (halt)
-                    return;
-                if(k==maxJ || k==maxI){
+            //Join the lower numbered community into the higher one, as before,
+            //but merge the smaller row into the larger one
+            int keep = Math.max(maxI, maxJ);
+            int drop = Math.min(maxI, maxJ);
+            boolean keepLarger = rows[keep].size() >= rows[drop].size();
+            int large = keepLarger ? keep : drop;
+            int small = keepLarger ? drop : keep;
+            Row joined = rows[large];
+            Row merged = rows[small];
+
+            //Neighbors of the larger community, and of both.  Any entries
+            //that end up zero are removed once the smaller row is merged.
+            boolean zeros = false;
+            for(int slot=0; slot<joined.capacity(); slot++){
+                int k = joined.keyAt(slot);
+                if(k < 0 || k == small)
                     continue;
-                }
-                else{
-                    //that k is connected to both I and J
-                    //we have an issue here, how to detect whether k is connected to i or j?
-                    
-                    if(deltaQMx.getQuick(maxI, k)!=0 && deltaQMx.getQuick(maxJ, k)!=0){
-                        deltaQMx.setQuick(maxJ, k, deltaQMx.getQuick(maxJ, k)+deltaQMx.getQuick(maxI, k));
-                    }
-                    else if(deltaQMx.getQuick(maxI, k)==0 && deltaQMx.getQuick(maxJ, k)!=0){
-                        deltaQMx.setQuick(maxJ, k, deltaQMx.getQuick(maxJ, k)-2*ai[maxI]*ai[k]);
-                    }
-                    else if(deltaQMx.getQuick(maxJ, k)==0 && deltaQMx.getQuick(maxI, k)!=0 ){
-                        deltaQMx.setQuick(maxJ, k, deltaQMx.getQuick(maxI, k)-2*ai[maxJ]*ai[k]);
-                    }
-                    else{
-                        //both are zero
-                        //nothing is done
-                        
-                        //it seems that nothing is wrong.
-                        //but the result is not quite correct
-                        //both are zero, no need to update
-                        // System.out.println("This is wrong!");
-                        // System.out.println("Do nothing.");
-                    }
-                }
-            }//end update jth row
-        
-            int membershipI = membership[maxI];
-            int membershipJ = membership[maxJ];
-            for(int k=0;k<g.nodeCount; k++){
-                deltaQMx.setQuick(k, maxJ, deltaQMx.getQuick(maxJ, k));
-                deltaQMx.setQuick(maxI, k, 0.0);
-                deltaQMx.setQuick(k, maxI, 0.0);
-                if(membership[k] == membershipI){
-                    membership[k] = membershipJ;
-                }
+                double deltaQ;
+                if(merged.contains(k))
+                    //k is connected to both
+                    deltaQ = joined.valueAt(slot)+merged.get(k);
+                else
+                    deltaQ = joined.valueAt(slot)-2*ai[small]*ai[k];
+                joined.set(slot, deltaQ);
+                zeros |= deltaQ == 0;
+                updateNeighbor(best, rows[k], k, drop, keep, deltaQ);
             }
-            
-            ai[maxJ] = ai[maxI] + ai[maxJ];
-            ai[maxI] = 0;
-            
-            deltaQMx.trimToSize();
-            
-            maxDeltaQ = 0;
-            maxI = 0;
-            maxJ = 0;
-            func.reset();
-            
-            deltaQMx.forEachNonZero(func);
-            maxDeltaQ = func.max;
-            maxI = func.row;
-            maxJ = func.column;
-            
-            if(maxI > maxJ){
-                //swap
-                int temp = maxI;
-                maxI = maxJ;
-                maxJ = temp;
+            //Neighbors of only the smaller community
+            for(int slot=0; slot<merged.capacity(); slot++){
+                int k = merged.keyAt(slot);
+                if(k < 0 || k == large || joined.contains(k))
+                    continue;
+                double deltaQ = merged.valueAt(slot)-2*ai[large]*ai[k];
+                //a zero deltaQ is the same as no edge
+                if(deltaQ != 0)
+                    joined.insert(k, deltaQ);
+                updateNeighbor(best, rows[k], k, drop, keep, deltaQ);
             }
+            joined.remove(small);
+            if(zeros)
+                joined.removeZeros();
+            joined.setOwner(keep);
+
+            rows[keep] = joined;
+            rows[drop] = null;
+            pushBest(best, joined, keep);
+            parent[drop] = keep;
+
+            ai[keep] = ai[maxI] + ai[maxJ];
+            ai[drop] = 0;
             
             // System.out.println("maxDeltaQ" + maxDeltaQ);
         }//end of while loop
         
         
         //these all can be done in linear time    
-        HashMap<Integer, Integer> membershipMapping = new HashMap<Integer, Integer>();
+        int[] clusterIndex = new int[g.nodeCount];
+        Arrays.fill(clusterIndex, -1);
         int index=0;
         for(int i=0; i<membership.length; i++){
-            if(membershipMapping.containsKey(new Integer(membership[i]))){
-            
-            }
-            else{
-                membershipMapping.put(new Integer(membership[i]), new Integer(index));
+            int root = find(parent, i);
+            if(clusterIndex[root] < 0){
+                clusterIndex[root] = index;
                 index++;
             }
+            membership[i] = clusterIndex[root];
         }
 
-        // System.out.println("NumOfClusters:" + membershipMapping.keySet().size());
-        this.clusterNumber = membershipMapping.keySet().size();
-        
-        for(int i=0; i<membership.length; i++){
-            membership[i] = membershipMapping.get(new Integer(membership[i])).intValue();
-        }
-        
-        //assignMembership(network, graphIndex, membership, membershipMapping);
+        // System.out.println("NumOfClusters:" + index);
+        this.clusterNumber = index;
         
         //System.out.println(q);
         this.modularity = q;
@@ -259,44 +222,259 @@ public class FastGreedyAlgorithm implements GAlgorithm {
         //This notifies that the current thread is over
         //this.progress = 100;
         // System.out.println("The result modularity is:" + q);
+    }
 
-        // for(int i=0; i<membership.length; i++){
-        //     System.out.println(membership[i]);
-        // }
+    //Replace the entry for the dropped community with the entry for the joined one
+    private static void updateNeighbor(DeltaQHeap best, Row row, int k, int drop, int keep, double deltaQ){
+        row.remove(drop);
+        if(deltaQ != 0)
+            row.put(keep, deltaQ);
+        else
+            row.remove(keep);
+        pushBest(best, row, k);
     }
- 
-
-    //The max function for general Fast-Greedy Algorithm
-    private class MaxFun implements IntIntDoubleFunction{
-        public double max;
-        public int row;
-        public int column;
-
-        public MaxFun(){
-            max = -Double.MAX_VALUE;
-            row = 0;
-            column = 0;
+
+    private static void pushBest(DeltaQHeap best, Row row, int index){
+        if(row.top())
+            best.push(row.topValue(), index, row.topKey());
+    }
+
+    private static int find(int[] parent, int i){
+        int root = i;
+        while(parent[root] != root)
+            root = parent[root];
+        while(parent[i] != root){
+            int next = parent[i];
+            parent[i] = root;
+            i = next;
         }
+        return root;
+    }
 
-        public void reset(){
-            max = -Double.MAX_VALUE;
-            row = 0;
-            column = 0;
+    /*
+     * The deltaQ of joining a community with each of its neighbors, in an
+     * open addressing hash table, with a max-heap of the entries.  Entries
+     * aren't taken out of the heap when they change; out of date entries
+     * are dropped when they reach the top.  The heap entries hold the
+     * community that owns the row, so ties are broken by the pair.
+     */
+    static class Row {
+        private static final int EMPTY = -1;
+        private static final int DELETED = -2;
+
+        private int[] keys;
+        private double[] values;
+        private int size = 0;
+        private int used = 0;
+        private int owner;
+        private final DeltaQHeap heap;
+
+        Row(int owner, int expected){
+            this.owner = owner;
+            allocate(expected);
+            heap = new DeltaQHeap(expected);
         }
 
-        public double apply(int row, int col, double value){
-        /*There can be some fold of multiplicity of problem, the reason is at a certain merge,
-         *When ther are more than one best merge, the choice this merge may impact the subsequent
-         *Merges. So the q-values from different implementation of the same algorithm can be
-         *slightly different
-         */
-        
-            if(max < value){
-                max = value;
-                this.row = row;
-                this.column = col;
+        int size(){ return size; }
+        int capacity(){ return keys.length; }
+        int keyAt(int slot){ return keys[slot]; }
+        double valueAt(int slot){ return values[slot]; }
+
+        boolean contains(int key){ return keys[slot(key)] == key; }
+
+        double get(int key){
+            int slot = slot(key);
+            return keys[slot] == key ? values[slot] : 0.0;
+        }
+
+        void put(int key, double value){
+            insert(key, value);
+            if(heap.size() > 2*size+16)
+                rebuildHeap();
+            else
+                heap.push(value, owner, key);
+        }
+
+        //Set a value without adding it to the heap, for use before setOwner
+        void insert(int key, double value){
+            int slot = slot(key);
+            if(keys[slot] != key){
+                if((used+1)*2 > keys.length){
+                    rehash(size+1);
+                    slot = slot(key);
+                }
+                if(keys[slot] == EMPTY)
+                    used++;
+                keys[slot] = key;
+                size++;
+            }
+            values[slot] = value;
+        }
+
+        //Change the value in a slot without adding it to the heap, for use before setOwner
+        void set(int slot, double value){
+            values[slot] = value;
+        }
+
+        void removeZeros(){
+            for(int slot=0; slot<keys.length; slot++){
+                if(keys[slot] >= 0 && values[slot] == 0){
+                    keys[slot] = DELETED;
+                    size--;
+                }
+            }
+        }
+
+        //Give the row to a (new) community, and rebuild the heap
+        void setOwner(int owner){
+            this.owner = owner;
+            rebuildHeap();
+        }
+
+        void remove(int key){
+            int slot = slot(key);
+            if(keys[slot] == key){
+                keys[slot] = DELETED;
+                size--;
+            }
+        }
+
+        //Drop out of date entries from the top of the heap, and return false if it's empty
+        boolean top(){
+            while(heap.size() > 0){
+                int slot = slot(heap.second());
+                if(keys[slot] == heap.second() && values[slot] == heap.value())
+                    return true;
+                heap.pop();
+            }
+            return false;
+        }
+
+        int topKey(){ return heap.second(); }
+        double topValue(){ return heap.value(); }
+
+        private void rebuildHeap(){
+            heap.clear();
+            for(int slot=0; slot<keys.length; slot++){
+                if(keys[slot] >= 0)
+                    heap.push(values[slot], owner, keys[slot]);
+            }
+        }
+
+        //The slot with the key, or the first free slot if it's not there
+        private int slot(int key){
+            int mask = keys.length-1;
+            int slot = (key*0x9E3779B9) >>> 7 & mask;
+            int free = -1;
+            while(keys[slot] != EMPTY){
+                if(keys[slot] == key)
+                    return slot;
+                if(free < 0 && keys[slot] == DELETED)
+                    free = slot;
+                slot = (slot+1) & mask;
             }
-            return value;
+            return free >= 0 ? free : slot;
+        }
+
+        private void allocate(int expected){
+            int capacity = 4;
+            while(capacity < expected*2+2)
+                capacity *= 2;
+            keys = new int[capacity];
+            values = new double[capacity];
+            Arrays.fill(keys, EMPTY);
+            used = 0;
+            size = 0;
+        }
+
+        private void rehash(int expected){
+            int[] oldKeys = keys;
+            double[] oldValues = values;
+            allocate(expected);
+            for(int slot=0; slot<oldKeys.length; slot++){
+                if(oldKeys[slot] >= 0){
+                    int s = slot(oldKeys[slot]);
+                    keys[s] = oldKeys[slot];
+                    values[s] = oldValues[slot];
+                    used++;
+                    size++;
+                }
+            }
+        }
+    }
+
+    /*
+     * A max-heap of deltaQ values, each for a pair of communities.  Equal
+     * values are ordered by the pair, the higher pair first, so the order
+     * of the joins doesn't depend on the order things were added.
+     */
+    static class DeltaQHeap {
+        private double[] values;
+        private int[] first;
+        private int[] second;
+        private int size = 0;
+
+        DeltaQHeap(int capacity){
+            capacity = Math.max(capacity, 4);
+            values = new double[capacity];
+            first = new int[capacity];
+            second = new int[capacity];
+        }
+
+        int size(){ return size; }
+        double value(){ return values[0]; }
+        int first(){ return first[0]; }
+        int second(){ return second[0]; }
+        void clear(){ size = 0; }
+
+        void push(double value, int a, int b){
+            if(size == values.length){
+                values = Arrays.copyOf(values, size*2);
+                first = Arrays.copyOf(first, size*2);
+                second = Arrays.copyOf(second, size*2);
+            }
+            int i = size++;
+            values[i] = value;
+            first[i] = a;
+            second[i] = b;
+            while(i > 0 && above(i, (i-1)/2)){
+                swap(i, (i-1)/2);
+                i = (i-1)/2;
+            }
+        }
+
+        void pop(){
+            size--;
+            swap(0, size);
+            int i = 0;
+            while(true){
+                int top = i;
+                int left = 2*i+1;
+                if(left < size && above(left, top))
+                    top = left;
+                if(left+1 < size && above(left+1, top))
+                    top = left+1;
+                if(top == i)
+                    break;
+                swap(i, top);
+                i = top;
+            }
+        }
+
+        private boolean above(int x, int y){
+            if(values[x] != values[y])
+                return values[x] > values[y];
+            int lowX = Math.min(first[x], second[x]);
+            int lowY = Math.min(first[y], second[y]);
+            if(lowX != lowY)
+                return lowX > lowY;
+            return Math.max(first[x], second[x]) > Math.max(first[y], second[y]);
+        }
+
+        private void swap(int x, int y){
+            double v = values[x]; values[x] = values[y]; values[y] = v;
+            int a = first[x]; first[x] = first[y]; first[y] = a;
+            int b = second[x]; second[x] = second[y]; second[y] = b;
         }
     }
 }
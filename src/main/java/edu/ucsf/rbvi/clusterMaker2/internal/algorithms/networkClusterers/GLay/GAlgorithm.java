@@ -5,13 +5,18 @@
 
 package edu.ucsf.rbvi.clusterMaker2.internal.algorithms.networkClusterers.GLay;
 
+import org.cytoscape.work.TaskMonitor;
+
 /**
  *
  * @author Gang Su
  */
 public interface GAlgorithm {
 
+    public void execute(GSimpleGraphData g, TaskMonitor monitor);
     public abstract double getModularity();
     public int[] getMembership();
+    public int getClusterNumber();
+    public void cancel();
 
 }
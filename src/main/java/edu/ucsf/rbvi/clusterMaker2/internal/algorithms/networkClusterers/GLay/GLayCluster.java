@@ -52,6 +52,7 @@ import edu.ucsf.rbvi.clusterMaker2.internal.api.ClusterManager;
 import edu.ucsf.rbvi.clusterMaker2.internal.api.ClusterResults;
 import edu.ucsf.rbvi.clusterMaker2.internal.api.ClusterViz;
 
+import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.NetworkGraph;
 import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.NodeCluster;
 import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.networkClusterers.AbstractNetworkClusterer;
 import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.AbstractClusterResults;
@@ -63,7 +64,7 @@ public class GLayCluster extends AbstractNetworkClusterer  {
 	public static String NAME = "Community cluster (GLay)";
 	public final static String GROUP_ATTRIBUTE = SHORTNAME;
 	
-	FastGreedyAlgorithm fa = null;
+	GAlgorithm fa = null;
 	boolean createNewNetwork = false;
 
 	@Tunable(description="Network to cluster", context="nogui")
@@ -104,8 +105,12 @@ public class GLayCluster extends AbstractNetworkClusterer  {
 
 		NodeCluster.init();
 
-    GSimpleGraphData simpleGraph = new GSimpleGraphData(network, context.selectedOnly, context.undirectedEdges);
-		fa = new FastGreedyAlgorithm();
+    NetworkGraph graph = NetworkGraph.cached(clusterManager.getNetworkCache(), network);
+    GSimpleGraphData simpleGraph = new GSimpleGraphData(graph, context.selectedOnly, context.undirectedEdges);
+		if (GLayContext.LEIDEN.equals(context.algorithm.getSelectedValue()))
+			fa = new LeidenAlgorithm(context.resolution, context.iterations, LeidenAlgorithm.DEFAULT_SEED);
+		else
+			fa = new FastGreedyAlgorithm();
 		//fa.partition(simpleGraph);
 		fa.execute(simpleGraph, monitor);
 
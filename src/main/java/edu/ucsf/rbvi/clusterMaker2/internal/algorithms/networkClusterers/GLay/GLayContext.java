@@ -5,12 +5,16 @@ import org.cytoscape.model.CyNetwork;
 import org.cytoscape.work.ContainsTunables;
 import org.cytoscape.work.Tunable;
 import org.cytoscape.work.swing.TunableUIHelper;
+import org.cytoscape.work.util.ListSingleSelection;
 
 import edu.ucsf.rbvi.clusterMaker2.internal.api.ClusterAlgorithmContext;
 import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.AdvancedProperties;
 import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.networkClusterers.NetworkVizProperties;
 
 public class GLayContext implements ClusterAlgorithmContext {
+	public static final String FAST_GREEDY = "Fast greedy";
+	public static final String LEIDEN = "Leiden";
+
 	CyNetwork network;
 	
 	//Tunables
@@ -20,6 +24,16 @@ public class GLayContext implements ClusterAlgorithmContext {
 	@Tunable(description = "Assume edges are undirected", groups={"Basic GLay Tuning"},gravity=2.0)
 	public boolean undirectedEdges = true;
 
+	@Tunable(description = "Algorithm", groups={"Basic GLay Tuning"},gravity=3.0)
+	public ListSingleSelection<String> algorithm = new ListSingleSelection<String>(FAST_GREEDY, LEIDEN);
+
+	@Tunable(description = "Resolution", dependsOn="algorithm="+LEIDEN,
+	         groups={"Basic GLay Tuning"},gravity=4.0)
+	public double resolution = LeidenAlgorithm.DEFAULT_RESOLUTION;
+
+	@Tunable(description = "Number of iterations", dependsOn="algorithm="+LEIDEN,
+	         groups={"Basic GLay Tuning"},gravity=5.0)
+	public int iterations = LeidenAlgorithm.DEFAULT_ITERATIONS;
     
 	@ContainsTunables
 	public AdvancedProperties advancedAttributes;
@@ -39,6 +53,9 @@ public class GLayContext implements ClusterAlgorithmContext {
 		
 		selectedOnly = origin.selectedOnly;
 		undirectedEdges = origin.undirectedEdges;
+		algorithm.setSelectedValue(origin.algorithm.getSelectedValue());
+		resolution = origin.resolution;
+		iterations = origin.iterations;
 	}
 
 	public void setNetwork(CyNetwork network) {
@@ -5,16 +5,14 @@
 
 package edu.ucsf.rbvi.clusterMaker2.internal.algorithms.networkClusterers.GLay;
 
-import java.util.ArrayList;
-import java.util.List;
-
+import java.util.Arrays;
 
 import org.cytoscape.model.CyEdge;
 import org.cytoscape.model.CyNetwork;
 import org.cytoscape.model.CyNode;
 import org.cytoscape.model.CyTableUtil;
 
-import edu.ucsf.rbvi.clusterMaker2.internal.utils.ModelUtils;
+import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.NetworkGraph;
 import cern.colt.matrix.tdouble.DoubleFactory2D;
 import cern.colt.matrix.tdouble.DoubleMatrix1D;
 import cern.colt.matrix.tdouble.DoubleMatrix2D;
@@ -33,23 +31,29 @@ public class GSimpleGraphData {
     public DoubleMatrix2D edgeMatrix;
 		private boolean selectedOnly;
 		private boolean undirectedEdges;
-		private List<CyNode> nodeList;
-		private List<CyEdge> connectingEdges;
+		private NetworkGraph fullGraph;
+		private NetworkGraph graph;
+		//The simplified graph in compressed sparse row form, built when it's first needed
+		private int[] adjacencyStart;
+		private int[] adjacency;
 
-		@SuppressWarnings("unchecked")
     public GSimpleGraphData(CyNetwork network, boolean selectedOnly, boolean undirectedEdges){
-        this.network = network;
+        this(NetworkGraph.build(network), selectedOnly, undirectedEdges);
+    }
+
+    public GSimpleGraphData(NetworkGraph graph, boolean selectedOnly, boolean undirectedEdges){
+        this.network = graph.getNetwork();
 				this.selectedOnly = selectedOnly;
 				this.undirectedEdges = undirectedEdges;
+				this.fullGraph = graph;
 				if (!selectedOnly) {
-					this.nodeList = (List<CyNode>)network.getNodeList();
+					this.graph = graph;
 				} else {
-					this.nodeList = new ArrayList<CyNode>(CyTableUtil.getNodesInState(network, CyNetwork.SELECTED, true));
+					this.graph = graph.induced(CyTableUtil.getNodesInState(network, CyNetwork.SELECTED, true));
 				}
 
-				this.nodeCount = nodeList.size();
-				this.connectingEdges = ModelUtils.getConnectingEdges(network, nodeList);
-				this.edgeCount = this.connectingEdges.size();
+				this.nodeCount = this.graph.nodeCount();
+				this.edgeCount = this.graph.edgeCount();
         this.graphIndices = new CyNode[this.nodeCount];
         this.degree = new int[this.nodeCount];
         this.edgeMatrix = DoubleFactory2D.sparse.make(nodeCount, nodeCount);
@@ -59,29 +63,43 @@ public class GSimpleGraphData {
     private void simplify(){
 				// System.out.println("nodeCount = "+nodeCount+", edgeCount = "+edgeCount);
 
-        //Assign index and degree
-        for(int i=0; i<nodeList.size(); i++){
-            this.graphIndices[i] = nodeList.get(i);
-            this.degree[i] = network.getNeighborList(this.graphIndices[i], CyEdge.Type.ANY).size();
+        //Assign index and degree (counting the edges to any node in the network)
+        for(int i=0; i<nodeCount; i++){
+            this.graphIndices[i] = graph.getNode(i);
+            this.degree[i] = fullGraph.degree(fullGraph.indexOf(this.graphIndices[i]));
         }
 
         //Assign edge
-        int ijEdge = 0; //Edge from i to j
-        int jiEdge = 0; //Edge from j to i
-        int ijUEdge = 0; //Undirectional edges
+        int[] anyEdges = new int[nodeCount]; //Edges between i and j
+        int[] directedEdges = new int[nodeCount]; //Directed edges between i and j
+        int[] touched = new int[nodeCount];
         int totalEdge = 0;
-        for(int i=0; i<graphIndices.length-1; i++){
-            for(int j=i+1; j<graphIndices.length; j++){
-                //Count the number of edges
+        for(int i=0; i<nodeCount; i++){
+            //Count the number of edges to each of the later nodes
+            int nTouched = 0;
+            for(int k=graph.adjacencyStart(i); k<graph.adjacencyEnd(i); k++){
+                int j = graph.getNeighbor(k);
+                if(j <= i)
+                    continue;
+                if(anyEdges[j] == 0)
+                    touched[nTouched++] = j;
+                anyEdges[j]++;
+                if(graph.isDirected(graph.getAdjacentEdge(k)))
+                    directedEdges[j]++;
+            }
+
+            for(int t=0; t<nTouched; t++){
+                int j = touched[t];
                 if (undirectedEdges) {
-                	jiEdge = network.getConnectingEdgeList(graphIndices[j], graphIndices[i], CyEdge.Type.ANY).size(); //Count un-directional
-                	// ijEdge = network.getConnectingEdgeList(graphIndices[i], graphIndices[j], CyEdge.Type.ANY).size(); //Count un-directional
-								} else {
-                	ijEdge = network.getConnectingEdgeList(graphIndices[i], graphIndices[j], CyEdge.Type.DIRECTED).size(); //Doesn't count un-directional
-                	jiEdge = network.getConnectingEdgeList(graphIndices[j], graphIndices[i], CyEdge.Type.DIRECTED).size(); //Count un-directional
-								}
-                //ijUEdge = network.getEdgeCount(graphIndices[i], graphIndices[j], true);
-                totalEdge = ijEdge + jiEdge;
+                	totalEdge = anyEdges[j]; //Count un-directional
+                } else {
+                	//Directed edges between the two are counted from each end
+                	totalEdge = 2*directedEdges[j];
+                }
+                anyEdges[j] = 0;
+                directedEdges[j] = 0;
+                if(totalEdge == 0)
+                    continue;
                 this.edgeMatrix.setQuick(i, j, totalEdge); //conversion from int to double is ok.
 
                 //fix degree and edge count.
@@ -101,6 +119,69 @@ public class GSimpleGraphData {
 
     }
 
+    /**
+     * Return the snapshot of the (possibly selected) nodes and edges
+     * this was built from.  Node i of the graph is graphIndices[i].
+     *
+     * @return the graph
+     */
+    public NetworkGraph getGraph(){
+        return graph;
+    }
+
+    /**
+     * Return where the neighbors of each node start in {@link #getAdjacency}.
+     * The neighbors of node i are at adjacencyStart[i] up to adjacencyStart[i+1].
+     *
+     * @return the start of each node's neighbors, with nodeCount+1 entries
+     */
+    public int[] getAdjacencyStart(){
+        if(adjacencyStart == null)
+            buildAdjacency();
+        return adjacencyStart;
+    }
+
+    /**
+     * Return the neighbors of the nodes of the simplified graph: each pair
+     * that hasEdge says is connected is listed once from each end, in the
+     * order the nodes are adjacent in the snapshot.
+     *
+     * @return the neighbors of each node, in the ranges given by
+     * {@link #getAdjacencyStart}
+     */
+    public int[] getAdjacency(){
+        if(adjacency == null)
+            buildAdjacency();
+        return adjacency;
+    }
+
+    private void buildAdjacency(){
+        int[] seen = new int[nodeCount];
+        Arrays.fill(seen, -1);
+
+        int[] start = new int[nodeCount+1];
+        for(int pass=0; pass<2; pass++){
+            int[] neighbors = pass == 0 ? null : new int[start[nodeCount]];
+            for(int i=0; i<nodeCount; i++){
+                int count = 0;
+                for(int k=graph.adjacencyStart(i); k<graph.adjacencyEnd(i); k++){
+                    int j = graph.getNeighbor(k);
+                    if(seen[j] == i + pass*nodeCount || !hasEdge(i, j))
+                        continue;
+                    seen[j] = i + pass*nodeCount;
+                    if(neighbors != null)
+                        neighbors[start[i]+count] = j;
+                    count++;
+                }
+                if(pass == 0)
+                    start[i+1] = start[i] + count;
+            }
+            if(pass == 1)
+                adjacency = neighbors;
+        }
+        adjacencyStart = start;
+    }
+
     public boolean hasEdge(int i, int j){
         /*Note i and j must 0< i,j < nodeCount - 1*/
         if(i==j)return false;
@@ -0,0 +1,687 @@
+package edu.ucsf.rbvi.clusterMaker2.internal.algorithms.networkClusterers.GLay;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.stream.IntStream;
+
+import org.cytoscape.work.TaskMonitor;
+
+/**
+ * The Leiden algorithm for modularity clustering (see Traag, Waltman and
+ * van Eck, "From Louvain to Leiden: guaranteeing well-connected communities",
+ * Scientific Reports 9, 2019).  Each level moves nodes between communities
+ * until no move improves the quality, refines each community into
+ * well-connected subcommunities, and then aggregates the subcommunities
+ * into the nodes of a smaller graph, which starts out with the communities
+ * of the level before.  This stops once each community is a single node.
+ *
+ * Every level is kept in compressed sparse row form.  When moving nodes,
+ * the best community for each node is found in parallel and the moves
+ * are then made in order, checking each one against the communities as
+ * they are by then, so the result doesn't depend on the number of threads.
+ * The communities are refined in parallel, each with its own random
+ * numbers, and the aggregate graphs are built in parallel.
+ */
+public class LeidenAlgorithm implements GAlgorithm {
+	public static final double DEFAULT_RESOLUTION = 1.0;
+	public static final int DEFAULT_ITERATIONS = 2;
+	static final long DEFAULT_SEED = 42;
+
+	// The randomness of the merges in the refinement
+	static final double THETA = 0.01;
+
+	private final double resolution;
+	private final int iterations;
+	private final long seed;
+
+	private double modularity;
+	private int[] membership;
+	private int clusterNumber;
+	private volatile boolean halt = false;
+
+	private Chunks chunks;
+
+	public LeidenAlgorithm() {
+		this(DEFAULT_RESOLUTION, DEFAULT_ITERATIONS, DEFAULT_SEED);
+	}
+
+	/**
+	 * Create the algorithm
+	 *
+	 * @param resolution the resolution; larger values give more, smaller communities
+	 * @param iterations the number of times to run the algorithm, each starting
+	 *                   from the communities found by the last
+	 * @param seed the seed for the random numbers
+	 */
+	public LeidenAlgorithm(double resolution, int iterations, long seed) {
+		this.resolution = resolution;
+		this.iterations = Math.max(1, iterations);
+		this.seed = seed;
+		this.modularity = 0;
+		this.membership = new int[0];
+		this.clusterNumber = 0;
+	}
+
+	public double getModularity() { return modularity; }
+
+	public int[] getMembership() { return membership; }
+
+	public int getClusterNumber() { return clusterNumber; }
+
+	public void cancel() { halt = true; }
+
+	public void execute(GSimpleGraphData g, TaskMonitor monitor) {
+		execute(Graph.fromSimpleGraph(g), monitor);
+	}
+
+	/**
+	 * Find the communities of a graph
+	 *
+	 * @param graph the graph
+	 * @param monitor the (possibly null) task monitor
+	 */
+	void execute(Graph graph, TaskMonitor monitor) {
+		chunks = new Chunks(graph.n);
+		Random random = new Random(seed);
+
+		int[] communities = new int[graph.n];
+		for (int node = 0; node < graph.n; node++)
+			communities[node] = node;
+
+		if (graph.totalWeight > 0) {
+			for (int iteration = 0; iteration < iterations && !halt; iteration++) {
+				boolean changed = iterate(graph, communities, random);
+				if (monitor != null)
+					monitor.setProgress((double)(iteration+1)/(double)iterations);
+				if (!changed)
+					break;
+			}
+		}
+
+		clusterNumber = renumber(communities);
+		membership = communities;
+		modularity = graph.modularity(communities, 1.0);
+		if (monitor != null)
+			monitor.setProgress(1.0);
+	}
+
+	/**
+	 * One iteration of the algorithm, from local moving through to the
+	 * last aggregate graph
+	 *
+	 * @param graph the graph
+	 * @param communities the community of each node, which is updated
+	 * @param random the random numbers
+	 * @return true if any node changed community
+	 */
+	private boolean iterate(Graph graph, int[] communities, Random random) {
+		boolean changed = false;
+		Graph level = graph;
+		int[] levelCommunities = Arrays.copyOf(communities, communities.length);
+		renumber(levelCommunities);
+
+		// The node of the current level that each of the nodes of the graph is in
+		int[] levelNode = new int[graph.n];
+		for (int node = 0; node < graph.n; node++)
+			levelNode[node] = node;
+
+		while (!halt) {
+			changed |= moveNodes(level, levelCommunities, random);
+
+			int nCommunities = renumber(levelCommunities);
+			if (nCommunities == level.n)
+				break;
+
+			int[] refined = refine(level, levelCommunities, nCommunities, random.nextLong());
+			int nRefined = renumber(refined);
+			if (nRefined == level.n) {
+				// Nothing was merged, so aggregate the communities themselves
+				refined = Arrays.copyOf(levelCommunities, level.n);
+				nRefined = nCommunities;
+			}
+			Graph aggregate = level.aggregate(refined, nRefined, chunks);
+
+			// Each subcommunity starts out in the community it was refined from
+			int[] aggregateCommunities = new int[nRefined];
+			for (int node = 0; node < level.n; node++)
+				aggregateCommunities[refined[node]] = levelCommunities[node];
+
+			for (int node = 0; node < graph.n; node++)
+				levelNode[node] = refined[levelNode[node]];
+			level = aggregate;
+			levelCommunities = aggregateCommunities;
+		}
+
+		for (int node = 0; node < graph.n; node++)
+			communities[node] = levelCommunities[levelNode[node]];
+		return changed;
+	}
+
+	/**
+	 * Move nodes to the community that improves the quality the most,
+	 * until no move improves it.  Only the neighbors of nodes that moved
+	 * are looked at again.
+	 *
+	 * @param graph the graph
+	 * @param community the community of each node, which is updated
+	 * @param random the random numbers for the order of the nodes
+	 * @return true if any node moved
+	 */
+	private boolean moveNodes(Graph graph, int[] community, Random random) {
+		int n = graph.n;
+		Communities communities = new Communities(graph, community);
+
+		int[] active = new int[n];
+		for (int node = 0; node < n; node++)
+			active[node] = node;
+		shuffle(active, n, random);
+		int nActive = n;
+
+		int[] next = new int[n];
+		boolean[] queued = new boolean[n];
+		int[] proposals = new int[n];
+		boolean changed = false;
+
+		while (nActive > 0 && !halt) {
+			final int[] nodes = active;
+			chunks.forEach(nActive, (i, acc) -> proposals[nodes[i]] = bestCommunity(graph, communities, nodes[i], acc));
+
+			int nNext = 0;
+			for (int i = 0; i < nActive; i++) {
+				int node = nodes[i];
+				if (proposals[node] == community[node])
+					continue;
+
+				// Other nodes may have moved since the proposal
+				int best = bestCommunity(graph, communities, node, chunks.serial());
+				if (best == community[node])
+					continue;
+
+				communities.move(node, best);
+				changed = true;
+
+				for (int pos = graph.ptr[node]; pos < graph.ptr[node+1]; pos++) {
+					int neighbor = graph.adj[pos];
+					if (!queued[neighbor] && community[neighbor] != community[node]) {
+						queued[neighbor] = true;
+						next[nNext++] = neighbor;
+					}
+				}
+			}
+
+			for (int i = 0; i < nNext; i++)
+				queued[next[i]] = false;
+			int[] swap = active; active = next; next = swap;
+			nActive = nNext;
+		}
+		return changed;
+	}
+
+	/**
+	 * Find the community that a node should move to
+	 *
+	 * @param acc the (empty) accumulator to sum the weights to each community in
+	 * @return the community, or Communities.NEW for a community of its own
+	 */
+	private int bestCommunity(Graph graph, Communities communities, int node, Accumulator acc) {
+		int current = communities.community[node];
+		double weight = graph.nodeWeight[node];
+		double scale = resolution*weight/graph.totalWeight;
+
+		for (int pos = graph.ptr[node]; pos < graph.ptr[node+1]; pos++) {
+			if (graph.adj[pos] != node)
+				acc.add(communities.community[graph.adj[pos]], graph.w[pos]);
+		}
+
+		double rest = communities.size[current] == 1 ? 0.0 : communities.weight[current] - weight;
+		int best = current;
+		double bestValue = acc.get(current) - scale*rest;
+		for (int i = 0; i < acc.nTouched; i++) {
+			int c = acc.touched[i];
+			if (c == current)
+				continue;
+			double value = acc.values[c] - scale*communities.weight[c];
+			if (value > bestValue) {
+				best = c;
+				bestValue = value;
+			}
+		}
+		acc.clear();
+
+		// A community of its own is worth 0
+		if (bestValue < 0.0 && communities.size[current] > 1)
+			return Communities.NEW;
+		return best;
+	}
+
+	/**
+	 * Split each community into well-connected subcommunities.  Each node
+	 * starts out on its own, and nodes that are still on their own are merged
+	 * into a well-connected subcommunity of the same community, chosen at
+	 * random with a preference for the merges that improve the quality the
+	 * most.
+	 *
+	 * @param graph the graph
+	 * @param community the community of each node, numbered from 0
+	 * @param nCommunities the number of communities
+	 * @param seed the seed for the random numbers of the communities
+	 * @return the subcommunity of each node
+	 */
+	private int[] refine(Graph graph, int[] community, int nCommunities, long seed) {
+		int n = graph.n;
+		int[] refined = new int[n];
+		double[] refinedWeight = new double[n];
+		double[] externalWeight = new double[n];
+		boolean[] nonSingleton = new boolean[n];
+
+		// The members of each community
+		int[] start = new int[nCommunities+1];
+		for (int node = 0; node < n; node++)
+			start[community[node]+1]++;
+		for (int c = 0; c < nCommunities; c++)
+			start[c+1] += start[c];
+		int[] members = new int[n];
+		// The position of each node among the members of its community
+		int[] local = new int[n];
+		int[] fill = Arrays.copyOf(start, nCommunities);
+		for (int node = 0; node < n; node++) {
+			local[node] = fill[community[node]] - start[community[node]];
+			members[fill[community[node]]++] = node;
+		}
+
+		IntStream.range(0, nCommunities).parallel().forEach(c -> {
+			if (halt)
+				return;
+			int first = start[c];
+			int count = start[c+1] - first;
+			double communityWeight = 0.0;
+			for (int i = first; i < first+count; i++) {
+				int node = members[i];
+				refined[node] = node;
+				refinedWeight[node] = graph.nodeWeight[node];
+				communityWeight += graph.nodeWeight[node];
+				double external = 0.0;
+				for (int pos = graph.ptr[node]; pos < graph.ptr[node+1]; pos++) {
+					int neighbor = graph.adj[pos];
+					if (neighbor != node && community[neighbor] == c)
+						external += graph.w[pos];
+				}
+				externalWeight[node] = external;
+			}
+			if (count == 1)
+				return;
+
+			Random random = new Random(seed + c);
+			int[] order = Arrays.copyOfRange(members, first, first+count);
+			shuffle(order, count, random);
+			mergeNodes(graph, community, c, communityWeight, order, members, first, local,
+			           refined, refinedWeight, externalWeight, nonSingleton, random);
+		});
+		return refined;
+	}
+
+	private void mergeNodes(Graph graph, int[] community, int c, double communityWeight, int[] order,
+	                        int[] members, int first, int[] local,
+	                        int[] refined, double[] refinedWeight, double[] externalWeight,
+	                        boolean[] nonSingleton, Random random) {
+		double scale = resolution/graph.totalWeight;
+		// The subcommunities are all members of the community, so they're
+		// summed by their position among the members
+		Accumulator acc = new Accumulator(order.length);
+		int[] candidates = new int[order.length];
+		double[] cumulative = new double[order.length];
+
+		for (int node: order) {
+			double weight = graph.nodeWeight[node];
+			// Only nodes that are still on their own, and are well connected to the community
+			if (nonSingleton[node] || refined[node] != node ||
+			    externalWeight[node] < scale*weight*(communityWeight - weight))
+				continue;
+
+			refinedWeight[node] = 0.0;
+			externalWeight[node] = 0.0;
+
+			acc.add(local[node], 0.0);
+			for (int pos = graph.ptr[node]; pos < graph.ptr[node+1]; pos++) {
+				int neighbor = graph.adj[pos];
+				if (neighbor != node && community[neighbor] == c)
+					acc.add(local[refined[neighbor]], graph.w[pos]);
+			}
+
+			int best = node;
+			double bestValue = 0.0;
+			int nCandidates = 0;
+			for (int i = 0; i < acc.nTouched; i++) {
+				int sub = members[first+acc.touched[i]];
+				// Only subcommunities that are well connected to the community
+				if (externalWeight[sub] < scale*refinedWeight[sub]*(communityWeight - refinedWeight[sub]))
+					continue;
+				double value = acc.values[acc.touched[i]] - scale*weight*refinedWeight[sub];
+				if (value < 0.0)
+					continue;
+				if (value > bestValue) {
+					best = sub;
+					bestValue = value;
+				}
+				candidates[nCandidates] = sub;
+				cumulative[nCandidates++] = value;
+			}
+			acc.clear();
+
+			int chosen = best;
+			if (nCandidates > 1) {
+				double total = 0.0;
+				for (int i = 0; i < nCandidates; i++) {
+					total += Math.exp((cumulative[i] - bestValue)/THETA);
+					cumulative[i] = total;
+				}
+				double r = random.nextDouble()*total;
+				for (int i = 0; i < nCandidates; i++) {
+					if (r < cumulative[i]) {
+						chosen = candidates[i];
+						break;
+					}
+				}
+			}
+
+			refinedWeight[chosen] += weight;
+			for (int pos = graph.ptr[node]; pos < graph.ptr[node+1]; pos++) {
+				int neighbor = graph.adj[pos];
+				if (neighbor == node || community[neighbor] != c)
+					continue;
+				if (refined[neighbor] == chosen)
+					externalWeight[chosen] -= graph.w[pos];
+				else
+					externalWeight[chosen] += graph.w[pos];
+			}
+			if (chosen != node) {
+				nonSingleton[chosen] = true;
+				refined[node] = chosen;
+			}
+		}
+	}
+
+	/**
+	 * Renumber communities so they run from 0, in order of first appearance
+	 *
+	 * @param community the community of each node, which is renumbered
+	 * @return the number of communities
+	 */
+	static int renumber(int[] community) {
+		int[] newNumber = new int[community.length];
+		Arrays.fill(newNumber, -1);
+		int count = 0;
+		for (int node = 0; node < community.length; node++) {
+			if (newNumber[community[node]] < 0)
+				newNumber[community[node]] = count++;
+			community[node] = newNumber[community[node]];
+		}
+		return count;
+	}
+
+	private static void shuffle(int[] array, int length, Random random) {
+		for (int i = length-1; i > 0; i--) {
+			int j = random.nextInt(i+1);
+			int tmp = array[i];
+			array[i] = array[j];
+			array[j] = tmp;
+		}
+	}
+
+	/**
+	 * An undirected, weighted graph in compressed sparse row form.  Each edge
+	 * is stored from both ends, and a self-loop is stored once.
+	 */
+	static class Graph {
+		final int n;
+		final int[] ptr;
+		final int[] adj;
+		final double[] w;
+		// The total weight of the edges of each node
+		final double[] nodeWeight;
+		// The sum of the node weights (twice the total edge weight)
+		final double totalWeight;
+
+		Graph(int n, int[] ptr, int[] adj, double[] w, double[] nodeWeight, double totalWeight) {
+			this.n = n;
+			this.ptr = ptr;
+			this.adj = adj;
+			this.w = w;
+			this.nodeWeight = nodeWeight;
+			this.totalWeight = totalWeight;
+		}
+
+		/**
+		 * Build the graph from the simplified graph, with one edge of weight 1
+		 * for each pair of nodes that hasEdge says are connected
+		 *
+		 * @param g the simplified graph
+		 * @return the graph
+		 */
+		static Graph fromSimpleGraph(GSimpleGraphData g) {
+			int n = g.nodeCount;
+			int[] ptr = g.getAdjacencyStart();
+			int[] adj = g.getAdjacency();
+			double[] w = new double[adj.length];
+			Arrays.fill(w, 1.0);
+			double[] nodeWeight = new double[n];
+			for (int i = 0; i < n; i++)
+				nodeWeight[i] = ptr[i+1] - ptr[i];
+			return new Graph(n, ptr, adj, w, nodeWeight, adj.length);
+		}
+
+		/**
+		 * Collapse each community into a single node.  The edges within a
+		 * community become a self-loop.
+		 *
+		 * @param community the community of each node, numbered from 0
+		 * @param nCommunities the number of communities
+		 * @param chunks the chunks to split the communities into, with
+		 *               accumulators that hold at least nCommunities values
+		 * @return the aggregate graph
+		 */
+		Graph aggregate(int[] community, int nCommunities, Chunks chunks) {
+			int[] start = new int[nCommunities+1];
+			for (int node = 0; node < n; node++)
+				start[community[node]+1]++;
+			for (int c = 0; c < nCommunities; c++)
+				start[c+1] += start[c];
+			int[] members = new int[n];
+			int[] fill = Arrays.copyOf(start, nCommunities);
+			for (int node = 0; node < n; node++)
+				members[fill[community[node]]++] = node;
+
+			int[][] rowAdj = new int[nCommunities][];
+			double[][] rowW = new double[nCommunities][];
+			double[] newWeight = new double[nCommunities];
+			chunks.forEach(nCommunities, (c, acc) -> {
+				double weight = 0.0;
+				for (int i = start[c]; i < start[c+1]; i++) {
+					int node = members[i];
+					weight += nodeWeight[node];
+					for (int pos = ptr[node]; pos < ptr[node+1]; pos++) {
+						// A self-loop of the aggregate is stored once, so count each end as half
+						int other = community[adj[pos]];
+						acc.add(other, other == c && adj[pos] != node ? w[pos]/2.0 : w[pos]);
+					}
+				}
+				newWeight[c] = weight;
+				rowAdj[c] = Arrays.copyOf(acc.touched, acc.nTouched);
+				rowW[c] = new double[acc.nTouched];
+				for (int i = 0; i < acc.nTouched; i++)
+					rowW[c][i] = acc.values[acc.touched[i]];
+				acc.clear();
+			});
+
+			int[] newPtr = new int[nCommunities+1];
+			for (int c = 0; c < nCommunities; c++)
+				newPtr[c+1] = newPtr[c] + rowAdj[c].length;
+			int[] newAdj = new int[newPtr[nCommunities]];
+			double[] newW = new double[newPtr[nCommunities]];
+			for (int c = 0; c < nCommunities; c++) {
+				System.arraycopy(rowAdj[c], 0, newAdj, newPtr[c], rowAdj[c].length);
+				System.arraycopy(rowW[c], 0, newW, newPtr[c], rowW[c].length);
+			}
+			return new Graph(nCommunities, newPtr, newAdj, newW, newWeight, totalWeight);
+		}
+
+		/**
+		 * Return the modularity of a partition of this graph
+		 *
+		 * @param community the community of each node, numbered from 0
+		 * @param resolution the resolution
+		 * @return the modularity
+		 */
+		double modularity(int[] community, double resolution) {
+			if (totalWeight == 0.0)
+				return 0.0;
+			double internal = 0.0;
+			double[] communityWeight = new double[n];
+			for (int node = 0; node < n; node++) {
+				communityWeight[community[node]] += nodeWeight[node];
+				for (int pos = ptr[node]; pos < ptr[node+1]; pos++) {
+					if (community[adj[pos]] == community[node])
+						internal += adj[pos] == node ? 2*w[pos] : w[pos];
+				}
+			}
+			double expected = 0.0;
+			for (int c = 0; c < n; c++)
+				expected += communityWeight[c]*communityWeight[c];
+			return internal/totalWeight - resolution*expected/(totalWeight*totalWeight);
+		}
+	}
+
+	/**
+	 * The communities of the nodes while they are being moved, with the
+	 * total node weight and number of nodes of each.  There are as many
+	 * community numbers as nodes, and the unused ones are kept on a stack.
+	 */
+	static class Communities {
+		static final int NEW = -1;
+
+		final int[] community;
+		final double[] weight;
+		final int[] size;
+		final double[] nodeWeight;
+		final int[] unused;
+		int nUnused = 0;
+
+		Communities(Graph graph, int[] community) {
+			this.community = community;
+			this.nodeWeight = graph.nodeWeight;
+			weight = new double[graph.n];
+			size = new int[graph.n];
+			unused = new int[graph.n];
+			for (int node = 0; node < graph.n; node++) {
+				weight[community[node]] += nodeWeight[node];
+				size[community[node]]++;
+			}
+			for (int c = graph.n-1; c >= 0; c--) {
+				if (size[c] == 0)
+					unused[nUnused++] = c;
+			}
+		}
+
+		void move(int node, int to) {
+			if (to == NEW)
+				to = unused[--nUnused];
+			int from = community[node];
+			weight[from] -= nodeWeight[node];
+			if (--size[from] == 0)
+				unused[nUnused++] = from;
+			weight[to] += nodeWeight[node];
+			size[to]++;
+			community[node] = to;
+		}
+	}
+
+	/**
+	 * Splits a parallel loop into chunks, each with an accumulator of its own.
+	 * A chunk runs on a single thread, so its accumulator isn't shared, and
+	 * the accumulators are kept for the loops that follow.  There are a few
+	 * chunks for each thread of the pool, so the loop still balances.
+	 */
+	static class Chunks {
+		interface Body {
+			void run(int index, Accumulator acc);
+		}
+
+		final int size;
+		final Accumulator[] accumulators;
+
+		/**
+		 * @param size the number of values each accumulator holds
+		 */
+		Chunks(int size) {
+			this.size = size;
+			ForkJoinPool pool = ForkJoinTask.inForkJoinPool() ? ForkJoinTask.getPool() : ForkJoinPool.commonPool();
+			accumulators = new Accumulator[4*pool.getParallelism()];
+		}
+
+		/**
+		 * Run the body for each index in [0, n), in parallel
+		 *
+		 * @param n the number of indices
+		 * @param body what to do for each index
+		 */
+		void forEach(int n, Body body) {
+			int nChunks = Math.min(n, accumulators.length);
+			IntStream.range(0, nChunks).parallel().forEach(chunk -> {
+				Accumulator acc = get(chunk);
+				int end = (int)((long)n*(chunk+1)/nChunks);
+				for (int i = (int)((long)n*chunk/nChunks); i < end; i++)
+					body.run(i, acc);
+			});
+		}
+
+		/**
+		 * Return an accumulator for use outside of a parallel loop
+		 *
+		 * @return the accumulator
+		 */
+		Accumulator serial() { return get(0); }
+
+		private Accumulator get(int chunk) {
+			if (accumulators[chunk] == null)
+				accumulators[chunk] = new Accumulator(size);
+			return accumulators[chunk];
+		}
+	}
+
+	/**
+	 * Sums weights by community, remembering which communities were touched
+	 * so that clearing only costs as much as adding.
+	 */
+	static class Accumulator {
+		final double[] values;
+		final boolean[] used;
+		final int[] touched;
+		int nTouched = 0;
+
+		Accumulator(int n) {
+			values = new double[n];
+			used = new boolean[n];
+			touched = new int[n];
+		}
+
+		void add(int index, double value) {
+			if (!used[index]) {
+				used[index] = true;
+				touched[nTouched++] = index;
+			}
+			values[index] += value;
+		}
+
+		double get(int index) { return values[index]; }
+
+		void clear() {
+			for (int i = 0; i < nTouched; i++) {
+				values[touched[i]] = 0.0;
+				used[touched[i]] = false;
+			}
+			nTouched = 0;
+		}
+	}
+}
@@ -81,6 +81,8 @@ public class MCLCluster extends AbstractNetworkClusterer   {
 		                    context.forceDecliningResidual, monitor);
 
 		runMCL.setDebug(false);
+		runMCL.setPruning(context.pruneCutoff, context.selectionNumber, context.recoveryNumber,
+		                  context.recoveryPercent);
 
 		if (canceled) return;
 
@@ -56,6 +56,36 @@ public class MCLContext implements ClusterAlgorithmContext {
 	         longDescription = "The maximum number of threads to use.  If this is set to 0, the algorithm will use all of the available cores.",
 	         groups={"MCL Advanced Settings"}, gravity=24.0)
 	public int maxThreads = 0;
+
+	@Tunable(description = "Expansion pruning cutoff",
+	         longDescription = "After each expansion, values in a column that are smaller than this are removed "+
+	                           "before inflation (this is 1/P in mcl).  Set to 0 to disable.",
+	         exampleStringValue = "0.0",
+	         groups={"MCL Advanced Settings"}, gravity=25.0)
+	public double pruneCutoff = 0.0;
+
+	@Tunable(description = "Maximum values per column",
+	         longDescription = "After each expansion, only this many of the largest values in each column are "+
+	                           "kept (mcl's -S).  This is applied after recovery, so it puts a bound on the size of the "+
+	                           "matrix.  Set to 0 for no limit.",
+	         exampleStringValue = "0",
+	         groups={"MCL Advanced Settings"}, gravity=26.0)
+	public int selectionNumber = 0;
+
+	@Tunable(description = "Recovery number",
+	         longDescription = "If the cutoff leaves fewer than this many values in a column, and removed too much "+
+	                           "of the column's mass, the largest removed values are recovered until there are "+
+	                           "this many (mcl's -R).  Set to 0 to disable.",
+	         exampleStringValue = "0",
+	         groups={"MCL Advanced Settings"}, gravity=27.0)
+	public int recoveryNumber = 0;
+
+	@Tunable(description = "Recovery mass percentage",
+	         longDescription = "Values are only recovered if less than this percentage of the column's mass is "+
+	                           "left after the cutoff (mcl's -pct)",
+	         exampleStringValue = "90.0",
+	         groups={"MCL Advanced Settings"}, gravity=28.0)
+	public double recoveryPercent = 90.0;
     
 	@ContainsTunables
 	public AdvancedProperties advancedAttributes;
@@ -80,6 +110,10 @@ public class MCLContext implements ClusterAlgorithmContext {
 		iterations = origin.iterations;
 		maxResidual = origin.maxResidual;
 		maxThreads = origin.maxThreads;
+		pruneCutoff = origin.pruneCutoff;
+		selectionNumber = origin.selectionNumber;
+		recoveryNumber = origin.recoveryNumber;
+		recoveryPercent = origin.recoveryPercent;
 	}
 
 	public void setNetwork(CyNetwork network) {
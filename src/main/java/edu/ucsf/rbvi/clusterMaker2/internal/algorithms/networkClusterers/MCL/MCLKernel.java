@@ -0,0 +1,513 @@
+package edu.ucsf.rbvi.clusterMaker2.internal.algorithms.networkClusterers.MCL;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.matrix.SparseMatrix;
+import edu.ucsf.rbvi.clusterMaker2.internal.api.CyMatrix;
+import edu.ucsf.rbvi.clusterMaker2.internal.api.Matrix;
+
+/**
+ * The MCL iteration as a single pass over the matrix.  The matrix is kept
+ * in compressed sparse column form, and each output column of M*M is
+ * computed, inflated, pruned, renormalized and checked for its residual
+ * before moving on to the next column.  Columns are handled in blocks
+ * in parallel, and the output arrays are swapped with the input arrays
+ * after each iteration, so once the matrix has reached its working size
+ * an iteration doesn't allocate anything.
+ */
+public class MCLKernel {
+	// The number of columns handed to each task
+	static final int COLUMN_BLOCK = 64;
+
+	private final int n;
+	private final ForkJoinPool pool;
+
+	// The current matrix
+	private int[] colPtr;
+	private int[] rowIdx;
+	private double[] values;
+
+	// The output of the next iteration
+	private int[] outPtr;
+	private int[] outRows;
+	private double[] outValues;
+
+	// Per-block output, reused between iterations
+	private final int nBlocks;
+	private final int[][] blockRows;
+	private final double[][] blockValues;
+	private final double[] blockResidual;
+
+	// Each task works through a run of blocks with an accumulator of its
+	// own.  The accumulators belong to the kernel, not to the pool threads,
+	// so they go away with it.
+	private final int nTasks;
+	private final Accumulator[] accumulators;
+
+	// Selection and recovery pruning (mcl's -P, -S, -R and -pct)
+	private double pruneCutoff = 0.0;
+	private int selectionNumber = 0;
+	private int recoveryNumber = 0;
+	private double recoveryMass = 0.0;
+
+	/**
+	 * Create the kernel from a matrix, normalizing the columns so that
+	 * they each sum to 1.  Columns that sum to 0 are replaced by a 1
+	 * on the diagonal.
+	 *
+	 * @param matrix the (square) matrix to start from
+	 * @param nThreads the number of threads to use, or 0 to use the common pool
+	 */
+	public MCLKernel(Matrix matrix, int nThreads) {
+		n = matrix.nColumns();
+		if (nThreads > 0)
+			pool = new ForkJoinPool(nThreads);
+		else
+			pool = null;
+
+		nBlocks = (n+COLUMN_BLOCK-1)/COLUMN_BLOCK;
+		blockRows = new int[nBlocks][];
+		blockValues = new double[nBlocks][];
+		blockResidual = new double[nBlocks];
+		int parallelism = pool != null ? pool.getParallelism() : ForkJoinPool.getCommonPoolParallelism();
+		nTasks = Math.max(1, Math.min(nBlocks, 4*parallelism));
+		accumulators = new Accumulator[nTasks];
+
+		loadMatrix(matrix);
+		outPtr = new int[n+1];
+		outRows = new int[rowIdx.length];
+		outValues = new double[values.length];
+	}
+
+	/**
+	 * Set the pruning that is applied to each column right after expansion,
+	 * before inflation.  This follows mcl's order.  Values below the cutoff
+	 * are removed.  If that leaves fewer than recoveryNumber values and less
+	 * than recoveryPercent of the column's mass, the largest of the removed
+	 * values are put back until there are recoveryNumber values.  Last, only
+	 * the largest selectionNumber values are kept, so no column ever has
+	 * more than selectionNumber values.
+	 *
+	 * @param pruneCutoff values smaller than this are removed (0 to disable)
+	 * @param selectionNumber the maximum number of values in a column (0 for no limit)
+	 * @param recoveryNumber the number of values to recover to (0 to disable)
+	 * @param recoveryPercent recover only if less than this percentage of the mass is left
+	 */
+	public void setPruning(double pruneCutoff, int selectionNumber, int recoveryNumber,
+	                       double recoveryPercent) {
+		this.pruneCutoff = pruneCutoff;
+		this.selectionNumber = selectionNumber;
+		this.recoveryNumber = recoveryNumber;
+		this.recoveryMass = recoveryPercent/100.0;
+	}
+
+	/**
+	 * Perform one expansion and inflation.  For each column j of M*M
+	 * this normalizes the column, applies the selection and recovery pruning,
+	 * raises each value to the inflation power, removes anything at or below
+	 * the threshold and normalizes again.
+	 *
+	 * @param inflation the inflation parameter
+	 * @param threshold the pruning threshold
+	 * @return the residual (the maximum over all columns of sum - sum of squares)
+	 */
+	public double iterate(double inflation, double threshold) {
+		parallel(() -> IntStream.range(0, nTasks).parallel()
+		                        .forEach(task -> {
+		                          Accumulator acc = accumulator(task);
+		                          int first = (int)((long)nBlocks*task/nTasks);
+		                          int last = (int)((long)nBlocks*(task+1)/nTasks);
+		                          for (int block = first; block < last; block++)
+		                            expandBlock(block, acc, inflation, threshold);
+		                        }));
+
+		// Turn the column counts into offsets
+		for (int col = 0; col < n; col++)
+			outPtr[col+1] += outPtr[col];
+
+		int nnz = outPtr[n];
+		if (outRows.length < nnz) {
+			outRows = new int[nnz];
+			outValues = new double[nnz];
+		}
+
+		parallel(() -> IntStream.range(0, nBlocks).parallel()
+		                        .forEach(block -> {
+		                          int start = outPtr[block*COLUMN_BLOCK];
+		                          int length = outPtr[Math.min(n, (block+1)*COLUMN_BLOCK)] - start;
+		                          System.arraycopy(blockRows[block], 0, outRows, start, length);
+		                          System.arraycopy(blockValues[block], 0, outValues, start, length);
+		                        }));
+
+		// Swap the buffers
+		int[] tmpPtr = colPtr; colPtr = outPtr; outPtr = tmpPtr;
+		int[] tmpRows = rowIdx; rowIdx = outRows; outRows = tmpRows;
+		double[] tmpValues = values; values = outValues; outValues = tmpValues;
+
+		double residual = 0.0;
+		for (int block = 0; block < nBlocks; block++)
+			residual = Math.max(residual, blockResidual[block]);
+		return residual;
+	}
+
+	/**
+	 * Return the number of non-zero values in the current matrix
+	 *
+	 * @return the number of non-zero values
+	 */
+	public int nnz() { return colPtr[n]; }
+
+	/**
+	 * Return the current matrix as a sparse matrix
+	 *
+	 * @return the current matrix
+	 */
+	public SparseMatrix getMatrix() {
+		int nnz = colPtr[n];
+		// Our columns are the rows of the transpose
+		SparseMatrix transpose = new SparseMatrix(null, n, n, Arrays.copyOf(colPtr, n+1),
+		                                          Arrays.copyOf(rowIdx, nnz), Arrays.copyOf(values, nnz));
+		return (SparseMatrix)transpose.ops().transpose();
+	}
+
+	/**
+	 * Return the current matrix as the same type of matrix as the
+	 * template, with the template's nodes and labels.
+	 *
+	 * @param template the matrix we started with
+	 * @return the current matrix
+	 */
+	public CyMatrix getMatrix(CyMatrix template) {
+		SparseMatrix result = getMatrix();
+		if (template instanceof SparseMatrix) {
+			result.setRowLabels(Arrays.asList(template.getRowLabels()));
+			result.setColumnLabels(Arrays.asList(template.getColumnLabels()));
+			return template.copy(result);
+		}
+
+		Matrix mat = template.like(n, n);
+		for (int col = 0; col < n; col++) {
+			for (int q = colPtr[col]; q < colPtr[col+1]; q++)
+				mat.setValue(rowIdx[q], col, values[q]);
+		}
+		return template.copy(mat);
+	}
+
+	public void shutdown() {
+		if (pool != null)
+			pool.shutdown();
+	}
+
+	private Accumulator accumulator(int task) {
+		if (accumulators[task] == null)
+			accumulators[task] = new Accumulator(n);
+		return accumulators[task];
+	}
+
+	private void expandBlock(int block, Accumulator acc, double inflation, double threshold) {
+		double[] sums = acc.sums;
+		boolean[] seen = acc.seen;
+		int[] touched = acc.touched;
+
+		int start = block*COLUMN_BLOCK;
+		int end = Math.min(n, start+COLUMN_BLOCK);
+
+		int[] bRows = blockRows[block];
+		double[] bValues = blockValues[block];
+		if (bRows == null) {
+			int size = Math.max(end-start, colPtr[end]-colPtr[start]);
+			bRows = new int[size];
+			bValues = new double[size];
+		}
+
+		int count = 0;
+		double residual = 0.0;
+		for (int col = start; col < end; col++) {
+			// Expand: column col of M*M is the sum of the columns k of M,
+			// weighted by M[k][col]
+			int touchedCount = 0;
+			for (int q = colPtr[col]; q < colPtr[col+1]; q++) {
+				int k = rowIdx[q];
+				double w = values[q];
+				for (int r = colPtr[k]; r < colPtr[k+1]; r++) {
+					int row = rowIdx[r];
+					if (!seen[row]) {
+						seen[row] = true;
+						sums[row] = w*values[r];
+						touched[touchedCount++] = row;
+					} else {
+						sums[row] += w*values[r];
+					}
+				}
+			}
+
+			double sum = 0.0;
+			for (int i = 0; i < touchedCount; i++)
+				sum += sums[touched[i]];
+
+			int candidates = touchedCount;
+			if (sum != 0.0 && (pruneCutoff > 0.0 || selectionNumber > 0)) {
+				candidates = prune(acc, touchedCount, sum);
+				for (int i = candidates; i < touchedCount; i++)
+					seen[touched[i]] = false;
+			}
+
+			// Inflate and prune, keeping the surviving rows at the front of touched
+			int kept = 0;
+			double inflatedSum = 0.0;
+			if (sum != 0.0) {
+				for (int i = 0; i < candidates; i++) {
+					int row = touched[i];
+					double v = sums[row]/sum;
+					if (v != 0.0)
+						v = Math.pow(v, inflation);
+					if (v <= threshold) {
+						seen[row] = false;
+						continue;
+					}
+					sums[row] = v;
+					inflatedSum += v;
+					touched[kept++] = row;
+				}
+			}
+			for (int i = kept; i < candidates; i++)
+				seen[touched[i]] = false;
+
+			if (count+Math.max(kept,1) > bRows.length) {
+				int size = Math.max(bRows.length*2, count+Math.max(kept,1));
+				bRows = Arrays.copyOf(bRows, size);
+				bValues = Arrays.copyOf(bValues, size);
+			}
+
+			if (inflatedSum == 0.0) {
+				// An empty column gets a 1 on the diagonal
+				for (int i = 0; i < kept; i++)
+					seen[touched[i]] = false;
+				bRows[count] = col;
+				bValues[count++] = 1.0;
+				outPtr[col+1] = 1;
+				continue;
+			}
+
+			// Normalize and calculate the residual
+			Arrays.sort(touched, 0, kept);
+			double colSum = 0.0;
+			double colSum2 = 0.0;
+			for (int i = 0; i < kept; i++) {
+				int row = touched[i];
+				double v = sums[row]/inflatedSum;
+				seen[row] = false;
+				colSum += v;
+				colSum2 += v*v;
+				bRows[count] = row;
+				bValues[count++] = v;
+			}
+			outPtr[col+1] = kept;
+			residual = Math.max(residual, colSum - colSum2);
+		}
+
+		blockRows[block] = bRows;
+		blockValues[block] = bValues;
+		blockResidual[block] = residual;
+	}
+
+	/**
+	 * Apply the selection and recovery pruning to an expanded column.  The
+	 * rows that are kept are moved to the front of the touched array.
+	 *
+	 * @param acc the accumulator holding the column
+	 * @param count the number of rows in the column
+	 * @param sum the sum of the column
+	 * @return the number of rows kept
+	 */
+	private int prune(Accumulator acc, int count, double sum) {
+		int[] touched = acc.touched;
+		double[] sums = acc.sums;
+
+		int kept = count;
+		if (pruneCutoff > 0.0) {
+			double cutoff = pruneCutoff*sum;
+			kept = 0;
+			for (int i = 0; i < count; i++) {
+				int row = touched[i];
+				if (sums[row] >= cutoff) {
+					touched[i] = touched[kept];
+					touched[kept++] = row;
+				}
+			}
+		}
+
+		if (recoveryNumber > 0 && kept < recoveryNumber && kept < count) {
+			double mass = 0.0;
+			for (int i = 0; i < kept; i++)
+				mass += sums[touched[i]];
+			if (mass < recoveryMass*sum)
+				kept += selectLargest(acc, kept, count, recoveryNumber-kept);
+		}
+
+		// Selection comes last, so it caps whatever recovery put back
+		if (selectionNumber > 0 && kept > selectionNumber)
+			kept = selectLargest(acc, 0, kept, selectionNumber);
+		return kept;
+	}
+
+	/**
+	 * Move the k largest values in touched[from..to) to the front of that range
+	 *
+	 * @return the number of values moved
+	 */
+	private static int selectLargest(Accumulator acc, int from, int to, int k) {
+		int[] touched = acc.touched;
+		double[] sums = acc.sums;
+		int length = to-from;
+		if (k >= length)
+			return length;
+
+		double[] scratch = acc.scratch;
+		for (int i = 0; i < length; i++)
+			scratch[i] = sums[touched[from+i]];
+		double kth = kthLargest(scratch, length, k);
+
+		// Take everything larger than the kth value, then fill in with ties
+		int selected = from;
+		for (int i = from; i < to; i++) {
+			int row = touched[i];
+			if (sums[row] > kth) {
+				touched[i] = touched[selected];
+				touched[selected++] = row;
+			}
+		}
+		for (int i = selected; i < to && selected-from < k; i++) {
+			int row = touched[i];
+			if (sums[row] == kth) {
+				touched[i] = touched[selected];
+				touched[selected++] = row;
+			}
+		}
+		return selected-from;
+	}
+
+	// Quickselect for the kth largest (1-based) value.  Reorders the array.
+	static double kthLargest(double[] a, int length, int k) {
+		int left = 0;
+		int right = length-1;
+		int target = k-1;
+		while (left < right) {
+			double pivot = a[(left+right) >>> 1];
+			int i = left;
+			int j = right;
+			while (i <= j) {
+				while (a[i] > pivot) i++;
+				while (a[j] < pivot) j--;
+				if (i <= j) {
+					double tmp = a[i]; a[i] = a[j]; a[j] = tmp;
+					i++;
+					j--;
+				}
+			}
+			if (target <= j)
+				right = j;
+			else if (target >= i)
+				left = i;
+			else
+				break;
+		}
+		return a[target];
+	}
+
+	// Load the matrix into our column arrays, normalizing each column
+	private void loadMatrix(Matrix matrix) {
+		colPtr = new int[n+1];
+		int[][] columnRows = new int[n][];
+		double[][] columnValues = new double[n][];
+
+		if (matrix instanceof SparseMatrix) {
+			SparseMatrix sMatrix = (SparseMatrix)matrix;
+			int[] cPtr = sMatrix.getColumnPointers();
+			int[] cRows = sMatrix.getColumnRowIndices();
+			int[] cPos = sMatrix.getColumnValuePositions();
+			double[] sValues = sMatrix.getValues();
+			for (int col = 0; col < n; col++) {
+				int length = cPtr[col+1]-cPtr[col];
+				int[] rows = new int[length];
+				double[] vals = new double[length];
+				int count = 0;
+				for (int q = cPtr[col]; q < cPtr[col+1]; q++) {
+					double v = sValues[cPos[q]];
+					if (v == 0.0 || Double.isNaN(v)) continue;
+					rows[count] = cRows[q];
+					vals[count++] = v;
+				}
+				columnRows[col] = Arrays.copyOf(rows, count);
+				columnValues[col] = Arrays.copyOf(vals, count);
+			}
+		} else {
+			int[] rows = new int[matrix.nRows()];
+			double[] vals = new double[matrix.nRows()];
+			for (int col = 0; col < n; col++) {
+				int count = 0;
+				for (int row = 0; row < matrix.nRows(); row++) {
+					double v = matrix.doubleValue(row, col);
+					if (v == 0.0 || Double.isNaN(v)) continue;
+					rows[count] = row;
+					vals[count++] = v;
+				}
+				columnRows[col] = Arrays.copyOf(rows, count);
+				columnValues[col] = Arrays.copyOf(vals, count);
+			}
+		}
+
+		for (int col = 0; col < n; col++) {
+			double sum = 0.0;
+			for (double v: columnValues[col])
+				sum += v;
+			if (sum == 0.0) {
+				columnRows[col] = new int[] {col};
+				columnValues[col] = new double[] {1.0};
+			} else {
+				for (int i = 0; i < columnValues[col].length; i++)
+					columnValues[col][i] /= sum;
+			}
+			colPtr[col+1] = colPtr[col] + columnRows[col].length;
+		}
+
+		rowIdx = new int[colPtr[n]];
+		values = new double[colPtr[n]];
+		for (int col = 0; col < n; col++) {
+			System.arraycopy(columnRows[col], 0, rowIdx, colPtr[col], columnRows[col].length);
+			System.arraycopy(columnValues[col], 0, values, colPtr[col], columnValues[col].length);
+		}
+	}
+
+	private void parallel(Runnable task) {
+		if (pool == null) {
+			task.run();
+			return;
+		}
+		try {
+			pool.submit(task).get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		}
+	}
+
+	// Per-task scratch space for the sparse accumulator
+	static class Accumulator {
+		final double[] sums;
+		final boolean[] seen;
+		final int[] touched;
+		final double[] scratch;
+
+		Accumulator(int size) {
+			sums = new double[size];
+			seen = new boolean[size];
+			touched = new int[size];
+			scratch = new double[size];
+		}
+	}
+}
@@ -28,6 +28,7 @@ import org.cytoscape.work.TunableHandler;
 import org.cytoscape.work.TaskMonitor;
 
 import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.NodeCluster;
+import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.UnionFind;
 import edu.ucsf.rbvi.clusterMaker2.internal.api.CyMatrix;
 import edu.ucsf.rbvi.clusterMaker2.internal.api.Matrix;
 
@@ -45,6 +46,10 @@ public class RunMCL {
 	private List<CyNode> nodes = null;
 	private boolean forceDecliningResidual = true;
 	private boolean debug = true;
+	private double pruneCutoff = 0.0;
+	private int selectionNumber = 0;
+	private int recoveryNumber = 0;
+	private double recoveryPercent = 90.0;
 	private int nThreads = Runtime.getRuntime().availableProcessors()-1;
 	
 	public RunMCL(CyMatrix dMat, double inflationParameter, int num_iterations, 
@@ -53,7 +58,7 @@ public class RunMCL {
 	{
 			
 		this.distanceMatrix = dMat;
-		this.matrix = dMat.copy();
+		this.matrix = dMat;
 		this.inflationParameter = inflationParameter;
 		this.number_iterations = num_iterations;
 		this.clusteringThresh = clusteringThresh;
@@ -77,6 +82,22 @@ public class RunMCL {
 	public void cancel () { canceled = true; }
 
 	public void setDebug(boolean debug) { this.debug = debug; }
+
+	/**
+	 * Set the pruning applied to each column after expansion.
+	 *
+	 * @param pruneCutoff values smaller than this are removed (0 to disable)
+	 * @param selectionNumber the maximum number of values in a column (0 for no limit)
+	 * @param recoveryNumber the number of values to recover to (0 to disable)
+	 * @param recoveryPercent recover only if less than this percentage of the mass is left
+	 */
+	public void setPruning(double pruneCutoff, int selectionNumber, int recoveryNumber,
+	                       double recoveryPercent) {
+		this.pruneCutoff = pruneCutoff;
+		this.selectionNumber = selectionNumber;
+		this.recoveryNumber = recoveryNumber;
+		this.recoveryPercent = recoveryPercent;
+	}
 	
 	public List<NodeCluster> run(CyNetwork network, TaskMonitor monitor)
 	{
@@ -89,174 +110,72 @@ public class RunMCL {
 
 		debugln("Initial matrix:",matrix);
 
-		// Normalize
-		normalize(matrix, clusteringThresh, false);
-
-
-		debugln("Normalized matrix:",matrix);
+		// Load and normalize the matrix.  The kernel works on its own copy
+		MCLKernel kernel = new MCLKernel(matrix, nThreads);
+		kernel.setPruning(pruneCutoff, selectionNumber, recoveryNumber, recoveryPercent);
 
 		double residual = 1.0;
 		double progress = 1.0;
-		// IntIntDoubleFunction myPow = new MatrixPow(inflationParameter);
 		debugln("residual = "+residual+" maxResidual = "+maxResidual);
-		for (int i=0; (i<number_iterations)&&(residual>maxResidual); i++)
-		{
-
-			progress = (double)(i*3)/(double)(number_iterations*3);
-			monitor.setProgress(progress);
-
-			// Expand
+		try {
+			for (int i=0; (i<number_iterations)&&(residual>maxResidual); i++)
 			{
-				long t = System.currentTimeMillis();
-				monitor.setStatusMessage("Iteration: "+(i+1)+" expanding "); //monitor.setStatus();
-				debugln("Iteration: "+(i+1)+" expanding ");
-				debugln("matrix: ",matrix);
-				Matrix multiMatrix = matrix.ops().multiplyMatrix(matrix);
-				matrix = matrix.copy(multiMatrix);
-
-				// Normalize
-				normalize(matrix, clusteringThresh, false);
-				monitor.showMessage(TaskMonitor.Level.INFO,"Expansion "+(i+1)+" took "+(System.currentTimeMillis()-t)+"ms");
-			}
 
-			debugln("^ "+(i+1)+" after expansion");
+				progress = (double)i/(double)number_iterations;
+				monitor.setProgress(progress);
 
-			progress = (double)(i*3+1)/(double)(number_iterations*3);
-			monitor.setProgress(progress);
-
-			// Inflate
-			// DoubleMatrix2D m = matrix.getColtMatrix();
-			{
+				// Expand, inflate, prune and normalize in a single pass
 				long t = System.currentTimeMillis();
-				monitor.setStatusMessage("Iteration: "+(i+1)+" inflating");	//monitor.setStatusMessage
-				debugln("Iteration: "+(i+1)+" inflating");
+				monitor.setStatusMessage("Iteration: "+(i+1)+" expanding and inflating");
+				debugln("Iteration: "+(i+1)+" expanding and inflating");
 
-				matrix.ops().powScalar(inflationParameter);
+				double newResidual = kernel.iterate(inflationParameter, clusteringThresh);
+				monitor.showMessage(TaskMonitor.Level.INFO,"Iteration "+(i+1)+" took "+(System.currentTimeMillis()-t)+"ms");
+				debugln("^ "+(i+1)+" after inflation: "+kernel.nnz()+" non-zero values");
 
-				// Normalize
-				normalize(matrix, clusteringThresh, true);
-			}
+				if (forceDecliningResidual && newResidual >= residual) break;
 
-			debugln("^ "+(i+1)+" after inflation");
+				residual = newResidual;
 
-			progress = (double)(i*3+2)/(double)(number_iterations*3);
-			monitor.setProgress(progress);
+				debugln("Iteration: "+(i+1)+" residual: "+residual);
+				monitor.showMessage(TaskMonitor.Level.INFO,"Iteration "+(i+1)+" complete.  Residual="+residual);
 
-			/*
-			double newResidual  = calculateResiduals(matrix);
-			if (newResidual >= residual) break;
-			residual = newResidual;
-			*/
-
-			double newResidual = calculateResiduals(matrix);
-			if (forceDecliningResidual && newResidual >= residual) break;
-
-			residual = newResidual;
-
-			debugln("Iteration: "+(i+1)+" residual: "+residual);
-			monitor.showMessage(TaskMonitor.Level.INFO,"Iteration "+(i+1)+" complete.  Residual="+residual);
-			// System.out.println("Iteration: "+(i+1)+" residual: "+residual);
-
-			if (canceled) {
-				monitor.setStatusMessage("canceled"); 	//monitor.setStatusMessage
-				return null;
+				if (canceled) {
+					monitor.setStatusMessage("canceled"); 	//monitor.setStatusMessage
+					return null;
+				}
 			}
+		} finally {
+			kernel.shutdown();
 		}
 
+		matrix = kernel.getMatrix(matrix);
+
 		// If we're in debug mode, output the matrix
 		debugln("Matrix: ", matrix);
 
 		monitor.setStatusMessage("Assigning nodes to clusters");	//monitor.setStatusMessage
 
-		clusterCount = 0;
-		HashMap<Integer, NodeCluster> clusterMap = new HashMap<Integer, NodeCluster>();
-		ClusterMatrix clusterMat = new ClusterMatrix(clusterMap);
-		for (int row = 0; row < matrix.nRows(); row++) {
-			for (int col = 0; col < matrix.nColumns(); col++) {
-				clusterMat.apply(row, col, matrix.doubleValue(row, col));
-			}
-		}
+		// Nodes that share a non-zero cell end up in the same cluster
+		UnionFind clusterSets = new UnionFind(matrix.nRows());
+		clusterSets.unionNonZeros(matrix);
+		List<NodeCluster> clusters = clusterSets.getClusters(nodes, 2);
+		clusterCount = clusters.size();
 
 		//Update node attributes in network to include clusters. Create cygroups from clustered nodes
 		monitor.setStatusMessage("Created "+clusterCount+" clusters");
-		monitor.setStatusMessage("Cluster map has "+clusterMap.keySet().size()+" clusters");
-		// debugln("Created "+clusterCount+" clusters:");
 		//
 		if (clusterCount == 0) {
 			monitor.setStatusMessage("Created 0 clusters!!!!");
-			monitor.setStatusMessage("Cluster map has "+clusterMap.keySet().size()+" clusters");
 			return null;
 		}
 
-		int clusterNumber = 1;
-		HashMap<NodeCluster,NodeCluster> cMap = new HashMap<NodeCluster, NodeCluster>();
-		for (NodeCluster cluster: NodeCluster.sortMap(clusterMap)) {
-
-			if (cMap.containsKey(cluster))
-				continue;
-
-			cMap.put(cluster,cluster);
-
-			cluster.setClusterNumber(clusterNumber);
-			clusterNumber++;
-		}
-
 		monitor.setStatusMessage("Total runtime = "+(System.currentTimeMillis()-startTime)+"ms");
 
-		Set<NodeCluster>clusters = cMap.keySet();
-		return new ArrayList<NodeCluster>(clusters);
+		return clusters;
 	}
 	
 	
-	/**
-	 * This method does threshold and normalization.  First, we get rid of
-	 * any cells that have a value beneath our threshold and in the same pass
-	 * calculate all of the column sums.  Then we use the column sums to normalize
-	 * each column such that all of the cells in the column sum to 1.
-	 *
-	 * @param matrix the (sparse) data matrix we're operating on
-	 * @param clusteringThresh the maximum value that we will take as a "zero" value
-	 * @param prune if 'false', don't prune this pass
-	 */
-	private void normalize(Matrix matrix, double clusteringThresh, boolean prune)
-	{
-		// long startTime = System.currentTimeMillis();
-		// Remove any really low values and create the sums array
-		double [] sums = new double[matrix.nColumns()];
-		if (prune)
-			matrix.ops().threshold(clusteringThresh);
-
-		for (int col = 0; col < matrix.nColumns(); col++) {
-			sums[col] = matrix.ops().columnSum(col);
-			if (sums[col] == 0.0) {
-				matrix.setValue(col,col,1.0);
-			} else {
-				matrix.ops().divideScalarColumn(col, sums[col]);
-			}
-		}
-		// System.out.println("Normalization took "+(System.currentTimeMillis()-startTime)+"ms");
-	}
-	
-	/**
-	 * This method calculates the residuals.  Calculate the sum and
-	 * sum of squares for each row, then return the maximum residual.
-	 *
-	 * @param matrix the (sparse) data matrix we're operating on
-	 * @return residual value
-	 */
-	private double calculateResiduals(Matrix matrix) {
-		// Calculate and return the residuals
-		double sums = 0.0;
-		double sumSquares = 0.0;
-		double residual = 0.0;
-		for (int column = 0; column < matrix.nColumns(); column++) {
-			sums = matrix.ops().columnSum(column);
-			sumSquares = matrix.ops().columnSum2(column);
-			residual = Math.max(residual, sums - sumSquares);
-		}
-		return residual;
-	}
-
 	private static DecimalFormat scFormat = new DecimalFormat("0.###E0");
 	private static DecimalFormat format = new DecimalFormat("0.###");
 	
@@ -277,65 +196,4 @@ public class RunMCL {
 	private void debug(String message) {
 		if (debug) System.out.print(message);
 	}
-
-	
-	private class ClusterMatrix {
-		Map<Integer, NodeCluster> clusterMap;
-
-		public ClusterMatrix(Map<Integer,NodeCluster> clusterMap) {
-			this.clusterMap = clusterMap;
-		}
-
-		public double apply(int row, int column, double value) {
-			if (canceled || value == 0.0 || Double.isNaN(value)) { return 0.0; }
-
-			if (row == column) 
-				return value;
-
-			if (clusterMap.containsKey(column)) {
-				// Already seen "column" -- get the cluster and add column
-				NodeCluster columnCluster = clusterMap.get(column);
-				if (clusterMap.containsKey(row)) {
-					// We've already seen row also -- join them
-					NodeCluster rowCluster = clusterMap.get(row);
-					if (rowCluster == columnCluster) 
-						return value;
-					clusterCount--;
-					// logger.debug("Joining cluster "+columnCluster.getClusterNumber()+" and "+rowCluster.getClusterNumber());
-					// logger.debug("clusterCount = "+clusterCount);
-					columnCluster.addAll(rowCluster);
-				} else {
-					// logger.debug("Adding "+row+" to "+columnCluster.getClusterNumber());
-					// logger.debug("clusterCount = "+clusterCount);
-					columnCluster.add(distanceMatrix.getRowNode(row));
-				}
-				updateClusters(columnCluster);
-			} else {
-				NodeCluster rowCluster;
-				// First time we've seen "column" -- have we already seen "row"
-				if (clusterMap.containsKey(row)) {
-					// Yes, just add column to row's cluster
-					rowCluster = clusterMap.get(row);
-					// logger.debug("Adding "+column+" to "+rowCluster.getClusterNumber());
-					// logger.debug("clusterCount = "+clusterCount);
-					rowCluster.add(distanceMatrix.getColumnNode(column));
-				} else {
-					clusterCount++;
-					rowCluster = new NodeCluster();
-					// logger.debug("Created new cluster "+rowCluster.getClusterNumber()+" with "+row+" and "+column);
-					// logger.debug("clusterCount = "+clusterCount);
-					rowCluster.add(distanceMatrix.getColumnNode(column));
-					rowCluster.add(distanceMatrix.getRowNode(row));
-				}
-				updateClusters(rowCluster);
-			}
-			return value;
-		}
-
-		private void updateClusters(NodeCluster cl) {
-			for (CyNode node: cl) {
-				clusterMap.put(nodes.indexOf(node), cl);
-			}
-		}
-	}
 }
@@ -6,10 +6,16 @@ import org.cytoscape.model.CyNode;
 import org.cytoscape.work.TaskMonitor;
 import org.cytoscape.model.subnetwork.CySubNetwork;
 
+import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.NetworkGraph;
 import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.NodeCluster;
+import edu.ucsf.rbvi.clusterMaker2.internal.api.NetworkCache;
 import edu.ucsf.rbvi.clusterMaker2.internal.utils.ModelUtils;
 
+import cern.colt.list.tint.IntArrayList;
+
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
 
 /**
  * * Copyright (c) 2004 Memorial Sloan-Kettering Cancer Center
@@ -51,7 +57,7 @@ import java.util.*;
  * An implementation of the MCODE algorithm
  */
 public class MCODEAlgorithm {
-	private boolean cancelled = false;
+	private volatile boolean cancelled = false;
 	private TaskMonitor taskMonitor = null;
 
 	//data structure for storing information required for each node
@@ -90,6 +96,8 @@ public class MCODEAlgorithm {
 	private MCODEParameterSet params;   //the parameters used for this instance of the algorithm
 	//stats
 	private long lastScoreTime;
+	// The snapshot of the network being scored, if we have one
+	private NetworkGraph graph = null;
 	private long lastFindTime;
 
 	/**
@@ -185,10 +193,28 @@ public class MCODEAlgorithm {
 	 * saved internally in your instance of MCODEAlgorithm.
 	 *
 	 * @param inputNetwork The network that will be scored
-	 * @param resultTitle Title of the result, used as an identifier in various hash maps
+	 * @param networkCache The cache the snapshot of the network is shared through
+	 * @param resultId Identifier of the result, used as a key in various hash maps
+	 */
+	public void scoreGraph(CyNetwork inputNetwork, NetworkCache networkCache, int resultId) {
+		if (inputNetwork == null) {
+			taskMonitor.showMessage(TaskMonitor.Level.ERROR, "In MCODEAlgorithm.scoreGraph: inputNetwork was null.");
+			return;
+		}
+		scoreGraph(inputNetwork, NetworkGraph.cached(networkCache, inputNetwork), resultId);
+	}
+
+	/**
+	 * Step 1: Score the graph and save scores as node attributes, using a
+	 * snapshot of the network for the neighborhoods of the nodes.
+	 *
+	 * @param inputNetwork The network that will be scored
+	 * @param graph The snapshot of inputNetwork
+	 * @param resultId Identifier of the result, used as a key in various hash maps
 	 */
-	public void scoreGraph(CyNetwork inputNetwork, int resultId) {
+	public void scoreGraph(CyNetwork inputNetwork, NetworkGraph graph, int resultId) {
 		params = getParams();
+		this.graph = graph;
 		String callerID = "MCODEAlgorithm.MCODEAlgorithm";
 
 		if (inputNetwork == null) {
@@ -210,18 +236,26 @@ public class MCODEAlgorithm {
 
 		SortedMap<Double, List<CyNode>> nodeScoreSortedMap = new TreeMap<Double, List<CyNode>>(scoreComparator);
 
-		//iterate over all nodes and calculate MCODE score
-		NodeInfo nodeInfo = null;
-		double nodeScore;
-		List<CyNode> al;
-		int i = 0;
+		//calculate the node information and MCODE score of all of the nodes, in parallel
+		int nodeCount = graph.nodeCount();
+		NodeInfo[] nodeInfos = new NodeInfo[nodeCount];
+		AtomicInteger scored = new AtomicInteger();
+		IntStream.range(0, nodeCount).parallel().forEach(index -> {
+			if (cancelled) return;
+			NodeInfo nodeInfo = calcNodeInfo(index);
+			//score node TODO: add support for other scoring functions (low priority)
+			scoreNode(nodeInfo);
+			nodeInfos[index] = nodeInfo;
+			reportProgress(scored.incrementAndGet(), nodeCount);
+		});
 
-		for (CyNode n: inputNetwork.getNodeList()) {
+		List<CyNode> al;
+		for (int index = 0; index < nodeCount; index++) {
 			if (cancelled) break;
-			nodeInfo = calcNodeInfo(inputNetwork, n);
+			CyNode n = graph.getNode(index);
+			NodeInfo nodeInfo = nodeInfos[index];
 			nodeInfoHashMap.put(n, nodeInfo);
-			//score node TODO: add support for other scoring functions (low priority)
-			nodeScore = scoreNode(nodeInfo);
+			double nodeScore = nodeInfo.score;
 
 			//save score for later use in TreeMap
 			//add a list of nodes to each score in case nodes have the same score
@@ -234,11 +268,6 @@ public class MCODEAlgorithm {
 				al.add(n);
 				nodeScoreSortedMap.put(nodeScore, al);
 			}
-
-			if (taskMonitor != null) {
-				i++;
-				taskMonitor.setProgress((double)i / (double)inputNetwork.getNodeCount());
-			}
 		}
 
 		nodeScoreResultsMap.put(resultId, nodeScoreSortedMap);
@@ -397,6 +426,171 @@ public class MCODEAlgorithm {
 		return clusters;
 	}
 
+	/**
+	 * Find the clusters for each of a set of cluster finding parameters, reusing the node
+	 * scores of a result rather than rescoring the network for each.  Only the cluster
+	 * finding parameters (the node score cutoff, k-core, maximum depth, haircut, fluff and
+	 * scope) are taken from each setting; the scores are those the network was scored with.
+	 * The settings are tried in parallel, and the clusters are found in the snapshot of the
+	 * network rather than as subnetworks, so only their scores are kept.
+	 *
+	 * @param resultId Id of the result with the node scores
+	 * @param settings The cluster finding parameters to try
+	 * @return The number of clusters and their scores for each setting, or null if the
+	 *         network hasn't been scored
+	 */
+	public List<MCODESweepResults.Setting> sweepClusters(int resultId, List<MCODEParameterSet> settings) {
+		SortedMap<Double,List<CyNode>> nodeScoreSortedMap = nodeScoreResultsMap.get(resultId);
+		Map<CyNode, NodeInfo> nodeInfoHashMap = nodeInfoResultsMap.get(resultId);
+		if (nodeScoreSortedMap == null) {
+			nodeScoreSortedMap = currentNodeScoreSortedMap;
+			nodeInfoHashMap = currentNodeInfoHashMap;
+		}
+		if ((nodeInfoHashMap == null) || (nodeScoreSortedMap == null) || (graph == null)) {
+			taskMonitor.showMessage(TaskMonitor.Level.ERROR, "In MCODEAlgorithm.sweepClusters: "+
+			                        "the network hasn't been scored.");
+			return (null);
+		}
+
+		long msTimeBefore = System.currentTimeMillis();
+
+		//index the node information by position in the snapshot
+		int nodeCount = graph.nodeCount();
+		NodeInfo[] nodeInfos = new NodeInfo[nodeCount];
+		int[][] nodeNeighbors = new int[nodeCount][];
+		Map<CyNode, NodeInfo> infoMap = nodeInfoHashMap;
+		IntStream.range(0, nodeCount).parallel().forEach(index -> {
+			nodeInfos[index] = infoMap.get(graph.getNode(index));
+			List<CyNode> neighbors = nodeInfos[index].nodeNeighbors;
+			nodeNeighbors[index] = new int[neighbors.size()];
+			for (int i = 0; i < neighbors.size(); i++)
+				nodeNeighbors[index][i] = graph.indexOf(neighbors.get(i));
+		});
+
+		//the seeds, in descending order of score
+		int[] seeds = new int[nodeCount];
+		int nSeeds = 0;
+		for (List<CyNode> alNodesWithSameScore: nodeScoreSortedMap.values()) {
+			for (CyNode node: alNodesWithSameScore)
+				seeds[nSeeds++] = graph.indexOf(node);
+		}
+		int[] seedOrder = Arrays.copyOf(seeds, nSeeds);
+
+		boolean includeLoops = params.isIncludeLoops();
+		AtomicInteger swept = new AtomicInteger();
+		List<MCODESweepResults.Setting> results = new ArrayList<MCODESweepResults.Setting>(
+			Collections.nCopies(settings.size(), (MCODESweepResults.Setting)null));
+		IntStream.range(0, settings.size()).parallel().forEach(s -> {
+			if (cancelled) return;
+			MCODEParameterSet setting = settings.get(s);
+			List<Double> scores = findClusterScores(setting, includeLoops, seedOrder, nodeInfos, nodeNeighbors);
+			results.set(s, new MCODESweepResults.Setting(setting, scores));
+			reportProgress(swept.incrementAndGet(), settings.size());
+		});
+
+		long msTimeAfter = System.currentTimeMillis();
+		lastFindTime = msTimeAfter - msTimeBefore;
+
+		return cancelled ? null : results;
+	}
+
+	/**
+	 * The cluster finding step of findClusters, in the snapshot of the network, for one
+	 * setting of the sweep.
+	 *
+	 * @param setting The cluster finding parameters
+	 * @param includeLoops Whether the network was scored with loops
+	 * @param seedOrder The nodes, in descending order of score
+	 * @param nodeInfos The node information, by position in the snapshot
+	 * @param nodeNeighbors The neighbors of each node, by position in the snapshot
+	 * @return The scores of the clusters found
+	 */
+	private List<Double> findClusterScores(MCODEParameterSet setting, boolean includeLoops, int[] seedOrder,
+	                                       NodeInfo[] nodeInfos, int[][] nodeNeighbors) {
+		int nodeCount = graph.nodeCount();
+		boolean[] nodeSeen = new boolean[nodeCount];
+		//nodes seen while fluffing are only seen for that cluster, so mark them with the seed
+		int[] fluffSeen = new int[nodeCount];
+		Arrays.fill(fluffSeen, -1);
+
+		int[] selected = null;
+		if (!setting.getScope().equals(MCODEParameterSet.NETWORK))
+			selected = graph.indicesOf(setting.getSelectedNodes());
+
+		List<Double> scores = new ArrayList<Double>();
+		for (int seed: seedOrder) {
+			if (cancelled)
+				break;
+			if (nodeSeen[seed])
+				continue;
+
+			IntArrayList cluster = new IntArrayList();
+			getClusterCoreInternal(seed, nodeSeen, nodeInfos[seed].score, 1, cluster,
+			                       setting.getNodeScoreCutoff(), setting.getMaxDepthFromStart(),
+			                       nodeInfos, nodeNeighbors);
+			if (cluster.size() == 0)
+				continue;
+			//the seed is always seen first, so it isn't in the cluster yet
+			cluster.add(seed);
+
+			//filter the cluster if it doesn't have the k-core
+			MCODENeighborhood clusterGraph = new MCODENeighborhood(graph, toArray(cluster));
+			int[] cores = clusterGraph.coreNumbers(includeLoops);
+			int maxCore = 0;
+			for (int core: cores)
+				maxCore = Math.max(maxCore, core);
+			if (maxCore < setting.getKCore())
+				continue;
+
+			IntArrayList members = new IntArrayList();
+			for (int p = 0; p < clusterGraph.size(); p++) {
+				//haircut: keep the 2-core, if there is one
+				if (!setting.isHaircut() || maxCore < 2 || cores[p] >= 2)
+					members.add(clusterGraph.members[p]);
+			}
+			if (setting.isFluff()) {
+				int memberCount = members.size();
+				for (int m = 0; m < memberCount; m++) {
+					for (int neighbor: nodeNeighbors[members.get(m)]) {
+						if (!nodeSeen[neighbor] && fluffSeen[neighbor] != seed &&
+						    nodeInfos[neighbor].density > setting.getFluffNodeDensityCutoff()) {
+							members.add(neighbor);
+							fluffSeen[neighbor] = seed;
+						}
+					}
+				}
+			}
+
+			int[] memberArray = toArray(members);
+			if (selected != null && !containsAny(memberArray, selected))
+				continue;
+
+			clusterGraph = new MCODENeighborhood(graph, memberArray);
+			int size = clusterGraph.size();
+			scores.add(calcDensity(size, clusterGraph.edgeCount(null, 0, includeLoops), includeLoops) * size);
+		}
+		return scores;
+	}
+
+	// Tell the task monitor how far a parallel loop has got, but only when
+	// another percent of it is done so that the monitor isn't overwhelmed
+	private void reportProgress(int done, int total) {
+		if (taskMonitor != null && done*100L/total != (done-1)*100L/total)
+			taskMonitor.setProgress((double)done / (double)total);
+	}
+
+	private static int[] toArray(IntArrayList list) {
+		return Arrays.copyOf(list.elements(), list.size());
+	}
+
+	private static boolean containsAny(int[] nodes, int[] sortedNodes) {
+		for (int node: nodes) {
+			if (Arrays.binarySearch(sortedNodes, node) >= 0)
+				return true;
+		}
+		return false;
+	}
+
 	private List<CyNode> getCyNodeList(List<Long> suidList, CyNetwork inputNetwork) {
 		List<CyNode> nodeList = new ArrayList<CyNode>(suidList.size());
 		for (Long suid: suidList) {
@@ -408,6 +602,16 @@ public class MCODEAlgorithm {
 	private CyNetwork createCyNetwork(List<CyNode> nodeList, CyNetwork inputNetwork) {
 		final Set<CyEdge> edges = new HashSet<CyEdge>();
 
+		if (graph != null && graph.getNetwork() == inputNetwork) {
+			// The snapshot already knows which edges connect the nodes
+			for (CyEdge e: graph.getConnectingEdges(nodeList)) {
+				if (!params.isIncludeLoops() && e.getSource().getSUID() == e.getTarget().getSUID())
+					continue;
+				edges.add(e);
+			}
+			return ((CySubNetwork)inputNetwork).getRootNetwork().addSubNetwork(nodeList, edges);
+		}
+
 		for (final CyNode n: nodeList) {
 			final Set<CyEdge> adjacentEdges = new HashSet<CyEdge>(inputNetwork.getAdjacentEdgeList(n, CyEdge.Type.ANY));
 
@@ -465,24 +669,17 @@ public class MCODEAlgorithm {
 	/**
 	 * Calculates node information for each node according to the original MCODE publication.
 	 * This information is used to score the nodes in the scoring stage.
-	 * This is a utility function for the algorithm.
+	 * This is a utility function for the algorithm.  The neighborhood of the node is
+	 * taken from the snapshot as int arrays rather than as a subnetwork, so this can
+	 * be called for several nodes at once.
 	 *
-	 * @param inputNetwork The input network for reference
-	 * @param nodeIndex    The index of the node in the input network to score
+	 * @param nodeIndex    The index of the node in the snapshot of the input network to score
 	 * @return A NodeInfo object containing node information required for the algorithm
 	 */
-	private NodeInfo calcNodeInfo(CyNetwork inputNetwork, CyNode node) {
-		String callerID = "MCODEAlgorithm.calcNodeInfo";
-		if (inputNetwork == null) {
-			taskMonitor.showMessage(TaskMonitor.Level.ERROR, "In " + callerID + ": gpInputGraph was null.");
-			return null;
-		}
-
+	private NodeInfo calcNodeInfo(int nodeIndex) {
 		//get neighborhood of this node (including the node)
-		//long[] neighbors = inputNetwork.neighborsArray(nodeIndex);
-		List<CyNode> neighborList = inputNetwork.getNeighborList(node, CyEdge.Type.ANY);
-		// long[] neighbors = new long[neighborList.size()];
-		// for (int i = 0; i < neighborList.size(); i++) neighbors[i] = neighborList.get(i).getSUID();
+		CyNode node = graph.getNode(nodeIndex);
+		List<CyNode> neighborList = graph.getNeighborList(nodeIndex);
 
 		if (neighborList.size() < 2) {
 			//if there are no neighbors or just one neighbor, nodeInfo calculation is trivial
@@ -496,48 +693,36 @@ public class MCODEAlgorithm {
 		}
 
 		//add original node to extract complete neighborhood
-		/*
-		Arrays.sort(neighbors);
-		if (Arrays.binarySearch(neighbors, node.getSUID()) < 0) {
-			neighborhood = new long[neighbors.length + 1];
-			System.arraycopy(neighbors, 0, neighborhood, 1, neighbors.length);
-			neighborhood[0] = node.getSUID();
-		} else {
-			neighborhood = neighbors;
-		}
-		*/
 		if (!neighborList.contains(node))
 			neighborList.add(node);
 
 		//extract neighborhood subgraph
-		CyNetwork gpNodeNeighborhood = createCyNetwork(neighborList, inputNetwork);
-		// System.out.println("neighborhood subgraph has "+gpNodeNeighborhood.getNodeCount()+" nodes and "+
-		//                    gpNodeNeighborhood.getEdgeCount()+" edges");
-		if (gpNodeNeighborhood == null) {
-			//this shouldn't happen
-			taskMonitor.showMessage(TaskMonitor.Level.ERROR, "In " + callerID + ": gpNodeNeighborhood was null.");
-			return null;
-		}
+		boolean includeLoops = params.isIncludeLoops();
+		MCODENeighborhood neighborhood = new MCODENeighborhood(graph, nodeIndex);
 
 		//calculate the node information for each node
 		NodeInfo nodeInfo = new NodeInfo();
 		//density
-		if (gpNodeNeighborhood != null) {
-			nodeInfo.density = calcDensity(gpNodeNeighborhood, params.isIncludeLoops());
-			// System.out.println("density is "+nodeInfo.density);
-		}
+		nodeInfo.density = calcDensity(neighborhood.size(), neighborhood.edgeCount(null, 0, includeLoops),
+		                               includeLoops);
 		nodeInfo.numNodeNeighbors = neighborList.size();
 
 		//calculate the highest k-core
-		Object[] returnArray = getHighestKCore(gpNodeNeighborhood);
-		Integer k = (Integer) returnArray[0];
-		CyNetwork gpCore = (CyNetwork) returnArray[1];
-		nodeInfo.coreLevel = k.intValue();
+		int[] cores = neighborhood.coreNumbers(includeLoops);
+		int k = 0;
+		for (int core: cores)
+			k = Math.max(k, core);
+		nodeInfo.coreLevel = k;
 		//calculate the core density - amplifies the density of heavily interconnected regions and attenuates
 		//that of less connected regions
-		if (gpCore != null) {
-			nodeInfo.coreDensity = calcDensity(gpCore, params.isIncludeLoops());
-			// System.out.println("coreDensity is "+nodeInfo.coreDensity);
+		if (k > 0) {
+			int coreSize = 0;
+			for (int core: cores) {
+				if (core >= k)
+					coreSize++;
+			}
+			nodeInfo.coreDensity = calcDensity(coreSize, neighborhood.edgeCount(cores, k, includeLoops),
+			                                   includeLoops);
 		}
 		//record neighbor array for later use in cluster detection step
 		nodeInfo.nodeNeighbors = neighborList;
@@ -612,6 +797,34 @@ public class MCODEAlgorithm {
 		return (true);
 	}
 
+	/**
+	 * getClusterCoreInternal for nodes given by their position in the snapshot
+	 */
+	private void getClusterCoreInternal(int startNode, boolean[] nodeSeen, double startNodeScore,
+	                                    int currentDepth, IntArrayList cluster, double nodeScoreCutoff,
+	                                    int maxDepthFromStart, NodeInfo[] nodeInfos, int[][] nodeNeighbors) {
+		//base cases for recursion
+		if (nodeSeen[startNode]) {
+			return;  //don't recheck a node
+		}
+		nodeSeen[startNode] = true;
+
+		if (currentDepth > maxDepthFromStart) {
+			return;  //don't exceed given depth from start node
+		}
+
+		for (int currentNeighbor: nodeNeighbors[startNode]) {
+			if (!nodeSeen[currentNeighbor] &&
+			    nodeInfos[currentNeighbor].score >= (startNodeScore - startNodeScore * nodeScoreCutoff)) {
+				//add current neighbor; it can't be in the cluster already, since it hasn't been seen
+				cluster.add(currentNeighbor);
+				//try to extend cluster at this node
+				getClusterCoreInternal(currentNeighbor, nodeSeen, startNodeScore, currentDepth + 1,
+				                       cluster, nodeScoreCutoff, maxDepthFromStart, nodeInfos, nodeNeighbors);
+			}
+		}
+	}
+
 	/**
 	 * Fluff up the cluster at the boundary by adding lower scoring, non cluster-core neighbors
 	 * This implements the cluster fluff feature.
@@ -701,24 +914,36 @@ public class MCODEAlgorithm {
 	 * @return The density of the network
 	 */
 	public double calcDensity(CyNetwork gpInputGraph, boolean includeLoops) {
-		double density = 0;
-		int nodeCount = gpInputGraph.getNodeCount();
-		int actualEdgeNum = getMergedEdgeCount(gpInputGraph.getEdgeList(), includeLoops);
-		int possibleEdgeNum = 0;
-
 		String callerID = "MCODEAlgorithm.calcDensity";
 		if (gpInputGraph == null) {
 			taskMonitor.showMessage(TaskMonitor.Level.ERROR, "In " + callerID + ": gpInputGraph was null.");
 			return (-1.0);
 		}
 
+		int nodeCount = gpInputGraph.getNodeCount();
+		int actualEdgeNum = getMergedEdgeCount(gpInputGraph.getEdgeList(), includeLoops);
+		return calcDensity(nodeCount, actualEdgeNum, includeLoops);
+	}
+
+	/**
+	 * Calculate the density of a graph from its number of nodes and (merged) edges
+	 *
+	 * @param nodeCount The number of nodes
+	 * @param actualEdgeNum The number of edges
+	 * @param includeLoops Include the possibility of loops when determining the number of
+	 *                     possible edges.
+	 * @return The density of the graph
+	 */
+	private static double calcDensity(int nodeCount, int actualEdgeNum, boolean includeLoops) {
+		double density = 0;
+		int possibleEdgeNum = 0;
+
 		if (includeLoops) {
 			possibleEdgeNum = (nodeCount * (nodeCount+1)) / 2;
 		} else {
 			possibleEdgeNum = (nodeCount * (nodeCount-1)) / 2;
 		}
 
-		// System.out.println(callerID+" nodeCount = "+nodeCount+", actualEdgeNum = "+actualEdgeNum+", possibleEdgeNum = "+possibleEdgeNum);
 
 		density = possibleEdgeNum != 0 ? ((double) actualEdgeNum / (double) possibleEdgeNum) : 0;
 		return (density);
@@ -41,6 +41,7 @@ import java.util.Arrays;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Set;
+import java.util.function.Function;
 import javax.swing.JPanel;
 
 // Cytoscape imports
@@ -148,7 +149,12 @@ public class MCODECluster extends AbstractNetworkClusterer  {
 
 		MCODECurrentParameters.getInstance().setParams(currentParamsCopy, "MCODE Result", ModelUtils.getNetworkName(network));
 
-		runMCODE = new RunMCODE(RESCORE, 1, network, monitor);
+		if (context.sweep) {
+			runSweep(monitor);
+			return;
+		}
+
+		runMCODE = new RunMCODE(RESCORE, 1, network, clusterManager.getNetworkCache(), monitor);
 		List<NodeCluster> clusters = runMCODE.run(monitor);
 		if (canceled) {
 			monitor.showMessage(TaskMonitor.Level.INFO,"Canceled by user");
@@ -189,6 +195,79 @@ public class MCODECluster extends AbstractNetworkClusterer  {
 
 	}
 
+	/**
+	 * Score the network once and find the clusters for each combination of the
+	 * sweep values.  Only the number of clusters and their scores are reported;
+	 * no groups or networks are created.
+	 */
+	private void runSweep(TaskMonitor monitor) {
+		List<MCODEParameterSet> settings;
+		try {
+			settings = getSweepSettings();
+		} catch (NumberFormatException e) {
+			monitor.showMessage(TaskMonitor.Level.ERROR,"Can't read the sweep values: "+e.getMessage());
+			return;
+		}
+
+		runMCODE = new RunMCODE(RESCORE, 1, network, clusterManager.getNetworkCache(), monitor);
+		MCODESweepResults sweepResults = runMCODE.sweep(monitor, settings);
+		if (canceled) {
+			monitor.showMessage(TaskMonitor.Level.INFO,"Canceled by user");
+			return;
+		}
+		if (sweepResults == null)
+			return;
+
+		results = sweepResults;
+		monitor.setStatusMessage("Done.  MCODE parameter sweep results:\n"+results);
+	}
+
+	private List<MCODEParameterSet> getSweepSettings() {
+		List<Double> scoreCutoffs = parseValues(context.sweepScoreCutoffs, Double::valueOf,
+		                                        currentParamsCopy.getNodeScoreCutoff());
+		List<Integer> kCores = parseValues(context.sweepKCores, Integer::valueOf, currentParamsCopy.getKCore());
+		List<Integer> maxDepths = parseValues(context.sweepMaxDepths, Integer::valueOf,
+		                                      currentParamsCopy.getMaxDepthFromStart());
+		boolean[] haircuts = context.sweepHaircut ? new boolean[] {true, false} :
+		                                            new boolean[] {currentParamsCopy.isHaircut()};
+		boolean[] fluffs = context.sweepFluff ? new boolean[] {false, true} :
+		                                        new boolean[] {currentParamsCopy.isFluff()};
+
+		List<MCODEParameterSet> settings = new ArrayList<MCODEParameterSet>();
+		for (double scoreCutoff: scoreCutoffs) {
+			for (int kCore: kCores) {
+				for (int maxDepth: maxDepths) {
+					for (boolean haircut: haircuts) {
+						for (boolean fluff: fluffs) {
+							MCODEParameterSet setting = currentParamsCopy.copy();
+							setting.setNodeScoreCutoff(scoreCutoff);
+							setting.setKCore(kCore);
+							setting.setMaxDepthFromStart(maxDepth);
+							setting.setHaircut(haircut);
+							setting.setFluff(fluff);
+							settings.add(setting);
+						}
+					}
+				}
+			}
+		}
+		return settings;
+	}
+
+	// Parse a comma separated list of values, using the current value if the list is empty
+	private static <T> List<T> parseValues(String values, Function<String, T> parser, T current) {
+		List<T> list = new ArrayList<T>();
+		if (values != null) {
+			for (String value: values.split(",")) {
+				if (value.trim().length() > 0)
+					list.add(parser.apply(value.trim()));
+			}
+		}
+		if (list.isEmpty())
+			list.add(current);
+		return list;
+	}
+
 	public void cancel() {
 		canceled = true;
 		runMCODE.cancel();
@@ -203,5 +282,12 @@ public class MCODECluster extends AbstractNetworkClusterer  {
 		params.add("nodeScoreCutoff="+currentParamsCopy.getNodeScoreCutoff());
 		params.add("fluff="+currentParamsCopy.isFluff());
 		params.add("haircut="+currentParamsCopy.isHaircut());
+		if (context.sweep) {
+			params.add("sweepScoreCutoffs="+context.sweepScoreCutoffs);
+			params.add("sweepKCores="+context.sweepKCores);
+			params.add("sweepMaxDepths="+context.sweepMaxDepths);
+			params.add("sweepHaircut="+context.sweepHaircut);
+			params.add("sweepFluff="+context.sweepFluff);
+		}
 	}
 }
@@ -39,6 +39,29 @@ public class MCODEContext implements ClusterAlgorithmContext {
 	@Tunable(description = "Max Depth", groups={"MCODE Tuning", "MCODE Advanced Settings", "Cluster Finding"}, gravity=2.0)
 	public int maxDepth = 100;
 
+	@Tunable(description = "Sweep the cluster finding parameters", groups={"MCODE Tuning", "Parameter Sweep"}, gravity=3.0)
+	public boolean sweep = false;
+
+	@Tunable(description = "Node Score Cutoffs (comma separated)", dependsOn="sweep=true",
+	         groups={"MCODE Tuning", "Parameter Sweep"}, gravity=3.1)
+	public String sweepScoreCutoffs = "0.1,0.2,0.3";
+
+	@Tunable(description = "k-Cores (comma separated)", dependsOn="sweep=true",
+	         groups={"MCODE Tuning", "Parameter Sweep"}, gravity=3.2)
+	public String sweepKCores = "2,3,4";
+
+	@Tunable(description = "Max Depths (comma separated)", dependsOn="sweep=true",
+	         groups={"MCODE Tuning", "Parameter Sweep"}, gravity=3.3)
+	public String sweepMaxDepths = "100";
+
+	@Tunable(description = "Try with and without haircut", dependsOn="sweep=true",
+	         groups={"MCODE Tuning", "Parameter Sweep"}, gravity=3.4)
+	public boolean sweepHaircut = false;
+
+	@Tunable(description = "Try with and without fluff", dependsOn="sweep=true",
+	         groups={"MCODE Tuning", "Parameter Sweep"}, gravity=3.5)
+	public boolean sweepFluff = false;
+
 	@ContainsTunables
 	public AdvancedProperties advancedAttributes;
 
@@ -63,6 +86,12 @@ public class MCODEContext implements ClusterAlgorithmContext {
 		degreeCutoff = origin.degreeCutoff;
 		kCore = origin.kCore;
 		maxDepth = origin.maxDepth;
+		sweep = origin.sweep;
+		sweepScoreCutoffs = origin.sweepScoreCutoffs;
+		sweepKCores = origin.sweepKCores;
+		sweepMaxDepths = origin.sweepMaxDepths;
+		sweepHaircut = origin.sweepHaircut;
+		sweepFluff = origin.sweepFluff;
 	}
 
 	public void setNetwork(CyNetwork network) {
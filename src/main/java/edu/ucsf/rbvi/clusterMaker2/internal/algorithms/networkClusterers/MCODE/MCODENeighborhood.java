@@ -0,0 +1,191 @@
+package edu.ucsf.rbvi.clusterMaker2.internal.algorithms.networkClusterers.MCODE;
+
+import java.util.Arrays;
+
+import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.NetworkGraph;
+
+/**
+ * The neighborhood of a node (the node and its neighbors), or the subgraph
+ * of any other set of nodes, in a snapshot of a network, as int arrays, so
+ * that nodes and clusters can be scored without creating subnetworks for
+ * them.  As in MCODEAlgorithm.calcDensity, the edges are merged, so any
+ * number of edges between two nodes, in either direction, count as one.
+ */
+class MCODENeighborhood {
+	// The snapshot indices of the members, sorted
+	final int[] members;
+
+	// The distinct neighbors of each member within the neighborhood, as
+	// positions in members.  Self-loops are kept separately.
+	final int[] ptr;
+	final int[] adj;
+	final boolean[] loops;
+
+	/**
+	 * Extract the neighborhood of a node
+	 *
+	 * @param graph the snapshot of the network
+	 * @param node the index of the node in the snapshot
+	 */
+	MCODENeighborhood(NetworkGraph graph, int node) {
+		this(graph, neighborhood(graph, node));
+	}
+
+	/**
+	 * Extract the subgraph of a set of nodes
+	 *
+	 * @param graph the snapshot of the network
+	 * @param nodes the indices of the nodes in the snapshot, which may
+	 * repeat.  The array is sorted in place.
+	 */
+	MCODENeighborhood(NetworkGraph graph, int[] nodes) {
+		members = distinct(nodes, nodes.length);
+
+		int size = members.length;
+		ptr = new int[size+1];
+		loops = new boolean[size];
+		int[] neighbors = new int[Math.max(16, 2*size)];
+		int nAdjacent = 0;
+		for (int p = 0; p < size; p++) {
+			int member = members[p];
+			int start = nAdjacent;
+			for (int i = graph.adjacencyStart(member); i < graph.adjacencyEnd(member); i++) {
+				int q = Arrays.binarySearch(members, graph.getNeighbor(i));
+				if (q < 0)
+					continue;
+				if (q == p) {
+					loops[p] = true;
+					continue;
+				}
+				if (nAdjacent == neighbors.length)
+					neighbors = Arrays.copyOf(neighbors, 2*neighbors.length);
+				neighbors[nAdjacent++] = q;
+			}
+			// Merge multiple edges to the same neighbor
+			Arrays.sort(neighbors, start, nAdjacent);
+			int end = start;
+			for (int i = start; i < nAdjacent; i++) {
+				if (end == start || neighbors[end-1] != neighbors[i])
+					neighbors[end++] = neighbors[i];
+			}
+			nAdjacent = end;
+			ptr[p+1] = nAdjacent;
+		}
+		adj = Arrays.copyOf(neighbors, nAdjacent);
+	}
+
+	/**
+	 * Return the number of nodes in the neighborhood
+	 *
+	 * @return the number of members
+	 */
+	int size() { return members.length; }
+
+	/**
+	 * Return the number of (merged) edges between the members whose core
+	 * number is at least minCore
+	 *
+	 * @param cores the core number of each member, or null to count all of the edges
+	 * @param minCore the smallest core number to count
+	 * @param includeLoops whether to count self-loops
+	 * @return the number of edges
+	 */
+	int edgeCount(int[] cores, int minCore, boolean includeLoops) {
+		int edges = 0;
+		for (int p = 0; p < members.length; p++) {
+			if (cores != null && cores[p] < minCore)
+				continue;
+			if (includeLoops && loops[p])
+				edges++;
+			for (int i = ptr[p]; i < ptr[p+1]; i++) {
+				int q = adj[i];
+				// Count each edge from its lower end
+				if (q > p && (cores == null || cores[q] >= minCore))
+					edges++;
+			}
+		}
+		return edges;
+	}
+
+	/**
+	 * Return the core number of each member, using the bucket algorithm of
+	 * Batagelj and Zaversnik, which peels the neighborhood in time linear in
+	 * its number of edges.  A member is in the k-core of the neighborhood if
+	 * its core number is at least k.
+	 *
+	 * @param includeLoops whether a self-loop adds to the degree of a member
+	 * @return the core numbers, by position in members
+	 */
+	int[] coreNumbers(boolean includeLoops) {
+		int size = members.length;
+		int[] degree = new int[size];
+		int maxDegree = 0;
+		for (int p = 0; p < size; p++) {
+			degree[p] = ptr[p+1] - ptr[p] + (includeLoops && loops[p] ? 1 : 0);
+			maxDegree = Math.max(maxDegree, degree[p]);
+		}
+
+		// Sort the members by degree into buckets
+		int[] bin = new int[maxDegree+1];
+		for (int p = 0; p < size; p++)
+			bin[degree[p]]++;
+		int start = 0;
+		for (int d = 0; d <= maxDegree; d++) {
+			int count = bin[d];
+			bin[d] = start;
+			start += count;
+		}
+		int[] position = new int[size];
+		int[] order = new int[size];
+		for (int p = 0; p < size; p++) {
+			position[p] = bin[degree[p]]++;
+			order[position[p]] = p;
+		}
+		for (int d = maxDegree; d > 0; d--)
+			bin[d] = bin[d-1];
+		bin[0] = 0;
+
+		// Peel the members in order of degree, moving each neighbor with a
+		// higher degree down a bucket
+		for (int i = 0; i < size; i++) {
+			int p = order[i];
+			for (int j = ptr[p]; j < ptr[p+1]; j++) {
+				int q = adj[j];
+				if (degree[q] > degree[p]) {
+					int dq = degree[q];
+					int pq = position[q];
+					int pw = bin[dq];
+					int w = order[pw];
+					if (q != w) {
+						position[q] = pw;
+						order[pq] = w;
+						position[w] = pq;
+						order[pw] = q;
+					}
+					bin[dq]++;
+					degree[q]--;
+				}
+			}
+		}
+		return degree;
+	}
+
+	private static int[] neighborhood(NetworkGraph graph, int node) {
+		int[] nodes = new int[graph.degree(node)+1];
+		int n = 0;
+		nodes[n++] = node;
+		for (int i = graph.adjacencyStart(node); i < graph.adjacencyEnd(node); i++)
+			nodes[n++] = graph.getNeighbor(i);
+		return nodes;
+	}
+
+	private static int[] distinct(int[] values, int n) {
+		Arrays.sort(values, 0, n);
+		int distinct = 0;
+		for (int i = 0; i < n; i++) {
+			if (distinct == 0 || values[distinct-1] != values[i])
+				values[distinct++] = values[i];
+		}
+		return Arrays.copyOf(values, distinct);
+	}
+}
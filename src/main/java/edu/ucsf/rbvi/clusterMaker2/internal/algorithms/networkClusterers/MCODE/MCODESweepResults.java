@@ -0,0 +1,156 @@
+package edu.ucsf.rbvi.clusterMaker2.internal.algorithms.networkClusterers.MCODE;
+
+import java.text.NumberFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.cytoscape.work.json.JSONResult;
+
+import edu.ucsf.rbvi.clusterMaker2.internal.api.ClusterResults;
+
+/**
+ * The results of a sweep of the MCODE cluster finding parameters: the number
+ * of clusters and their scores for each combination of settings, all found
+ * from a single scoring of the network.
+ */
+public class MCODESweepResults implements ClusterResults {
+	private final List<Setting> settings;
+
+	public MCODESweepResults(List<Setting> settings) {
+		this.settings = settings;
+	}
+
+	/**
+	 * Return the results of each setting, in the order they were asked for
+	 *
+	 * @return the settings
+	 */
+	public List<Setting> getSettings() { return settings; }
+
+	/**
+	 * The score of the best setting: the highest total of the cluster scores
+	 *
+	 * @return the best total score, or 0 if there are no settings
+	 */
+	public double getScore() {
+		double best = 0.0;
+		for (Setting setting: settings)
+			best = Math.max(best, setting.getTotalScore());
+		return best;
+	}
+
+	public String toString() {
+		String result = "";
+		for (Setting setting: settings)
+			result += "  "+setting+"\n";
+		return result;
+	}
+
+	@Override
+	public <R> R getResults(Class<? extends R> requestedType) {
+		if (requestedType.equals(String.class)) {
+			return (R)toString();
+		} else if (requestedType.equals(Map.class)) {
+			List<Map<String, Object>> settingList = new ArrayList<>();
+			for (Setting setting: settings)
+				settingList.add(setting.toMap());
+			Map<String, Object> resultMap = new HashMap<String, Object>();
+			resultMap.put("settings", settingList);
+			return (R)resultMap;
+		} else if (requestedType.equals(List.class)) {
+			return (R)settings;
+		} else if (requestedType.equals(JSONResult.class)) {
+			JSONResult res = () -> {
+				String strRes = "{\"settings\":[";
+				for (int i = 0; i < settings.size(); i++) {
+					if (i > 0) strRes += ",";
+					strRes += settings.get(i).toJSON();
+				}
+				return strRes+"]}";
+			};
+			return (R)res;
+		}
+		return (R)toString();
+	}
+
+	@Override
+	public List<Class<?>> getResultClasses() {
+		return Arrays.asList(JSONResult.class, Map.class, List.class, String.class);
+	}
+
+	/**
+	 * The clusters found with one combination of the cluster finding parameters
+	 */
+	public static class Setting {
+		private final MCODEParameterSet params;
+		private final List<Double> scores;
+
+		/**
+		 * @param params the parameters the clusters were found with
+		 * @param scores the scores of the clusters
+		 */
+		public Setting(MCODEParameterSet params, List<Double> scores) {
+			this.params = params;
+			this.scores = new ArrayList<Double>(scores);
+			Collections.sort(this.scores, Collections.reverseOrder());
+		}
+
+		public MCODEParameterSet getParams() { return params; }
+
+		public int getClusterCount() { return scores.size(); }
+
+		/**
+		 * Return the scores of the clusters, highest first
+		 *
+		 * @return the cluster scores
+		 */
+		public List<Double> getScores() { return scores; }
+
+		public double getTotalScore() {
+			double total = 0.0;
+			for (double score: scores)
+				total += score;
+			return total;
+		}
+
+		public String toString() {
+			NumberFormat nf = NumberFormat.getInstance();
+			return "Node Score Cutoff: "+params.getNodeScoreCutoff()+"  K-Core: "+params.getKCore()+
+			       "  Max. Depth: "+params.getMaxDepthFromStart()+"  Haircut: "+params.isHaircut()+
+			       "  Fluff: "+params.isFluff()+" -- "+scores.size()+" clusters"+
+			       (scores.isEmpty() ? "" : ", best score "+nf.format(scores.get(0)));
+		}
+
+		Map<String, Object> toMap() {
+			Map<String, Object> map = new HashMap<String, Object>();
+			map.put("nodeScoreCutoff", params.getNodeScoreCutoff());
+			map.put("kCore", params.getKCore());
+			map.put("maxDepth", params.getMaxDepthFromStart());
+			map.put("haircut", params.isHaircut());
+			map.put("fluff", params.isFluff());
+			map.put("nclusters", scores.size());
+			map.put("scores", scores);
+			return map;
+		}
+
+		String toJSON() {
+			String strRes = "{";
+			strRes += "\"nodeScoreCutoff\": "+params.getNodeScoreCutoff()+",";
+			strRes += "\"kCore\": "+params.getKCore()+",";
+			strRes += "\"maxDepth\": "+params.getMaxDepthFromStart()+",";
+			strRes += "\"haircut\": "+params.isHaircut()+",";
+			strRes += "\"fluff\": "+params.isFluff()+",";
+			strRes += "\"nclusters\": "+scores.size()+",";
+			strRes += "\"scores\": [";
+			for (int i = 0; i < scores.size(); i++) {
+				if (i > 0) strRes += ",";
+				strRes += scores.get(i);
+			}
+			return strRes+"]}";
+		}
+	}
+}
@@ -4,6 +4,7 @@ import org.cytoscape.model.CyNetwork;
 import org.cytoscape.work.TaskMonitor;
 
 import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.NodeCluster;
+import edu.ucsf.rbvi.clusterMaker2.internal.api.NetworkCache;
 import edu.ucsf.rbvi.clusterMaker2.internal.utils.ModelUtils;
 
 import java.util.List;
@@ -51,6 +52,7 @@ public class RunMCODE {
 	private TaskMonitor taskMonitor = null;
 	private boolean interrupted = false;
 	private CyNetwork network = null;
+	private NetworkCache networkCache = null;
 	private MCODEAlgorithm alg = null;
 	private boolean completedSuccessfully = false;
 	private int analyze;
@@ -60,14 +62,15 @@ public class RunMCODE {
 	 * Scores and finds clusters in a given network
 	 *
 	 * @param network The network to cluster
+	 * @param networkCache The cache the snapshot of the network is shared through
 	 * @param analyze Tells the task if we need to rescore and/or refind
 	 * @param resultId Identifier of the current result set
-	 * @param alg reference to the algorithm for this network
 	 */
-	public RunMCODE(int analyze, int resultId, CyNetwork network, TaskMonitor monitor) {
+	public RunMCODE(int analyze, int resultId, CyNetwork network, NetworkCache networkCache, TaskMonitor monitor) {
 		this.analyze = analyze;
 		this.resultId = resultId;
 		this.network = network;
+		this.networkCache = networkCache;
 		this.alg = new MCODEAlgorithm(ModelUtils.getNetworkName(network), monitor);
 	}
 
@@ -75,18 +78,8 @@ public class RunMCODE {
 	 * Run MCODE (Both score and find steps)
 	 */
 	public List<NodeCluster> run(TaskMonitor monitor) {
-		//run MCODE scoring algorithm - node scores are saved in the alg object
-		alg.setTaskMonitor(monitor, ModelUtils.getNetworkName(network));
-		//only (re)score the graph if the scoring parameters have been changed
-		if (analyze == MCODECluster.RESCORE) {
-			monitor.setProgress(0);
-			monitor.setStatusMessage("Scoring Network (Step 1 of 3)");
-			alg.scoreGraph(network, resultId);
-			if (interrupted) {
-				return null;
-			}
-			monitor.showMessage(TaskMonitor.Level.INFO,"Network was scored in " + alg.getLastScoreTime() + " ms.");
-		}
+		if (!score(monitor, "Scoring Network (Step 1 of 3)"))
+			return null;
 
 		monitor.setProgress(0);
 		monitor.setStatusMessage("Finding Clusters (Step 2 of 3)");
@@ -102,6 +95,50 @@ public class RunMCODE {
 		return clusters;
 	}
 
+	/**
+	 * Score the network once and then find the clusters for each of a set of
+	 * cluster finding parameters
+	 *
+	 * @param monitor the task monitor
+	 * @param settings the cluster finding parameters to try
+	 * @return the number of clusters and their scores for each setting
+	 */
+	public MCODESweepResults sweep(TaskMonitor monitor, List<MCODEParameterSet> settings) {
+		if (!score(monitor, "Scoring Network (Step 1 of 2)"))
+			return null;
+
+		monitor.setProgress(0);
+		monitor.setStatusMessage("Finding Clusters for "+settings.size()+" settings (Step 2 of 2)");
+
+		List<MCODESweepResults.Setting> results = alg.sweepClusters(resultId, settings);
+
+		if (interrupted || results == null) {
+			return null;
+		}
+		monitor.showMessage(TaskMonitor.Level.INFO,"Clusters were found in " + alg.getLastFindTime() + " ms.");
+		return new MCODESweepResults(results);
+	}
+
+	/**
+	 * Run the MCODE scoring algorithm - node scores are saved in the alg object
+	 *
+	 * @return false if we were interrupted
+	 */
+	private boolean score(TaskMonitor monitor, String status) {
+		alg.setTaskMonitor(monitor, ModelUtils.getNetworkName(network));
+		//only (re)score the graph if the scoring parameters have been changed
+		if (analyze == MCODECluster.RESCORE) {
+			monitor.setProgress(0);
+			monitor.setStatusMessage(status);
+			alg.scoreGraph(network, networkCache, resultId);
+			if (interrupted) {
+				return false;
+			}
+			monitor.showMessage(TaskMonitor.Level.INFO,"Network was scored in " + alg.getLastScoreTime() + " ms.");
+		}
+		return true;
+	}
+
 	/**
 	 * Non-blocking call to interrupt the task.
 	 */
@@ -48,7 +48,7 @@ import org.cytoscape.model.CyNode;
 import org.cytoscape.work.TaskMonitor;
 
 import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.NodeCluster;
-import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.matrix.MatrixUtils;
+import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.UnionFind;
 import edu.ucsf.rbvi.clusterMaker2.internal.api.CyMatrix;
 
 import cern.colt.function.tdouble.IntIntDoubleFunction;
@@ -80,6 +80,9 @@ public class RunSCPS {
 
 	private  HashMap<Integer, NodeCluster> clusterMap;
 
+	// The connected components found by getSMat, reused by doComponentClustering
+	private List<NodeCluster> components = null;
+
 	private HashMap<Integer,Integer> new2oldMap;
 	private HashMap<Integer,Integer> old2newMap;
 
@@ -174,7 +177,12 @@ public class RunSCPS {
 		HashMap<Integer, List<CyNode>> filtered_cmap = new HashMap<Integer, List<CyNode>>();
 
 		//Connected Componets
-		Map<Integer, List<CyNode>> cMap = MatrixUtils.findConnectedComponents(distanceMatrix);
+		components = findComponents();
+
+		//The matrix index of each node
+		Map<CyNode, Integer> nodeIndex = new HashMap<CyNode, Integer>(this.nodes.size());
+		for (int i = 0; i < this.nodes.size(); i++)
+			nodeIndex.put(this.nodes.get(i), i);
 
 		IntArrayList rowList = new IntArrayList();
 		IntArrayList columnList = new IntArrayList();
@@ -183,7 +191,7 @@ public class RunSCPS {
 		//Iterate through connected components
 		int component_size_sum = 0;
 
-		 for (List<CyNode> component: cMap.values()) {
+		 for (List<CyNode> component: components) {
 			numComponents += 1;
 
 			//Size <= 5. Automatically create cluster and increment clusterCount. 
@@ -202,7 +210,7 @@ public class RunSCPS {
 				for(int i = 0; i < component.size(); i++){
 
 					CyNode n = component.get(i);
-					int node_id = this.nodes.indexOf(n);
+					int node_id = nodeIndex.get(n);
 
 					//set mapping of new matrix index to old index
 					setMap(node_id, sMat_rows);
@@ -488,12 +496,12 @@ public class RunSCPS {
 
 	//Store all components length greater then 5 in clusters, if number components is greater then K
 	public void doComponentClustering(){
-		//Connected Componets
-		Map<Integer, List<CyNode>> cMap = MatrixUtils.findConnectedComponents(distanceMatrix);
+		//Connected Componets, the same ones getSMat used.  Components of size <= 5 were already clustered there
+		List<NodeCluster> cList = components;
+		if (cList == null)
+			cList = findComponents();
 
-		//Iterate through connected components
-		int component_size_sum = 0;
-		for (List<CyNode> component: cMap.values()) {
+		for (List<CyNode> component: cList) {
 			if(component.size() > 5){
 				NodeCluster iCluster = new NodeCluster(component);
 				iCluster.setClusterNumber(this.clusterCount);
@@ -503,6 +511,13 @@ public class RunSCPS {
 		}
 	}
 
+	//The connected components of the non-zero cells of the distance matrix, largest first
+	private List<NodeCluster> findComponents() {
+		UnionFind componentSets = new UnionFind(distanceMatrix.nRows());
+		componentSets.unionNonZeros(distanceMatrix);
+		return componentSets.getClusters(this.nodes, 1);
+	}
+
 	//round double to two decimal points
 	public double round(double d){
 		int precision = 100;
@@ -6,6 +6,7 @@ import edu.uci.ics.jung.graph.Graph;
 import edu.uci.ics.jung.graph.util.EdgeType;
 import edu.uci.ics.jung.graph.util.Pair;
 import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.AbstractClusterResults;
+import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.NetworkGraph;
 import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.NodeCluster;
 import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.ranking.units.PREdge;
 import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.ranking.units.PRNode;
@@ -21,7 +22,6 @@ import org.cytoscape.work.ObservableTask;
 import org.cytoscape.work.TaskMonitor;
 import org.cytoscape.work.Tunable;
 
-import java.util.HashMap;
 import java.util.List;
 
 public class HyperlinkInducedTopicSearch extends AbstractTask implements Rank, ObservableTask {
@@ -29,9 +29,8 @@ public class HyperlinkInducedTopicSearch extends AbstractTask implements Rank, O
     public static final String NAME = "Create rank from the HyperlinkInducedTopicSearch algorithm with priors";
     public static final String SHORTNAME = "HITS";
     private Graph<PRNode, PREdge> graph;
-    private List<CyNode> nodeList;
-    private HashMap<Long, PRNode> idToNode;
-    private List<CyEdge> edgeList;
+    private NetworkGraph snapshot;
+    private PRNode[] prNodes;
     private List<NodeCluster> clusters;
     private AbstractClusterResults results;
 
@@ -106,9 +105,8 @@ public class HyperlinkInducedTopicSearch extends AbstractTask implements Rank, O
 
     private void initVariables() {
         graph = new DirectedSparseMultigraph<>();
-        idToNode = new HashMap<>();
-        nodeList = network.getNodeList();
-        edgeList = network.getEdgeList();
+        snapshot = NetworkGraph.cached(manager.getNetworkCache(), network);
+        prNodes = new PRNode[snapshot.nodeCount()];
     }
 
     private HITS<PRNode, PREdge> performHITS(Graph<PRNode, PREdge> graph) {
@@ -131,19 +129,19 @@ public class HyperlinkInducedTopicSearch extends AbstractTask implements Rank, O
     }
 
     private void addEdges() {
-        for (CyEdge edge : edgeList) {
-            PRNode sourceNode = idToNode.get(edge.getSource().getSUID());
-            PRNode targetNode = idToNode.get(edge.getTarget().getSUID());
-            PREdge prEdge = new PREdge(edge);
+        for (int edge = 0; edge < snapshot.edgeCount(); edge++) {
+            PRNode sourceNode = prNodes[snapshot.getSource(edge)];
+            PRNode targetNode = prNodes[snapshot.getTarget(edge)];
+            PREdge prEdge = new PREdge(snapshot.getEdge(edge));
             graph.addEdge(prEdge, new Pair<>(sourceNode, targetNode), EdgeType.DIRECTED);
         }
     }
 
     private void addNodes() {
-        for (CyNode node : nodeList) {
-            PRNode prNode = new PRNode(node);
+        for (int node = 0; node < snapshot.nodeCount(); node++) {
+            PRNode prNode = new PRNode(snapshot.getNode(node));
             graph.addVertex(prNode);
-            idToNode.put(node.getSUID(), prNode);
+            prNodes[node] = prNode;
         }
     }
 
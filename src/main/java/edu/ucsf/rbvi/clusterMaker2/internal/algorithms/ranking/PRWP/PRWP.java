@@ -7,6 +7,7 @@ import edu.uci.ics.jung.graph.Hypergraph;
 import edu.uci.ics.jung.graph.util.EdgeType;
 import edu.uci.ics.jung.graph.util.Pair;
 import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.AbstractClusterResults;
+import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.NetworkGraph;
 import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.NodeCluster;
 import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.ranking.units.PREdge;
 import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.ranking.units.PRNode;
@@ -23,7 +24,6 @@ import org.cytoscape.work.ObservableTask;
 import org.cytoscape.work.TaskMonitor;
 import org.cytoscape.work.Tunable;
 
-import java.util.HashMap;
 import java.util.List;
 
 public class PRWP extends AbstractTask implements Rank, ObservableTask {
@@ -37,9 +37,8 @@ public class PRWP extends AbstractTask implements Rank, ObservableTask {
     @ContainsTunables
     public PRWPContext context;
     private Hypergraph<PRNode, PREdge> graph;
-    private HashMap<Long, PRNode> idToNode;
-    private List<CyNode> nodeList;
-    private List<CyEdge> edgeList;
+    private NetworkGraph snapshot;
+    private PRNode[] prNodes;
     private CyTable nodeTable;
     private CyTable edgeTable;
     private List<String> nodeAttributes;
@@ -139,21 +138,21 @@ public class PRWP extends AbstractTask implements Rank, ObservableTask {
     }
 
     private void addEdges() {
-        for (CyEdge edge : edgeList) {
-            PRNode sourceNode = idToNode.get(edge.getSource().getSUID());
-            PRNode targetNode = idToNode.get(edge.getTarget().getSUID());
-            PREdge prEdge = new PREdge(edge);
+        for (int edge = 0; edge < snapshot.edgeCount(); edge++) {
+            PRNode sourceNode = prNodes[snapshot.getSource(edge)];
+            PRNode targetNode = prNodes[snapshot.getTarget(edge)];
+            PREdge prEdge = new PREdge(snapshot.getEdge(edge));
             insertEdgeScore(prEdge, edgeTable, edgeAttributes);
             graph.addEdge(prEdge, new Pair<>(sourceNode, targetNode), EdgeType.DIRECTED);
         }
     }
 
     private void addNodes() {
-        for (CyNode node : nodeList) {
-            PRNode prNode = new PRNode(node);
+        for (int node = 0; node < snapshot.nodeCount(); node++) {
+            PRNode prNode = new PRNode(snapshot.getNode(node));
             insertNodeScore(prNode, nodeTable, nodeAttributes);
             graph.addVertex(prNode);
-            idToNode.put(node.getSUID(), prNode);
+            prNodes[node] = prNode;
         }
     }
 
@@ -162,9 +161,8 @@ public class PRWP extends AbstractTask implements Rank, ObservableTask {
         edgeAttributes = context.getSelectedEdgeAttributes();
 
         graph = new DirectedSparseMultigraph<>();
-        idToNode = new HashMap<>();
-        nodeList = network.getNodeList();
-        edgeList = network.getEdgeList();
+        snapshot = NetworkGraph.cached(manager.getNetworkCache(), network);
+        prNodes = new PRNode[snapshot.nodeCount()];
         nodeTable = network.getDefaultNodeTable();
         edgeTable = network.getDefaultEdgeTable();
     }
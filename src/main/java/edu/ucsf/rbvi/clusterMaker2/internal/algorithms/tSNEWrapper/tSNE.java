@@ -86,7 +86,8 @@ public class tSNE extends AbstractNetworkClusterer implements ObservableTask {
 
 		// CyMatrix matrix = context.edgeAttributeHandler.getMatrix();
 		CyMatrix matrix = CyMatrixFactory.makeLargeMatrix(network, attrArray, context.selectedOnly, 
-		                                                  context.ignoreMissing, false, false);
+		                                                  context.ignoreMissing, false, false,
+		                                                  context.dataPrecision.getPrecision());
 		
 		if (matrix == null) {
 			monitor.showMessage(TaskMonitor.Level.ERROR,"Can't get distance matrix: no attribute value?");
@@ -7,6 +7,7 @@ import org.cytoscape.work.util.BoundedDouble;
 import org.cytoscape.work.util.ListSingleSelection;
 
 import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.attributeClusterers.AttributeList;
+import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.attributeClusterers.DataPrecision;
 
 import com.jujutsu.tsne.barneshut.TSneConfiguration;
 
@@ -19,6 +20,9 @@ public class tSNEContext implements TSneConfiguration {
 	@ContainsTunables
 	public AttributeList attributeList = null;
 
+	@ContainsTunables
+	public DataPrecision dataPrecision = new DataPrecision();
+
 
 	public boolean selectedOnly = false;
 	@Tunable(description="Use only selected nodes/edges for cluster",
@@ -59,6 +59,12 @@ public interface ClusterManager {
 	void addResultsPanel(CyNetwork network, ResultsPanel resultsPanel);
 	void removeResultsPanel(CyNetwork network, ResultsPanel resultsPanel);
 
+	// The distance matrices shared between attribute cluster runs
+	DistanceMatrixCache getDistanceMatrixCache();
+
+	// The network snapshots shared between network cluster, filter and ranking runs
+	NetworkCache getNetworkCache();
+
 	<T> T getService(Class <? extends T> clazz);
 	<T> T getService(Class<? extends T> clazz, String filter);
 
@@ -118,6 +118,41 @@ public interface CyMatrix extends Matrix {
 	 */
 	public CyMatrix getDistanceMatrix(DistanceMetric metric);
 
+	/**
+	 * Return the distance between rows based on the metric, reporting
+	 * progress and stopping early if the task is cancelled.  Matrix types
+	 * that can't report progress just calculate the distances.
+	 *
+	 * @param metric the metric to use to calculate the distances
+	 * @param progress the (possibly null) progress to report to
+	 * @return a new CyMatrix of the distances between the rows, or null if
+	 * the task was cancelled
+	 */
+	default public CyMatrix getDistanceMatrix(DistanceMetric metric, DistanceProgress progress) {
+		return getDistanceMatrix(metric);
+	}
+
+	/**
+	 * Get distance matrices through a cache shared with other runs on the
+	 * same data.  Matrix types that don't keep their distance matrices
+	 * ignore this.
+	 *
+	 * @param cache the cache for this matrix's data, or null to stop sharing
+	 */
+	default public void setDistanceCache(DistanceCache cache) {}
+
+	/**
+	 * Return the k nearest neighbors of each row.  Matrix types that keep
+	 * their distance matrices also keep the neighbors, and reuse them for
+	 * any request they cover.
+	 *
+	 * @param metric the metric to use to calculate the distances
+	 * @param k the number of neighbors of each row
+	 * @param sampleRate the NN-Descent sample rate, or 1.0 for the exact neighbors
+	 * @return the nearest neighbors, which may include more than k for each row
+	 */
+	public NearestNeighbors getNearestNeighbors(DistanceMetric metric, int k, double sampleRate);
+
 	/**
 	 * Return a copy of this matrix
 	 *
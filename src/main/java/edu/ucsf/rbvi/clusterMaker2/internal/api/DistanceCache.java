@@ -0,0 +1,22 @@
+package edu.ucsf.rbvi.clusterMaker2.internal.api;
+
+import java.util.function.Function;
+
+/**
+ * A source of previously calculated distance matrices for one data matrix.
+ * A CyMatrix that has been given a DistanceCache asks it before calculating
+ * its distances, so repeated runs on the same data only pay for them once.
+ */
+public interface DistanceCache {
+	/**
+	 * Return the distance matrix for a metric, calculating it (and remembering
+	 * the result) if it isn't cached.
+	 *
+	 * @param metric the distance metric
+	 * @param calculate calculates the distance matrix if it isn't cached, or
+	 * returns null if the calculation was cancelled
+	 * @return the distance matrix, which must not be modified, or null if
+	 * the calculation was cancelled
+	 */
+	public CyMatrix getDistanceMatrix(DistanceMetric metric, Function<DistanceMetric, CyMatrix> calculate);
+}
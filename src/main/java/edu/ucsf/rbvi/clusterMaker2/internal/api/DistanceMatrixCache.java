@@ -0,0 +1,30 @@
+package edu.ucsf.rbvi.clusterMaker2.internal.api;
+
+import org.cytoscape.model.CyNetwork;
+
+/**
+ * A session-wide cache of the distance matrices calculated by the attribute
+ * clusterers.  A cached matrix is only handed out while the network and the
+ * attribute columns it was calculated from are unchanged.
+ */
+public interface DistanceMatrixCache {
+	/**
+	 * Return a DistanceCache for a data matrix built by CyMatrixFactory.makeSmallMatrix.
+	 * The arguments are the ones that were used to build the matrix.
+	 *
+	 * @param network the network
+	 * @param attributes the attributes (with their "node." or "edge." prefixes)
+	 * @param selectedOnly only the selected nodes or edges were included
+	 * @param ignoreMissing nodes or edges with missing values were ignored
+	 * @param transpose the matrix is transposed
+	 * @param precision the precision of the data matrix
+	 * @return the cache for the matrix
+	 */
+	public DistanceCache forData(CyNetwork network, String[] attributes, boolean selectedOnly,
+	                             boolean ignoreMissing, boolean transpose, Precision precision);
+
+	/**
+	 * Drop all of the cached distance matrices
+	 */
+	public void clear();
+}
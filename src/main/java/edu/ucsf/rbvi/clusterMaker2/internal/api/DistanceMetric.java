@@ -2,6 +2,7 @@ package edu.ucsf.rbvi.clusterMaker2.internal.api;
 
 import java.lang.Math;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 
@@ -64,87 +65,146 @@ public enum DistanceMetric {
 
 	public double getMetric(Matrix data1, Matrix data2, double[] weights,
 	                        int index1, int index2) {
+		switch (this) {
+			case VALUE_IS_CORRELATION:
+				return (1-data1.doubleValue(index1, index2));
+			case VALUE_IS_DISTANCE:
+				return data1.doubleValue(index1, index2);
+		}
+		return getMetric(data1.getRowView(index1), data2.getRowView(index2), weights);
+	}
+
+	/**
+	 * Calculate the distance between two rows.  This is the inner loop of the
+	 * all-pairs distance calculation, so callers that compare the same rows
+	 * many times should get the row views once and call this directly.
+	 *
+	 * @param row1 the first row
+	 * @param row2 the second row
+	 * @param weights the (possibly null) column weights
+	 * @return the distance between the rows
+	 * @throws UnsupportedOperationException if this metric reads the matrix
+	 * values directly (VALUE_IS_CORRELATION and VALUE_IS_DISTANCE)
+	 */
+	public double getMetric(RowView row1, RowView row2, double[] weights) {
 		switch (this) {
 			case BRAYCURTIS:
-				return brayCurtisMetric(data1, data2, weights, index1, index2);
+				return brayCurtisMetric(row1, row2, weights);
 			case CANBERRA:
-				return canberraMetric(data1, data2, weights, index1, index2);
+				return canberraMetric(row1, row2, weights);
 			case CHEBYSHEV:
-				return chebyshevMetric(data1, data2, weights, index1, index2);
+				return chebyshevMetric(row1, row2, weights);
 			case EUCLIDEAN:
-				return Math.sqrt(euclidMetric(data1, data2, weights, index1, index2));
+				return Math.sqrt(euclidMetric(row1, row2, weights));
 			case EUCLIDEANSQ:
-				return euclidMetric(data1, data2, weights, index1, index2);
+				return euclidMetric(row1, row2, weights);
 			case CITYBLOCK:
-				return cityblockMetric(data1, data2, weights, index1, index2);
+				return cityblockMetric(row1, row2, weights);
 			case KENDALLS_TAU:
-				return kendallMetric(data1, data2, weights, index1, index2);
+				return kendallMetric(row1, row2, weights);
 			case MINKOWSKI:
-				return minkowskiMetric(data1, data2, weights, index1, index2);
+				return minkowskiMetric(row1, row2, weights);
 			case CORRELATION:
-				return correlationMetric(data1, data2, weights, index1, index2);
+				return correlationMetric(row1, row2, weights, false);
 			case ABS_CORRELATION:
-				return acorrelationMetric(data1, data2, weights, index1, index2);
+				return correlationMetric(row1, row2, weights, true);
 			case UNCENTERED_CORRELATION:
-				return ucorrelationMetric(data1, data2, weights, index1, index2);
+				return ucorrelationMetric(row1, row2, weights, false);
 			case ABS_UNCENTERED_CORRELATION:
-				return uacorrelationMetric(data1, data2, weights, index1, index2);
+				return ucorrelationMetric(row1, row2, weights, true);
 			case SPEARMANS_RANK:
-				return spearmanMetric(data1, data2, weights, index1, index2);
+				return spearmanMetric(row1, row2, weights);
 			case VALUE_IS_CORRELATION:
-				return (1-data1.doubleValue(index1, index2));
 			case VALUE_IS_DISTANCE:
-				return data1.doubleValue(index1, index2);
+				throw new UnsupportedOperationException(name+" is not a distance between rows");
 		}
-		return euclidMetric(data1, data2, weights, index1, index2);
+		return euclidMetric(row1, row2, weights);
 	}
 
-	// Distance metric calculations
-	private double euclidMetric(Matrix data1, Matrix data2, double[] weights, 
-	                            int index1, int index2) {
+	// Distance metric calculations.  Each of these loops over the raw row
+	// arrays, skipping the columns that are missing in either row.  The
+	// combined missing mask is null when both rows are complete, and then
+	// every column is used; otherwise only the columns with values are
+	// visited, a word of the mask at a time, so the test for missing values
+	// is made once per pair of rows rather than once per column.
+	private double euclidMetric(RowView row1, RowView row2, double[] weights) {
+		double[] data1 = row1.getValues();
+		double[] data2 = row2.getValues();
+		int offset1 = row1.getOffset();
+		int offset2 = row2.getOffset();
+		long[] missing = RowView.missingEither(row1, row2);
 		double result = 0.0;
 		double tweight = 0.0;
-		for (int i = 0; i < data1.nColumns(); i++) {
-			if (data1.hasValue(index1, i) && data2.hasValue(index2, i)) {
+		if (missing == null) {
+			for (int i = 0; i < row1.length(); i++) {
 				double weight = getWeight(weights, i);
-				double term = data1.doubleValue(index1, i) - data2.doubleValue(index2, i);
+				double term = data1[offset1+i] - data2[offset2+i];
 				result += weight*term*term;
 				tweight += weight;
 			}
+		} else {
+			for (int word = 0; word < missing.length; word++) {
+				for (long present = present(missing, word, row1.length()); present != 0; present &= present-1) {
+					int i = (word << 6) + Long.numberOfTrailingZeros(present);
+					double weight = getWeight(weights, i);
+					double term = data1[offset1+i] - data2[offset2+i];
+					result += weight*term*term;
+					tweight += weight;
+				}
+			}
 		}
 		if (tweight == 0.0) return 0;
 		return (result/tweight);
 	}
 
-	private double cityblockMetric(Matrix data1, Matrix data2, double[] weights, 
-	                                      int index1, int index2) {
+	private double cityblockMetric(RowView row1, RowView row2, double[] weights) {
+		double[] data1 = row1.getValues();
+		double[] data2 = row2.getValues();
+		int offset1 = row1.getOffset();
+		int offset2 = row2.getOffset();
+		long[] missing = RowView.missingEither(row1, row2);
 		double result = 0.0;
 		double tweight = 0.0;
-		for (int i = 0; i < data1.nColumns(); i++) {
-			if (data1.hasValue(index1, i) && data2.hasValue(index2, i)) {
+		if (missing == null) {
+			for (int i = 0; i < row1.length(); i++) {
 				double weight = getWeight(weights, i);
-				double term = data1.doubleValue(index1, i) - data2.doubleValue(index2, i);
+				double term = data1[offset1+i] - data2[offset2+i];
 				result = result + weight*Math.abs(term);
 				tweight += weight;
 			}
+		} else {
+			for (int word = 0; word < missing.length; word++) {
+				for (long present = present(missing, word, row1.length()); present != 0; present &= present-1) {
+					int i = (word << 6) + Long.numberOfTrailingZeros(present);
+					double weight = getWeight(weights, i);
+					double term = data1[offset1+i] - data2[offset2+i];
+					result = result + weight*Math.abs(term);
+					tweight += weight;
+				}
+			}
 		}
 		if (tweight == 0.0) return 0;
 		return (result/tweight);
 	}
 
-	private double correlationMetric(Matrix data1, Matrix data2, double[] weights, 
-	                                        int index1, int index2) {
+	private double correlationMetric(RowView row1, RowView row2, double[] weights,
+	                                 boolean absolute) {
+		double[] data1 = row1.getValues();
+		double[] data2 = row2.getValues();
+		int offset1 = row1.getOffset();
+		int offset2 = row2.getOffset();
+		long[] missing = RowView.missingEither(row1, row2);
 		double result = 0.0;
 		double sum1 = 0.0;
 		double sum2 = 0.0;
 		double denom1 = 0.0;
 		double denom2 = 0.0;
 		double tweight = 0.0;
-		for (int i = 0; i < data1.nColumns(); i++) {
-			if (data1.hasValue(index1, i) && data2.hasValue(index2, i)) {
+		if (missing == null) {
+			for (int i = 0; i < row1.length(); i++) {
 				double w = getWeight(weights, i);
-				double term1 = data1.doubleValue(index1, i);
-				double term2 = data2.doubleValue(index2, i);
+				double term1 = data1[offset1+i];
+				double term2 = data2[offset2+i];
 				sum1 += w*term1;
 				sum2 += w*term2;
 				result += w*term1*term2;
@@ -152,36 +212,20 @@ public enum DistanceMetric {
 				denom2 += w*term2*term2;
 				tweight += w;
 			}
-		}
-		if (tweight == 0.0) return 0;
-		result -= sum1 * sum2 / tweight;
-		denom1 -= sum1 * sum1 / tweight;
-		denom2 -= sum2 * sum2 / tweight;
-		if (denom1 <= 0) return 1;
-		if (denom2 <= 0) return 1;
-		result = result / Math.sqrt(denom1*denom2);
-		return (1.0 - result);
-	}
-
-	private double acorrelationMetric(Matrix data1, Matrix data2, double[] weights, 
-	                                         int index1, int index2) {
-		double result = 0.0;
-		double sum1 = 0.0;
-		double sum2 = 0.0;
-		double denom1 = 0.0;
-		double denom2 = 0.0;
-		double tweight = 0.0;
-		for (int i = 0; i < data1.nColumns(); i++) {
-			if (data1.hasValue(index1, i) && data2.hasValue(index2, i)) {
-				double term1 = data1.doubleValue(index1, i);
-				double term2 = data2.doubleValue(index2, i);
-				double w = getWeight(weights, i);
-				sum1 += w*term1;
-				sum2 += w*term2;
-				result += w*term1*term2;
-				denom1 += w*term1*term1;
-				denom2 += w*term2*term2;
-				tweight += w;
+		} else {
+			for (int word = 0; word < missing.length; word++) {
+				for (long present = present(missing, word, row1.length()); present != 0; present &= present-1) {
+					int i = (word << 6) + Long.numberOfTrailingZeros(present);
+					double w = getWeight(weights, i);
+					double term1 = data1[offset1+i];
+					double term2 = data2[offset2+i];
+					sum1 += w*term1;
+					sum2 += w*term2;
+					result += w*term1*term2;
+					denom1 += w*term1*term1;
+					denom2 += w*term2*term2;
+					tweight += w;
+				}
 			}
 		}
 		if (tweight == 0.0) return 0;
@@ -190,71 +234,81 @@ public enum DistanceMetric {
 		denom2 -= sum2 * sum2 / tweight;
 		if (denom1 <= 0) return 1;
 		if (denom2 <= 0) return 1;
-		result = Math.abs(result) / Math.sqrt(denom1*denom2);
+		if (absolute)
+			result = Math.abs(result);
+		result = result / Math.sqrt(denom1*denom2);
 		return (1.0 - result);
 	}
 
-	private double ucorrelationMetric(Matrix data1, Matrix data2, double[] weights, 
-	                                         int index1, int index2) {
+	private double ucorrelationMetric(RowView row1, RowView row2, double[] weights,
+	                                  boolean absolute) {
+		double[] data1 = row1.getValues();
+		double[] data2 = row2.getValues();
+		int offset1 = row1.getOffset();
+		int offset2 = row2.getOffset();
+		long[] missing = RowView.missingEither(row1, row2);
 		double result = 0.0;
 		double denom1 = 0.0;
 		double denom2 = 0.0;
 		boolean flag = false;
 
-		for (int i = 0; i < data1.nColumns(); i++) {
-			if (data1.hasValue(index1,i) && data2.hasValue(index2,i)) {
-				double term1 = data1.doubleValue(index1,i);
-				double term2 = data2.doubleValue(index2,i);
+		if (missing == null) {
+			for (int i = 0; i < row1.length(); i++) {
+				double term1 = data1[offset1+i];
+				double term2 = data2[offset2+i];
 				double w = getWeight(weights, i);
 				result += w*term1*term2;
 				denom1 += w*term1*term1;
 				denom2 += w*term2*term2;
 				flag = true;
 			}
+		} else {
+			for (int word = 0; word < missing.length; word++) {
+				for (long present = present(missing, word, row1.length()); present != 0; present &= present-1) {
+					int i = (word << 6) + Long.numberOfTrailingZeros(present);
+					double term1 = data1[offset1+i];
+					double term2 = data2[offset2+i];
+					double w = getWeight(weights, i);
+					result += w*term1*term2;
+					denom1 += w*term1*term1;
+					denom2 += w*term2*term2;
+					flag = true;
+				}
+			}
 		}
 		if (!flag) return 0.0;
 		if (denom1 == 0) return 1;
 		if (denom2 == 0) return 1;
+		if (absolute)
+			result = Math.abs(result);
 		result = result / Math.sqrt(denom1*denom2);
 		return (1.0 - result);
 	}
 
-	private double uacorrelationMetric(Matrix data1, Matrix data2, double[] weights, 
-	                                          int index1, int index2) {
-		double result = 0.0;
-		double denom1 = 0.0;
-		double denom2 = 0.0;
-		boolean flag = false;
-
-		for (int i = 0; i < data1.nColumns(); i++) {
-			if (data1.hasValue(index1,i) && data2.hasValue(index2,i)) {
-				double term1 = data1.doubleValue(index1,i);
-				double term2 = data2.doubleValue(index2,i);
-				double w = getWeight(weights, i);
-				result += w*term1*term2;
-				denom1 += w*term1*term1;
-				denom2 += w*term2*term2;
-				flag = true;
-			}
+	// Spearman's rank correlation is Pearson's correlation on the ranks.  Rows
+	// with no missing values use the ranks cached in their views.  Otherwise
+	// the columns both rows have values for are ranked for this pair.
+	private double spearmanMetric(RowView row1, RowView row2, double[] weights) {
+		double[] rank1;
+		double[] rank2;
+		long[] missing = RowView.missingEither(row1, row2);
+		if (missing == null) {
+			rank1 = row1.getRank();
+			rank2 = row2.getRank();
+		} else {
+			double[][] common = common(row1, row2, missing);
+			if (common == null)
+				return 0.0;
+			rank1 = RowView.rank(common[0]);
+			rank2 = RowView.rank(common[1]);
 		}
-		if (!flag) return 0.0;
-		if (denom1 == 0) return 1;
-		if (denom2 == 0) return 1;
-		result = Math.abs(result) / Math.sqrt(denom1*denom2);
-		return (1.0 - result);
-	}
 
-	private double spearmanMetric(Matrix data1, Matrix data2, double[] weights, 
-	                                     int index1, int index2) {
+		if (rank1 == null || rank2 == null || rank1.length == 0)
+			return 0.0;
+
 		double result = 0.0;
 		double denom1 = 0.0;
 		double denom2 = 0.0;
-		double[] rank1 = data1.getRank(index1);
-		double[] rank2 = data2.getRank(index2);
-
-		if (rank1 == null || rank2 == null)
-			return 0.0;
-
 		double avgrank = 0.5*(rank1.length-1);
 
 		for (int i = 0; i < rank1.length; i++) {
@@ -276,104 +330,248 @@ public enum DistanceMetric {
 		return (1.0 - result);
 	}
 
-	private double kendallMetric(Matrix data1, Matrix data2, double[] weights, 
-	                                    int index1, int index2) {
-		int con = 0;
-		int dis = 0;
-		int exx = 0;
-		int exy = 0;
-		boolean flag = false;
-		double denomx;
-		double denomy;
-		double tau;
-		for (int i = 0; i < data1.nColumns(); i++) {
-			for (int j = 0; j < i; j++) {
-				if (data1.hasValue(index1, j) && data2.hasValue(index2, j)) {
-					double x1 = data1.doubleValue(index1, i);
-					double x2 = data1.doubleValue(index1, j);
-					double y1 = data2.doubleValue(index2, i);
-					double y2 = data2.doubleValue(index2, j);
-					if (x1 < x2 && y1 < y2) con++;
-					if (x1 > x2 && y1 > y2) con++;
-					if (x1 < x2 && y1 > y2) dis++;
-					if (x1 > x2 && y1 < y2) dis++;
-					if (x1 == x2 && y1 != y2) exx++;
-					if (x1 != x2 && y1 == y2) exy++;
-					flag = true;
-				}
+	// Kendall's tau-b using Knight's O(m log m) algorithm.  The pairs are
+	// sorted by x (then y), ties are counted in the sorted runs, and the
+	// discordant pairs are the swaps a merge sort by y makes.
+	private double kendallMetric(RowView row1, RowView row2, double[] weights) {
+		double[] x;
+		double[] y;
+		long[] missing = RowView.missingEither(row1, row2);
+		if (missing == null) {
+			// The cached order of the first row saves the sort by x
+			int[] order = row1.getOrder();
+			x = new double[order.length];
+			y = new double[order.length];
+			for (int i = 0; i < order.length; i++) {
+				x[i] = row1.get(order[i]);
+				y[i] = row2.get(order[i]);
+			}
+		} else {
+			double[][] common = common(row1, row2, missing);
+			if (common == null)
+				return 0.0;
+			int[] order = new int[common[0].length];
+			for (int i = 0; i < order.length; i++) order[i] = i;
+			RowView.sortOrder(common[0], 0, order);
+			x = new double[order.length];
+			y = new double[order.length];
+			for (int i = 0; i < order.length; i++) {
+				x[i] = common[0][order[i]];
+				y[i] = common[1][order[i]];
 			}
 		}
-		if (!flag) return 0.0;
-		denomx = con + dis + exx;
-		denomy = con + dis + exy;
+
+		int n = x.length;
+		if (n < 2) return 0.0;
+
+		// Sort by y within runs of equal x, counting the x ties and joint ties
+		long xTies = 0;
+		long jointTies = 0;
+		int start = 0;
+		for (int i = 1; i <= n; i++) {
+			if (i < n && x[i] == x[start]) continue;
+			int run = i-start;
+			if (run > 1) {
+				xTies += (long)run*(run-1)/2;
+				Arrays.sort(y, start, i);
+				jointTies += countTies(y, start, i);
+			}
+			start = i;
+		}
+
+		// Sort by y, counting the swaps
+		long swaps = mergeSort(y, new double[n], 0, n);
+		long yTies = countTies(y, 0, n);
+
+		long pairs = (long)n*(n-1)/2;
+		double denomx = pairs - yTies;	// concordant + discordant + tied only in x
+		double denomy = pairs - xTies;	// concordant + discordant + tied only in y
 		if (denomx == 0) return 1;
 		if (denomy == 0) return 1;
-		tau = (con-dis)/Math.sqrt(denomx*denomy);
+		double tau = (pairs - xTies - yTies + jointTies - 2*swaps)/Math.sqrt(denomx*denomy);
 		return 1.-tau;
 	}
 
-	private double brayCurtisMetric(Matrix data1, Matrix data2, double[] weights,
-	                                     int index1, int index2) {
+	private double brayCurtisMetric(RowView row1, RowView row2, double[] weights) {
+		double[] data1 = row1.getValues();
+		double[] data2 = row2.getValues();
+		int offset1 = row1.getOffset();
+		int offset2 = row2.getOffset();
+		long[] missing = RowView.missingEither(row1, row2);
 		double sumdiff = 0.0;
 		double sumsum = 0.0;
-		for (int i = 0; i < data1.nColumns(); i++) {
-			if (data1.hasValue(index1, i) && data2.hasValue(index2, i)) {
+		if (missing == null) {
+			for (int i = 0; i < row1.length(); i++) {
 				double w = getWeight(weights, i);
-				double v1 = data1.doubleValue(index1, i)*w;
-				double v2 = data1.doubleValue(index2, i)*w;
+				double v1 = data1[offset1+i]*w;
+				double v2 = data2[offset2+i]*w;
 				sumdiff += Math.abs(v1-v2);
 				sumsum += Math.abs(v1) + Math.abs(v2);
 			}
+		} else {
+			for (int word = 0; word < missing.length; word++) {
+				for (long present = present(missing, word, row1.length()); present != 0; present &= present-1) {
+					int i = (word << 6) + Long.numberOfTrailingZeros(present);
+					double w = getWeight(weights, i);
+					double v1 = data1[offset1+i]*w;
+					double v2 = data2[offset2+i]*w;
+					sumdiff += Math.abs(v1-v2);
+					sumsum += Math.abs(v1) + Math.abs(v2);
+				}
+			}
 		}
 		return sumdiff / sumsum;
 	}
 
-	private double canberraMetric(Matrix data1, Matrix data2, double[] weights,
-	                                     int index1, int index2) {
+	private double canberraMetric(RowView row1, RowView row2, double[] weights) {
+		double[] data1 = row1.getValues();
+		double[] data2 = row2.getValues();
+		int offset1 = row1.getOffset();
+		int offset2 = row2.getOffset();
+		long[] missing = RowView.missingEither(row1, row2);
 		double dist = 0.0;
-		for (int i = 0; i < data1.nColumns(); i++) {
-			if (data1.hasValue(index1, i) && data2.hasValue(index2, i)) {
+		if (missing == null) {
+			for (int i = 0; i < row1.length(); i++) {
 				double w = getWeight(weights, i);
-				double v1 = data1.doubleValue(index1, i)*w;
-				double v2 = data1.doubleValue(index2, i)*w;
+				double v1 = data1[offset1+i]*w;
+				double v2 = data2[offset2+i]*w;
 				dist += Math.abs(v1-v2)/(Math.abs(v1)+Math.abs(v2));
 			}
+		} else {
+			for (int word = 0; word < missing.length; word++) {
+				for (long present = present(missing, word, row1.length()); present != 0; present &= present-1) {
+					int i = (word << 6) + Long.numberOfTrailingZeros(present);
+					double w = getWeight(weights, i);
+					double v1 = data1[offset1+i]*w;
+					double v2 = data2[offset2+i]*w;
+					dist += Math.abs(v1-v2)/(Math.abs(v1)+Math.abs(v2));
+				}
+			}
 		}
 		return dist;
 	}
 
-	private double chebyshevMetric(Matrix data1, Matrix data2, double[] weights,
-	                                     int index1, int index2) {
+	private double chebyshevMetric(RowView row1, RowView row2, double[] weights) {
+		double[] data1 = row1.getValues();
+		double[] data2 = row2.getValues();
+		int offset1 = row1.getOffset();
+		int offset2 = row2.getOffset();
+		long[] missing = RowView.missingEither(row1, row2);
 		double max = Double.MIN_VALUE;
-		for (int i = 0; i < data1.nColumns(); i++) {
-			if (data1.hasValue(index1, i) && data2.hasValue(index2, i)) {
+		if (missing == null) {
+			for (int i = 0; i < row1.length(); i++) {
 				double w = getWeight(weights, i);
-				double v1 = data1.doubleValue(index1, i)*w;
-				double v2 = data1.doubleValue(index2, i)*w;
+				double v1 = data1[offset1+i]*w;
+				double v2 = data2[offset2+i]*w;
 				max = Math.max(Math.abs(v1-v2),max);
 			}
+		} else {
+			for (int word = 0; word < missing.length; word++) {
+				for (long present = present(missing, word, row1.length()); present != 0; present &= present-1) {
+					int i = (word << 6) + Long.numberOfTrailingZeros(present);
+					double w = getWeight(weights, i);
+					double v1 = data1[offset1+i]*w;
+					double v2 = data2[offset2+i]*w;
+					max = Math.max(Math.abs(v1-v2),max);
+				}
+			}
 		}
 		return max;
 	}
 
-	private double minkowskiMetric(Matrix data1, Matrix data2, double[] weights,
-	                                     int index1, int index2) {
+	private double minkowskiMetric(RowView row1, RowView row2, double[] weights) {
+		double[] data1 = row1.getValues();
+		double[] data2 = row2.getValues();
+		int offset1 = row1.getOffset();
+		int offset2 = row2.getOffset();
+		long[] missing = RowView.missingEither(row1, row2);
 		double dist = 0.0;
 		double p = 3.0; // How do we pass this??
-		for (int i = 0; i < data1.nColumns(); i++) {
-			if (data1.hasValue(index1, i) && data2.hasValue(index2, i)) {
+		if (missing == null) {
+			for (int i = 0; i < row1.length(); i++) {
 				double w = getWeight(weights, i);
-				double v1 = data1.doubleValue(index1, i)*w;
-				double v2 = data1.doubleValue(index2, i)*w;
+				double v1 = data1[offset1+i]*w;
+				double v2 = data2[offset2+i]*w;
 				dist += Math.pow(Math.abs(v1-v2),p);
 			}
+		} else {
+			for (int word = 0; word < missing.length; word++) {
+				for (long present = present(missing, word, row1.length()); present != 0; present &= present-1) {
+					int i = (word << 6) + Long.numberOfTrailingZeros(present);
+					double w = getWeight(weights, i);
+					double v1 = data1[offset1+i]*w;
+					double v2 = data2[offset2+i]*w;
+					dist += Math.pow(Math.abs(v1-v2),p);
+				}
+			}
 		}
 		return Math.pow(dist, 1/p);
 	}
 
+	// The values of the columns both rows have, given the (non-null) mask of
+	// the columns either is missing.  Returns null if there aren't any.
+	private static double[][] common(RowView row1, RowView row2, long[] missing) {
+		int n = 0;
+		for (int word = 0; word < missing.length; word++)
+			n += Long.bitCount(present(missing, word, row1.length()));
+		if (n == 0) return null;
+		double[][] common = new double[2][n];
+		n = 0;
+		for (int word = 0; word < missing.length; word++) {
+			for (long present = present(missing, word, row1.length()); present != 0; present &= present-1) {
+				int i = (word << 6) + Long.numberOfTrailingZeros(present);
+				common[0][n] = row1.get(i);
+				common[1][n++] = row2.get(i);
+			}
+		}
+		return common;
+	}
+
+	// The number of pairs of equal values in a sorted range
+	private static long countTies(double[] data, int from, int to) {
+		long ties = 0;
+		int start = from;
+		for (int i = from+1; i <= to; i++) {
+			if (i < to && data[i] == data[start]) continue;
+			long run = i-start;
+			ties += run*(run-1)/2;
+			start = i;
+		}
+		return ties;
+	}
+
+	// Sort a range, returning the number of swaps of adjacent elements a
+	// bubble sort would have made, i.e. the number of inverted pairs
+	private static long mergeSort(double[] data, double[] work, int from, int to) {
+		if (to-from < 2) return 0;
+		int mid = (from+to) >>> 1;
+		long swaps = mergeSort(data, work, from, mid) + mergeSort(data, work, mid, to);
+		int i = from, j = mid, k = from;
+		while (i < mid && j < to) {
+			if (data[j] < data[i]) {
+				swaps += mid-i;
+				work[k++] = data[j++];
+			} else {
+				work[k++] = data[i++];
+			}
+		}
+		while (i < mid) work[k++] = data[i++];
+		while (j < to) work[k++] = data[j++];
+		System.arraycopy(work, from, data, from, to-from);
+		return swaps;
+	}
+
+	// The columns in one word of a missing-value mask that have values
+	private static long present(long[] missing, int word, int length) {
+		long bits = ~missing[word];
+		int end = length - (word << 6);
+		if (end < 64)
+			bits &= (1L << end) - 1;
+		return bits;
+	}
 
-	private double getWeight(double[] weights, int index) {
-		if (weights != null && weights.length < index)
+	private static double getWeight(double[] weights, int index) {
+		if (weights != null && index < weights.length)
 			return weights[index];
 		return 1.0;
 	}
@@ -0,0 +1,29 @@
+package edu.ucsf.rbvi.clusterMaker2.internal.api;
+
+/**
+ * Connects a distance calculation to the task that asked for it.  The
+ * calculation reports the pairs it has finished and polls to see if the
+ * task has been cancelled.
+ */
+public interface DistanceProgress {
+	/**
+	 * Return true if the task has been cancelled
+	 *
+	 * @return true if the calculation should stop
+	 */
+	public boolean isCancelled();
+
+	/**
+	 * Start tracking a calculation
+	 *
+	 * @param total the number of pairs that will be calculated
+	 */
+	public void start(long total);
+
+	/**
+	 * Record finished pairs
+	 *
+	 * @param pairs the number of pairs just finished
+	 */
+	public void add(long pairs);
+}
@@ -246,7 +246,23 @@ public interface Matrix {
 	 * @return the data in the row
 	 */
 	public double[] getRow(int row);
- 
+
+	/**
+	 * Return a read-only view of a row for inner loops such as the distance
+	 * metrics.  Implementations that store their rows in arrays return the
+	 * row without copying it.  The default copies the row through doubleValue.
+	 *
+	 * @param row the row to get the data from
+	 * @return a view of the row
+	 */
+	default public RowView getRowView(int row) {
+		int columns = nColumns();
+		double[] rowData = new double[columns];
+		for (int column = 0; column < columns; column++)
+			rowData[column] = doubleValue(row, column);
+		return new RowView(rowData);
+	}
+
 	/**
 	 * Return a 1D array with the values from a particular column.  The missing
 	 * values are set to Double.NaN
@@ -379,4 +395,12 @@ public interface Matrix {
 	 * @return the internal (or created) colt 2D matrix
 	 */
 	public DoubleMatrix2D getColtMatrix();
+
+	/**
+	 * Release any resources outside of the heap (such as a memory-mapped
+	 * file) that the matrix holds.  The matrix can't be used after it's
+	 * closed.  Matrices that are entirely on the heap don't need to be
+	 * closed, so the default does nothing.
+	 */
+	default public void close() {}
 }
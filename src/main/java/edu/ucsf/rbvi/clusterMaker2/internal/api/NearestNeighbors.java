@@ -0,0 +1,74 @@
+package edu.ucsf.rbvi.clusterMaker2.internal.api;
+
+/**
+ * The k nearest neighbors of every row of a matrix, as returned by
+ * {@link CyMatrix#getNearestNeighbors}.
+ */
+public interface NearestNeighbors {
+	/**
+	 * Return the metric the neighbors were found with
+	 *
+	 * @return the distance metric
+	 */
+	public DistanceMetric getMetric();
+
+	/**
+	 * Return the number of neighbors found for each row.  This is less than
+	 * the number asked for if the matrix doesn't have that many other rows.
+	 *
+	 * @return the number of neighbors
+	 */
+	public int getK();
+
+	/**
+	 * Return the sample rate the neighbors were found with
+	 *
+	 * @return the sample rate
+	 */
+	public double getSampleRate();
+
+	/**
+	 * Return the number of rows
+	 *
+	 * @return the number of rows
+	 */
+	public int nRows();
+
+	/**
+	 * Return the neighbors of a row, nearest first
+	 *
+	 * @param row the row
+	 * @return the neighboring rows (which must not be modified)
+	 */
+	public int[] getNeighbors(int row);
+
+	/**
+	 * Return the distances to the neighbors of a row, in the same order
+	 * as {@link #getNeighbors}
+	 *
+	 * @param row the row
+	 * @return the distances (which must not be modified)
+	 */
+	public double[] getDistances(int row);
+
+	/**
+	 * Return the number of neighbors of a row that are no further away than
+	 * a distance.  Those are the first entries of {@link #getNeighbors}.
+	 *
+	 * @param row the row
+	 * @param distance the maximum distance
+	 * @return the number of neighbors within the distance
+	 */
+	public int countWithin(int row, double distance);
+
+	/**
+	 * Return true if these neighbors can answer a request for k neighbors
+	 * with a metric and sample rate
+	 *
+	 * @param metric the distance metric
+	 * @param k the number of neighbors
+	 * @param sampleRate the sample rate
+	 * @return true if the request is covered
+	 */
+	public boolean covers(DistanceMetric metric, int k, double sampleRate);
+}
@@ -0,0 +1,32 @@
+package edu.ucsf.rbvi.clusterMaker2.internal.api;
+
+import java.util.function.Function;
+
+import org.cytoscape.model.CyNetwork;
+
+/**
+ * A session-wide cache of values calculated from networks, such as the
+ * snapshots used by the network clusterers, filters and rankers, so that
+ * back-to-back runs on the same network only read it once.  A value is only
+ * handed out while the nodes and edges of its network, and the column it
+ * was read from, are unchanged.
+ */
+public interface NetworkCache {
+	/**
+	 * Return the value cached for a network, calculating it (and remembering
+	 * the result) if it isn't cached or the network has changed since
+	 *
+	 * @param network the network
+	 * @param key the name of the value among those cached for the network
+	 * @param column the column the value was read from, or null if it only
+	 * depends on the nodes and edges
+	 * @param calculate calculates the value for the network
+	 * @return the value
+	 */
+	public <T> T get(CyNetwork network, String key, String column, Function<CyNetwork, T> calculate);
+
+	/**
+	 * Drop all of the cached values
+	 */
+	public void clear();
+}
@@ -0,0 +1,14 @@
+package edu.ucsf.rbvi.clusterMaker2.internal.api;
+
+/**
+ * The precision used to store attribute data.  Single precision halves
+ * the memory (and memory bandwidth) needed for the data and distance matrices.
+ */
+public enum Precision {
+	DOUBLE("Double (64-bit)"),
+	FLOAT("Single (32-bit)");
+
+	private String name;
+	private Precision(String name) { this.name = name; }
+	public String toString() { return name; }
+}
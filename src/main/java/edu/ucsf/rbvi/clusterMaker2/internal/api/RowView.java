@@ -0,0 +1,264 @@
+package edu.ucsf.rbvi.clusterMaker2.internal.api;
+
+import java.util.Arrays;
+
+/**
+ * A read-only view of a single matrix row.  The values are
+ * values[offset] ... values[offset+length-1] of a (possibly shared) backing
+ * array, so matrices that keep their rows in a double[] can hand them out
+ * without copying.  Missing values (NaN) are recorded in a bitmask with one
+ * bit per column, which is null when the row has no missing values at all.
+ *
+ * The view must not be modified, and it is only valid until the matrix
+ * it came from is changed.
+ */
+public final class RowView {
+	private final double[] values;
+	private final int offset;
+	private final int length;
+	private final long[] missing;
+
+	// Calculated on demand and kept for the life of the view
+	private volatile int[] order = null;
+	private volatile double[] rank = null;
+
+	/**
+	 * Create a view of a row, recording any missing values
+	 *
+	 * @param values the backing array
+	 * @param offset the index of the first value of the row in the backing array
+	 * @param length the number of columns in the row
+	 */
+	public RowView(double[] values, int offset, int length) {
+		this(values, offset, length, findMissing(values, offset, length));
+	}
+
+	/**
+	 * Create a view of a row with a known missing-value mask
+	 *
+	 * @param values the backing array
+	 * @param offset the index of the first value of the row in the backing array
+	 * @param length the number of columns in the row
+	 * @param missing the missing-value mask, or null if no values are missing
+	 */
+	public RowView(double[] values, int offset, int length, long[] missing) {
+		this.values = values;
+		this.offset = offset;
+		this.length = length;
+		this.missing = missing;
+	}
+
+	/**
+	 * Create a view of a copied (or otherwise private) row
+	 *
+	 * @param values the row
+	 */
+	public RowView(double[] values) {
+		this(values, 0, values.length);
+	}
+
+	/**
+	 * Return the backing array.  The row starts at {@link #getOffset()}.
+	 *
+	 * @return the backing array
+	 */
+	public double[] getValues() { return values; }
+
+	/**
+	 * Return the index of the first value of the row in the backing array
+	 *
+	 * @return the offset
+	 */
+	public int getOffset() { return offset; }
+
+	/**
+	 * Return the number of columns in the row
+	 *
+	 * @return the row length
+	 */
+	public int length() { return length; }
+
+	/**
+	 * Return the missing-value mask.  Bit (column &amp; 63) of word (column &gt;&gt;&gt; 6)
+	 * is set if the column has no value.
+	 *
+	 * @return the mask, or null if the row has no missing values
+	 */
+	public long[] getMissing() { return missing; }
+
+	/**
+	 * Return true if any of the values in this row are missing
+	 *
+	 * @return true if some values are missing
+	 */
+	public boolean hasMissing() { return missing != null; }
+
+	/**
+	 * Return the value in a column
+	 *
+	 * @param column the column
+	 * @return the (possibly NaN) value
+	 */
+	public double get(int column) { return values[offset+column]; }
+
+	/**
+	 * Return true if the column has a value
+	 *
+	 * @param column the column
+	 * @return true if the value isn't missing
+	 */
+	public boolean hasValue(int column) {
+		return missing == null || (missing[column >>> 6] & (1L << column)) == 0;
+	}
+
+	/**
+	 * Return the union of the missing values of two rows, i.e. the columns
+	 * that can't be compared between them.
+	 *
+	 * @param row1 the first row
+	 * @param row2 the second row
+	 * @return the combined mask, or null if neither row has missing values
+	 */
+	public static long[] missingEither(RowView row1, RowView row2) {
+		if (row1.missing == null) return row2.missing;
+		if (row2.missing == null) return row1.missing;
+		long[] mask = new long[row1.missing.length];
+		for (int word = 0; word < mask.length; word++)
+			mask[word] = row1.missing[word] | row2.missing[word];
+		return mask;
+	}
+
+	/**
+	 * Return the columns that have values, sorted by value.  Equal values
+	 * stay in column order.  This is calculated once per view.
+	 *
+	 * @return the sorted columns (which must not be modified)
+	 */
+	public int[] getOrder() {
+		int[] result = order;
+		if (result == null) {
+			int nVals = 0;
+			result = new int[length];
+			for (int column = 0; column < length; column++) {
+				if (hasValue(column))
+					result[nVals++] = column;
+			}
+			if (nVals < length)
+				result = Arrays.copyOf(result, nVals);
+			sortOrder(values, offset, result);
+			order = result;
+		}
+		return result;
+	}
+
+	/**
+	 * Return the ranks of the values in this row, skipping any missing
+	 * values.  Equal values get the average of their ranks.  This is
+	 * calculated once per view, so the rank-based metrics only rank each
+	 * row once when the view is reused.
+	 *
+	 * @return the ranks (which must not be modified), or null if all of
+	 * the values are missing
+	 */
+	public double[] getRank() {
+		double[] result = rank;
+		if (result == null) {
+			int[] sorted = getOrder();
+			if (sorted.length == 0)
+				return null;
+			// Rank by position among the values, not by column
+			int[] position = new int[length];
+			int nVals = 0;
+			for (int column = 0; column < length; column++) {
+				if (hasValue(column))
+					position[column] = nVals++;
+			}
+			result = new double[nVals];
+			rankSorted(values, offset, sorted, result, position);
+			rank = result;
+		}
+		return result;
+	}
+
+	/**
+	 * Rank an array of values with no missing values
+	 *
+	 * @param data the values
+	 * @return the ranks, with equal values getting the average of their ranks
+	 */
+	public static double[] rank(double[] data) {
+		int[] sorted = new int[data.length];
+		for (int i = 0; i < sorted.length; i++) sorted[i] = i;
+		sortOrder(data, 0, sorted);
+		double[] result = new double[data.length];
+		rankSorted(data, 0, sorted, result, null);
+		return result;
+	}
+
+	/**
+	 * Sort indices by the values they refer to.  This is a stable merge sort,
+	 * so equal values keep the order they had.
+	 *
+	 * @param data the values
+	 * @param offset the offset of index 0 in data
+	 * @param index the indices to sort
+	 */
+	public static void sortOrder(double[] data, int offset, int[] index) {
+		if (index.length < 2) return;
+		int[] work = new int[index.length];
+		for (int width = 1; width < index.length; width *= 2) {
+			for (int lo = 0; lo < index.length; lo += 2*width) {
+				int mid = Math.min(index.length, lo+width);
+				int hi = Math.min(index.length, lo+2*width);
+				int i = lo, j = mid, k = lo;
+				while (i < mid && j < hi) {
+					if (data[offset+index[j]] < data[offset+index[i]])
+						work[k++] = index[j++];
+					else
+						work[k++] = index[i++];
+				}
+				while (i < mid) work[k++] = index[i++];
+				while (j < hi) work[k++] = index[j++];
+			}
+			System.arraycopy(work, 0, index, 0, index.length);
+		}
+	}
+
+	// Assign ranks in sorted order, averaging the ranks of equal values
+	private static void rankSorted(double[] data, int offset, int[] sorted,
+	                               double[] result, int[] position) {
+		int nVals = sorted.length;
+		int i = 0;
+		while (i < nVals) {
+			double value = data[offset+sorted[i]];
+			int j = i+1;
+			while (j < nVals && data[offset+sorted[j]] == value) j++;
+			double average = i + (j-i-1)/2.0;
+			for (int k = i; k < j; k++) {
+				int slot = (position == null) ? sorted[k] : position[sorted[k]];
+				result[slot] = average;
+			}
+			i = j;
+		}
+	}
+
+	/**
+	 * Build the missing-value mask for a row
+	 *
+	 * @param values the backing array
+	 * @param offset the index of the first value of the row
+	 * @param length the number of columns in the row
+	 * @return the mask, or null if no values are missing
+	 */
+	public static long[] findMissing(double[] values, int offset, int length) {
+		long[] mask = null;
+		for (int column = 0; column < length; column++) {
+			if (Double.isNaN(values[offset+column])) {
+				if (mask == null)
+					mask = new long[(length+63) >>> 6];
+				mask[column >>> 6] |= 1L << column;
+			}
+		}
+		return mask;
+	}
+}
@@ -22,6 +22,7 @@ import java.text.DecimalFormat;
 
 import javax.swing.JComponent;
 
+import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.matrix.SortedEdgeWeights;
 import edu.ucsf.rbvi.clusterMaker2.internal.api.CyMatrix;
 
 public class Histogram extends JComponent implements MouseMotionListener, MouseListener {
@@ -30,7 +31,7 @@ public class Histogram extends JComponent implements MouseMotionListener, MouseL
 		private int[] histoArray;
 
 		// Original data
-		private CyMatrix matrix;
+		private SortedEdgeWeights weights;
 
 		// Y scale values
 		private int histoMax = Integer.MIN_VALUE;
@@ -65,33 +66,41 @@ public class Histogram extends JComponent implements MouseMotionListener, MouseL
 		DecimalFormat form = new DecimalFormat("0.0E0"); //rounds values for drawString
 			
 		Histogram(CyMatrix matrix, int nBins) {
+			this(SortedEdgeWeights.fromMatrix(matrix), nBins);
+		}
+
+		Histogram(SortedEdgeWeights weights, int nBins) {
 			super();
 			NBINS = nBins;
 			height = 400;
 			width = 1000;
 			setPreferredSize(new Dimension(width,height));
 			histoArray = new int[NBINS];
-			this.matrix = matrix;
+			this.weights = weights;
 			listeners = new ArrayList<HistoChangeListener>();
 
 			adjFont = new Font(FONT_FAMILY, Font.PLAIN, 14);
 
-			createHistogram(matrix);
+			createHistogram();
 
 			addMouseMotionListener(this);
 			addMouseListener(this);
 		}
 
 		public void updateData(CyMatrix matrix) {
+			updateData(SortedEdgeWeights.fromMatrix(matrix));
+		}
+
+		public void updateData(SortedEdgeWeights weights) {
 			// Trigger redraw
 			histoArray = new int[NBINS];
-			this.matrix = matrix;
+			this.weights = weights;
 
 			minValue = Double.MAX_VALUE;
 			maxValue = Double.MIN_VALUE;
 			histoMax = Integer.MIN_VALUE;
 			histoMaxUp = 0;
-			createHistogram(matrix);
+			createHistogram();
 			this.repaint();
 		}
 		
@@ -201,32 +210,27 @@ public class Histogram extends JComponent implements MouseMotionListener, MouseL
 			}
 		}
 
-		private void createHistogram(CyMatrix matrix){
+		private void createHistogram(){
 			calculateXScale();
 
 			// System.out.println("Creating histogram: low = "+low);
 			
-			// Bin the data
-			for (int row = 0; row < matrix.nRows(); row++) {
-				int colStart = 0;
-				if (matrix.isSymmetrical())
-					colStart = row;
-				for (int col = colStart; col < matrix.nColumns(); col++) {
-					if (!matrix.hasValue(row, col))
-						continue;
-
-					double dataItr = matrix.getValue(row, col);
-						for(int nI=0; nI < NBINS; nI++){
-							if(dataItr==low){
-							histoArray[0]+=1;
-							break;
-						}
-						if(dataItr>low+xInterval*nI && dataItr<=low+xInterval*(nI+1) ){
-							histoArray[nI]+=1;
-							break;
-						}
-					}
+			// Bin the data.  The values are sorted, so the bin for each value
+			// is at or after the bin for the one before it.
+			int nI = 0;
+			for (int i = 0; i < weights.size(); i++) {
+				double dataItr = weights.getValue(i);
+				if(dataItr==low){
+					histoArray[0]+=1;
+					continue;
 				}
+				if(dataItr<low)
+					continue;
+				while(nI < NBINS && dataItr>low+xInterval*(nI+1))
+					nI++;
+				if(nI == NBINS)
+					break;
+				histoArray[nI]+=1;
 			}
 			calculateYScale();
 		}
@@ -234,8 +238,8 @@ public class Histogram extends JComponent implements MouseMotionListener, MouseL
 		private void calculateXScale() {
 
 			// Calculate our minimum and maximum X values
-			minValue = matrix.getMinValue();
-			maxValue = matrix.getMaxValue();
+			minValue = weights.getMinValue();
+			maxValue = weights.getMaxValue();
 
 			// Calculate our X scale
 			double range = maxValue - minValue;
@@ -22,11 +22,12 @@ import javax.swing.border.Border;
 import javax.swing.border.EtchedBorder;
 
 import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.edgeConverters.ThresholdHeuristic;
+import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.matrix.SortedEdgeWeights;
 import edu.ucsf.rbvi.clusterMaker2.internal.api.CyMatrix;
 
 public class HistogramDialog extends JDialog implements ActionListener, ComponentListener, HistoChangeListener {
 	
-	CyMatrix matrix;
+	SortedEdgeWeights weights;
 	int nBins;
 	int currentBins;
 	Histogram histo;
@@ -42,8 +43,13 @@ public class HistogramDialog extends JDialog implements ActionListener, Componen
 	
 	public HistogramDialog(Window parent, String title, CyMatrix matrix, 
 	                       int nBins, ThresholdHeuristic thueristic) {
+		this(parent, title, SortedEdgeWeights.fromMatrix(matrix), nBins, thueristic);
+	}
+
+	public HistogramDialog(Window parent, String title, SortedEdgeWeights weights, 
+	                       int nBins, ThresholdHeuristic thueristic) {
 		super(parent);
-		this.matrix = matrix;
+		this.weights = weights;
 		this.nBins = nBins;
 		this.currentBins = nBins;
 		this.changeListenerList = new ArrayList();
@@ -55,9 +61,13 @@ public class HistogramDialog extends JDialog implements ActionListener, Componen
 	}
 	
 	public void updateData(CyMatrix matrix) {
-		this.matrix = matrix;
+		updateData(SortedEdgeWeights.fromMatrix(matrix));
+	}
+
+	public void updateData(SortedEdgeWeights weights) {
+		this.weights = weights;
 		if (histo != null) {
-			histo.updateData(matrix);
+			histo.updateData(weights);
 		}
 	}
 
@@ -132,7 +142,7 @@ private void initializeOnce() {
 		
 
 		// Create and add the histogram component
-		histo = new Histogram(matrix, nBins);
+		histo = new Histogram(weights, nBins);
 		histo.addHistoChangeListener(this);
 		scrollPanel = new JScrollPane(histo, JScrollPane.VERTICAL_SCROLLBAR_NEVER, 
 		                              JScrollPane.HORIZONTAL_SCROLLBAR_AS_NEEDED);
@@ -1,20 +1,18 @@
 package edu.ucsf.rbvi.clusterMaker2.internal.ui;
 
 import java.util.Arrays;
-import java.util.Collection;
-import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 import java.util.concurrent.ExecutionException;
 
 import javax.swing.SwingWorker;
 
-import org.cytoscape.model.CyEdge;
 import org.cytoscape.model.CyNetwork;
 import org.cytoscape.model.CyNode;
 
+import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.NetworkGraph;
+
 /**
  * Calculates the all-pairs-shortest-paths (APSP) of a set of
  * <code>org.cytoscape.model.CyNode</code> objects that reside in a
@@ -30,6 +28,7 @@ public class NodeDistances implements MonitorableTask {
 
 	protected List<CyNode> nodesList;
 	protected CyNetwork network;
+	protected NetworkGraph graph;
 	protected int[][] distances;
 	protected boolean directed;
 
@@ -56,6 +55,19 @@ public class NodeDistances implements MonitorableTask {
 		this.directed = false;
 	}
 
+	/**
+	 * Create the distances for nodes whose snapshot has already been taken,
+	 * usually from the network cache
+	 * 
+	 * @param nodesList List of nodes ordered by the index map
+	 * @param graph The snapshot of the nodes and the edges between them
+	 * @param nodeIndexToMatrixIndexMap An index map that maps your root graph indices to the returned matrix indices
+	 */
+	public NodeDistances(List<CyNode> nodesList, NetworkGraph graph, Map<Long, Integer> nodeIndexToMatrixIndexMap) {
+		this(nodesList, graph.getNetwork(), nodeIndexToMatrixIndexMap);
+		this.graph = graph;
+	}
+
 	/**
 	 * Calculates the APSP in a separate thread.
 	 * 
@@ -191,9 +203,10 @@ public class NodeDistances implements MonitorableTask {
 			integers[index] = index;
 		}
 
+		int[][] neighbors = getNeighbors(nodes);
+
 		LinkedList<Integer> queue = new LinkedList<Integer>();
 		boolean[] completed_nodes = new boolean[nodes.length];
-		Collection<CyNode> neighbors;
 		CyNode to_node;
 
 		// Node neighbor;
@@ -274,17 +287,14 @@ public class NodeDistances implements MonitorableTask {
 					continue;
 				} // End if to_node has already had all of its distances calculated.
 
-				// neighbors = network.neighborsList(to_node).iterator();
-				neighbors = getNeighbors(to_node);
-
-				for (CyNode neighbor : neighbors) {
+				for (int n = 0; n < neighbors[index].length; n++) {
 
 					if (this.canceled) {
 						this.distances = null;
 						return this.distances;
 					}
 
-					neighbor_index = nodeIndexToMatrixIndexMap.get(neighbor.getSUID());
+					neighbor_index = neighbors[index][n];
 
 					// If this neighbor was not in the incoming List, we cannot include it in any paths.
 					if (nodes[neighbor_index] == null) {
@@ -324,24 +334,47 @@ public class NodeDistances implements MonitorableTask {
 		return this.distances;
 	}
 
-	private Collection<CyNode> getNeighbors(CyNode node) {
-		final Set<CyNode> result = new HashSet<CyNode>();
-		final Collection<CyEdge> edges = network.getAdjacentEdgeList(node, CyEdge.Type.ANY);
-
-		if (edges == null || edges.size() == 0) return result;
-
-		Long targetID = node.getSUID();
+	/**
+	 * Find the neighbors of each of the nodes once, up front, rather than
+	 * asking the network for the adjacent edges every time a node is visited.
+	 *
+	 * @param nodes the nodes, by matrix index
+	 * @return the matrix indices of the distinct neighbors of each node,
+	 *         not including the node itself
+	 */
+	private int[][] getNeighbors(CyNode[] nodes) {
+		NetworkGraph graph = this.graph != null ? this.graph : NetworkGraph.build(network);
+
+		// The matrix index of each node in the graph, or -1 if it doesn't have one
+		int[] matrixIndex = new int[graph.nodeCount()];
+		for (int node = 0; node < matrixIndex.length; node++) {
+			Integer index = nodeIndexToMatrixIndexMap.get(graph.getNodeSuid(node));
+			matrixIndex[node] = index == null ? -1 : index;
+		}
 
-		for (CyEdge curEdge : edges) {
-			if (curEdge.getSource().getSUID() != targetID) {
-				result.add(curEdge.getSource());
+		int[][] neighbors = new int[nodes.length][];
+		int[] seen = new int[nodes.length];
+		Arrays.fill(seen, -1);
+		for (int index = 0; index < nodes.length; index++) {
+			int node = nodes[index] == null ? -1 : graph.indexOf(nodes[index]);
+			if (node < 0) {
+				neighbors[index] = new int[0];
 				continue;
 			}
 
-			if (curEdge.getTarget().getSUID() != targetID) result.add(curEdge.getTarget());
+			int[] list = new int[graph.degree(node)];
+			int count = 0;
+			seen[index] = index;
+			for (int pos = graph.adjacencyStart(node); pos < graph.adjacencyEnd(node); pos++) {
+				int neighbor = matrixIndex[graph.getNeighbor(pos)];
+				if (neighbor < 0 || seen[neighbor] == index)
+					continue;
+				seen[neighbor] = index;
+				list[count++] = neighbor;
+			}
+			neighbors[index] = Arrays.copyOf(list, count);
 		}
-
-		return result;
+		return neighbors;
 	}
 
 	class NodeDistancesTask {
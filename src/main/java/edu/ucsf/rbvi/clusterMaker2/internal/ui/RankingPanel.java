@@ -53,6 +53,7 @@ import javax.swing.event.ListSelectionListener;
 import javax.swing.table.AbstractTableModel;
 import javax.swing.table.TableCellRenderer;
 
+import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.NetworkGraph;
 import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.NodeCluster;
 import edu.ucsf.rbvi.clusterMaker2.internal.api.ClusterManager;
 import edu.ucsf.rbvi.clusterMaker2.internal.utils.ModelUtils;
@@ -481,6 +482,9 @@ public class RankingPanel extends JPanel implements CytoPanelComponent{
             }
 
             layouter.setGraphView(clusterView);
+            // The image's network is a throwaway, so take the cluster out of the
+            // cached snapshot of the whole network rather than caching it
+            layouter.setGraph(NetworkGraph.cached(clusterManager.getNetworkCache(), network).induced(cluster));
 
             // The doLayout method should return true if the process completes without interruption
             if (!layouter.doLayout(weightLayout, goalTotal, progress)) {
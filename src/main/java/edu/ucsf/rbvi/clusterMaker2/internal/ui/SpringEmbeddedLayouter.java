@@ -19,6 +19,8 @@ import org.cytoscape.model.CyNode;
 import org.cytoscape.view.model.CyNetworkView;
 import org.cytoscape.view.model.View;
 
+import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.NetworkGraph;
+
 
 /**
  * An implementation of Kamada and Kawai's spring embedded layout algorithm.
@@ -56,6 +58,7 @@ public class SpringEmbeddedLayouter {
 	protected double anticollisionSpringStrength = DEFAULT_ANTICOLLISION_SPRING_STRENGTH;
 
 	protected CyNetworkView graphView;
+	protected NetworkGraph graph;
 	protected int nodeCount;
 	protected int edgeCount;
 	protected int layoutPass;
@@ -79,6 +82,16 @@ public class SpringEmbeddedLayouter {
 		graphView = new_graph_view;
 	}
 
+	/**
+	 * Give the layouter a snapshot of the nodes in the view and the edges
+	 * between them, so that it doesn't have to take one of the view's network
+	 *
+	 * @param graph the snapshot, or null to take one of the view's network
+	 */
+	public void setGraph(NetworkGraph graph) {
+		this.graph = graph;
+	}
+
 	public View<CyNetwork> getGraphView() {
 		return graphView;
 	}
@@ -215,7 +228,9 @@ public class SpringEmbeddedLayouter {
 			i++;
 		}
 
-		NodeDistances ind = new NodeDistances(nodeList, graphView.getModel(), nodeIndexToMatrixIndexMap);
+		NodeDistances ind = graph != null ?
+		                    new NodeDistances(nodeList, graph, nodeIndexToMatrixIndexMap) :
+		                    new NodeDistances(nodeList, graphView.getModel(), nodeIndexToMatrixIndexMap);
 		int[][] node_distances = ind.calculate();
 
 		if (node_distances == null) {
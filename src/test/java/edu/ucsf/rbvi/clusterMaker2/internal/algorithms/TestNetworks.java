@@ -0,0 +1,122 @@
+package edu.ucsf.rbvi.clusterMaker2.internal.algorithms;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.cytoscape.model.CyEdge;
+import org.cytoscape.model.CyNode;
+import org.cytoscape.model.subnetwork.CyRootNetwork;
+import org.cytoscape.model.subnetwork.CySubNetwork;
+
+/**
+ * Networks for the tests of the network algorithms.  The nodes, edges and
+ * networks only know their SUIDs and what they connect or contain; anything
+ * else throws an UnsupportedOperationException.
+ */
+public class TestNetworks {
+	private static final AtomicLong nextNetworkSuid = new AtomicLong(1);
+
+	/**
+	 * @param n the number of nodes
+	 * @return the nodes, with SUIDs from 100
+	 */
+	public static List<CyNode> nodes(int n) {
+		List<CyNode> nodes = new ArrayList<CyNode>();
+		for (int i = 0; i < n; i++) {
+			Long id = 100L+i;
+			nodes.add(proxy(CyNode.class, id, (proxy, method, args) -> {
+				throw new UnsupportedOperationException(method.getName());
+			}));
+		}
+		return nodes;
+	}
+
+	/**
+	 * @param id the number of the edge, which gives its SUID
+	 * @param source the source node
+	 * @param target the target node
+	 * @return an undirected edge
+	 */
+	public static CyEdge edge(long id, CyNode source, CyNode target) {
+		return proxy(CyEdge.class, 100000L+id, (proxy, method, args) -> {
+			switch (method.getName()) {
+				case "getSource": return source;
+				case "getTarget": return target;
+				case "isDirected": return false;
+				default: throw new UnsupportedOperationException(method.getName());
+			}
+		});
+	}
+
+	/**
+	 * @param nodes the nodes in the network
+	 * @param edges the edges in the network
+	 * @return a network in a root network of its own
+	 */
+	public static CySubNetwork network(List<CyNode> nodes, List<CyEdge> edges) {
+		return subNetwork(rootNetwork(), nodes, edges);
+	}
+
+	/**
+	 * @return a root network whose only use is to add subnetworks to
+	 */
+	public static CyRootNetwork rootNetwork() {
+		CyRootNetwork[] root = new CyRootNetwork[1];
+		root[0] = proxy(CyRootNetwork.class, nextNetworkSuid.getAndIncrement(), (proxy, method, args) -> {
+			if (method.getName().equals("addSubNetwork"))
+				return subNetwork(root[0], (Iterable<CyNode>)args[0], (Iterable<CyEdge>)args[1]);
+			throw new UnsupportedOperationException(method.getName());
+		});
+		return root[0];
+	}
+
+	/**
+	 * @param root the root network
+	 * @param nodeList the nodes in the subnetwork
+	 * @param edgeList the edges in the subnetwork
+	 * @return a subnetwork of the root
+	 */
+	public static CySubNetwork subNetwork(CyRootNetwork root, Iterable<CyNode> nodeList, Iterable<CyEdge> edgeList) {
+		List<CyNode> nodes = new ArrayList<CyNode>();
+		for (CyNode node: nodeList)
+			nodes.add(node);
+		List<CyEdge> edges = new ArrayList<CyEdge>();
+		for (CyEdge edge: edgeList)
+			edges.add(edge);
+		return proxy(CySubNetwork.class, nextNetworkSuid.getAndIncrement(), (proxy, method, args) -> {
+			switch (method.getName()) {
+				case "getRootNetwork": return root;
+				case "getNodeList": return new ArrayList<CyNode>(nodes);
+				case "getEdgeList": return new ArrayList<CyEdge>(edges);
+				case "getNodeCount": return nodes.size();
+				case "getEdgeCount": return edges.size();
+				case "getAdjacentEdgeList":
+					List<CyEdge> adjacent = new ArrayList<CyEdge>();
+					for (CyEdge edge: edges) {
+						if (edge.getSource() == args[0] || edge.getTarget() == args[0])
+							adjacent.add(edge);
+					}
+					return adjacent;
+				default: throw new UnsupportedOperationException(method.getName());
+			}
+		});
+	}
+
+	// An object with a SUID, which handles the methods of Object and leaves
+	// the rest to the handler
+	private static <T> T proxy(Class<T> type, long suid, InvocationHandler handler) {
+		Long id = suid;
+		return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type}, (proxy, method, args) -> {
+			switch (method.getName()) {
+				case "getSUID": return id;
+				case "hashCode": return id.hashCode();
+				case "equals": return proxy == args[0];
+				case "toString": return type.getSimpleName()+" "+id;
+				default: return handler.invoke(proxy, method, args);
+			}
+		}));
+	}
+}
@@ -4,6 +4,7 @@ import java.util.Random;
 import static org.junit.Assert.*;
 import org.junit.Test;
 
+import edu.ucsf.rbvi.clusterMaker2.internal.api.DistanceMetric;
 import edu.ucsf.rbvi.clusterMaker2.internal.api.Matrix;
 
 public class MatrixTest {
@@ -17,6 +18,8 @@ public class MatrixTest {
 	Matrix simpleMatrix2;
 	Matrix ojAlgoMatrix;
 	Matrix ojAlgoMatrix2;
+	Matrix sparseMatrix;
+	Matrix sparseMatrix2;
 	long time;
 
 	@Test
@@ -38,6 +41,11 @@ public class MatrixTest {
 		ojAlgoMatrix.ops().multiplyScalar(scalarValue);
 		timeEnd("multiply ojAlgo matrix by scalar");
 		assertArrayEquals(simpleMatrix.toArray(), ojAlgoMatrix.toArray(), DELTA);
+
+		timeStart();
+		sparseMatrix.ops().multiplyScalar(scalarValue);
+		timeEnd("multiply sparse matrix by scalar");
+		assertArrayEquals(simpleMatrix.toArray(), sparseMatrix.toArray(), DELTA);
 	}
 
 	@Test
@@ -62,6 +70,11 @@ public class MatrixTest {
 		timeEnd("multiply ojAlgo matrix");
 		assertArrayEquals(resultSimple.toArray(), resultAlgo.toArray(), DELTA);
 
+		timeStart();
+		Matrix resultSparse = sparseMatrix.ops().multiplyMatrix(sparseMatrix2);
+		timeEnd("multiply sparse matrix");
+		assertArrayEquals(resultSimple.toArray(), resultSparse.toArray(), DELTA);
+
 	}
 
 	@Test
@@ -86,6 +99,69 @@ public class MatrixTest {
 		// System.out.println("resultOjAlgo: "+ resultAlgo.printMatrixInfo());
 		assertArrayEquals(resultSimple.toArray(), resultAlgo.toArray(), DELTA);
 
+		timeStart();
+		Matrix resultSparse = sparseMatrix.ops().multiplyMatrix(sparseMatrix);
+		timeEnd("square multiply sparse matrix");
+		assertArrayEquals(resultSimple.toArray(), resultSparse.toArray(), DELTA);
+
+	}
+
+	@Test
+	public void sparseMultiplyTest() {
+		// Something that looks like an MCL expansion: a sparse, column-stochastic
+		// matrix.  The size isn't a multiple of any of the block sizes, and the
+		// denser matrix goes through the dense kernel rather than the CSR one.
+		Random r = new Random(1);
+		for (int perColumn: new int[] {3, 100}) {
+			checkMultiply(stochasticMatrix(r, 300, perColumn), false);
+		}
+
+		// The timing against zMult is opt-in: -Dmatrix.timing=true
+		if (Boolean.getBoolean("matrix.timing"))
+			checkMultiply(stochasticMatrix(r, 2000, 20), true);
+	}
+
+	private void checkMultiply(ColtMatrix colt, boolean timing) {
+		SparseMatrix sparse = new SparseMatrix(colt);
+		double[][] expected = multiply(colt.toArray(), colt.toArray());
+
+		if (timing) timeStart();
+		Matrix resultZMult = colt.ops.mult(colt);
+		if (timing) timeEnd("zMult sparse colt matrix");
+		assertArrayEquals(expected, resultZMult.toArray(), DELTA);
+
+		if (timing) timeStart();
+		Matrix resultColt = colt.ops().multiplyMatrix(colt);
+		if (timing) timeEnd("parallel multiply sparse colt matrix");
+		assertArrayEquals(expected, resultColt.toArray(), DELTA);
+
+		if (timing) timeStart();
+		Matrix resultSparse = sparse.ops().multiplyMatrix(sparse);
+		if (timing) timeEnd("parallel multiply CSR matrix");
+		assertArrayEquals(expected, resultSparse.toArray(), DELTA);
+	}
+
+	private ColtMatrix stochasticMatrix(Random r, int size, int perColumn) {
+		ColtMatrix colt = new ColtMatrix(size, size);
+		for (int col = 0; col < size; col++) {
+			for (int i = 0; i < perColumn; i++)
+				colt.setValue(r.nextInt(size), col, 1.0/perColumn);
+		}
+		return colt;
+	}
+
+	// The product one cell at a time, as the old multiplyMatrix computed it
+	private double[][] multiply(double[][] a, double[][] b) {
+		double[][] result = new double[a.length][b[0].length];
+		for (int row = 0; row < a.length; row++) {
+			for (int col = 0; col < b[0].length; col++) {
+				double sum = 0.0;
+				for (int k = 0; k < b.length; k++)
+					sum += a[row][k]*b[k][col];
+				result[row][col] = sum;
+			}
+		}
+		return result;
 	}
 
 	@Test
@@ -185,6 +261,52 @@ public class MatrixTest {
       }
     }
 		timeEnd("normalize columns ojAlgo matrix");
+
+		timeStart();
+    for (int col = 0; col < sparseMatrix.nColumns(); col++) {
+      sums[col] = sparseMatrix.ops().columnSum(col);
+      if (sums[col] == 0.0) {
+        sparseMatrix.setValue(col,col,1.0);
+      } else {
+        sparseMatrix.ops().normalizeColumn(col);
+      }
+    }
+		timeEnd("normalize columns sparse matrix");
+
+		assertArrayEquals(simpleMatrix.toArray(), sparseMatrix.toArray(), DELTA);
+	}
+
+	@Test
+	public void sparseTest() {
+		// Mostly empty, with cells added after the matrix has been compressed
+		SparseMatrix sparse = new SparseMatrix(rows, columns);
+		SimpleMatrix simple = new SimpleMatrix(rows, columns, 0.0);
+		Random r = new Random();
+		for (int i = 0; i < rows*2; i++) {
+			int row = r.nextInt(rows);
+			int col = r.nextInt(columns);
+			double value = r.nextDouble();
+			sparse.setValue(row, col, value);
+			simple.setValue(row, col, value);
+			if (i == rows)
+				assertEquals(sparse.ops().columnSum(col), simple.ops().columnSum(col), DELTA);
+		}
+		assertArrayEquals(simple.toArray(), sparse.toArray(), DELTA);
+
+		Matrix sparseT = sparse.ops().transpose();
+		Matrix simpleT = simple.ops().transpose();
+		assertArrayEquals(simpleT.toArray(), sparseT.toArray(), DELTA);
+
+		assertArrayEquals(simple.ops().multiplyMatrix(simpleT).toArray(),
+		                  sparse.ops().multiplyMatrix(sparseT).toArray(), DELTA);
+
+		sparse.ops().threshold(0.5);
+		for (int row = 0; row < rows; row++) {
+			for (int col = 0; col < columns; col++) {
+				double value = simple.doubleValue(row, col);
+				assertEquals(value > 0.5 ? value : 0.0, sparse.doubleValue(row, col), DELTA);
+			}
+		}
 	}
 
 	@Test
@@ -271,6 +393,74 @@ public class MatrixTest {
 		assertArrayEquals(simpleVectors, ojAlgoVectors, DELTA);
 	}
 
+	@Test
+	public void distanceTest() {
+		initialize();
+
+		timeStart();
+		Matrix distances = simpleMatrix.getDistanceMatrix(DistanceMetric.EUCLIDEAN);
+		timeEnd("simple matrix distances");
+
+		assertTrue(distances instanceof TriangularMatrix);
+		assertTrue(distances.isSymmetrical());
+		double[][] expected = new double[rows][rows];
+		for (int row = 0; row < rows; row++) {
+			for (int col = 0; col < rows; col++)
+				expected[row][col] = DistanceMetric.EUCLIDEAN.getMetric(simpleMatrix, simpleMatrix, row, col);
+		}
+		assertArrayEquals(expected, distances.toArray(), DELTA);
+		assertEquals(sumByRows(distances), distances.ops().sum(), DELTA);
+
+		timeStart();
+		Matrix coltDistances = coltMatrix.getDistanceMatrix(DistanceMetric.EUCLIDEAN);
+		timeEnd("colt matrix distances");
+		assertArrayEquals(expected, coltDistances.toArray(), DELTA);
+	}
+
+	@Test
+	public void triangularExpandTest() {
+		// The operations that break the symmetry expand a triangular matrix, which
+		// should then agree with a full matrix that has the same values
+		int size = 30;
+		Random r = new Random(3);
+		double[][] values = new double[size][size];
+		for (int row = 0; row < size; row++) {
+			for (int col = row; col < size; col++) {
+				values[row][col] = r.nextDouble();
+				values[col][row] = values[row][col];
+			}
+		}
+
+		for (int op = 0; op < 7; op++) {
+			TriangularMatrix triangular = new TriangularMatrix();
+			triangular.initialize(size, size, values);
+			SimpleMatrix simple = new SimpleMatrix();
+			simple.initialize(size, size, values);
+			assertTrue(triangular.isSymmetrical());
+
+			breakSymmetry(triangular, op);
+			breakSymmetry(simple, op);
+			assertFalse(triangular.isSymmetrical());
+			assertArrayEquals(simple.toArray(), triangular.toArray(), DELTA);
+			assertArrayEquals(simple.ops().transpose().toArray(), triangular.ops().transpose().toArray(), DELTA);
+			assertEquals(simple.ops().sum(), triangular.ops().sum(), DELTA);
+			for (int col = 0; col < size; col++)
+				assertEquals(simple.ops().columnSum(col), triangular.ops().columnSum(col), DELTA);
+		}
+	}
+
+	private void breakSymmetry(Matrix mat, int op) {
+		switch (op) {
+			case 0: mat.ops().normalizeRow(3); break;
+			case 1: mat.ops().normalizeColumn(5); break;
+			case 2: mat.ops().standardizeRow(7); break;
+			case 3: mat.ops().standardizeColumn(11); break;
+			case 4: mat.ops().centralizeRows(); break;
+			case 5: mat.ops().centralizeColumns(); break;
+			case 6: mat.ops().divideScalarColumn(13, 4.0); break;
+		}
+	}
+
 	public void	assertArrayEquals(double[][] temparray, double[][] arratmp, double DELTA) {
 		for(int row=0;row<arratmp.length;row++){
 			for(int col=0;col<arratmp[0].length;col++){
@@ -298,6 +488,7 @@ public class MatrixTest {
 		// simpleMatrix.setValue(rows/3, columns/5, Double.NaN);
 		coltMatrix = new ColtMatrix((SimpleMatrix)simpleMatrix);
 		ojAlgoMatrix = new OjAlgoMatrix((SimpleMatrix)simpleMatrix);
+		sparseMatrix = new SparseMatrix(simpleMatrix);
 
 		simpleMatrix2 = new SimpleMatrix(rows, columns);
 		for(int row=0;row<rows;row++){
@@ -308,6 +499,7 @@ public class MatrixTest {
 		}
 		coltMatrix2 = new ColtMatrix((SimpleMatrix)simpleMatrix2);
 		ojAlgoMatrix2 = new OjAlgoMatrix((SimpleMatrix)simpleMatrix2);
+		sparseMatrix2 = new SparseMatrix(simpleMatrix2);
 	}
 
 	private double sumByRows(Matrix mat) {
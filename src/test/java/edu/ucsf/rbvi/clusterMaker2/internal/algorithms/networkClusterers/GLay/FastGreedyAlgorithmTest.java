@@ -0,0 +1,207 @@
+package edu.ucsf.rbvi.clusterMaker2.internal.algorithms.networkClusterers.GLay;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import org.cytoscape.model.CyEdge;
+import org.cytoscape.model.CyNode;
+
+import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.NetworkGraph;
+import static edu.ucsf.rbvi.clusterMaker2.internal.algorithms.TestNetworks.*;
+
+public class FastGreedyAlgorithmTest {
+
+	double DELTA = 0.000001;
+
+	// Zachary's karate club, numbered from 1
+	int[][] KARATE = {
+		{1,2}, {1,3}, {1,4}, {1,5}, {1,6}, {1,7}, {1,8}, {1,9}, {1,11}, {1,12}, {1,13}, {1,14},
+		{1,18}, {1,20}, {1,22}, {1,32}, {2,3}, {2,4}, {2,8}, {2,14}, {2,18}, {2,20}, {2,22},
+		{2,31}, {3,4}, {3,8}, {3,9}, {3,10}, {3,14}, {3,28}, {3,29}, {3,33}, {4,8}, {4,13},
+		{4,14}, {5,7}, {5,11}, {6,7}, {6,11}, {6,17}, {7,17}, {9,31}, {9,33}, {9,34}, {10,34},
+		{14,34}, {15,33}, {15,34}, {16,33}, {16,34}, {19,33}, {19,34}, {20,34}, {21,33},
+		{21,34}, {23,33}, {23,34}, {24,26}, {24,28}, {24,30}, {24,33}, {24,34}, {25,26},
+		{25,28}, {25,32}, {26,32}, {27,30}, {27,34}, {28,34}, {29,32}, {29,34}, {30,33},
+		{30,34}, {31,33}, {31,34}, {32,33}, {32,34}, {33,34}
+	};
+
+	@Test
+	public void twoCliquesTest() {
+		// Two 5-cliques, joined by a single edge between nodes 4 and 5
+		List<int[]> edges = new ArrayList<int[]>();
+		for (int clique = 0; clique < 2; clique++) {
+			for (int i = 0; i < 5; i++) {
+				for (int j = i+1; j < 5; j++)
+					edges.add(new int[] {5*clique+i, 5*clique+j});
+			}
+		}
+		edges.add(new int[] {4, 5});
+
+		FastGreedyAlgorithm fastGreedy = new FastGreedyAlgorithm();
+		fastGreedy.execute(graph(10, edges.toArray(new int[0][])), null);
+		int[] membership = fastGreedy.getMembership();
+
+		assertEquals(2, fastGreedy.getClusterNumber());
+		for (int node = 1; node < 5; node++) {
+			assertEquals(membership[0], membership[node]);
+			assertEquals(membership[5], membership[node+5]);
+		}
+		assertNotEquals(membership[0], membership[5]);
+		assertEquals(20.0/21.0 - 0.5, fastGreedy.getModularity(), DELTA);
+	}
+
+	@Test
+	public void karateTest() {
+		int[][] edges = new int[KARATE.length][];
+		for (int e = 0; e < KARATE.length; e++)
+			edges[e] = new int[] {KARATE[e][0]-1, KARATE[e][1]-1};
+		GSimpleGraphData g = graph(34, edges);
+
+		FastGreedyAlgorithm fastGreedy = new FastGreedyAlgorithm();
+		fastGreedy.execute(g, null);
+
+		// The modularity that Clauset, Newman and Moore's method finds
+		assertEquals(3, fastGreedy.getClusterNumber());
+		assertEquals(0.3806706, fastGreedy.getModularity(), DELTA);
+
+		// The modularity added up over the joins is that of the communities found
+		LeidenAlgorithm.Graph graph = LeidenAlgorithm.Graph.fromSimpleGraph(g);
+		assertEquals(graph.modularity(fastGreedy.getMembership(), 1.0), fastGreedy.getModularity(), DELTA);
+	}
+
+	@Test
+	public void ringTest() {
+		// Every possible first join in a ring has the same deltaQ
+		int[][] edges = new int[10][];
+		for (int i = 0; i < 10; i++)
+			edges[i] = new int[] {i, (i+1)%10};
+
+		FastGreedyAlgorithm fastGreedy = new FastGreedyAlgorithm();
+		fastGreedy.execute(graph(10, edges), null);
+
+		// The last tie in row-major order, (8,9), is joined first.  Taking
+		// the lowest pair, (0,1), first would give {0,1,2,3}, {4,5,6,7}, {8,9}.
+		assertArrayEquals(new int[] {0, 0, 1, 1, 1, 1, 2, 2, 2, 2}, fastGreedy.getMembership());
+		assertEquals(0.34, fastGreedy.getModularity(), DELTA);
+	}
+
+	@Test
+	public void tiesTest() {
+		// Unweighted graphs with few distinct degrees have lots of ties
+		Random random = new Random(3);
+		for (int trial = 0; trial < 50; trial++) {
+			int n = 10 + random.nextInt(40);
+			double p = 2.0/n + 4.0*random.nextDouble()/n;
+			List<int[]> edges = new ArrayList<int[]>();
+			for (int i = 0; i < n; i++) {
+				for (int j = i+1; j < n; j++) {
+					if (random.nextDouble() < p)
+						edges.add(new int[] {i, j});
+				}
+			}
+			if (edges.isEmpty())
+				continue;
+			GSimpleGraphData g = graph(n, edges.toArray(new int[0][]));
+
+			FastGreedyAlgorithm fastGreedy = new FastGreedyAlgorithm();
+			fastGreedy.execute(g, null);
+			Matrix expected = new Matrix(g);
+
+			assertArrayEquals(expected.membership, fastGreedy.getMembership());
+			assertEquals(expected.clusterNumber, fastGreedy.getClusterNumber());
+			assertEquals(expected.modularity, fastGreedy.getModularity(), 0.0);
+		}
+	}
+
+	// The dense deltaQ matrix version of fast greedy, taking the last tie
+	// in row-major order on every join
+	static class Matrix {
+		int[] membership;
+		int clusterNumber;
+		double modularity;
+
+		Matrix(GSimpleGraphData g) {
+			int n = g.nodeCount;
+			double[] ai = new double[n];
+			double q = 0;
+			membership = new int[n];
+			for (int i = 0; i < n; i++) {
+				membership[i] = i;
+				ai[i] = g.degree[i]/(2.0*g.edgeCount);
+				q -= ai[i]*ai[i];
+			}
+
+			double[][] deltaQ = new double[n][n];
+			for (int i = 0; i < n; i++) {
+				for (int j = i+1; j < n; j++) {
+					if (g.hasEdge(i, j)) {
+						deltaQ[i][j] = (1.0d/(2*g.edgeCount)-(g.degree[i]*g.degree[j])/(4.0*Math.pow(g.edgeCount, 2.0))) * 2;
+						deltaQ[j][i] = deltaQ[i][j];
+					}
+				}
+			}
+
+			while (true) {
+				double max = -Double.MAX_VALUE;
+				int maxI = 0;
+				int maxJ = 0;
+				for (int i = 0; i < n; i++) {
+					for (int j = i+1; j < n; j++) {
+						if (deltaQ[i][j] != 0 && deltaQ[i][j] >= max) {
+							max = deltaQ[i][j];
+							maxI = i;
+							maxJ = j;
+						}
+					}
+				}
+				if (!(max > 0))
+					break;
+				q += max;
+
+				for (int k = 0; k < n; k++) {
+					if (k == maxI || k == maxJ)
+						continue;
+					if (deltaQ[maxI][k] != 0 && deltaQ[maxJ][k] != 0)
+						deltaQ[maxJ][k] = deltaQ[maxJ][k]+deltaQ[maxI][k];
+					else if (deltaQ[maxJ][k] != 0)
+						deltaQ[maxJ][k] = deltaQ[maxJ][k]-2*ai[maxI]*ai[k];
+					else if (deltaQ[maxI][k] != 0)
+						deltaQ[maxJ][k] = deltaQ[maxI][k]-2*ai[maxJ]*ai[k];
+				}
+				int membershipI = membership[maxI];
+				for (int k = 0; k < n; k++) {
+					deltaQ[k][maxJ] = deltaQ[maxJ][k];
+					deltaQ[maxI][k] = 0;
+					deltaQ[k][maxI] = 0;
+					if (membership[k] == membershipI)
+						membership[k] = membership[maxJ];
+				}
+				ai[maxJ] = ai[maxI] + ai[maxJ];
+				ai[maxI] = 0;
+			}
+
+			// Number the communities in order of their first node
+			int[] index = new int[n];
+			Arrays.fill(index, -1);
+			for (int i = 0; i < n; i++) {
+				if (index[membership[i]] < 0)
+					index[membership[i]] = clusterNumber++;
+				membership[i] = index[membership[i]];
+			}
+			modularity = q;
+		}
+	}
+
+	// Build the simplified graph of an undirected network with the given edges
+	static GSimpleGraphData graph(int n, int[][] edges) {
+		List<CyNode> nodes = nodes(n);
+		List<CyEdge> edgeList = new ArrayList<CyEdge>();
+		for (int e = 0; e < edges.length; e++)
+			edgeList.add(edge(e, nodes.get(edges[e][0]), nodes.get(edges[e][1])));
+		return new GSimpleGraphData(NetworkGraph.build(network(nodes, edgeList)), false, true);
+	}
+}
@@ -0,0 +1,118 @@
+package edu.ucsf.rbvi.clusterMaker2.internal.algorithms.networkClusterers.GLay;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class LeidenAlgorithmTest {
+
+	double DELTA = 0.000001;
+
+	@Test
+	public void twoCliquesTest() {
+		// Two 5-cliques, joined by a single edge between nodes 4 and 5
+		int[][] edges = new int[21][];
+		int e = 0;
+		for (int clique = 0; clique < 2; clique++) {
+			for (int i = 0; i < 5; i++) {
+				for (int j = i+1; j < 5; j++)
+					edges[e++] = new int[] {5*clique+i, 5*clique+j};
+			}
+		}
+		edges[e++] = new int[] {4, 5};
+
+		LeidenAlgorithm leiden = new LeidenAlgorithm();
+		leiden.execute(graph(10, edges), null);
+		int[] membership = leiden.getMembership();
+
+		assertEquals(2, leiden.getClusterNumber());
+		for (int node = 1; node < 5; node++) {
+			assertEquals(membership[0], membership[node]);
+			assertEquals(membership[5], membership[node+5]);
+		}
+		assertNotEquals(membership[0], membership[5]);
+		// 20 of the 21 edges are inside the cliques, and each clique has a degree of 21
+		assertEquals(20.0/21.0 - 0.5, leiden.getModularity(), DELTA);
+	}
+
+	@Test
+	public void modularityTest() {
+		// Two triangles joined by the edge 2-3: 7 edges, with degrees 2,2,3,3,2,2
+		LeidenAlgorithm.Graph graph = graph(6, new int[][] {{0,1}, {1,2}, {0,2}, {3,4}, {4,5}, {3,5}, {2,3}});
+
+		// 6 of the 7 edges are inside, and each triangle has a degree of 7:
+		// 6/7 - (7*7 + 7*7)/(14*14)
+		assertEquals(6.0/7.0 - 0.5, graph.modularity(new int[] {0, 0, 0, 1, 1, 1}, 1.0), DELTA);
+
+		// A single community: 7/7 - (14*14)/(14*14)
+		assertEquals(0.0, graph.modularity(new int[] {0, 0, 0, 0, 0, 0}, 1.0), DELTA);
+
+		// Each node on its own: 0 - (4+4+9+9+4+4)/196
+		assertEquals(-34.0/196.0, graph.modularity(new int[] {0, 1, 2, 3, 4, 5}, 1.0), DELTA);
+
+		// With a resolution of 2 the expected part doubles
+		assertEquals(6.0/7.0 - 1.0, graph.modularity(new int[] {0, 0, 0, 1, 1, 1}, 2.0), DELTA);
+	}
+
+	@Test
+	public void poolSizeTest() throws Exception {
+		// A planted partition: 8 groups of 50 nodes, denser inside the groups
+		int n = 400;
+		Random random = new Random(7);
+		int[][] edges = new int[n*n][];
+		int e = 0;
+		for (int i = 0; i < n; i++) {
+			for (int j = i+1; j < n; j++) {
+				double p = (i/50 == j/50) ? 0.2 : 0.01;
+				if (random.nextDouble() < p)
+					edges[e++] = new int[] {i, j};
+			}
+		}
+		LeidenAlgorithm.Graph graph = graph(n, Arrays.copyOf(edges, e));
+
+		int[] expected = null;
+		double expectedModularity = 0.0;
+		for (int threads: new int[] {1, 2, 3, 8}) {
+			LeidenAlgorithm leiden = new LeidenAlgorithm(1.0, 2, 1234);
+			ForkJoinPool pool = new ForkJoinPool(threads);
+			try {
+				pool.submit(() -> leiden.execute(graph, null)).get();
+			} finally {
+				pool.shutdown();
+			}
+			if (expected == null) {
+				expected = leiden.getMembership();
+				expectedModularity = leiden.getModularity();
+			} else {
+				assertArrayEquals(expected, leiden.getMembership());
+				assertEquals(expectedModularity, leiden.getModularity(), 0.0);
+			}
+		}
+		assertTrue(expectedModularity > 0.5);
+	}
+
+	// Build an unweighted graph from its edges
+	static LeidenAlgorithm.Graph graph(int n, int[][] edges) {
+		int[] ptr = new int[n+1];
+		for (int[] edge: edges) {
+			ptr[edge[0]+1]++;
+			ptr[edge[1]+1]++;
+		}
+		for (int i = 0; i < n; i++)
+			ptr[i+1] += ptr[i];
+		int[] adj = new int[ptr[n]];
+		int[] fill = Arrays.copyOf(ptr, n);
+		for (int[] edge: edges) {
+			adj[fill[edge[0]]++] = edge[1];
+			adj[fill[edge[1]]++] = edge[0];
+		}
+		double[] w = new double[adj.length];
+		Arrays.fill(w, 1.0);
+		double[] nodeWeight = new double[n];
+		for (int i = 0; i < n; i++)
+			nodeWeight[i] = ptr[i+1] - ptr[i];
+		return new LeidenAlgorithm.Graph(n, ptr, adj, w, nodeWeight, adj.length);
+	}
+}
@@ -0,0 +1,188 @@
+package edu.ucsf.rbvi.clusterMaker2.internal.algorithms.networkClusterers.MCL;
+
+import java.util.Arrays;
+import java.util.Random;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.matrix.SparseMatrix;
+import edu.ucsf.rbvi.clusterMaker2.internal.api.Matrix;
+
+public class MCLKernelTest {
+	double DELTA = 0.000001;
+
+	@Test
+	public void fusedIterationTest() {
+		Random random = new Random(5);
+		int n = 150;
+		double inflation = 2.0;
+		double threshold = 1e-4;
+		for (int nThreads: new int[] {0, 3}) {
+			Matrix expected = randomMatrix(random, n, 0.05);
+			MCLKernel kernel = new MCLKernel(expected, nThreads);
+
+			// The old path: multiply, normalize, inflate, threshold and normalize
+			normalize(expected, threshold, false);
+			for (int iteration = 0; iteration < 4; iteration++) {
+				expected = expected.ops().multiplyMatrix(expected);
+				normalize(expected, threshold, false);
+				expected.ops().powScalar(inflation);
+				normalize(expected, threshold, true);
+				double expectedResidual = 0.0;
+				for (int col = 0; col < n; col++)
+					expectedResidual = Math.max(expectedResidual,
+					                            expected.ops().columnSum(col) - expected.ops().columnSum2(col));
+
+				double residual = kernel.iterate(inflation, threshold);
+				assertEquals(expectedResidual, residual, DELTA);
+				SparseMatrix result = kernel.getMatrix();
+				for (int row = 0; row < n; row++) {
+					for (int col = 0; col < n; col++)
+						assertEquals(expected.doubleValue(row, col), result.doubleValue(row, col), DELTA);
+				}
+			}
+			kernel.shutdown();
+		}
+	}
+
+	@Test
+	public void selectionAfterRecoveryTest() {
+		// mcl's usual settings have R larger than S, so recovery puts back
+		// more than selection allows.  No column may end up with more than S.
+		Random random = new Random(7);
+		int n = 60;
+		Matrix matrix = randomMatrix(random, n, 0.5);
+		for (int nThreads: new int[] {0, 3}) {
+			MCLKernel kernel = new MCLKernel(matrix, nThreads);
+			kernel.setPruning(0.05, 4, 10, 90.0);
+			kernel.iterate(1.0, 0.0);
+			SparseMatrix result = kernel.getMatrix();
+			double[][] square = square(matrix);
+			for (int col = 0; col < n; col++) {
+				int count = 0;
+				for (int row = 0; row < n; row++) {
+					if (result.doubleValue(row, col) != 0.0)
+						count++;
+				}
+				assertTrue("column "+col+" has "+count+" values", count <= 4);
+			}
+			checkPruning(square, result, 0.05, 4, 10, 90.0);
+			kernel.shutdown();
+		}
+	}
+
+	@Test
+	public void recoveryMassTest() {
+		Random random = new Random(9);
+		int n = 60;
+		Matrix matrix = randomMatrix(random, n, 0.15);
+		double[][] square = square(matrix);
+		// Recovery only happens in the columns where the cutoff left less
+		// than the percentage of the mass
+		int[] recovered = new int[3];
+		double[] percents = {0.0, 50.0, 100.0};
+		for (int i = 0; i < percents.length; i++) {
+			MCLKernel kernel = new MCLKernel(matrix, 0);
+			kernel.setPruning(0.03, 0, 10, percents[i]);
+			kernel.iterate(1.0, 0.0);
+			recovered[i] = checkPruning(square, kernel.getMatrix(), 0.03, 0, 10, percents[i]);
+			kernel.shutdown();
+		}
+		assertEquals(0, recovered[0]);
+		assertTrue(recovered[1] > 0);
+		assertTrue(recovered[2] > recovered[1]);
+	}
+
+	// Check each column of the result against the pruning done by hand, in mcl's
+	// order, and return the number of columns that were recovered
+	private int checkPruning(double[][] square, Matrix result, double cutoff,
+	                          int selection, int recovery, double percent) {
+		int n = square.length;
+		int recovered = 0;
+		for (int col = 0; col < n; col++) {
+			double sum = 0.0;
+			for (int row = 0; row < n; row++)
+				sum += square[row][col];
+
+			// The rows in decreasing order of value
+			Integer[] order = new Integer[n];
+			for (int row = 0; row < n; row++)
+				order[row] = row;
+			final int c = col;
+			Arrays.sort(order, (a, b) -> Double.compare(square[b][c], square[a][c]));
+			int nonZero = 0;
+			while (nonZero < n && square[order[nonZero]][col] != 0.0)
+				nonZero++;
+
+			int kept = 0;
+			double mass = 0.0;
+			while (kept < nonZero && square[order[kept]][col] >= cutoff*sum)
+				mass += square[order[kept++]][col];
+			if (kept < recovery && kept < nonZero && mass < percent/100.0*sum) {
+				kept = Math.min(recovery, nonZero);
+				recovered++;
+			}
+			if (selection > 0 && kept > selection)
+				kept = selection;
+
+			double keptSum = 0.0;
+			for (int i = 0; i < kept; i++)
+				keptSum += square[order[i]][col];
+			double[] expected = new double[n];
+			for (int i = 0; i < kept; i++)
+				expected[order[i]] = square[order[i]][col]/keptSum;
+			for (int row = 0; row < n; row++)
+				assertEquals(expected[row], result.doubleValue(row, col), DELTA);
+		}
+		return recovered;
+	}
+
+	// M*M for the column normalized matrix
+	private double[][] square(Matrix matrix) {
+		int n = matrix.nRows();
+		double[][] m = new double[n][n];
+		for (int col = 0; col < n; col++) {
+			double sum = matrix.ops().columnSum(col);
+			for (int row = 0; row < n; row++)
+				m[row][col] = matrix.doubleValue(row, col)/sum;
+		}
+		double[][] result = new double[n][n];
+		for (int i = 0; i < n; i++) {
+			for (int k = 0; k < n; k++) {
+				if (m[i][k] == 0.0) continue;
+				for (int j = 0; j < n; j++)
+					result[i][j] += m[i][k]*m[k][j];
+			}
+		}
+		return result;
+	}
+
+	// A random symmetric matrix with self-loops
+	private Matrix randomMatrix(Random random, int n, double density) {
+		SparseMatrix matrix = new SparseMatrix(n, n);
+		for (int i = 0; i < n; i++) {
+			matrix.setValue(i, i, 1.0);
+			for (int j = i+1; j < n; j++) {
+				if (random.nextDouble() < density) {
+					double v = random.nextDouble();
+					matrix.setValue(i, j, v);
+					matrix.setValue(j, i, v);
+				}
+			}
+		}
+		return matrix;
+	}
+
+	// The normalization the matrix based MCL iteration did
+	private void normalize(Matrix matrix, double threshold, boolean prune) {
+		if (prune)
+			matrix.ops().threshold(threshold);
+		for (int col = 0; col < matrix.nColumns(); col++) {
+			double sum = matrix.ops().columnSum(col);
+			if (sum == 0.0)
+				matrix.setValue(col, col, 1.0);
+			else
+				matrix.ops().divideScalarColumn(col, sum);
+		}
+	}
+}
@@ -0,0 +1,104 @@
+package edu.ucsf.rbvi.clusterMaker2.internal.algorithms.networkClusterers.MCODE;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import org.cytoscape.model.CyEdge;
+import org.cytoscape.model.CyNode;
+import org.cytoscape.model.subnetwork.CySubNetwork;
+
+import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.NetworkGraph;
+import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.NodeCluster;
+import static edu.ucsf.rbvi.clusterMaker2.internal.algorithms.TestNetworks.*;
+
+public class MCODEAlgorithmTest {
+
+	double DELTA = 0.000001;
+	String NETWORK = "MCODEAlgorithmTest";
+
+	@Test
+	public void sweepTest() {
+		sweep(false);
+	}
+
+	@Test
+	public void sweepWithLoopsTest() {
+		sweep(true);
+	}
+
+	// The scores found by sweepClusters for each setting are those that
+	// findClusters finds with the same setting
+	private void sweep(boolean includeLoops) {
+		CySubNetwork network = plantedNetwork(new Random(includeLoops ? 5 : 3));
+		NetworkGraph graph = NetworkGraph.build(network);
+
+		MCODEParameterSet base = new MCODEParameterSet();
+		base.setIncludeLoops(includeLoops);
+		List<MCODEParameterSet> settings = new ArrayList<MCODEParameterSet>();
+		for (double cutoff: new double[] {0.0, 0.2, 0.5}) {
+			for (int kCore: new int[] {0, 2, 4}) {
+				for (int depth: new int[] {1, 100}) {
+					for (boolean haircut: new boolean[] {false, true}) {
+						for (boolean fluff: new boolean[] {false, true}) {
+							MCODEParameterSet setting = base.copy();
+							setting.setNodeScoreCutoff(cutoff);
+							setting.setKCore(kCore);
+							setting.setMaxDepthFromStart(depth);
+							setting.setHaircut(haircut);
+							setting.setFluff(fluff);
+							settings.add(setting);
+						}
+					}
+				}
+			}
+		}
+
+		MCODECurrentParameters.getInstance().setParams(base, "sweep", NETWORK);
+		MCODEAlgorithm sweep = new MCODEAlgorithm(NETWORK, null);
+		sweep.scoreGraph(network, graph, 1);
+		List<MCODESweepResults.Setting> results = sweep.sweepClusters(1, settings);
+		assertEquals(settings.size(), results.size());
+
+		int withClusters = 0;
+		for (int s = 0; s < settings.size(); s++) {
+			MCODECurrentParameters.getInstance().setParams(settings.get(s), "find", NETWORK);
+			MCODEAlgorithm find = new MCODEAlgorithm(NETWORK, null);
+			find.scoreGraph(network, graph, 1);
+			List<Double> scores = new ArrayList<Double>();
+			for (NodeCluster cluster: find.findClusters(network, 1))
+				scores.add(cluster.getClusterScore());
+			Collections.sort(scores, Collections.reverseOrder());
+
+			List<Double> swept = results.get(s).getScores();
+			assertEquals(results.get(s).toString(), scores.size(), swept.size());
+			for (int i = 0; i < scores.size(); i++)
+				assertEquals(results.get(s).toString(), scores.get(i), swept.get(i), DELTA);
+			if (!scores.isEmpty())
+				withClusters++;
+		}
+		assertTrue(withClusters > 0);
+	}
+
+	// Four groups of 12 nodes, dense inside the groups, with some self-loops
+	// and repeated edges
+	private CySubNetwork plantedNetwork(Random random) {
+		int n = 48;
+		List<CyNode> nodes = nodes(n);
+		List<CyEdge> edges = new ArrayList<CyEdge>();
+		for (int i = 0; i < n; i++) {
+			for (int j = i; j < n; j++) {
+				double p = i == j ? 0.05 : (i/12 == j/12 ? 0.5 : 0.03);
+				if (random.nextDouble() >= p)
+					continue;
+				edges.add(edge(edges.size(), nodes.get(i), nodes.get(j)));
+				if (random.nextDouble() < 0.1)
+					edges.add(edge(edges.size(), nodes.get(j), nodes.get(i)));
+			}
+		}
+		return network(nodes, edges);
+	}
+}
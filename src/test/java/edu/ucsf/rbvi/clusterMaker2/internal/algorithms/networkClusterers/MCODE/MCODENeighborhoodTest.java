@@ -0,0 +1,110 @@
+package edu.ucsf.rbvi.clusterMaker2.internal.algorithms.networkClusterers.MCODE;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import org.cytoscape.model.CyEdge;
+import org.cytoscape.model.CyNode;
+
+import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.NetworkGraph;
+import static edu.ucsf.rbvi.clusterMaker2.internal.algorithms.TestNetworks.*;
+
+public class MCODENeighborhoodTest {
+
+	@Test
+	public void coreNumbersTest() {
+		Random random = new Random(11);
+		for (int trial = 0; trial < 20; trial++) {
+			// A random graph with some self-loops and repeated edges
+			int n = 30;
+			List<CyNode> nodes = nodes(n);
+			List<CyEdge> edges = new ArrayList<CyEdge>();
+			double p = 0.05 + 0.3*random.nextDouble();
+			for (int i = 0; i < n; i++) {
+				for (int j = i; j < n; j++) {
+					if (random.nextDouble() >= (i == j ? 0.2 : p))
+						continue;
+					edges.add(edge(edges.size(), nodes.get(i), nodes.get(j)));
+					if (random.nextDouble() < 0.2)
+						edges.add(edge(edges.size(), nodes.get(j), nodes.get(i)));
+				}
+			}
+			NetworkGraph graph = NetworkGraph.build(network(nodes, edges));
+
+			for (boolean includeLoops: new boolean[] {false, true}) {
+				// The neighborhood of each node
+				for (int node = 0; node < n; node++)
+					checkCores(new MCODENeighborhood(graph, node), includeLoops);
+
+				// A random subset of the nodes, with repeats
+				int[] subset = new int[n];
+				for (int i = 0; i < n; i++)
+					subset[i] = random.nextInt(n);
+				checkCores(new MCODENeighborhood(graph, subset), includeLoops);
+			}
+		}
+	}
+
+	@Test
+	public void selfLoopTest() {
+		// A triangle, one node of which has a self-loop, and a node with only a self-loop
+		List<CyNode> nodes = nodes(4);
+		List<CyEdge> edges = new ArrayList<CyEdge>();
+		edges.add(edge(0, nodes.get(0), nodes.get(1)));
+		edges.add(edge(1, nodes.get(1), nodes.get(2)));
+		edges.add(edge(2, nodes.get(2), nodes.get(0)));
+		edges.add(edge(3, nodes.get(0), nodes.get(0)));
+		edges.add(edge(4, nodes.get(3), nodes.get(3)));
+		NetworkGraph graph = NetworkGraph.build(network(nodes, edges));
+		MCODENeighborhood all = new MCODENeighborhood(graph, new int[] {0, 1, 2, 3});
+
+		assertArrayEquals(new int[] {2, 2, 2, 0}, all.coreNumbers(false));
+		assertArrayEquals(new int[] {2, 2, 2, 1}, all.coreNumbers(true));
+		assertEquals(3, all.edgeCount(null, 0, false));
+		assertEquals(5, all.edgeCount(null, 0, true));
+	}
+
+	// Compare the core numbers with those found by peeling the k-cores one at a time
+	private static void checkCores(MCODENeighborhood neighborhood, boolean includeLoops) {
+		int size = neighborhood.size();
+		int[] expected = new int[size];
+		boolean[] alive = new boolean[size];
+		for (int k = 1; ; k++) {
+			Arrays.fill(alive, true);
+			boolean removed = true;
+			while (removed) {
+				removed = false;
+				for (int p = 0; p < size; p++) {
+					if (alive[p] && degree(neighborhood, alive, p, includeLoops) < k) {
+						alive[p] = false;
+						removed = true;
+					}
+				}
+			}
+			boolean any = false;
+			for (int p = 0; p < size; p++) {
+				if (alive[p]) {
+					expected[p] = k;
+					any = true;
+				}
+			}
+			if (!any)
+				break;
+		}
+		assertArrayEquals(expected, neighborhood.coreNumbers(includeLoops));
+	}
+
+	// The degree of a member among the members that are still alive
+	private static int degree(MCODENeighborhood neighborhood, boolean[] alive, int p, boolean includeLoops) {
+		int degree = includeLoops && neighborhood.loops[p] ? 1 : 0;
+		for (int i = neighborhood.ptr[p]; i < neighborhood.ptr[p+1]; i++) {
+			if (alive[neighborhood.adj[i]])
+				degree++;
+		}
+		return degree;
+	}
+}